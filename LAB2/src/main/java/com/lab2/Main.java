@@ -1,14 +1,493 @@
 package com.lab2;
 
+import com.lab2.common.ClientFilterParameters;
+import com.lab2.common.CourierFilterParameters;
 import com.lab2.controller.Controller;
+import com.lab2.diagnostics.NetworkSimulation;
+import com.lab2.diagnostics.RoundTripStatistics;
+import com.lab2.diagnostics.StatementBudgetCheck;
+import com.lab2.diagnostics.VersionConflictCheck;
+import com.lab2.exporter.StreamingExporter;
+import com.lab2.generator.SyntheticDataGenerator;
+import com.lab2.importer.OrderFeedImporter;
+import com.lab2.journal.JournalComparison;
+import com.lab2.journal.JournalEntry;
+import com.lab2.journal.JournalReader;
+import com.lab2.journal.JournalReplayer;
+import com.lab2.journal.JournalWriter;
+import com.lab2.maintenance.ClientPartitionManager;
+import com.lab2.maintenance.IndexAdvisor;
+import com.lab2.maintenance.OrderPartitionManager;
+import com.lab2.maintenance.RetentionPurger;
+import com.lab2.model.Model;
+import com.lab2.server.ApiServer;
+import com.lab2.snapshot.DatasetSnapshot;
+import com.lab2.snapshot.SnapshotWarmStart;
+import com.lab2.snapshot.SnapshotWriter;
+import com.lab2.util.Error;
+import com.lab2.util.Result;
+import com.lab2.workload.ModelWorkloadTarget;
+import shared.workload.WorkloadDriver;
+import shared.workload.WorkloadMix;
+import shared.workload.WorkloadPrinter;
+import shared.workload.WorkloadTarget;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
 
 public class Main {
     public static void main(String[] args) {
         try {
-            Controller controller = new Controller();
-            controller.start();
+            if (args.length == 0) {
+                Controller controller = new Controller();
+                controller.start();
+                return;
+            }
+
+            String[] options = Arrays.copyOfRange(args, 1, args.length);
+            switch (args[0]) {
+                case "partition-orders" -> partitionOrders(options);
+                case "partition-clients" -> partitionClients(options);
+                case "purge-orders" -> purgeOrders(options);
+                case "advise-indexes" -> adviseIndexes(options);
+                case "generate" -> generate(options);
+                case "import-orders" -> importOrders(options);
+                case "export" -> export(options);
+                case "snapshot" -> snapshot(options);
+                case "serve" -> serve(options);
+                case "workload" -> workload(options);
+                case "journal" -> journal(options);
+                case "budgets" -> budgets();
+                case "version-check" -> versionCheck();
+                default -> System.err.println("Unknown command: " + args[0]);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+        } catch (DateTimeParseException e) {
+            System.err.println("Invalid date: " + e.getParsedString());
         } catch (IllegalStateException e) {
             System.err.println("Fatal Error: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    // partition-orders migrate [months ahead]
+    // partition-orders maintain [months ahead] [months to retain] [drop]
+    // partition-orders check [yyyy-mm-dd]
+    private static void partitionOrders(String[] options) throws IllegalStateException {
+        String action = options.length > 0 ? options[0] : "check";
+        int monthsAhead = options.length > 1 && !action.equals("check") ? Integer.parseInt(options[1]) : 3;
+
+        Model model = new Model();
+        try (Connection connection = model.openConnection()) {
+            OrderPartitionManager manager = new OrderPartitionManager(connection);
+            switch (action) {
+                case "migrate" -> {
+                    manager.migrate(monthsAhead);
+                    System.out.println("\"Order\" is partitioned by month.");
+                }
+                case "maintain" -> {
+                    List<String> created = manager.ensureFuturePartitions(monthsAhead);
+                    System.out.println("Created partitions: " + created);
+                    if (options.length > 2) {
+                        YearMonth cutoff = YearMonth.now().minusMonths(Integer.parseInt(options[2]));
+                        boolean drop = options.length > 3 && options[3].equals("drop");
+                        System.out.println((drop ? "Dropped" : "Detached") + " partitions: " + manager.retireBefore(cutoff, drop));
+                    }
+                }
+                case "check" -> {
+                    LocalDate since = options.length > 1 ? LocalDate.parse(options[1]) : LocalDate.now().withDayOfMonth(1);
+                    for (OrderPartitionManager.PruningReport report : manager.checkPruning(since.atStartOfDay())) {
+                        System.out.printf("%-24s scans %d of %d partitions%s%n", report.query(), report.scannedPartitions(),
+                            report.totalPartitions(), report.isPruned() ? "" : " (no pruning)");
+                    }
+                }
+                default -> System.err.println("Unknown partition-orders action: " + action);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to close the maintenance connection.", e);
+        }
+    }
+
+    // partition-clients migrate [partitions] [chunk size] [pause ms]
+    // partition-clients check [email]
+    private static void partitionClients(String[] options) throws IllegalStateException {
+        String action = options.length > 0 ? options[0] : "check";
+
+        Model model = new Model();
+        try (Connection connection = model.openConnection()) {
+            ClientPartitionManager manager = new ClientPartitionManager(connection);
+            switch (action) {
+                case "migrate" -> {
+                    int partitions = options.length > 1 ? Integer.parseInt(options[1]) : 8;
+                    int chunkSize = options.length > 2 ? Integer.parseInt(options[2]) : 1000;
+                    long pauseMillis = options.length > 3 ? Long.parseLong(options[3]) : 0;
+                    long copied = manager.migrate(partitions, chunkSize, pauseMillis,
+                        total -> System.out.print("\rCopied clients: " + total));
+                    System.out.println("\rCopied clients: " + copied);
+                    System.out.println(manager.isPartitioned()
+                        ? "\"Client\" is hash partitioned by email." : "\"Client\" is not partitioned.");
+                }
+                case "check" -> {
+                    String email = options.length > 1 ? options[1] : "someone@example.com";
+                    if (!manager.isPartitioned()) {
+                        System.out.println("\"Client\" is not partitioned.");
+                        return;
+                    }
+                    List<String> scanned = manager.explainLookup(email);
+                    System.out.println("Lookup by email scans " + scanned + (scanned.size() == 1 ? "" : " (no pruning)"));
+                }
+                default -> System.err.println("Unknown partition-clients action: " + action);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to close the maintenance connection.", e);
+        }
+    }
+
+    // purge-orders <yyyy-mm-dd> [chunk size] [pause ms]
+    private static void purgeOrders(String[] options) throws IllegalStateException {
+        if (options.length == 0) {
+            System.err.println("A cutoff date is required.");
+            return;
+        }
+        LocalDate cutoff = LocalDate.parse(options[0]);
+        int chunkSize = options.length > 1 ? Integer.parseInt(options[1]) : 500;
+        long pauseMillis = options.length > 2 ? Long.parseLong(options[2]) : 100;
+
+        Model model = new Model();
+        RetentionPurger.Report report = model.purgeOrdersBefore(cutoff, chunkSize, pauseMillis,
+            total -> System.out.print("\rDeleted orders: " + total));
+        System.out.println("\rDeleted orders: " + report.orders() + ", meals: " + report.meals());
+        if (report.skipped() > 0) {
+            System.out.println("Skipped orders that were locked or changed meanwhile: " + report.skipped());
+        }
+    }
+
+    // advise-indexes [trial]
+    private static void adviseIndexes(String[] options) throws IllegalStateException {
+        boolean allowTrialIndexes = options.length > 0 && options[0].equals("trial");
+
+        Model model = new Model();
+        try (Connection connection = model.openConnection()) {
+            IndexAdvisor.Report report = new IndexAdvisor(connection, allowTrialIndexes).advise(readOperations(model));
+
+            System.out.println("Analysed statements: " + String.join(", ", report.workload()));
+
+            System.out.println();
+            System.out.println("Unused indexes:");
+            for (IndexAdvisor.UnusedIndex index : report.unusedIndexes()) {
+                System.out.printf("  %s on %s: %d scans, %d bytes%s%n    %s;%n", index.index(), index.table(), index.scans(),
+                    index.sizeBytes(), index.usedByWorkload() ? "" : ", not used by any analysed statement", index.dropStatement());
+            }
+
+            System.out.println();
+            System.out.println("Recommended indexes:");
+            for (IndexAdvisor.Recommendation recommendation : report.recommendations()) {
+                String benefit = recommendation.isEstimated()
+                    ? String.format("workload cost %.2f -> %.2f", recommendation.costBefore(), recommendation.costAfter())
+                    : "benefit not estimated";
+                System.out.printf("  %s (%s; %s)%n    %s;%n", recommendation.reason(), String.join(", ", recommendation.queries()),
+                    benefit, recommendation.createStatement());
+            }
+
+            System.out.println();
+            report.notes().forEach(note -> System.out.println("Note: " + note));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to close the maintenance connection.", e);
+        }
+    }
+
+    // The read operations of the Model with keys of existing rows, a missing key still issues the same statements
+    private static Map<String, Runnable> readOperations(Model model) throws IllegalStateException {
+        WorkloadTarget.Keys keys = new ModelWorkloadTarget(model).loadKeys();
+        String email = keys.clientEmails().isEmpty() ? "" : keys.clientEmails().get(0);
+        String phone = keys.courierPhones().isEmpty() ? "" : keys.courierPhones().get(0);
+        long orderID = keys.orderIDs().isEmpty() ? 0 : keys.orderIDs().get(0);
+        LocalDate monthAgo = LocalDate.now().minusMonths(1);
+
+        // Verification adds the exact counts of the ranked clients to the leaderboard
+        model.setClientRankingVerification(true);
+        Map<String, Runnable> operations = new LinkedHashMap<>();
+        operations.put("getClient", () -> model.getClient(email));
+        operations.put("getCourier", () -> model.getCourier(phone));
+        operations.put("getOrder", () -> model.getOrder(orderID));
+        operations.put("getMeal", () -> model.getMeal(keys.maxMealID()));
+        operations.put("getClientsWithMostOrders", () -> model.getClientsWithMostOrders(10));
+        operations.put("getCouriersWithMostOrders", () -> model.getCouriersWithMostOrders(10));
+        operations.put("fetchClientAnalytics", () -> model.fetchClientAnalytics(
+            new ClientFilterParameters(monthAgo + " 00:00:00", 100, "%")));
+        operations.put("fetchCourierAnalytics", () -> model.fetchCourierAnalytics(new CourierFilterParameters(monthAgo.toString(), 4)));
+        return operations;
+    }
+
+    // generate <clients> <couriers> <orders> [seed] [threads] [until yyyy-mm-dd] [days]
+    private static void generate(String[] options) throws IllegalStateException {
+        if (options.length < 3) {
+            System.err.println("Usage: generate <clients> <couriers> <orders> [seed] [threads] [until yyyy-mm-dd] [days]");
+            return;
+        }
+
+        long seed = options.length > 3 ? Long.parseLong(options[3]) : 42;
+        int threads = options.length > 4 ? Integer.parseInt(options[4]) : Runtime.getRuntime().availableProcessors();
+        LocalDate until = options.length > 5 ? LocalDate.parse(options[5]) : LocalDate.now();
+        int days = options.length > 6 ? Integer.parseInt(options[6]) : 730;
+
+        Model model = new Model();
+        SyntheticDataGenerator generator = new SyntheticDataGenerator(model::openConnection, seed, threads, until, days);
+        SyntheticDataGenerator.Summary summary = generator.generate(Long.parseLong(options[0]), Long.parseLong(options[1]),
+            Long.parseLong(options[2]), rows -> System.out.print("\rRows written: " + rows));
+
+        System.out.println();
+        System.out.printf("Generated %d clients, %d couriers, %d orders and %d meals in %d ms (%.0f rows/s)%n",
+            summary.clients(), summary.couriers(), summary.orders(), summary.meals(), summary.elapsed().toMillis(),
+            summary.rows() / Math.max(0.001, summary.elapsed().toNanos() / 1e9));
+    }
+
+    // import-orders <feed> [rejects file] [parsers] [restart]
+    private static void importOrders(String[] options) throws IllegalStateException {
+        if (options.length < 1) {
+            System.err.println("Usage: import-orders <feed> [rejects file] [parsers] [restart]");
+            return;
+        }
+
+        Path feed = Path.of(options[0]);
+        Path rejects = options.length > 1 ? Path.of(options[1]) : Path.of(options[0] + ".rejects.csv");
+        int parsers = options.length > 2 ? Integer.parseInt(options[2]) : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        boolean restart = options.length > 3 && options[3].equals("restart");
+
+        Model model = new Model();
+        OrderFeedImporter importer = new OrderFeedImporter(model::openConnection, model::validateOrder, model::validateMeal, parsers);
+        OrderFeedImporter.Progress result = importer.importFile(feed, rejects, restart,
+            progress -> System.out.printf("\r%.1f%% (%d lines, %.0f lines/s)", progress.percent(), progress.lines(), progress.linesPerSecond()));
+
+        System.out.println();
+        System.out.printf("Imported %d orders and %d meals from %d lines in %d ms, %d rejected lines written to %s%n",
+            result.orders(), result.meals(), result.lines(), result.elapsed().toMillis(), result.rejects(), rejects);
+    }
+
+    // export <Client|Courier|Order|Meal> <file.csv|file.jsonl[.gz]>
+    // export client-analytics <file> <yyyy-mm-dd hh:mm:ss> <max meal price> [email pattern]
+    // export courier-analytics <file> <yyyy-mm-dd> <min rating>
+    private static void export(String[] options) throws IllegalStateException {
+        if (options.length < 2) {
+            System.err.println("Usage: export <Client|Courier|Order|Meal|client-analytics|courier-analytics> <file.csv|file.jsonl[.gz]> [filters]");
+            return;
+        }
+
+        StreamingExporter.Target target;
+        try {
+            target = StreamingExporter.Target.forFile(Path.of(options[1]));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        Model model = new Model();
+        StreamingExporter exporter = new StreamingExporter(model, 10_000);
+        LongConsumer progress = rows -> System.out.print("\rRows exported: " + rows);
+        Result<Error, Long> result = switch (options[0]) {
+            case "client-analytics" -> exporter.exportClientAnalytics(new ClientFilterParameters(
+                options.length > 2 ? options[2] : "1970-01-01 00:00:00",
+                options.length > 3 ? Integer.parseInt(options[3]) : Integer.MAX_VALUE,
+                options.length > 4 ? options[4] : "%"), target, progress);
+            case "courier-analytics" -> exporter.exportCourierAnalytics(new CourierFilterParameters(
+                options.length > 2 ? options[2] : "1970-01-01",
+                options.length > 3 ? Integer.parseInt(options[3]) : 1), target, progress);
+            default -> exporter.exportTable(options[0], target, progress);
+        };
+
+        System.out.println();
+        switch (result) {
+            case Result.Success<Error, Long> success -> System.out.println("Exported " + success.value() + " rows to " + target.file());
+            case Result.Failure<Error, Long> failure -> System.err.println("Export failed: " + failure.error());
+        }
+    }
+
+    // snapshot write <file>
+    // snapshot load <file>
+    private static void snapshot(String[] options) throws IllegalStateException {
+        if (options.length < 2) {
+            System.err.println("Usage: snapshot <write|load> <file>");
+            return;
+        }
+
+        Path file = Path.of(options[1]);
+        Model model = new Model();
+        try (Connection connection = model.openConnection()) {
+            switch (options[0]) {
+                case "write" -> {
+                    SnapshotWriter.Info info = new SnapshotWriter(connection).write(file);
+                    System.out.printf("Wrote %s: %s rows, %d strings, %d bytes, high-water mark %d, in %d ms%n", info.file(), info.rows(),
+                        info.strings(), info.sizeBytes(), info.highWaterMark(), info.elapsed().toMillis());
+                }
+                case "load" -> {
+                    long startTime = System.nanoTime();
+                    try (DatasetSnapshot snapshot = DatasetSnapshot.open(file)) {
+                        System.out.printf("Mapped %s from %s in %.2f ms%n", file, snapshot.getCreatedAt(), (System.nanoTime() - startTime) / 1e6);
+                        SnapshotWarmStart.Rankings rankings = new SnapshotWarmStart(connection).load(snapshot, 5).orElse(null);
+                        if (rankings == null) {
+                            System.out.println("The snapshot is too old to catch up with the database.");
+                            return;
+                        }
+
+                        System.out.printf("Caught up in %d ms, changed rows %s, deleted rows %s%n", rankings.elapsed().toMillis(),
+                            rankings.changedRows(), rankings.deletedRows());
+                        rankings.courierOrderCounts().stream().limit(5).forEach(courier ->
+                            System.out.println("  courier " + courier.getLeft().getPhone() + ": " + courier.getRight() + " orders"));
+                        rankings.clientsWithMostOrders().forEach(client ->
+                            System.out.println("  client " + client.getLeft().getEmail() + ": " + client.getRight() + " orders"));
+                    } catch (IOException e) {
+                        System.err.println("Cannot read the snapshot: " + e.getMessage());
+                    }
+                }
+                default -> System.err.println("Unknown snapshot action: " + options[0]);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to close the maintenance connection.", e);
+        }
+    }
+
+    // serve [port] [host]
+    // Raise -Dhibernate.connection.pool_size (20 by default) to let more requests reach the database at once
+    private static void serve(String[] options) throws IllegalStateException {
+        int port = options.length > 0 ? Integer.parseInt(options[0]) : 8080;
+        String host = options.length > 1 ? options[1] : "0.0.0.0";
+
+        ApiServer server = new ApiServer(new Model(), new InetSocketAddress(host, port));
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        server.start();
+        System.out.println("Serving the API on http://" + host + ":" + server.getAddress().getPort());
+    }
+
+    // workload <seconds> [ops/s|max] [clients] [mix] [zipf exponent] [seed] [warm-up seconds]
+    // The mix is written as place=10,client=40,courier=20,rate=20,leaderboard=5,analytics=5. Clients default to the
+    // connection pool size, more of them fail for lack of connections instead of waiting.
+    // Run with -Dnetwork.latency=<ms> to see how each operation degrades over a real network (see NetworkSimulation).
+    private static void workload(String[] options) throws IllegalStateException {
+        if (options.length < 1) {
+            System.err.println("Usage: workload <seconds> [ops/s|max] [clients] [mix] [zipf exponent] [seed] [warm-up seconds]");
+            return;
+        }
+
+        Model model = new Model();
+        ModelWorkloadTarget target = new ModelWorkloadTarget(model);
+        WorkloadDriver.Settings settings;
+        try {
+            settings = new WorkloadDriver.Settings(
+                Duration.ofSeconds(Long.parseLong(options[0])),
+                Duration.ofSeconds(options.length > 6 ? Long.parseLong(options[6]) : 5),
+                options.length > 1 && !options[1].equals("max") ? Double.parseDouble(options[1]) : 0,
+                options.length > 2 ? Integer.parseInt(options[2]) : target.getMaxConcurrency(),
+                options.length > 3 ? WorkloadMix.parse(options[3]) : WorkloadMix.DEFAULT,
+                options.length > 4 ? Double.parseDouble(options[4]) : 0.99,
+                options.length > 5 ? Long.parseLong(options[5]) : 42,
+                Duration.ofSeconds(1));
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        WorkloadPrinter printer = new WorkloadPrinter(System.out);
+        printer.printSettings(settings);
+        WorkloadDriver.Report report = new WorkloadDriver(target, settings).run(printer::printInterval);
+        printer.printReport(report);
+        if (NetworkSimulation.isActive()) {
+            System.out.println();
+            RoundTripStatistics.print(System.out);
+        }
+    }
+
+    // journal replay <journal> [speed|max] [concurrency] [result journal]
+    // journal compare <baseline journal> <candidate journal>
+    // journal print <journal>
+    // Record a journal with -Djournal.record=<file>. A replay against the database the session changed meets its
+    // own rows, load a snapshot taken before the recording first.
+    private static void journal(String[] options) throws IllegalStateException {
+        if (options.length < 2 || options[0].equals("compare") && options.length < 3) {
+            System.err.println("Usage: journal replay <journal> [speed|max] [concurrency] [result journal]");
+            System.err.println("       journal compare <baseline journal> <candidate journal>");
+            System.err.println("       journal print <journal>");
+            return;
+        }
+
+        Path journal = Path.of(options[1]);
+        try {
+            switch (options[0]) {
+                case "replay" -> {
+                    JournalReplayer replayer = new JournalReplayer(new Model(),
+                        options.length > 2 && !options[2].equals("max") ? Double.parseDouble(options[2]) : 0,
+                        options.length > 3 ? Integer.parseInt(options[3]) : 1);
+                    Path results = options.length > 4 ? Path.of(options[4]) : Path.of(options[1] + ".replay");
+                    JournalReplayer.Report report;
+                    try (JournalReader reader = new JournalReader(journal);
+                         JournalWriter writer = new JournalWriter(results, System.currentTimeMillis(), false)) {
+                        report = replayer.replay(reader, writer);
+                    }
+                    System.out.printf("Replayed %d entries in %.1f s, %d failed, results in %s%n", report.entries(),
+                        report.elapsed().toMillis() / 1e3, report.failed(), results);
+                    if (report.lastError() != null) {
+                        System.out.println("Last error: " + report.lastError());
+                    }
+                    System.out.println();
+                    JournalComparison.compare(journal, results).print(System.out);
+                    if (NetworkSimulation.isActive()) {
+                        System.out.println();
+                        RoundTripStatistics.print(System.out);
+                    }
+                }
+                case "compare" -> JournalComparison.compare(journal, Path.of(options[2])).print(System.out);
+                case "print" -> {
+                    try (JournalReader reader = new JournalReader(journal)) {
+                        JournalEntry entry;
+                        while ((entry = reader.next()) != null) {
+                            System.out.println(entry);
+                        }
+                    }
+                }
+                default -> System.err.println("Unknown journal action: " + options[0]);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not use the journal " + journal + ".", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // budgets
+    // Exits with status 1 when an operation is over its statement budget, so a build can run it after the tests
+    private static void budgets() throws IllegalStateException {
+        StatementBudgetCheck check = new StatementBudgetCheck(new Model(), StatementBudgetCheck.DEFAULTS);
+        long violations = StatementBudgetCheck.print(check.run(), System.out);
+        if (violations > 0) {
+            System.out.printf("%d operations are over their budget%n", violations);
+            System.exit(1);
+        }
+    }
+
+    // version-check
+    // Exits with status 1 when an edit based on a stale read is saved instead of refused
+    private static void versionCheck() throws IllegalStateException {
+        List<String> failures = new VersionConflictCheck(new Model()).run();
+        failures.forEach(System.out::println);
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+        System.out.println("Stale edits are refused with a version conflict.");
+    }
+}
@@ -1,27 +1,78 @@
 package com.lab2.controller;
 
 import com.lab2.common.*;
+import com.lab2.diagnostics.DiagnosticsSampler;
+import com.lab2.diagnostics.OperationMetrics;
+import com.lab2.diagnostics.SqlStatistics;
 import com.lab2.dto.*;
 import com.lab2.entity.*;
+import com.lab2.journal.JournalWriter;
+import com.lab2.journal.JournalingModel;
 import com.lab2.model.Model;
 import com.lab2.util.Error;
 import com.lab2.util.Result;
 import com.lab2.util.SQLQueryRuntime;
+import com.lab2.util.StartupTimer;
 import com.lab2.view.View;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.tuple.Pair;
 
 public class Controller {
+    private static final int SQL_STATISTICS_ROWS = 15;
+    private static final long PANEL_REFRESH_SECONDS = 2;
+
     private Model model;
     private View view;
     private Mapper mapper;
+    private CompletableFuture<Optional<Error>> warmStart;
+    private boolean startupTimesShown;
 
     public Controller() throws IllegalStateException {
-        model = new Model();
+        // The diagnostics menu shows what the statements cost, set before the first connection is borrowed
+        SqlStatistics.setEnabled(true);
+        OperationMetrics.setEnabled(true);
+        model = createModel();
         view = new View();
         mapper = new Mapper();
+
+        // Catching up with the snapshot needs the persistence layer, so it runs behind the menu as well
+        String snapshot = System.getProperty("model.snapshot");
+        if (snapshot != null) {
+            warmStart = CompletableFuture.supplyAsync(() -> model.warmStart(Path.of(snapshot)));
+        }
+    }
+
+    // -Djournal.record=<file> records the session for "journal replay", each entry is flushed as it is made
+    private static Model createModel() throws IllegalStateException {
+        String journal = System.getProperty("journal.record");
+        if (journal == null) {
+            return new Model();
+        }
+
+        JournalWriter writer;
+        try {
+            writer = new JournalWriter(Path.of(journal), System.currentTimeMillis(), true);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create the journal " + journal + ".", e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the journal: " + e.getMessage());
+            }
+        }));
+        return new JournalingModel(writer);
     }
 
     public void handleClient() throws IllegalStateException {
@@ -64,6 +115,9 @@ public class Controller {
                                     if (value instanceof Error.ValidationError e) {
                                         view.displayError(e.description());
                                     }
+                                    else if (value instanceof Error.VersionConflictError e) {
+                                        view.displayError("Client '" + e.key() + "' was changed by someone else in the meantime, nothing was saved.");
+                                    }
                                 },
                                 () -> {
                                     view.displayMessage("Client details updated successfully.");
@@ -163,6 +217,9 @@ public class Controller {
                                     if (value instanceof Error.ValidationError e) {
                                         view.displayError(e.description());
                                     }
+                                    else if (value instanceof Error.VersionConflictError e) {
+                                        view.displayError("Courier '" + e.key() + "' was changed by someone else in the meantime, nothing was saved.");
+                                    }
                                 },
                                 () -> {
                                     view.displayMessage("Courier details updated successfully.");
@@ -268,6 +325,9 @@ public class Controller {
                                     if (value instanceof Error.ValidationError e) {
                                         view.displayError(e.description());
                                     }
+                                    else if (value instanceof Error.VersionConflictError e) {
+                                        view.displayError("Meal '" + e.key() + "' was changed by someone else in the meantime, nothing was saved.");
+                                    }
                                 },
                                 () -> {
                                     view.displayMessage("Meal details updated successfully.");
@@ -352,6 +412,9 @@ public class Controller {
                                     if (value instanceof Error.ValidationError e) {
                                         view.displayError(e.description());
                                     }
+                                    else if (value instanceof Error.VersionConflictError e) {
+                                        view.displayError("Order '" + e.key() + "' was changed by someone else in the meantime, nothing was saved.");
+                                    }
                                 },
                                 () -> {
                                     view.displayMessage("Order details updated successfully.");
@@ -429,11 +492,112 @@ public class Controller {
         }
     }
 
+    // Shown once, under the first menu drawn after the first query returned. That query waited for the
+    // bootstrap, so every figure is known by then.
+    private void displayStartupTimes() {
+        if (startupTimesShown || StartupTimer.timeToFirstQuery() < 0) {
+            return;
+        }
+
+        startupTimesShown = true;
+        view.displayStartupTimes(StartupTimer.timeToFirstMenu(), StartupTimer.timeToPersistenceReady(),
+            StartupTimer.timeToFirstQuery(), StartupTimer.bootstrapWait());
+    }
+
+    // Shown once, under the first menu drawn after the warm start finished
+    private void displayWarmStartError() {
+        if (warmStart == null || !warmStart.isDone()) {
+            return;
+        }
+
+        Optional<Error> result;
+        try {
+            result = warmStart.join();
+        } catch (CompletionException e) {
+            result = Optional.of(new Error.OtherError(e.getCause()));
+        }
+        warmStart = null;
+        result.ifPresent(error -> view.displayError("Snapshot not used: " + switch (error) {
+            case Error.ValidationError e -> e.description();
+            case Error.OtherError e -> e.cause().getMessage();
+            default -> error.toString();
+        }));
+    }
+
+    // Redrawn on its own thread until Enter is pressed, the operations it reports on run on other threads.
+    // Rates and cache ratios cover the time the panel is open.
+    private void handleLivePanel() {
+        DiagnosticsSampler sampler;
+        try {
+            sampler = new DiagnosticsSampler(model);
+        } catch (IllegalStateException e) {
+            view.displayError("Diagnostics unavailable: " + e.getMessage());
+            return;
+        }
+
+        try (sampler) {
+            ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("diagnostics-panel").daemon().factory());
+            refresher.scheduleAtFixedRate(() -> {
+                try {
+                    view.displayDiagnosticsPanel(sampler.sample(), PANEL_REFRESH_SECONDS);
+                } catch (RuntimeException e) {
+                    view.displayMessage("Diagnostics failed: " + e.getMessage());
+                }
+            }, 0, PANEL_REFRESH_SECONDS, TimeUnit.SECONDS);
+            view.waitForEnter();
+            // Waits for a redraw in progress, so it does not land on top of the menu
+            refresher.close();
+        }
+    }
+
+    public void handleDiagnostics() {
+        boolean backToMainMenu = false;
+        while (true)
+        {
+            view.displayDiagnosticsMenu();
+            switch (view.getUserChoice(1, 7))
+            {
+                case 1 -> {
+                    handleLivePanel();
+                }
+                case 2 -> {
+                    view.displaySqlStatistics(SqlStatistics.top(SQL_STATISTICS_ROWS, SqlStatistics.Ranking.TOTAL_TIME), "total time");
+                }
+                case 3 -> {
+                    view.displaySqlStatistics(SqlStatistics.top(SQL_STATISTICS_ROWS, SqlStatistics.Ranking.CALLS), "calls");
+                }
+                case 4 -> {
+                    view.displaySqlStatistics(SqlStatistics.top(SQL_STATISTICS_ROWS, SqlStatistics.Ranking.MEAN_TIME), "mean time");
+                }
+                case 5 -> {
+                    view.displaySqlStatistics(SqlStatistics.top(SQL_STATISTICS_ROWS, SqlStatistics.Ranking.ERRORS), "errors");
+                }
+                case 6 -> {
+                    SqlStatistics.reset();
+                    view.displayMessage("SQL statistics reset.");
+                    view.waitForInput();
+                }
+                case 7 -> {
+                    backToMainMenu = true;
+                }
+                default -> {
+                    assert false : "Unhandled choice";
+                }
+            }
+            if (backToMainMenu)
+                break;
+        }
+    }
+
     public void start() throws IllegalStateException {
         while (true)
         {
             view.displayMainMenu();
-            switch (view.getUserChoice( 1,4)) 
+            StartupTimer.markFirstMenu();
+            displayStartupTimes();
+            displayWarmStartError();
+            switch (view.getUserChoice( 1,5)) 
             {
                 case 1 -> {
                     handleClient();
@@ -447,6 +611,9 @@ public class Controller {
                 case 4 -> {
                     handleOrder();
                 }
+                case 5 -> {
+                    handleDiagnostics();
+                }
                 default -> {
                     assert false : "Unhandled choice";
                 }
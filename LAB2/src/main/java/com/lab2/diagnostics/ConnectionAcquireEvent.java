@@ -0,0 +1,15 @@
+package com.lab2.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.lab2.ConnectionAcquire")
+@Label("Connection Acquire")
+@Category({"Food Delivery", "Database"})
+@Description("Borrowing a connection from Hibernate's pool, the duration is the wait")
+public class ConnectionAcquireEvent extends jdk.jfr.Event {
+    @Label("Model Operation")
+    String operation;
+}
@@ -0,0 +1,120 @@
+package com.lab2.diagnostics;
+
+import com.lab2.model.Model;
+import shared.SingleFlight;
+import shared.workload.LatencyHistogram;
+import org.hibernate.stat.Statistics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Reads the counters the data path keeps anyway and turns them into rates over the time since the previous
+// sample, so the live panel costs the operations nothing beyond what they already record. Cache ratios
+// count since the sampler was created, which enables Hibernate's statistics until it is closed.
+public class DiagnosticsSampler implements AutoCloseable {
+    public record OperationRate(String operation, long calls, double perSecond, double meanMillis, double p99Millis) {
+    }
+
+    public record PoolSample(int size, long inUse, double borrowsPerSecond, double meanWaitMillis, long failed) {
+    }
+
+    public record CacheSample(String cache, long hits, long misses) {
+        public double hitRatio() {
+            return hits + misses == 0 ? Double.NaN : (double) hits / (hits + misses);
+        }
+    }
+
+    public record MemorySample(long heapUsed, long heapCommitted, long heapMax, long collections, long gcMillis, double gcShare) {
+    }
+
+    public record Sample(LocalDateTime time, double seconds, List<OperationRate> operations, PoolSample pool, List<CacheSample> caches,
+                         MemorySample memory, List<SlowQueryLog.SlowQuery> slowQueries) {
+    }
+
+    private static final int SLOW_QUERIES = 5;
+
+    private final Model model;
+    private final Statistics persistence;
+    private final boolean statisticsWereEnabled;
+    private final int poolSize;
+
+    private long previousNanos = System.nanoTime();
+    private Map<String, LatencyHistogram.Snapshot> previousOperations = OperationMetrics.snapshot();
+    private JdbcInstrumentation.PoolUsage previousPool = JdbcInstrumentation.getPoolUsage();
+    private long previousCollections;
+    private long previousGcMillis;
+
+    public DiagnosticsSampler(Model model) throws IllegalStateException {
+        this.model = model;
+        this.persistence = model.getPersistenceStatistics();
+        this.statisticsWereEnabled = persistence.isStatisticsEnabled();
+        this.persistence.setStatisticsEnabled(true);
+        this.poolSize = model.getConnectionPoolSize();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            previousCollections += Math.max(0, collector.getCollectionCount());
+            previousGcMillis += Math.max(0, collector.getCollectionTime());
+        }
+    }
+
+    public synchronized Sample sample() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - previousNanos) / 1e9);
+        previousNanos = now;
+        return new Sample(LocalDateTime.now(), seconds, sampleOperations(seconds), samplePool(seconds), sampleCaches(),
+            sampleMemory(seconds), SlowQueryLog.latest(SLOW_QUERIES));
+    }
+
+    private List<OperationRate> sampleOperations(double seconds) {
+        Map<String, LatencyHistogram.Snapshot> current = OperationMetrics.snapshot();
+        List<OperationRate> rates = new ArrayList<>(current.size());
+        current.forEach((operation, snapshot) -> {
+            LatencyHistogram.Snapshot earlier = previousOperations.get(operation);
+            LatencyHistogram.Snapshot interval = earlier != null ? snapshot.minus(earlier) : snapshot;
+            rates.add(new OperationRate(operation, snapshot.count(), interval.count() / seconds, interval.mean() / 1e6,
+                interval.percentile(99) / 1e6));
+        });
+        previousOperations = current;
+        return rates;
+    }
+
+    private PoolSample samplePool(double seconds) {
+        JdbcInstrumentation.PoolUsage current = JdbcInstrumentation.getPoolUsage();
+        long borrowed = current.borrowed() - previousPool.borrowed();
+        double meanWait = borrowed == 0 ? 0 : (current.waitNanos() - previousPool.waitNanos()) / 1e6 / borrowed;
+        previousPool = current;
+        return new PoolSample(poolSize, current.inUse(), borrowed / seconds, meanWait, current.failed());
+    }
+
+    private List<CacheSample> sampleCaches() {
+        SingleFlight.Statistics coalescing = model.getCoalescingStatistics();
+        return List.of(
+            new CacheSample("Coalesced lookups", coalescing.coalesced(), coalescing.calls() - coalescing.coalesced()),
+            new CacheSample("Query plan cache", persistence.getQueryPlanCacheHitCount(), persistence.getQueryPlanCacheMissCount()));
+    }
+
+    private MemorySample sampleMemory(double seconds) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long collections = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += Math.max(0, collector.getCollectionCount());
+            gcMillis += Math.max(0, collector.getCollectionTime());
+        }
+        long intervalCollections = collections - previousCollections;
+        long intervalGcMillis = gcMillis - previousGcMillis;
+        previousCollections = collections;
+        previousGcMillis = gcMillis;
+        return new MemorySample(heap.getUsed(), heap.getCommitted(), heap.getMax(), intervalCollections, intervalGcMillis,
+            intervalGcMillis / 1e3 / seconds);
+    }
+
+    @Override
+    public void close() {
+        persistence.setStatisticsEnabled(statisticsWereEnabled);
+    }
+}
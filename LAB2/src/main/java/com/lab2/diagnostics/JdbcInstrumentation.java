@@ -0,0 +1,331 @@
+package com.lab2.diagnostics;
+
+import shared.SqlFingerprint;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.temporal.Temporal;
+import java.util.Date;
+import java.util.concurrent.atomic.LongAdder;
+
+// Times borrowing pooled connections and, while a JFR recording has SQL statement events enabled, hands
+// out connections whose statements emit one event each. A query's event runs from execution until its
+// result set is closed, so it covers fetching the rows it counts. The same wrappers count round trips and
+// the bytes on the wire, estimated from the SQL, the bound values and the values read from result rows,
+// carry out the NetworkSimulation and feed SqlStatistics. Connections borrowed while none of this is on
+// are returned as they are and cost nothing.
+public final class JdbcInstrumentation {
+    @FunctionalInterface
+    public interface ConnectionSource {
+        Connection getConnection() throws SQLException;
+    }
+
+    // Counted for every borrow, wrapped or not
+    public record PoolUsage(long borrowed, long returned, long failed, long waitNanos) {
+        public long inUse() {
+            return borrowed - returned;
+        }
+    }
+
+    private static final SqlStatementEvent STATEMENT_EVENTS = new SqlStatementEvent();
+    private static final ConnectionAcquireEvent ACQUIRE_EVENTS = new ConnectionAcquireEvent();
+    private static volatile boolean counting;
+    private static final LongAdder BORROWED = new LongAdder();
+    private static final LongAdder RETURNED = new LongAdder();
+    private static final LongAdder FAILED = new LongAdder();
+    private static final LongAdder WAIT_NANOS = new LongAdder();
+    // Framing of a protocol message, and of a row or a value in one
+    private static final int MESSAGE_BYTES = 16;
+    private static final int ROW_BYTES = 7;
+    private static final int VALUE_BYTES = 4;
+    private static final String UNKNOWN_SQL = "(statement text unknown)";
+
+    private JdbcInstrumentation() {
+    }
+
+    public static PoolUsage getPoolUsage() {
+        return new PoolUsage(BORROWED.sum(), RETURNED.sum(), FAILED.sum(), WAIT_NANOS.sum());
+    }
+
+    // Wraps connections borrowed from now on, so OperationContext.Usage has rows, bytes and round trips
+    public static void setCounting(boolean enabled) {
+        counting = enabled;
+    }
+
+    public static boolean isCounting() {
+        return counting;
+    }
+
+    public static Connection acquire(ConnectionSource source) throws SQLException {
+        // No event is allocated per borrow unless a recording has them enabled
+        ConnectionAcquireEvent event = ACQUIRE_EVENTS.isEnabled() ? new ConnectionAcquireEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        long start = System.nanoTime();
+        Connection connection;
+        try {
+            connection = source.getConnection();
+        } catch (SQLException e) {
+            FAILED.increment();
+            throw e;
+        }
+        long wait = System.nanoTime() - start;
+        BORROWED.increment();
+        WAIT_NANOS.add(wait);
+        OperationContext.recordConnectionWait(wait);
+        if (event != null && event.shouldCommit()) {
+            event.operation = OperationContext.current();
+            event.commit();
+        }
+
+        if (!STATEMENT_EVENTS.isEnabled() && !NetworkSimulation.isActive() && !SqlStatistics.isEnabled() && !counting) {
+            return connection;
+        }
+        return (Connection) Proxy.newProxyInstance(JdbcInstrumentation.class.getClassLoader(),
+            new Class<?>[] { Connection.class }, new ConnectionHandler(connection, wait));
+    }
+
+    // The pool must get back the connection it handed out
+    public static Connection release(Connection connection) {
+        RETURNED.increment();
+        if (Proxy.isProxyClass(connection.getClass()) && Proxy.getInvocationHandler(connection) instanceof ConnectionHandler handler) {
+            return handler.connection;
+        }
+        return connection;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+        private long unreportedWait;
+
+        ConnectionHandler(Connection connection, long wait) {
+            this.connection = connection;
+            this.unreportedWait = wait;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("commit") || method.getName().equals("rollback")) {
+                NetworkSimulation.roundTrip(MESSAGE_BYTES);
+            }
+            Object result = JdbcInstrumentation.invoke(connection, method, args);
+            return switch (method.getName()) {
+                case "createStatement", "prepareStatement", "prepareCall" -> {
+                    Statement statement = (Statement) result;
+                    String sql = args != null && args.length > 0 && args[0] instanceof String text ? text : null;
+                    Class<?> type = method.getReturnType();
+                    yield Proxy.newProxyInstance(JdbcInstrumentation.class.getClassLoader(),
+                        new Class<?>[] { type }, new StatementHandler(this, statement, sql));
+                }
+                default -> result;
+            };
+        }
+
+        long takeWait() {
+            long wait = unreportedWait;
+            unreportedWait = 0;
+            return wait;
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+        private final ConnectionHandler connection;
+        private final Statement statement;
+        private String sql;
+        private int binds;
+        private int batchSize;
+        private long boundBytes;
+        private boolean queryOpen;
+        private SqlStatementEvent openQuery;
+        private String openQueryFingerprint;
+        private long openQueryStart;
+        private long openQueryRows;
+        private long openQueryBytes;
+
+        StatementHandler(ConnectionHandler connection, Statement statement, String sql) {
+            this.connection = connection;
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                return execute(method, args);
+            }
+            switch (name) {
+                case "addBatch" -> {
+                    batchSize++;
+                    if (args != null && sql == null) {
+                        sql = (String) args[0];
+                    }
+                }
+                case "clearParameters" -> binds = 0;
+                case "clearBatch" -> batchSize = 0;
+                case "getResultSet" -> {
+                    ResultSet resultSet = (ResultSet) JdbcInstrumentation.invoke(statement, method, args);
+                    return resultSet == null || !queryOpen ? resultSet : countRows(resultSet);
+                }
+                case "close" -> closeQuery();
+                default -> {
+                    if (name.startsWith("set") && statement instanceof PreparedStatement && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                        binds = Math.max(binds, index);
+                        boundBytes += sizeOf(args[1]);
+                    }
+                }
+            }
+            return JdbcInstrumentation.invoke(statement, method, args);
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            closeQuery();
+            String text = args != null && args.length > 0 && args[0] instanceof String given ? given : sql;
+            NetworkSimulation.roundTrip(MESSAGE_BYTES + (text != null ? text.length() : 0) + boundBytes);
+            boundBytes = 0;
+            // Statistics and counting alone need no event, one is only allocated while a recording enables them
+            SqlStatementEvent event = STATEMENT_EVENTS.isEnabled() ? new SqlStatementEvent() : null;
+            if (event != null) {
+                event.begin();
+            }
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = JdbcInstrumentation.invoke(statement, method, args);
+            } catch (Throwable e) {
+                commit(event, fingerprint(text), 0, start, true);
+                throw e;
+            }
+
+            switch (result) {
+                case ResultSet resultSet -> {
+                    openQuery(event, text, start);
+                    return countRows(resultSet);
+                }
+                case Boolean hasResultSet when hasResultSet -> openQuery(event, text, start);
+                case Boolean _ -> commit(event, fingerprint(text), statement.getLargeUpdateCount(), start, false);
+                case Number count -> commit(event, fingerprint(text), count.longValue(), start, false);
+                case int[] counts -> commit(event, fingerprint(text), sum(counts), start, false);
+                case long[] counts -> commit(event, fingerprint(text), sumLarge(counts), start, false);
+                case null, default -> commit(event, fingerprint(text), 0, start, false);
+            }
+            return result;
+        }
+
+        private ResultSet countRows(ResultSet resultSet) {
+            openQueryRows = 0;
+            openQueryBytes = 0;
+            return (ResultSet) Proxy.newProxyInstance(JdbcInstrumentation.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                (_, method, args) -> {
+                    Object result = JdbcInstrumentation.invoke(resultSet, method, args);
+                    String name = method.getName();
+                    switch (name) {
+                        case "next" -> {
+                            if ((Boolean) result) {
+                                openQueryRows++;
+                                openQueryBytes += ROW_BYTES;
+                            }
+                        }
+                        case "close" -> closeQuery();
+                        default -> {
+                            if (name.startsWith("get") && args != null && args.length > 0 && !name.equals("getMetaData")) {
+                                openQueryBytes += sizeOf(result);
+                            }
+                        }
+                    }
+                    return result;
+                });
+        }
+
+        private void openQuery(SqlStatementEvent event, String text, long start) {
+            queryOpen = true;
+            openQuery = event;
+            openQueryFingerprint = fingerprint(text);
+            openQueryStart = start;
+        }
+
+        private void closeQuery() {
+            if (queryOpen) {
+                queryOpen = false;
+                NetworkSimulation.transfer(openQueryBytes);
+                commit(openQuery, openQueryFingerprint, openQueryRows, openQueryStart, false);
+                openQuery = null;
+            }
+        }
+
+        // The event is null unless a recording has statement events enabled
+        private void commit(SqlStatementEvent event, String fingerprint, long rows, long start, boolean failed) {
+            if (event != null) {
+                event.end();
+            }
+            long wait = connection.takeWait();
+            OperationContext.recordStatement(rows);
+            if (SqlStatistics.isEnabled()) {
+                String recorded = fingerprint != null ? fingerprint : UNKNOWN_SQL;
+                long elapsed = System.nanoTime() - start;
+                SqlStatistics.record(recorded, elapsed, rows, failed, wait);
+                SlowQueryLog.record(OperationContext.current(), recorded, elapsed, rows);
+            }
+            if (event != null && event.shouldCommit()) {
+                event.operation = OperationContext.current();
+                event.fingerprint = fingerprint;
+                event.rows = rows;
+                event.binds = binds;
+                event.batchSize = batchSize;
+                event.connectionWait = wait;
+                event.failed = failed;
+                event.commit();
+            }
+            batchSize = 0;
+        }
+
+        private static String fingerprint(String text) {
+            return text != null ? SqlFingerprint.of(text) : null;
+        }
+
+        // Roughly what the value takes in the PostgreSQL wire format
+        private static long sizeOf(Object value) {
+            return VALUE_BYTES + switch (value) {
+                case null -> 0;
+                case String text -> text.length();
+                case byte[] bytes -> bytes.length;
+                case Boolean _, Byte _ -> 1;
+                case Short _, Integer _, Float _ -> 4;
+                case Long _, Double _, Date _, Temporal _ -> 8;
+                default -> value.toString().length();
+            };
+        }
+
+        private static long sum(int[] counts) {
+            long total = 0;
+            for (int count : counts) {
+                total += Math.max(0, count);
+            }
+            return total;
+        }
+
+        private static long sumLarge(long[] counts) {
+            long total = 0;
+            for (long count : counts) {
+                total += Math.max(0, count);
+            }
+            return total;
+        }
+    }
+}
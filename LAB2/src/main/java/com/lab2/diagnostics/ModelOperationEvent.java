@@ -0,0 +1,37 @@
+package com.lab2.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("com.lab2.ModelOperation")
+@Label("Model Operation")
+@Category({"Food Delivery", "Database"})
+@Description("A public Model operation, with the statements it ran through the connection pool")
+@StackTrace(false)
+public class ModelOperationEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Outcome")
+    @Description("OK, the kind of error returned, or the exception thrown")
+    String outcome;
+
+    @Label("Statements")
+    int statements;
+
+    @Label("Rows")
+    @Description("Rows returned by queries and changed by updates")
+    long rows;
+
+    @Label("Round Trips")
+    @Description("Statement executions, commits and rollbacks, counted while connections are wrapped")
+    int roundTrips;
+
+    @Label("Connection Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long connectionWait;
+}
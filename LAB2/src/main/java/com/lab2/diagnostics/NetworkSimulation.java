@@ -0,0 +1,64 @@
+package com.lab2.diagnostics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+// Makes a local database behave like one across a network, so the chatty Model operations show what they
+// would cost in production. Configured once at startup:
+//   -Dnetwork.latency=<ms>       added to every round trip, 0 only counts round trips per Model operation
+//   -Dnetwork.jitter=<ms>        spread of the added latency, uniform in +/- jitter
+//   -Dnetwork.bandwidth=<Mbit/s> time to move the estimated bytes of statements and result rows
+// A round trip is a statement execution (a batch is one), a commit or a rollback. Without any of the
+// properties set, connections are not wrapped for it.
+public final class NetworkSimulation {
+    private static final long LATENCY = nanos(System.getProperty("network.latency"));
+    private static final long JITTER = nanos(System.getProperty("network.jitter"));
+    private static final double NANOS_PER_BYTE = nanosPerByte(System.getProperty("network.bandwidth"));
+    private static final boolean ACTIVE = System.getProperty("network.latency") != null || JITTER > 0 || NANOS_PER_BYTE > 0;
+
+    private NetworkSimulation() {
+    }
+
+    public static boolean isActive() {
+        return ACTIVE;
+    }
+
+    public static String describe() {
+        return String.format("%.2f ms latency, +/- %.2f ms jitter, %s", LATENCY / 1e6, JITTER / 1e6,
+            NANOS_PER_BYTE > 0 ? String.format("%.0f Mbit/s", 8e3 / NANOS_PER_BYTE) : "unlimited bandwidth");
+    }
+
+    // Blocks for one round trip carrying the given bytes and counts it for the current Model operation
+    static void roundTrip(long bytes) {
+        long delay = Math.max(0, LATENCY + (JITTER > 0 ? ThreadLocalRandom.current().nextLong(-JITTER, JITTER + 1) : 0)) + transferTime(bytes);
+        pause(delay);
+        OperationContext.recordTransfer(1, bytes, delay);
+    }
+
+    // Result rows arrive during the round trip that executed the query, they are charged once they are read
+    static void transfer(long bytes) {
+        long delay = transferTime(bytes);
+        pause(delay);
+        OperationContext.recordTransfer(0, bytes, delay);
+    }
+
+    private static long transferTime(long bytes) {
+        return (long) (bytes * NANOS_PER_BYTE);
+    }
+
+    private static void pause(long nanos) {
+        long due = System.nanoTime() + nanos;
+        long wait;
+        while ((wait = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private static long nanos(String millis) throws IllegalArgumentException {
+        return millis == null ? 0 : (long) (Double.parseDouble(millis) * 1e6);
+    }
+
+    private static double nanosPerByte(String megabits) throws IllegalArgumentException {
+        return megabits == null ? 0 : 8e3 / Double.parseDouble(megabits);
+    }
+}
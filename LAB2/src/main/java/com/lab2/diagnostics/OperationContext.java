@@ -0,0 +1,201 @@
+package com.lab2.diagnostics;
+
+import com.lab2.util.Error;
+import com.lab2.util.Result;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+// The Model operation the current thread is running, so service calls and SQL statements can be
+// attributed to it. A Model operation called from another one (addOrder looking up its courier) is part
+// of the outer one. The per-thread state is reused, nothing is allocated unless a JFR recording has the
+// events enabled.
+public final class OperationContext {
+    // What the last Model operation of a thread cost. Statements are those Hibernate prepared, executions,
+    // rows, bytes and round trips are only counted while connections are wrapped (see JdbcInstrumentation).
+    public record Usage(String operation, int statements, int executions, long rows, long bytes, int roundTrips) {
+    }
+
+    private static final class Frame {
+        String operation;
+        int depth;
+        int prepared;
+        int statements;
+        long rows;
+        long connectionWait;
+        int roundTrips;
+        long bytes;
+        long networkDelay;
+        Usage last;
+
+        // Service events begun on this thread, with the Tracer start they are matched by
+        ServiceOperationEvent[] services = new ServiceOperationEvent[4];
+        long[] serviceStarts = new long[4];
+        int pendingServices;
+    }
+
+    private static final ThreadLocal<Frame> CURRENT = ThreadLocal.withInitial(Frame::new);
+    private static final ModelOperationEvent MODEL_EVENTS = new ModelOperationEvent();
+    private static final ServiceOperationEvent SERVICE_EVENTS = new ServiceOperationEvent();
+
+    private OperationContext() {
+    }
+
+    public static <T> T run(String operation, Supplier<T> body) {
+        Frame frame = CURRENT.get();
+        if (frame.depth++ > 0) {
+            try {
+                return body.get();
+            } finally {
+                frame.depth--;
+            }
+        }
+
+        frame.operation = operation;
+        frame.prepared = 0;
+        frame.statements = 0;
+        frame.rows = 0;
+        frame.connectionWait = 0;
+        frame.roundTrips = 0;
+        frame.bytes = 0;
+        frame.networkDelay = 0;
+        ModelOperationEvent event = null;
+        if (MODEL_EVENTS.isEnabled()) {
+            event = new ModelOperationEvent();
+            event.begin();
+        }
+
+        long start = OperationMetrics.isEnabled() ? System.nanoTime() : Long.MIN_VALUE;
+        String outcome = "ERROR";
+        try {
+            T result = body.get();
+            outcome = outcomeOf(result);
+            return result;
+        } catch (RuntimeException e) {
+            outcome = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            if (event != null && event.shouldCommit()) {
+                event.operation = operation;
+                event.outcome = outcome;
+                event.statements = frame.statements;
+                event.rows = frame.rows;
+                event.connectionWait = frame.connectionWait;
+                event.roundTrips = frame.roundTrips;
+                event.commit();
+            }
+            if (NetworkSimulation.isActive()) {
+                RoundTripStatistics.record(operation, frame.roundTrips, frame.bytes, frame.networkDelay);
+            }
+            if (start != Long.MIN_VALUE) {
+                OperationMetrics.record(operation, System.nanoTime() - start);
+            }
+            if (JdbcInstrumentation.isCounting()) {
+                frame.last = new Usage(operation, frame.prepared, frame.statements, frame.rows, frame.bytes, frame.roundTrips);
+            }
+            frame.operation = null;
+            frame.depth = 0;
+        }
+    }
+
+    public static void run(String operation, Runnable body) {
+        run(operation, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    private static String outcomeOf(Object result) {
+        return switch (result) {
+            case Optional<?> optional when optional.orElse(null) instanceof Error error -> error.getClass().getSimpleName();
+            case Result.Failure<?, ?> failure -> failure.error().getClass().getSimpleName();
+            case null, default -> "OK";
+        };
+    }
+
+    // Null outside of a Model operation
+    public static String current() {
+        return CURRENT.get().operation;
+    }
+
+    // Null until an operation ended on this thread while counting
+    public static Usage lastUsage() {
+        return CURRENT.get().last;
+    }
+
+    static void recordPrepared() {
+        Frame frame = CURRENT.get();
+        if (frame.depth > 0) {
+            frame.prepared++;
+        }
+    }
+
+    static void recordStatement(long rows) {
+        Frame frame = CURRENT.get();
+        if (frame.depth > 0) {
+            frame.statements++;
+            frame.rows += Math.max(0, rows);
+        }
+    }
+
+    static void recordConnectionWait(long nanos) {
+        Frame frame = CURRENT.get();
+        if (frame.depth > 0) {
+            frame.connectionWait += nanos;
+        }
+    }
+
+    static void recordTransfer(int roundTrips, long bytes, long networkDelay) {
+        Frame frame = CURRENT.get();
+        if (frame.depth > 0) {
+            frame.roundTrips += roundTrips;
+            frame.bytes += bytes;
+            frame.networkDelay += networkDelay;
+        }
+    }
+
+    public static boolean isServiceEventEnabled() {
+        return SERVICE_EVENTS.isEnabled();
+    }
+
+    public static void beginService(long start) {
+        if (!SERVICE_EVENTS.isEnabled()) {
+            return;
+        }
+        Frame frame = CURRENT.get();
+        if (frame.pendingServices == frame.services.length) {
+            frame.services = Arrays.copyOf(frame.services, frame.pendingServices * 2);
+            frame.serviceStarts = Arrays.copyOf(frame.serviceStarts, frame.pendingServices * 2);
+        }
+        ServiceOperationEvent event = new ServiceOperationEvent();
+        event.begin();
+        frame.services[frame.pendingServices] = event;
+        frame.serviceStarts[frame.pendingServices++] = start;
+    }
+
+    // Events above the matching one belong to calls that never ended and are dropped. A numeric key is
+    // passed unboxed and only used when key is null.
+    public static void endService(long start, String operation, Object key, long numericKey, String outcome) {
+        Frame frame = CURRENT.get();
+        if (frame.pendingServices == 0) {
+            return;
+        }
+        for (int i = frame.pendingServices - 1; i >= 0; i--) {
+            if (frame.serviceStarts[i] != start) {
+                continue;
+            }
+            ServiceOperationEvent event = frame.services[i];
+            Arrays.fill(frame.services, i, frame.pendingServices, null);
+            frame.pendingServices = i;
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.modelOperation = frame.operation;
+                event.key = key != null ? key.toString() : Long.toString(numericKey);
+                event.outcome = outcome;
+                event.commit();
+            }
+            return;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.lab2.diagnostics;
+
+import shared.workload.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Latency of every outermost Model operation, recorded by OperationContext while enabled. Recording is an
+// atomic increment in the operation's histogram, readers copy the histograms without stopping it.
+public final class OperationMetrics {
+    private static final ConcurrentMap<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static volatile boolean enabled;
+
+    private OperationMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    static void record(String operation, long nanos) {
+        LatencyHistogram histogram = HISTOGRAMS.get(operation);
+        if (histogram == null) {
+            histogram = HISTOGRAMS.computeIfAbsent(operation, _ -> new LatencyHistogram());
+        }
+        histogram.record(nanos);
+    }
+
+    // By operation name, everything recorded since the start
+    public static Map<String, LatencyHistogram.Snapshot> snapshot() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        HISTOGRAMS.forEach((operation, histogram) -> snapshots.put(operation, histogram.snapshot()));
+        return snapshots;
+    }
+}
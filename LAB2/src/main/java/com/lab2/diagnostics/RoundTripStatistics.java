@@ -0,0 +1,65 @@
+package com.lab2.diagnostics;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Round trips, bytes and simulated network time per Model operation while NetworkSimulation is active.
+// Operations are ranked by the network time they spend per call, which is how much worse they get as the
+// latency grows.
+public final class RoundTripStatistics {
+    public record Row(String operation, long calls, long roundTrips, long bytes, long delayNanos) {
+        public double roundTripsPerCall() {
+            return calls == 0 ? 0 : (double) roundTrips / calls;
+        }
+
+        public double delayPerCallMillis() {
+            return calls == 0 ? 0 : delayNanos / 1e6 / calls;
+        }
+    }
+
+    private static final class Counters {
+        final LongAdder calls = new LongAdder();
+        final LongAdder roundTrips = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder delayNanos = new LongAdder();
+    }
+
+    private static final Map<String, Counters> COUNTERS = new ConcurrentHashMap<>();
+
+    private RoundTripStatistics() {
+    }
+
+    static void record(String operation, int roundTrips, long bytes, long delayNanos) {
+        Counters counters = COUNTERS.computeIfAbsent(operation, _ -> new Counters());
+        counters.calls.increment();
+        counters.roundTrips.add(roundTrips);
+        counters.bytes.add(bytes);
+        counters.delayNanos.add(delayNanos);
+    }
+
+    public static List<Row> snapshot() {
+        List<Row> rows = new ArrayList<>();
+        COUNTERS.forEach((operation, counters) -> rows.add(new Row(operation, counters.calls.sum(), counters.roundTrips.sum(),
+            counters.bytes.sum(), counters.delayNanos.sum())));
+        rows.sort(Comparator.comparingDouble(Row::delayPerCallMillis).thenComparingDouble(Row::roundTripsPerCall).reversed());
+        return rows;
+    }
+
+    public static void reset() {
+        COUNTERS.clear();
+    }
+
+    public static void print(PrintStream out) {
+        out.println("Network: " + NetworkSimulation.describe());
+        out.printf("%-26s %9s %12s %12s %15s%n", "operation", "calls", "trips/call", "bytes/call", "network ms/call");
+        for (Row row : snapshot()) {
+            out.printf("%-26s %9d %12.2f %12.0f %15.2f%n", row.operation(), row.calls(), row.roundTripsPerCall(),
+                (double) row.bytes() / row.calls(), row.delayPerCallMillis());
+        }
+    }
+}
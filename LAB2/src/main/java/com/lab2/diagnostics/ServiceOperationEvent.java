@@ -0,0 +1,26 @@
+package com.lab2.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.lab2.ServiceOperation")
+@Label("Service Operation")
+@Category({"Food Delivery", "Database"})
+@Description("A service call traced by com.lab2.util.Tracer")
+@StackTrace(false)
+public class ServiceOperationEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Model Operation")
+    String modelOperation;
+
+    @Label("Key")
+    String key;
+
+    @Label("Outcome")
+    String outcome;
+}
@@ -0,0 +1,47 @@
+package com.lab2.diagnostics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// The last statements that took at least -Dsql.slowQueryMillis (50 by default), kept while SqlStatistics
+// is enabled. Writers claim a slot with one atomic increment and overwrite the oldest entry.
+public final class SlowQueryLog {
+    public record SlowQuery(long epochMillis, String operation, String fingerprint, long nanos, long rows) {
+    }
+
+    private static final int CAPACITY = 32;
+    private static final long THRESHOLD_NANOS = Long.getLong("sql.slowQueryMillis", 50) * 1_000_000;
+
+    private static final AtomicReferenceArray<SlowQuery> ENTRIES = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong CURSOR = new AtomicLong();
+
+    private SlowQueryLog() {
+    }
+
+    public static long getThresholdMillis() {
+        return THRESHOLD_NANOS / 1_000_000;
+    }
+
+    static void record(String operation, String fingerprint, long nanos, long rows) {
+        if (nanos < THRESHOLD_NANOS) {
+            return;
+        }
+        int slot = (int) (CURSOR.getAndIncrement() % CAPACITY);
+        ENTRIES.set(slot, new SlowQuery(System.currentTimeMillis(), operation, fingerprint, nanos, rows));
+    }
+
+    // Newest first
+    public static List<SlowQuery> latest(int limit) {
+        long end = CURSOR.get();
+        List<SlowQuery> queries = new ArrayList<>(limit);
+        for (long i = end - 1; i >= 0 && i >= end - CAPACITY && queries.size() < limit; i--) {
+            SlowQuery query = ENTRIES.get((int) (i % CAPACITY));
+            if (query != null) {
+                queries.add(query);
+            }
+        }
+        return queries;
+    }
+}
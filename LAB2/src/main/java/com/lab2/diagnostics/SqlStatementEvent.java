@@ -0,0 +1,38 @@
+package com.lab2.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("com.lab2.SqlStatement")
+@Label("SQL Statement")
+@Category({"Food Delivery", "Database"})
+@Description("A statement run through the connection pool, from execution until its result set is closed")
+public class SqlStatementEvent extends jdk.jfr.Event {
+    @Label("Model Operation")
+    String operation;
+
+    @Label("Fingerprint")
+    @Description("The statement with literals and placeholder lists reduced to ?")
+    String fingerprint;
+
+    @Label("Rows")
+    @Description("Rows read from the result set, or rows changed")
+    long rows;
+
+    @Label("Binds")
+    int binds;
+
+    @Label("Batch Size")
+    int batchSize;
+
+    @Label("Connection Wait")
+    @Description("Time spent borrowing the connection, counted once for the first statement run on it")
+    @Timespan(Timespan.NANOSECONDS)
+    long connectionWait;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,96 @@
+package com.lab2.diagnostics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// pg_stat_statements from the client side: calls, time, rows and errors per SQL fingerprint, plus the
+// time spent waiting for a pooled connection, which the server never sees. It is charged to the first
+// statement run on the connection. A query's time runs until its result set is closed. Recording only
+// adds to striped counters, so statements on different threads do not contend.
+// Collected while enabled, which the interactive application does at startup.
+public final class SqlStatistics {
+    public record Row(String fingerprint, long calls, long totalNanos, long maxNanos, long rows, long errors, long connectionWaitNanos) {
+        public double meanMillis() {
+            return calls == 0 ? 0 : totalNanos / 1e6 / calls;
+        }
+    }
+
+    public enum Ranking {
+        TOTAL_TIME(Comparator.comparingLong(Row::totalNanos)),
+        CALLS(Comparator.comparingLong(Row::calls)),
+        MEAN_TIME(Comparator.comparingDouble(Row::meanMillis)),
+        ROWS(Comparator.comparingLong(Row::rows)),
+        ERRORS(Comparator.comparingLong(Row::errors));
+
+        private final Comparator<Row> comparator;
+
+        Ranking(Comparator<Row> comparator) {
+            this.comparator = comparator;
+        }
+    }
+
+    private static final class Accumulator {
+        final LongAdder calls = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final LongAdder rows = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder connectionWaitNanos = new LongAdder();
+    }
+
+    // Statements built with their values inlined would otherwise grow the map without bound
+    private static final int FINGERPRINT_LIMIT = 2048;
+    private static final String OTHER = "(other statements)";
+
+    private static final ConcurrentMap<String, Accumulator> ACCUMULATORS = new ConcurrentHashMap<>();
+    private static volatile boolean enabled;
+
+    private SqlStatistics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Takes effect for connections borrowed from then on
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    static void record(String fingerprint, long nanos, long rows, boolean failed, long connectionWaitNanos) {
+        Accumulator accumulator = ACCUMULATORS.get(fingerprint);
+        if (accumulator == null) {
+            accumulator = ACCUMULATORS.size() < FINGERPRINT_LIMIT
+                ? ACCUMULATORS.computeIfAbsent(fingerprint, _ -> new Accumulator())
+                : ACCUMULATORS.computeIfAbsent(OTHER, _ -> new Accumulator());
+        }
+        accumulator.calls.increment();
+        accumulator.totalNanos.add(nanos);
+        accumulator.maxNanos.accumulate(nanos);
+        accumulator.rows.add(Math.max(0, rows));
+        if (failed) {
+            accumulator.errors.increment();
+        }
+        if (connectionWaitNanos > 0) {
+            accumulator.connectionWaitNanos.add(connectionWaitNanos);
+        }
+    }
+
+    public static List<Row> top(int limit, Ranking ranking) {
+        List<Row> rows = new ArrayList<>(ACCUMULATORS.size());
+        ACCUMULATORS.forEach((fingerprint, accumulator) -> rows.add(new Row(fingerprint, accumulator.calls.sum(),
+            accumulator.totalNanos.sum(), accumulator.maxNanos.get(), accumulator.rows.sum(), accumulator.errors.sum(),
+            accumulator.connectionWaitNanos.sum())));
+        rows.sort(ranking.comparator.reversed());
+        return rows.size() > limit ? rows.subList(0, limit) : rows;
+    }
+
+    public static void reset() {
+        ACCUMULATORS.clear();
+    }
+}
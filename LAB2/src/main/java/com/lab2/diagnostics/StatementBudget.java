@@ -0,0 +1,64 @@
+package com.lab2.diagnostics;
+
+import java.util.Optional;
+
+// The most one Model operation may cost, so a lazy association or a check-then-insert that adds statements
+// fails a check instead of showing up in production:
+//     StatementBudget.of("getAllOrders", 1).assertWithin(() -> model.getAllOrders());
+// Statements are those Hibernate prepares, rows and bytes are only known while connections are wrapped,
+// which measuring turns on for the connections borrowed while it runs.
+public record StatementBudget(String operation, int maxStatements, long maxRows, long maxBytes) {
+    public static StatementBudget of(String operation, int maxStatements) {
+        return new StatementBudget(operation, maxStatements, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    public StatementBudget withMaxRows(long maxRows) {
+        return new StatementBudget(operation, maxStatements, maxRows, maxBytes);
+    }
+
+    public StatementBudget withMaxBytes(long maxBytes) {
+        return new StatementBudget(operation, maxStatements, maxRows, maxBytes);
+    }
+
+    // The call must run one Model operation on this thread, the last one it runs is measured
+    public static OperationContext.Usage measure(Runnable call) throws IllegalStateException {
+        boolean counting = JdbcInstrumentation.isCounting();
+        JdbcInstrumentation.setCounting(true);
+        OperationContext.Usage before = OperationContext.lastUsage();
+        try {
+            call.run();
+        } finally {
+            JdbcInstrumentation.setCounting(counting);
+        }
+        OperationContext.Usage usage = OperationContext.lastUsage();
+        if (usage == null || usage == before) {
+            throw new IllegalStateException("The call did not run a Model operation.");
+        }
+        return usage;
+    }
+
+    public Optional<String> check(OperationContext.Usage usage) {
+        if (!usage.operation().equals(operation)) {
+            return Optional.of("ran " + usage.operation() + " instead of " + operation);
+        }
+        if (usage.statements() > maxStatements) {
+            return Optional.of(operation + " ran " + usage.statements() + " statements, the budget is " + maxStatements);
+        }
+        if (usage.rows() > maxRows) {
+            return Optional.of(operation + " read or changed " + usage.rows() + " rows, the budget is " + maxRows);
+        }
+        if (usage.bytes() > maxBytes) {
+            return Optional.of(operation + " moved about " + usage.bytes() + " bytes, the budget is " + maxBytes);
+        }
+        return Optional.empty();
+    }
+
+    public OperationContext.Usage assertWithin(Runnable call) throws AssertionError {
+        OperationContext.Usage usage = measure(call);
+        Optional<String> violation = check(usage);
+        if (violation.isPresent()) {
+            throw new AssertionError(violation.get());
+        }
+        return usage;
+    }
+}
@@ -0,0 +1,190 @@
+package com.lab2.diagnostics;
+
+import com.lab2.common.ClientFilterParameters;
+import com.lab2.common.CourierFilterParameters;
+import com.lab2.dto.Mapper;
+import com.lab2.dto.MealDTO;
+import com.lab2.dto.OrderDTO;
+import com.lab2.entity.Meal;
+import com.lab2.entity.Order;
+import com.lab2.model.Model;
+import com.lab2.util.Error;
+import com.lab2.util.Result;
+
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+// Runs each budgeted Model operation once against the database and checks it against its budget. The
+// writes add an order with one meal, update it and delete both again, then do the same for a batch of each.
+// Rows the check wrote are deleted again also when an operation in between fails.
+public class StatementBudgetCheck {
+    public record Outcome(StatementBudget budget, OperationContext.Usage usage, Optional<String> violation) {
+    }
+
+    public static final List<StatementBudget> DEFAULTS = List.of(
+        StatementBudget.of("getAllClients", 1),
+        StatementBudget.of("getAllCouriers", 1),
+        StatementBudget.of("getAllMeals", 1),
+        StatementBudget.of("getAllOrders", 1),
+        StatementBudget.of("getClient", 1),
+        StatementBudget.of("getCourier", 1),
+        StatementBudget.of("getMeal", 1),
+        StatementBudget.of("getOrder", 1),
+        StatementBudget.of("addOrder", 1),
+        StatementBudget.of("addMeal", 1),
+        StatementBudget.of("updateOrder", 2),
+        StatementBudget.of("deleteMeal", 2),
+        StatementBudget.of("deleteOrder", 1),
+        StatementBudget.of("addOrders", 5),
+        StatementBudget.of("addMeals", 3),
+        StatementBudget.of("fetchClientAnalytics", 1),
+        StatementBudget.of("fetchCourierAnalytics", 1));
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Model model;
+    private final Map<String, StatementBudget> budgets = new LinkedHashMap<>();
+    private final List<Outcome> outcomes = new ArrayList<>();
+
+    public StatementBudgetCheck(Model model, List<StatementBudget> budgets) {
+        this.model = model;
+        for (StatementBudget budget : budgets) {
+            this.budgets.put(budget.operation(), budget);
+        }
+    }
+
+    public List<Outcome> run() throws IllegalStateException {
+        outcomes.clear();
+        check("getAllClients", model::getAllClients);
+        check("getAllCouriers", model::getAllCouriers);
+        List<Meal> meals = new ArrayList<>();
+        check("getAllMeals", () -> meals.addAll(model.getAllMeals()));
+        List<Order> orders = new ArrayList<>();
+        check("getAllOrders", () -> orders.addAll(model.getAllOrders()));
+        if (orders.isEmpty()) {
+            return outcomes;
+        }
+
+        Order existing = orders.getFirst();
+        check("getClient", () -> model.getClient(existing.getClient().getEmail()));
+        check("getCourier", () -> model.getCourier(existing.getCourier().getPhone()));
+        if (!meals.isEmpty()) {
+            check("getMeal", () -> model.getMeal(meals.getFirst().getMealID()));
+        }
+        check("getOrder", () -> model.getOrder(existing.getOrderID()));
+
+        long orderID = orders.stream().map(Order::getOrderID).max(Comparator.naturalOrder()).orElseThrow() + 1;
+        long mealID = meals.stream().map(Meal::getMealID).max(Comparator.naturalOrder()).orElse(0L) + 1;
+        String courierPhone = existing.getCourier().getPhone();
+        String clientEmail = existing.getClient().getEmail();
+        Set<Long> writtenOrders = new LinkedHashSet<>();
+        Set<Long> writtenMeals = new LinkedHashSet<>();
+        try {
+            check("addOrder", () -> expectSuccess(model.addOrder(newOrder(orderID, courierPhone, clientEmail))));
+            writtenOrders.add(orderID);
+            check("addMeal", () -> expectSuccess(model.addMeal(newMeal(mealID, orderID))));
+            writtenMeals.add(mealID);
+            OrderDTO rated = switch (model.getOrder(orderID)) {
+                case Result.Success<Error, Order> success -> new Mapper().toDto(success.value());
+                case Result.Failure<Error, Order> failure -> throw new IllegalStateException("The budget check lost its order: " + failure.error());
+            };
+            rated.setRating(4);
+            check("updateOrder", () -> expectSuccess(model.updateOrder(rated)));
+            check("deleteMeal", () -> expectSuccess(model.deleteMeal(mealID)));
+            writtenMeals.remove(mealID);
+            check("deleteOrder", () -> expectSuccess(model.deleteOrder(orderID)));
+            writtenOrders.remove(orderID);
+
+            // Each batch has a row that fails its check, it must not cost a lookup of its own
+            List<Long> orderIDs = List.of(orderID, orderID + 1, orderID + 2);
+            check("addOrders", () -> expectInserted(orderIDs, model.addOrders(List.of(newOrder(orderID, courierPhone, clientEmail),
+                newOrder(orderID + 1, courierPhone, clientEmail), newOrder(orderID + 2, courierPhone + "0", clientEmail))), writtenOrders, 2));
+            List<Long> mealIDs = List.of(mealID, mealID + 1, mealID + 2);
+            check("addMeals", () -> expectInserted(mealIDs, model.addMeals(List.of(newMeal(mealID, orderID), newMeal(mealID + 1, orderID + 1),
+                newMeal(mealID + 2, orderID + 2))), writtenMeals, 2));
+        } finally {
+            writtenMeals.forEach(model::deleteMeal);
+            writtenOrders.forEach(model::deleteOrder);
+        }
+
+        check("fetchClientAnalytics", () -> model.fetchClientAnalytics(new ClientFilterParameters("2000-01-01 00:00:00", Integer.MAX_VALUE, "%")));
+        check("fetchCourierAnalytics", () -> model.fetchCourierAnalytics(new CourierFilterParameters("2000-01-01", 1)));
+        return outcomes;
+    }
+
+    private void check(String operation, Runnable call) {
+        StatementBudget budget = budgets.get(operation);
+        if (budget == null) {
+            call.run();
+            return;
+        }
+        OperationContext.Usage usage = StatementBudget.measure(call);
+        outcomes.add(new Outcome(budget, usage, budget.check(usage)));
+    }
+
+    private static OrderDTO newOrder(long orderID, String courierPhone, String clientEmail) {
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        return OrderDTO.builder()
+            .orderID(orderID)
+            .orderDate(now.format(DATE_TIME))
+            .courierPhone(courierPhone)
+            .deliveryDate(now.plusMinutes(45).format(DATE_TIME))
+            .clientEmail(clientEmail)
+            .rating(5)
+            .deliveryAddress("Budget st 1")
+            .build();
+    }
+
+    private static MealDTO newMeal(long mealID, long orderID) {
+        return MealDTO.builder()
+            .mealID(mealID)
+            .orderID(orderID)
+            .name("Budget Soup")
+            .price(10)
+            .weight(300)
+            .servingSize(1)
+            .build();
+    }
+
+    // The keys without an error are added to written before the count is checked
+    private static void expectInserted(List<Long> keys, List<Optional<Error>> errors, Set<Long> written, int inserted) throws IllegalStateException {
+        for (int i = 0; i < keys.size(); i++) {
+            if (errors.get(i).isEmpty()) {
+                written.add(keys.get(i));
+            }
+        }
+        long succeeded = errors.stream().filter(Optional::isEmpty).count();
+        if (succeeded != inserted) {
+            throw new IllegalStateException("The budget check inserted " + succeeded + " of its batch instead of " + inserted + ": " + errors);
+        }
+    }
+
+    private static void expectSuccess(Optional<Error> error) throws IllegalStateException {
+        if (error.isPresent()) {
+            throw new IllegalStateException("The budget check could not write its order: " + error.get());
+        }
+    }
+
+    public static long print(List<Outcome> outcomes, PrintStream out) {
+        out.printf("%-24s %10s %10s %10s %10s %8s%n", "operation", "statements", "budget", "executions", "rows", "bytes");
+        long violations = 0;
+        for (Outcome outcome : outcomes) {
+            OperationContext.Usage usage = outcome.usage();
+            out.printf("%-24s %10d %10d %10d %10d %8d%s%n", outcome.budget().operation(), usage.statements(), outcome.budget().maxStatements(),
+                usage.executions(), usage.rows(), usage.bytes(), outcome.violation().map(violation -> "  OVER: " + violation).orElse(""));
+            if (outcome.violation().isPresent()) {
+                violations++;
+            }
+        }
+        return violations;
+    }
+}
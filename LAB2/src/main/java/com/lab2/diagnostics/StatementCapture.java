@@ -0,0 +1,38 @@
+package com.lab2.diagnostics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Collects the SQL Hibernate prepares on the current thread while a capture runs, so tools can work from
+// the statements the Model really issues instead of their own copies of them. Statements are kept once,
+// in the order they were first prepared. Outside of a capture recording is a single thread-local read.
+public final class StatementCapture {
+    private static final ThreadLocal<Set<String>> CAPTURED = new ThreadLocal<>();
+
+    private StatementCapture() {
+    }
+
+    public static List<String> capture(Runnable body) {
+        Set<String> outer = CAPTURED.get();
+        Set<String> captured = new LinkedHashSet<>();
+        CAPTURED.set(captured);
+        try {
+            body.run();
+        } finally {
+            CAPTURED.set(outer);
+        }
+        if (outer != null) {
+            outer.addAll(captured);
+        }
+        return new ArrayList<>(captured);
+    }
+
+    static void record(String sql) {
+        Set<String> captured = CAPTURED.get();
+        if (captured != null) {
+            captured.add(sql);
+        }
+    }
+}
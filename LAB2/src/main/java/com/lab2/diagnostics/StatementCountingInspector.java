@@ -0,0 +1,20 @@
+package com.lab2.diagnostics;
+
+import java.io.Serial;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+// Counts every statement Hibernate prepares for the Model operation running on the thread, whether or not
+// connections are wrapped, and hands it to a running StatementCapture. Configured as
+// hibernate.session_factory.statement_inspector in persistence.xml.
+public class StatementCountingInspector implements StatementInspector {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public String inspect(String sql) {
+        OperationContext.recordPrepared();
+        StatementCapture.record(sql);
+        return sql;
+    }
+}
@@ -0,0 +1,65 @@
+package com.lab2.diagnostics;
+
+import com.lab2.dto.ClientDTO;
+import com.lab2.dto.CourierDTO;
+import com.lab2.dto.Mapper;
+import com.lab2.entity.Client;
+import com.lab2.entity.Courier;
+import com.lab2.model.Model;
+import com.lab2.util.Error;
+import com.lab2.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Scanner;
+import java.util.function.Function;
+
+// Edits a client and a courier the way two consoles would: both read the record, both answer the update
+// prompts by keeping every value, and both save. The first save must succeed, the second one was based on
+// a version that is no longer current and must come back as a VersionConflictError. Keeping every value
+// leaves the records as they were, apart from their version.
+public class VersionConflictCheck {
+    private final Model model;
+    private final Mapper mapper = new Mapper();
+
+    public VersionConflictCheck(Model model) {
+        this.model = model;
+    }
+
+    // What went wrong, empty when every stale edit was refused
+    public List<String> run() throws IllegalStateException {
+        List<String> failures = new ArrayList<>();
+        List<Client> clients = model.getAllClients();
+        if (!clients.isEmpty()) {
+            ClientDTO client = mapper.toDto(clients.getFirst());
+            check("client " + client.getEmail(), console().promptForClientUpdateDetails(client),
+                console().promptForClientUpdateDetails(client), model::updateClient).ifPresent(failures::add);
+        }
+        List<Courier> couriers = model.getAllCouriers();
+        if (!couriers.isEmpty()) {
+            CourierDTO courier = mapper.toDto(couriers.getFirst());
+            check("courier " + courier.getPhone(), console().promptForCourierUpdateDetails(courier),
+                console().promptForCourierUpdateDetails(courier), model::updateCourier).ifPresent(failures::add);
+        }
+        return failures;
+    }
+
+    // Answers every prompt with Enter
+    private static View console() {
+        return new View(new Scanner("\n".repeat(8)));
+    }
+
+    private <D> Optional<String> check(String record, D first, D stale, Function<D, Optional<Error>> update) {
+        Optional<Error> error = update.apply(first);
+        if (error.isPresent()) {
+            return Optional.of("The first edit of " + record + " failed: " + error.get());
+        }
+        error = update.apply(stale);
+        if (error.isEmpty() || !(error.get() instanceof Error.VersionConflictError)) {
+            return Optional.of("The stale edit of " + record + " returned " + error.map(Object::toString).orElse("no error")
+                + " instead of a version conflict");
+        }
+        return Optional.empty();
+    }
+}
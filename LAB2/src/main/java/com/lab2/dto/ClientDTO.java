@@ -13,4 +13,6 @@ public final class ClientDTO {
     private String email;
     private String name;
     private String phone;
+    // The row version the changes are based on, null updates whatever version is current
+    private Long version;
 }
\ No newline at end of file
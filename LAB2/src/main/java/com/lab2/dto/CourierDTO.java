@@ -13,4 +13,5 @@ public final class CourierDTO {
     private String phone; 
     private String name;
     private String transport;
+    private Long version;
 }
\ No newline at end of file
@@ -10,6 +10,7 @@ public final class Mapper {
             .email(client.getEmail())
             .name(client.getName())
             .phone(client.getPhone())
+            .version(client.getVersion())
             .build();
     }
 
@@ -18,6 +19,7 @@ public final class Mapper {
             .phone(courier.getPhone())
             .name(courier.getName())
             .transport(courier.getTransport())
+            .version(courier.getVersion())
             .build();
     }
 
@@ -29,6 +31,7 @@ public final class Mapper {
             .price(meal.getPrice())
             .weight(meal.getPrice())
             .servingSize(meal.getServingSize())
+            .version(meal.getVersion())
             .build();
     }
 
@@ -41,6 +44,7 @@ public final class Mapper {
             .clientEmail(order.getClient().getEmail())
             .rating(order.getRating())
             .deliveryAddress(order.getDeliveryAddress())
+            .version(order.getVersion())
             .build();
     }
 }
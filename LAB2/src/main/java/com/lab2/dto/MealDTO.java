@@ -16,4 +16,5 @@ public final class MealDTO {
     private int price;
     private int weight; 
     private int servingSize;
+    private Long version;
 }
\ No newline at end of file
@@ -17,4 +17,5 @@ public final class OrderDTO {
     private String clientEmail;
     private int rating;
     private String deliveryAddress;
+    private Long version;
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -26,4 +27,8 @@ public final class Client {
 
     @Column(name = "\"Phone\"", nullable = false, length = 10)
     private String phone;
+
+    @Version
+    @Column(name = "\"Version\"", nullable = false)
+    private Long version;
 }
\ No newline at end of file
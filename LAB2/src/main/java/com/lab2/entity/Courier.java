@@ -4,6 +4,7 @@ import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -26,4 +27,8 @@ public final class Courier {
 
     @Column(name = "\"Transport\"", nullable = false, length = 25)
     private String transport;
+
+    @Version
+    @Column(name = "\"Version\"", nullable = false)
+    private Long version;
 }
\ No newline at end of file
@@ -6,6 +6,7 @@ import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -38,4 +39,8 @@ public final class Meal {
 
     @Column(name = "\"Serving Size\"", nullable = false)
     private Integer servingSize;
+
+    @Version
+    @Column(name = "\"Version\"", nullable = false)
+    private Long version;
 }
\ No newline at end of file
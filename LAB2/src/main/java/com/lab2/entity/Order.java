@@ -6,6 +6,7 @@ import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -43,4 +44,8 @@ public final class Order {
 
     @Column(name = "\"Delivery Address\"", nullable = false, length = 50)
     private String deliveryAddress;
+
+    @Version
+    @Column(name = "\"Version\"", nullable = false)
+    private Long version;
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package com.lab2.exporter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+
+public enum ExportFormat {
+    // RFC 4180 with a header row, fields are quoted only when they need it
+    CSV {
+        @Override
+        void writeHeader(Writer writer, String[] columns) throws IOException {
+            writeRow(writer, columns, columns);
+        }
+
+        @Override
+        void writeRow(Writer writer, String[] columns, Object[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                if (values[i] != null) {
+                    String value = values[i].toString();
+                    if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                        writer.write('"');
+                        writer.write(value.replace("\"", "\"\""));
+                        writer.write('"');
+                    } else {
+                        writer.write(value);
+                    }
+                }
+            }
+            writer.write("\r\n");
+        }
+    },
+
+    // One object per line keyed by column label, numbers stay numbers
+    JSONL {
+        @Override
+        void writeHeader(Writer writer, String[] columns) {
+        }
+
+        @Override
+        void writeRow(Writer writer, String[] columns, Object[] values) throws IOException {
+            writer.write('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeString(writer, columns[i]);
+                writer.write(':');
+                switch (values[i]) {
+                    case null -> writer.write("null");
+                    case Number number -> writer.write(number.toString());
+                    case Boolean bool -> writer.write(bool.toString());
+                    case Object value -> writeString(writer, value.toString());
+                }
+            }
+            writer.write("}\n");
+        }
+
+        private static void writeString(Writer writer, String value) throws IOException {
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"' -> writer.write("\\\"");
+                    case '\\' -> writer.write("\\\\");
+                    case '\n' -> writer.write("\\n");
+                    case '\r' -> writer.write("\\r");
+                    case '\t' -> writer.write("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            writer.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            writer.write(c);
+                        }
+                    }
+                }
+            }
+            writer.write('"');
+        }
+    };
+
+    abstract void writeHeader(Writer writer, String[] columns) throws IOException;
+
+    abstract void writeRow(Writer writer, String[] columns, Object[] values) throws IOException;
+
+    // orders.csv, orders.jsonl and the same with .gz
+    public static ExportFormat forFile(Path file) throws IllegalArgumentException {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        if (name.endsWith(".csv")) {
+            return CSV;
+        }
+        if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+            return JSONL;
+        }
+        throw new IllegalArgumentException("Cannot tell the export format of '" + file + "', use .csv or .jsonl.");
+    }
+}
@@ -0,0 +1,204 @@
+package com.lab2.exporter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPOutputStream;
+
+import com.lab2.common.ClientFilterParameters;
+import com.lab2.common.CourierFilterParameters;
+import com.lab2.model.Model;
+import com.lab2.util.Error;
+import com.lab2.util.Result;
+
+// Streams tables and analytics straight from a server-side cursor to a file, one row at a time.
+// PostgreSQL only keeps a cursor open inside a transaction, so every export runs in a read-only one
+// and fetches fetchSize rows per round trip; memory stays the same however many rows there are.
+// Analytics come from the Model's own queries. RGR has no export, this is LAB2 only.
+public class StreamingExporter {
+    public record Target(Path file, ExportFormat format, boolean gzip) {
+        public static Target forFile(Path file) throws IllegalArgumentException {
+            return new Target(file, ExportFormat.forFile(file), file.getFileName().toString().toLowerCase().endsWith(".gz"));
+        }
+    }
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final List<String> TABLES = List.of("Client", "Courier", "Order", "Meal");
+
+    private static final String[] CLIENT_ANALYTICS_COLUMNS = { "name", "orderCount", "totalSpent" };
+    private static final String[] COURIER_ANALYTICS_COLUMNS = { "name", "phone", "averageRating", "lastDeliveryDate", "firstOrderDate" };
+
+    @FunctionalInterface
+    private interface Rows {
+        // Writes the header and every row, or returns why there is nothing to export
+        Result<Error, Long> write(Writer writer) throws SQLException, IOException;
+    }
+
+    private final Model model;
+    private final int fetchSize;
+
+    public StreamingExporter(Model model, int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size must be positive.");
+        }
+        this.model = model;
+        this.fetchSize = fetchSize;
+    }
+
+    public Result<Error, Long> exportTable(String table, Target target, LongConsumer progress) throws IllegalStateException {
+        if (!TABLES.contains(table)) {
+            return new Result.Failure<>(new Error.ValidationError("Unknown table: " + table));
+        }
+        return export(target, writer -> new Result.Success<>(exportQuery("SELECT * FROM \"" + table + "\"", target, writer, progress)));
+    }
+
+    // Every client of fetchClientAnalytics rather than only the first one, from the Model's own query
+    public Result<Error, Long> exportClientAnalytics(ClientFilterParameters parameters, Target target, LongConsumer progress) throws IllegalStateException {
+        return export(target, writer -> {
+            target.format().writeHeader(writer, CLIENT_ANALYTICS_COLUMNS);
+            Consumer<Object[]> rows = rowWriter(target, writer, CLIENT_ANALYTICS_COLUMNS, progress);
+            return reportTotal(model.streamClientAnalytics(parameters, fetchSize, client -> rows.accept(new Object[] {
+                client.getName(), client.getOrderCount(), client.getTotalSpent() })), progress);
+        });
+    }
+
+    public Result<Error, Long> exportCourierAnalytics(CourierFilterParameters parameters, Target target, LongConsumer progress) throws IllegalStateException {
+        return export(target, writer -> {
+            target.format().writeHeader(writer, COURIER_ANALYTICS_COLUMNS);
+            Consumer<Object[]> rows = rowWriter(target, writer, COURIER_ANALYTICS_COLUMNS, progress);
+            return reportTotal(model.streamCourierAnalytics(parameters, fetchSize, courier -> rows.accept(new Object[] {
+                courier.getName(), courier.getPhone(), courier.getAverageRating(),
+                format(courier.getLastDeliveryDate()), format(courier.getFirstOrderDate()) })), progress);
+        });
+    }
+
+    private Result<Error, Long> export(Target target, Rows rows) throws IllegalStateException {
+        // Written next to the target and moved over it at the end, a failed export leaves no truncated file behind
+        Path partial = target.file().resolveSibling(target.file().getFileName() + ".part");
+        try {
+            Result<Error, Long> result;
+            try (Writer writer = openWriter(partial, target.gzip())) {
+                result = rows.write(writer);
+            }
+            if (result instanceof Result.Success<Error, Long>) {
+                Files.move(partial, target.file(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while exporting to '" + target.file() + "'.", e);
+        } catch (IOException | UncheckedIOException e) {
+            throw new IllegalStateException("Failed to write '" + target.file() + "'.", e);
+        } finally {
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException _) {
+                // The export itself already succeeded or failed with its own error
+            }
+        }
+    }
+
+    private long exportQuery(String sql, Target target, Writer writer, LongConsumer progress) throws SQLException, IOException {
+        try (Connection connection = model.openConnection()) {
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+
+            long rows = 0;
+            try (PreparedStatement pstmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                pstmt.setFetchSize(fetchSize);
+
+                try (ResultSet resultSet = pstmt.executeQuery()) {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    String[] columns = new String[metaData.getColumnCount()];
+                    for (int i = 0; i < columns.length; i++) {
+                        columns[i] = metaData.getColumnLabel(i + 1);
+                    }
+                    target.format().writeHeader(writer, columns);
+
+                    // Reused for every row, nothing accumulates between fetches
+                    Object[] values = new Object[columns.length];
+                    while (resultSet.next()) {
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = value(resultSet, metaData.getColumnType(i + 1), i + 1);
+                        }
+                        target.format().writeRow(writer, columns, values);
+                        if (++rows % fetchSize == 0) {
+                            progress.accept(rows);
+                        }
+                    }
+                }
+            }
+            connection.commit();
+
+            progress.accept(rows);
+            return rows;
+        }
+    }
+
+    // Rows handed over by the Model, which reports failures of its own as unchecked exceptions
+    private Consumer<Object[]> rowWriter(Target target, Writer writer, String[] columns, LongConsumer progress) {
+        long[] rows = { 0 };
+        return values -> {
+            try {
+                target.format().writeRow(writer, columns, values);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (++rows[0] % fetchSize == 0) {
+                progress.accept(rows[0]);
+            }
+        };
+    }
+
+    private static Result<Error, Long> reportTotal(Result<Error, Long> result, LongConsumer progress) {
+        if (result instanceof Result.Success<Error, Long>(Long rows)) {
+            progress.accept(rows);
+        }
+        return result;
+    }
+
+    private static Writer openWriter(Path file, boolean gzip) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        OutputStream output = Channels.newOutputStream(channel);
+        if (gzip) {
+            output = new GZIPOutputStream(output, BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private static Object value(ResultSet resultSet, int type, int column) throws SQLException {
+        return switch (type) {
+            case Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE -> {
+                Timestamp timestamp = resultSet.getTimestamp(column);
+                yield timestamp == null ? null : format(timestamp.toLocalDateTime());
+            }
+            default -> resultSet.getObject(column);
+        };
+    }
+
+    private static String format(LocalDateTime dateTime) {
+        return dateTime == null ? null : dateTime.format(DATE_FORMAT);
+    }
+}
@@ -0,0 +1,456 @@
+package com.lab2.generator;
+
+import shared.ZipfSampler;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Supplier;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+// Fills all four tables with referentially consistent data and streams it in with COPY, one
+// connection per worker. Every row is derived from the seed and its own index only, so the same
+// seed and date produce the same rows on a fresh database no matter how many threads are used.
+// Client and courier keys are derived from the index, each run reserves its own block of indexes
+// and rows whose key is already taken are skipped.
+// Clients and couriers get Zipf-distributed popularity and orders grow denser towards the end
+// date, with lunch and dinner peaks during the day.
+public class SyntheticDataGenerator {
+    public record Summary(long clients, long couriers, long orders, long meals, Duration elapsed) {
+        public long rows() {
+            return clients + couriers + orders + meals;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChunkWriter {
+        long write(Connection connection, CopyManager copyManager, long from, long to) throws SQLException;
+    }
+
+    private static final int CHUNK_SIZE = 50_000;
+    private static final int FLUSH_SIZE = 1 << 16;
+    private static final int MAX_MEALS_PER_ORDER = 5;
+    private static final double POPULARITY_EXPONENT = 1.1;
+    private static final long PHONE_NUMBERS = 10_000_000_000L;
+    private static final long PHONE_MULTIPLIER = 7_919_000_003L;
+
+    private static final long CLIENT = 1;
+    private static final long CLIENT_PHONE = 2;
+    private static final long COURIER = 3;
+    private static final long ORDER = 4;
+    private static final long MEAL = 5;
+
+    private static final String[] FIRST_NAMES = {
+        "Ava", "Ben", "Cal", "Dan", "Eli", "Fin", "Gus", "Hal", "Ivy", "Jax",
+        "Kai", "Leo", "Mia", "Nia", "Oli", "Pax", "Ray", "Sky", "Tia", "Zoe"
+    };
+    private static final String[] LAST_NAMES = {
+        "Doe", "Lee", "Kim", "Zhu", "Wang", "Liu", "Gar", "Ali", "Bai", "Hsu", "Roy", "Joy", "Lin", "Tan", "Yin"
+    };
+    private static final String[] DOMAINS = { "ex.com", "tm.com", "sm.com", "dm.com", "rnd.com", "ml.com", "d.com", "svc.com", "w.com", "u.com" };
+    private static final String[] COURIER_FIRST_NAMES = { "Alice", "Bob", "Charlie", "David", "Eve", "Frank", "Grace" };
+    private static final String[] COURIER_LAST_NAMES = { "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller" };
+    private static final String[] TRANSPORTS = { "Bicycle", "Motorbike", "Van", "Truck", "Scooter" };
+    private static final String[] STREETS = { "Oak", "Maple", "Cedar", "Pine", "Elm", "Birch", "Willow", "Lake", "Hill", "Park" };
+    private static final String[] CITIES = { "Kyiv", "Lviv", "Odesa", "Dnipro", "Kharkiv" };
+
+    private record MenuItem(String name, int price, int weight, int servingSize) {
+    }
+
+    private static final MenuItem[] MENU = {
+        new MenuItem("Margherita", 180, 450, 2), new MenuItem("Pepperoni", 220, 480, 2),
+        new MenuItem("Caesar Salad", 140, 250, 1), new MenuItem("Borscht", 110, 350, 1),
+        new MenuItem("Varenyky", 120, 300, 1), new MenuItem("Cheeseburger", 160, 280, 1),
+        new MenuItem("Ramen", 190, 550, 1), new MenuItem("Sushi Set", 420, 600, 2),
+        new MenuItem("Pad Thai", 200, 400, 1), new MenuItem("Falafel Wrap", 130, 320, 1),
+        new MenuItem("Lasagna", 210, 420, 1), new MenuItem("Chicken Wings", 170, 380, 2),
+        new MenuItem("Pancakes", 100, 260, 1), new MenuItem("Cheesecake", 90, 150, 1),
+        new MenuItem("Lemonade", 50, 500, 1)
+    };
+
+    // Relative order volume per hour of the day and frequencies of ratings 1 to 5 and of 1 to 5 meals per order
+    private static final int[] HOUR_WEIGHTS = { 1, 1, 0, 0, 0, 0, 1, 3, 5, 5, 6, 9, 14, 13, 8, 6, 6, 9, 14, 15, 12, 8, 4, 2 };
+    private static final int[] RATING_WEIGHTS = { 5, 7, 15, 33, 40 };
+    private static final int[] MEAL_COUNT_WEIGHTS = { 35, 30, 20, 10, 5 };
+
+    private final Supplier<Connection> connections;
+    private final long seed;
+    private final int threads;
+    private final LocalDate until;
+    private final int days;
+
+    public SyntheticDataGenerator(Supplier<Connection> connections, long seed, int threads, LocalDate until, int days) {
+        if (threads < 1 || days < 1) {
+            throw new IllegalArgumentException("Threads and days must be positive.");
+        }
+        this.connections = connections;
+        this.seed = seed;
+        this.threads = threads;
+        this.until = until;
+        this.days = days;
+    }
+
+    public Summary generate(long clients, long couriers, long orders, LongConsumer progress) throws IllegalStateException {
+        if (orders > 0 && (clients < 1 || couriers < 1)) {
+            throw new IllegalArgumentException("Orders need at least one generated client and courier.");
+        }
+        if (clients > Integer.MAX_VALUE || couriers > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many clients or couriers.");
+        }
+
+        long startTime = System.nanoTime();
+        long clientOffset = reserveIndexes("Client", clients);
+        long courierOffset = reserveIndexes("Courier", couriers);
+        long[] offsets = queryOffsets();
+        long orderOffset = offsets[0];
+        long mealOffset = offsets[1];
+
+        AtomicLong written = new AtomicLong();
+        LongConsumer counter = rows -> progress.accept(written.addAndGet(rows));
+
+        long newClients = runInParallel("clients", clients,
+            (connection, copyManager, from, to) -> writeClients(connection, copyManager, clientOffset + from, clientOffset + to), counter);
+        long newCouriers = runInParallel("couriers", couriers,
+            (connection, copyManager, from, to) -> writeCouriers(connection, copyManager, courierOffset + from, courierOffset + to), counter);
+
+        ZipfSampler clientPopularity = orders > 0 ? new ZipfSampler((int) clients, POPULARITY_EXPONENT) : null;
+        ZipfSampler courierPopularity = orders > 0 ? new ZipfSampler((int) couriers, POPULARITY_EXPONENT) : null;
+        long clientStride = stride(clients);
+        long courierStride = stride(couriers);
+        AtomicLong meals = new AtomicLong();
+        runInParallel("orders", orders, (connection, copyManager, from, to) -> {
+            long orderRows = writeOrders(copyManager, from, to, orders, orderOffset,
+                rank -> clientOffset + scatter(rank, clients, clientStride), clientPopularity,
+                rank -> courierOffset + scatter(rank, couriers, courierStride), courierPopularity);
+            long mealRows = writeMeals(copyManager, from, to, orderOffset, mealOffset);
+            meals.addAndGet(mealRows);
+            return orderRows + mealRows;
+        }, counter);
+
+        analyze();
+        return new Summary(newClients, newCouriers, orders, meals.get(), Duration.ofNanos(System.nanoTime() - startTime));
+    }
+
+    // Returns the number of rows written
+    private long runInParallel(String description, long rows, ChunkWriter writer, LongConsumer counter) throws IllegalStateException {
+        long chunkCount = (rows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        AtomicLong nextChunk = new AtomicLong();
+        AtomicLong written = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool((int) Math.max(1, Math.min(threads, chunkCount)));
+        try {
+            List<Future<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < Math.min(threads, chunkCount); i++) {
+                workers.add(executor.submit(() -> {
+                    try (Connection connection = connections.get(); Statement statement = connection.createStatement()) {
+                        // A lost tail of a bulk load is simply generated again
+                        statement.execute("SET synchronous_commit = off");
+                        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+                        for (long chunk = nextChunk.getAndIncrement(); chunk < chunkCount; chunk = nextChunk.getAndIncrement()) {
+                            long from = chunk * CHUNK_SIZE;
+                            long chunkRows = writer.write(connection, copyManager, from, Math.min(rows, from + CHUNK_SIZE));
+                            written.addAndGet(chunkRows);
+                            counter.accept(chunkRows);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+            return written.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("An unexpected error occurred while generating " + description + ".", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Generating " + description + " was interrupted.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long writeClients(Connection connection, CopyManager copyManager, long from, long to) throws SQLException {
+        final String columns = "\"Email\", \"Name\", \"Phone\"";
+
+        String staging = createStaging(connection, "Client");
+        try (CopyStream copy = new CopyStream(copyManager, "COPY \"" + staging + "\" (" + columns + ") FROM STDIN (FORMAT csv)")) {
+            for (long index = from; index < to; index++) {
+                SplittableRandom random = random(CLIENT, index);
+                String firstName = pick(random, FIRST_NAMES);
+                String lastName = pick(random, LAST_NAMES);
+                copy.buffer()
+                    .append(clientEmail(firstName, lastName, pick(random, DOMAINS), index)).append(',')
+                    .append(firstName).append(' ').append(lastName).append(',');
+                appendDigits(copy.buffer(), random(CLIENT_PHONE, index).nextLong(PHONE_NUMBERS), 10);
+                copy.endRow();
+            }
+            copy.finish();
+        }
+        return insertStaged(connection, "Client", staging, columns);
+    }
+
+    private long writeCouriers(Connection connection, CopyManager copyManager, long from, long to) throws SQLException {
+        final String columns = "\"Phone\", \"Name\", \"Transport\"";
+
+        String staging = createStaging(connection, "Courier");
+        try (CopyStream copy = new CopyStream(copyManager, "COPY \"" + staging + "\" (" + columns + ") FROM STDIN (FORMAT csv)")) {
+            for (long index = from; index < to; index++) {
+                SplittableRandom random = random(COURIER, index);
+                appendDigits(copy.buffer(), courierPhone(index), 10);
+                copy.buffer().append(',')
+                    .append(pick(random, COURIER_FIRST_NAMES)).append(' ').append(pick(random, COURIER_LAST_NAMES)).append(',')
+                    .append(pick(random, TRANSPORTS));
+                copy.endRow();
+            }
+            copy.finish();
+        }
+        return insertStaged(connection, "Courier", staging, columns);
+    }
+
+    private long writeOrders(CopyManager copyManager, long from, long to, long orders, long orderOffset,
+            LongUnaryOperator clientIndex, ZipfSampler clientPopularity,
+            LongUnaryOperator courierIndex, ZipfSampler courierPopularity) throws SQLException {
+        final String sql = """
+                COPY "Order" ("Order ID", "Courier Phone", "Client Email", "Order Date", "Delivery Date", "Rating", "Delivery Address")
+                FROM STDIN (FORMAT csv)
+                """;
+
+        LocalDate firstDay = until.minusDays(days);
+        try (CopyStream copy = new CopyStream(copyManager, sql)) {
+            for (long index = from; index < to; index++) {
+                SplittableRandom random = random(ORDER, index);
+                long client = clientIndex.applyAsLong(clientPopularity.sample(random));
+                long courier = courierIndex.applyAsLong(courierPopularity.sample(random));
+
+                // The square root makes the volume grow linearly over the period, consecutive orders stay close in time
+                double position = Math.sqrt((index + random.nextDouble()) / orders);
+                LocalDateTime orderDate = firstDay.plusDays(Math.min(days - 1, (long) (position * days)))
+                    .atTime(weighted(random, HOUR_WEIGHTS), random.nextInt(60), random.nextInt(60));
+                LocalDateTime deliveryDate = orderDate.plusMinutes(20 + random.nextInt(70));
+
+                SplittableRandom clientRandom = random(CLIENT, client);
+                String clientEmail = clientEmail(pick(clientRandom, FIRST_NAMES), pick(clientRandom, LAST_NAMES), pick(clientRandom, DOMAINS), client);
+
+                copy.buffer().append(orderOffset + index + 1).append(',');
+                appendDigits(copy.buffer(), courierPhone(courier), 10);
+                copy.buffer().append(',')
+                    .append(clientEmail).append(',')
+                    .append(orderDate).append(',')
+                    .append(deliveryDate).append(',')
+                    .append(weighted(random, RATING_WEIGHTS) + 1).append(',')
+                    .append(pick(random, CITIES)).append(' ').append(pick(random, STREETS)).append(" Street ").append(1 + random.nextInt(200));
+                copy.endRow();
+            }
+            return copy.finish();
+        }
+    }
+
+    // Meals of an order are derived from the order index, so they can be written after all orders of the chunk
+    private long writeMeals(CopyManager copyManager, long from, long to, long orderOffset, long mealOffset) throws SQLException {
+        final String sql = "COPY \"Meal\" (\"Meal ID\", \"Order ID\", \"Name\", \"Price\", \"Weight\", \"Serving Size\") FROM STDIN (FORMAT csv)";
+
+        try (CopyStream copy = new CopyStream(copyManager, sql)) {
+            for (long index = from; index < to; index++) {
+                SplittableRandom random = random(MEAL, index);
+                int mealCount = weighted(random, MEAL_COUNT_WEIGHTS) + 1;
+                for (int i = 0; i < mealCount; i++) {
+                    MenuItem item = MENU[random.nextInt(MENU.length)];
+                    copy.buffer()
+                        .append(mealOffset + index * MAX_MEALS_PER_ORDER + i + 1).append(',')
+                        .append(orderOffset + index + 1).append(',')
+                        .append(item.name()).append(',')
+                        .append(Math.max(1, item.price() + random.nextInt(-item.price() / 10, item.price() / 10 + 1))).append(',')
+                        .append(item.weight()).append(',')
+                        .append(item.servingSize());
+                    copy.endRow();
+                }
+            }
+            return copy.finish();
+        }
+    }
+
+    // COPY fails on the first key that is already taken, so rows go through a temporary table of the worker's
+    // connection first. Rows whose key exists are skipped, the orders referring to that key stay valid.
+    private static String createStaging(Connection connection, String table) throws SQLException {
+        String staging = table + " Staging";
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TEMPORARY TABLE IF NOT EXISTS \"" + staging + "\" (LIKE \"" + table + "\" INCLUDING DEFAULTS)");
+            statement.execute("TRUNCATE \"" + staging + "\"");
+        }
+        return staging;
+    }
+
+    private static long insertStaged(Connection connection, String table, String staging, String columns) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            return statement.executeLargeUpdate(
+                "INSERT INTO \"" + table + "\" (" + columns + ") SELECT " + columns + " FROM \"" + staging + "\" ON CONFLICT DO NOTHING");
+        }
+    }
+
+    // First index of a block no other run gets, whatever was deleted in between
+    private long reserveIndexes(String table, long count) throws IllegalStateException {
+        final String sql = """
+                INSERT INTO "Generator Key" ("Table", "Next") VALUES (?, ?)
+                ON CONFLICT ("Table") DO UPDATE SET "Next" = "Generator Key"."Next" + EXCLUDED."Next"
+                RETURNING "Next"
+                """;
+
+        try (Connection connection = connections.get(); PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            pstmt.setLong(2, count);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1) - count;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while reserving \"" + table + "\" keys.", e);
+        }
+    }
+
+    // Generated IDs continue after the existing ones, so generating again adds new data
+    private long[] queryOffsets() throws IllegalStateException {
+        final String sql = """
+                SELECT
+                    (SELECT COALESCE(MAX("Order ID"), 0) FROM "Order"),
+                    (SELECT COALESCE(MAX("Meal ID"), 0) FROM "Meal")
+                """;
+
+        try (Connection connection = connections.get(); Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return new long[] { resultSet.getLong(1), resultSet.getLong(2) };
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while reading the existing row counts.", e);
+        }
+    }
+
+    private void analyze() throws IllegalStateException {
+        try (Connection connection = connections.get(); Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE \"Client\", \"Courier\", \"Order\", \"Meal\"");
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while analyzing the generated data.", e);
+        }
+    }
+
+    private SplittableRandom random(long table, long index) {
+        return new SplittableRandom(mix(seed ^ mix(table * 0x9e3779b97f4a7c15L + index)));
+    }
+
+    // Multiplying by a number coprime with 10^10 permutes the phone numbers. The seed is left out, so
+    // couriers of different runs never collide either.
+    private static long courierPhone(long index) {
+        return Math.floorMod(index * PHONE_MULTIPLIER, PHONE_NUMBERS);
+    }
+
+    // The base-36 index keeps emails unique and within the 32 characters of the column
+    private static String clientEmail(String firstName, String lastName, String domain, long index) {
+        return firstName.toLowerCase() + "." + lastName.toLowerCase() + "." + Long.toString(index, 36) + "@" + domain;
+    }
+
+    // Spreads popularity ranks over the whole key range, otherwise the most popular rows would be the oldest ones
+    private static long scatter(long rank, long count, long stride) {
+        return (rank - 1) * stride % count;
+    }
+
+    private static long stride(long count) {
+        long stride = Math.max(1, (long) (count * 0.6180339887)) | 1;
+        while (gcd(stride, count) != 1) {
+            stride += 2;
+        }
+        return stride;
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static String pick(SplittableRandom random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static int weighted(SplittableRandom random, int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int target = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            target -= weights[i];
+            if (target < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    private static void appendDigits(StringBuilder buffer, long value, int digits) {
+        String text = Long.toString(value);
+        for (int i = text.length(); i < digits; i++) {
+            buffer.append('0');
+        }
+        buffer.append(text);
+    }
+
+    // Rows are buffered and handed to COPY in blocks, so memory stays flat however many rows a chunk has
+    private static final class CopyStream implements AutoCloseable {
+        private final CopyIn copyIn;
+        private final StringBuilder buffer = new StringBuilder(FLUSH_SIZE + 1024);
+
+        CopyStream(CopyManager copyManager, String sql) throws SQLException {
+            this.copyIn = copyManager.copyIn(sql);
+        }
+
+        StringBuilder buffer() {
+            return buffer;
+        }
+
+        void endRow() throws SQLException {
+            buffer.append('\n');
+            if (buffer.length() >= FLUSH_SIZE) {
+                flush();
+            }
+        }
+
+        long finish() throws SQLException {
+            flush();
+            return copyIn.endCopy();
+        }
+
+        private void flush() throws SQLException {
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            buffer.setLength(0);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+}
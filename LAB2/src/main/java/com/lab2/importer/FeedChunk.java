@@ -0,0 +1,6 @@
+package com.lab2.importer;
+
+// Whole lines of the feed between two byte offsets, numbered in file order
+record FeedChunk(long sequence, long startOffset, long endOffset, long firstLine, byte[] data) {
+    static final FeedChunk END = new FeedChunk(-1, -1, -1, -1, new byte[0]);
+}
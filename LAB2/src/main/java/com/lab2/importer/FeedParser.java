@@ -0,0 +1,160 @@
+package com.lab2.importer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import com.lab2.dto.MealDTO;
+import com.lab2.dto.OrderDTO;
+import com.lab2.importer.ParsedChunk.FeedRecord;
+import com.lab2.importer.ParsedChunk.Reject;
+import com.lab2.util.Error;
+
+// Turns the lines of a chunk into DTOs and runs them through the same validation as the Model.
+// Lines look like
+//   order,<Order ID>,<Order Date>,<Courier Phone>,<Delivery Date>,<Client Email>,<Rating>,<Delivery Address>
+//   meal,<Meal ID>,<Order ID>,<Name>,<Price>,<Weight>,<Serving Size>
+// with dates as yyyy-MM-dd HH:mm:ss. Blank lines and lines starting with # are skipped.
+class FeedParser {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Function<OrderDTO, Optional<Error>> orderValidator;
+    private final Function<MealDTO, Optional<Error>> mealValidator;
+
+    FeedParser(Function<OrderDTO, Optional<Error>> orderValidator, Function<MealDTO, Optional<Error>> mealValidator) {
+        this.orderValidator = orderValidator;
+        this.mealValidator = mealValidator;
+    }
+
+    ParsedChunk parse(FeedChunk chunk) {
+        List<FeedRecord<OrderDTO>> orders = new ArrayList<>();
+        List<FeedRecord<MealDTO>> meals = new ArrayList<>();
+        List<Reject> rejects = new ArrayList<>();
+
+        String text = new String(chunk.data(), StandardCharsets.UTF_8);
+        long line = chunk.firstLine();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String content = text.substring(start, end > start && text.charAt(end - 1) == '\r' ? end - 1 : end);
+            start = end + 1;
+
+            if (content.isBlank() || content.startsWith("#")) {
+                line++;
+                continue;
+            }
+
+            final long lineNumber = line;
+            try {
+                List<String> fields = splitFields(content);
+                switch (fields.get(0)) {
+                    case "order" -> {
+                        OrderDTO order = parseOrder(fields);
+                        orderValidator.apply(order).ifPresentOrElse(
+                            error -> rejects.add(new Reject(lineNumber, content, describe(error))),
+                            () -> orders.add(new FeedRecord<>(lineNumber, content, order)));
+                    }
+                    case "meal" -> {
+                        MealDTO meal = parseMeal(fields);
+                        mealValidator.apply(meal).ifPresentOrElse(
+                            error -> rejects.add(new Reject(lineNumber, content, describe(error))),
+                            () -> meals.add(new FeedRecord<>(lineNumber, content, meal)));
+                    }
+                    default -> rejects.add(new Reject(line, content, "Unknown record type: " + fields.get(0)));
+                }
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                rejects.add(new Reject(line, content, e.getMessage()));
+            }
+            line++;
+        }
+
+        return new ParsedChunk(chunk.sequence(), chunk.endOffset(), line, orders, meals, rejects);
+    }
+
+    static String describe(Error error) {
+        return switch (error) {
+            case Error.ValidationError e -> e.description();
+            case Error.DuplicateKeyError e -> "Duplicate key: " + e.key();
+            case Error.VersionConflictError e -> "Changed concurrently: " + e.key();
+            case Error.ForeignKeyConstraintError e -> "No record with " + e.field() + " " + e.value();
+            case Error.RecordNotFound e -> "Record not found: " + e.name();
+            case Error.InsertError e -> "Failed to insert into " + e.table();
+            case Error.OtherError e -> String.valueOf(e.cause().getMessage());
+            case Error.UnknownError _ -> "Unknown error";
+        };
+    }
+
+    private static OrderDTO parseOrder(List<String> fields) throws IllegalArgumentException, DateTimeParseException {
+        requireFields(fields, 8);
+        // Parsed only to reject malformed dates here rather than in the middle of a batch
+        LocalDateTime.parse(fields.get(2), DATE_FORMAT);
+        LocalDateTime.parse(fields.get(4), DATE_FORMAT);
+        return OrderDTO.builder()
+            .orderID(Long.parseLong(fields.get(1)))
+            .orderDate(fields.get(2))
+            .courierPhone(fields.get(3))
+            .deliveryDate(fields.get(4))
+            .clientEmail(fields.get(5))
+            .rating(Integer.parseInt(fields.get(6)))
+            .deliveryAddress(fields.get(7))
+            .build();
+    }
+
+    private static MealDTO parseMeal(List<String> fields) throws IllegalArgumentException {
+        requireFields(fields, 7);
+        return MealDTO.builder()
+            .mealID(Long.parseLong(fields.get(1)))
+            .orderID(Long.parseLong(fields.get(2)))
+            .name(fields.get(3))
+            .price(Integer.parseInt(fields.get(4)))
+            .weight(Integer.parseInt(fields.get(5)))
+            .servingSize(Integer.parseInt(fields.get(6)))
+            .build();
+    }
+
+    private static void requireFields(List<String> fields, int count) throws IllegalArgumentException {
+        if (fields.size() != count) {
+            throw new IllegalArgumentException("Expected " + count + " fields for " + fields.get(0) + " but found " + fields.size());
+        }
+    }
+
+    // RFC 4180 fields: optionally quoted, with doubled quotes inside quoted fields
+    private static List<String> splitFields(String line) throws IllegalArgumentException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,218 @@
+package com.lab2.importer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.lab2.dto.MealDTO;
+import com.lab2.dto.OrderDTO;
+import com.lab2.importer.ParsedChunk.FeedRecord;
+import com.lab2.importer.ParsedChunk.Reject;
+import com.lab2.util.Error;
+
+// Writes one parsed chunk per transaction together with the offset just past it, so after a crash
+// the import resumes exactly after the last committed chunk. Keys are checked for the whole chunk
+// with one query per table, rows that would break a constraint are rejected instead of failing the batch.
+class FeedWriter implements AutoCloseable {
+    record Written(int orders, int meals, int rejects) {
+    }
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Connection connection;
+    private final Writer rejectWriter;
+    private final PreparedStatement insertOrder;
+    private final PreparedStatement insertMeal;
+    private final PreparedStatement saveCheckpoint;
+
+    FeedWriter(Connection connection, Writer rejectWriter) throws SQLException {
+        this.connection = connection;
+        this.rejectWriter = rejectWriter;
+
+        createCheckpointTable(connection);
+        connection.setAutoCommit(false);
+        this.insertOrder = connection.prepareStatement("""
+            INSERT INTO "Order" ("Order ID", "Order Date", "Courier Phone", "Delivery Date", "Client Email", "Rating", "Delivery Address")
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            """);
+        this.insertMeal = connection.prepareStatement("""
+            INSERT INTO "Meal" ("Meal ID", "Order ID", "Name", "Price", "Weight", "Serving Size")
+            VALUES (?, ?, ?, ?, ?, ?)
+            """);
+        this.saveCheckpoint = connection.prepareStatement("""
+            INSERT INTO "Import Checkpoint" ("File", "Offset", "Line") VALUES (?, ?, ?)
+            ON CONFLICT ("File") DO UPDATE SET "Offset" = EXCLUDED."Offset", "Line" = EXCLUDED."Line", "Updated" = now()
+            """);
+    }
+
+    static void createCheckpointTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                CREATE TABLE IF NOT EXISTS "Import Checkpoint" (
+                    "File" varchar(1024) PRIMARY KEY,
+                    "Offset" bigint NOT NULL,
+                    "Line" bigint NOT NULL,
+                    "Updated" timestamp NOT NULL DEFAULT now()
+                )
+                """);
+        }
+    }
+
+    Written write(ParsedChunk chunk, String file) throws SQLException {
+        List<Reject> rejects = new ArrayList<>(chunk.rejects());
+        try {
+            Set<Long> acceptedOrders = new HashSet<>();
+            int orders = writeOrders(chunk.orders(), acceptedOrders, rejects);
+            int meals = writeMeals(chunk.meals(), acceptedOrders, rejects);
+
+            saveCheckpoint.setString(1, file);
+            saveCheckpoint.setLong(2, chunk.endOffset());
+            saveCheckpoint.setLong(3, chunk.nextLine());
+            saveCheckpoint.executeUpdate();
+
+            // Rejects are flushed before the commit, a crash in between repeats them rather than losing them
+            writeRejects(rejects);
+
+            connection.commit();
+            return new Written(orders, meals, rejects.size());
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    private void writeRejects(List<Reject> rejects) throws UncheckedIOException {
+        rejects.sort(Comparator.comparingLong(Reject::line));
+        try {
+            for (Reject reject : rejects) {
+                rejectWriter.write(reject.line() + "," + quote(reject.reason()) + "," + quote(reject.text()) + "\n");
+            }
+            rejectWriter.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write rejected lines.", e);
+        }
+    }
+
+    private int writeOrders(List<FeedRecord<OrderDTO>> records, Set<Long> acceptedOrders, List<Reject> rejects) throws SQLException {
+        if (records.isEmpty()) {
+            return 0;
+        }
+
+        Set<String> existingOrders = existing("SELECT \"Order ID\"::text FROM \"Order\" WHERE \"Order ID\" = ANY(?)", "bigint",
+            records.stream().map(record -> record.value().getOrderID()).toArray());
+        Set<String> couriers = existing("SELECT \"Phone\" FROM \"Courier\" WHERE \"Phone\" = ANY(?)", "varchar",
+            records.stream().map(record -> record.value().getCourierPhone()).toArray());
+        Set<String> clients = existing("SELECT \"Email\" FROM \"Client\" WHERE \"Email\" = ANY(?)", "varchar",
+            records.stream().map(record -> record.value().getClientEmail()).toArray());
+
+        for (FeedRecord<OrderDTO> record : records) {
+            OrderDTO order = record.value();
+            Error error = null;
+            if (existingOrders.contains(String.valueOf(order.getOrderID())) || acceptedOrders.contains(order.getOrderID())) {
+                error = new Error.DuplicateKeyError(String.valueOf(order.getOrderID()));
+            } else if (!couriers.contains(order.getCourierPhone())) {
+                error = new Error.ForeignKeyConstraintError("Courier Phone", order.getCourierPhone());
+            } else if (!clients.contains(order.getClientEmail())) {
+                error = new Error.ForeignKeyConstraintError("Client Email", order.getClientEmail());
+            }
+
+            if (error != null) {
+                rejects.add(new Reject(record.line(), record.text(), FeedParser.describe(error)));
+                continue;
+            }
+
+            insertOrder.setLong(1, order.getOrderID());
+            insertOrder.setTimestamp(2, Timestamp.valueOf(LocalDateTime.parse(order.getOrderDate(), DATE_FORMAT)));
+            insertOrder.setString(3, order.getCourierPhone());
+            insertOrder.setTimestamp(4, Timestamp.valueOf(LocalDateTime.parse(order.getDeliveryDate(), DATE_FORMAT)));
+            insertOrder.setString(5, order.getClientEmail());
+            insertOrder.setInt(6, order.getRating());
+            insertOrder.setString(7, order.getDeliveryAddress());
+            insertOrder.addBatch();
+            acceptedOrders.add(order.getOrderID());
+        }
+
+        insertOrder.executeBatch();
+        return acceptedOrders.size();
+    }
+
+    // Meals may reference orders of this chunk or anything committed before it
+    private int writeMeals(List<FeedRecord<MealDTO>> records, Set<Long> acceptedOrders, List<Reject> rejects) throws SQLException {
+        if (records.isEmpty()) {
+            return 0;
+        }
+
+        Set<String> existingMeals = existing("SELECT \"Meal ID\"::text FROM \"Meal\" WHERE \"Meal ID\" = ANY(?)", "bigint",
+            records.stream().map(record -> record.value().getMealID()).toArray());
+        Set<String> orders = existing("SELECT \"Order ID\"::text FROM \"Order\" WHERE \"Order ID\" = ANY(?)", "bigint",
+            records.stream().map(record -> record.value().getOrderID()).toArray());
+
+        Set<Long> acceptedMeals = new HashSet<>();
+        for (FeedRecord<MealDTO> record : records) {
+            MealDTO meal = record.value();
+            Error error = null;
+            if (existingMeals.contains(String.valueOf(meal.getMealID())) || acceptedMeals.contains(meal.getMealID())) {
+                error = new Error.DuplicateKeyError(String.valueOf(meal.getMealID()));
+            } else if (!acceptedOrders.contains(meal.getOrderID()) && !orders.contains(String.valueOf(meal.getOrderID()))) {
+                error = new Error.ForeignKeyConstraintError("Order ID", String.valueOf(meal.getOrderID()));
+            }
+
+            if (error != null) {
+                rejects.add(new Reject(record.line(), record.text(), FeedParser.describe(error)));
+                continue;
+            }
+
+            insertMeal.setLong(1, meal.getMealID());
+            insertMeal.setLong(2, meal.getOrderID());
+            insertMeal.setString(3, meal.getName());
+            insertMeal.setInt(4, meal.getPrice());
+            insertMeal.setInt(5, meal.getWeight());
+            insertMeal.setInt(6, meal.getServingSize());
+            insertMeal.addBatch();
+            acceptedMeals.add(meal.getMealID());
+        }
+
+        insertMeal.executeBatch();
+        return acceptedMeals.size();
+    }
+
+    private Set<String> existing(String sql, String type, Object[] keys) throws SQLException {
+        Set<String> found = new HashSet<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            Array array = connection.createArrayOf(type, keys);
+            pstmt.setArray(1, array);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    found.add(resultSet.getString(1));
+                }
+            }
+        }
+        return found;
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    @Override
+    public void close() throws SQLException {
+        insertOrder.close();
+        insertMeal.close();
+        saveCheckpoint.close();
+        connection.close();
+    }
+}
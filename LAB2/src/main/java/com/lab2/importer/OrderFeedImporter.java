@@ -0,0 +1,213 @@
+package com.lab2.importer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.lab2.dto.MealDTO;
+import com.lab2.dto.OrderDTO;
+import com.lab2.util.Error;
+
+// Imports order feeds in three stages: one thread reads the file in chunks of whole lines, several
+// threads parse and validate the chunks and the calling thread writes them in file order. The queues
+// between the stages are bounded, so a slow database stalls reading instead of filling the heap.
+// Every committed chunk records the offset after it, a later run on the same file resumes there.
+public class OrderFeedImporter {
+    public record Progress(long committedBytes, long totalBytes, long lines, long orders, long meals, long rejects, Duration elapsed) {
+        public double percent() {
+            return totalBytes == 0 ? 100 : committedBytes * 100.0 / totalBytes;
+        }
+
+        public double linesPerSecond() {
+            return lines / Math.max(0.001, elapsed.toNanos() / 1e9);
+        }
+    }
+
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final Supplier<Connection> connections;
+    private final FeedParser parser;
+    private final int parserThreads;
+
+    public OrderFeedImporter(Supplier<Connection> connections, Function<OrderDTO, Optional<Error>> orderValidator,
+            Function<MealDTO, Optional<Error>> mealValidator, int parserThreads) {
+        if (parserThreads < 1) {
+            throw new IllegalArgumentException("At least one parser thread is required.");
+        }
+        this.connections = connections;
+        this.parser = new FeedParser(orderValidator, mealValidator);
+        this.parserThreads = parserThreads;
+    }
+
+    public Progress importFile(Path feed, Path rejectFile, boolean restart, Consumer<Progress> progress) throws IllegalStateException {
+        String file = feed.toAbsolutePath().normalize().toString();
+        long startTime = System.nanoTime();
+
+        BlockingQueue<FeedChunk> chunks = new ArrayBlockingQueue<>(parserThreads * 2);
+        BlockingQueue<ParsedChunk> parsed = new ArrayBlockingQueue<>(parserThreads * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(parserThreads + 1);
+        AtomicReference<RuntimeException> parseFailure = new AtomicReference<>();
+
+        try (FeedWriter writer = new FeedWriter(connections.get(), Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            long[] checkpoint = restart ? new long[] { 0, 1 } : loadCheckpoint(file);
+            long totalBytes = Files.size(feed);
+
+            List<Future<?>> stages = new ArrayList<>();
+            stages.add(executor.submit(() -> read(feed, checkpoint[0], checkpoint[1], chunks)));
+            for (int i = 0; i < parserThreads; i++) {
+                stages.add(executor.submit(() -> parse(chunks, parsed, parseFailure)));
+            }
+
+            // Parsers finish out of order, chunks wait here until all chunks before them are written
+            Map<Long, ParsedChunk> pending = new HashMap<>();
+            long nextSequence = 0;
+            long committedBytes = checkpoint[0];
+            long lines = 0;
+            long orders = 0;
+            long meals = 0;
+            long rejects = 0;
+            for (int finishedParsers = 0; finishedParsers < parserThreads; ) {
+                ParsedChunk chunk = parsed.take();
+                // Nothing after a failed chunk can be written, and once every parser has failed nothing drains
+                // the reader any more. Leaving here lets shutdownNow release it.
+                if (parseFailure.get() != null) {
+                    throw new IllegalStateException("Failed to parse '" + file + "'.", parseFailure.get());
+                }
+                if (chunk == ParsedChunk.END) {
+                    finishedParsers++;
+                    continue;
+                }
+
+                pending.put(chunk.sequence(), chunk);
+                for (ParsedChunk next = pending.remove(nextSequence); next != null; next = pending.remove(++nextSequence)) {
+                    FeedWriter.Written written = writer.write(next, file);
+                    lines = next.nextLine() - checkpoint[1];
+                    committedBytes = next.endOffset();
+                    orders += written.orders();
+                    meals += written.meals();
+                    rejects += written.rejects();
+                    progress.accept(new Progress(committedBytes, totalBytes, lines, orders, meals, rejects, Duration.ofNanos(System.nanoTime() - startTime)));
+                }
+            }
+
+            // Surfaces a failure of the reader or a parser
+            for (Future<?> stage : stages) {
+                stage.get();
+            }
+            return new Progress(committedBytes, totalBytes, lines, orders, meals, rejects, Duration.ofNanos(System.nanoTime() - startTime));
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while importing '" + file + "'.", e);
+        } catch (IOException | UncheckedIOException e) {
+            throw new IllegalStateException("Failed to read '" + file + "' or write its rejected lines.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to read or parse '" + file + "'.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Importing '" + file + "' was interrupted.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Offset and line number to continue from, the start of the file when it was never imported
+    private long[] loadCheckpoint(String file) throws SQLException {
+        try (Connection connection = connections.get()) {
+            FeedWriter.createCheckpointTable(connection);
+            try (PreparedStatement pstmt = connection.prepareStatement("SELECT \"Offset\", \"Line\" FROM \"Import Checkpoint\" WHERE \"File\" = ?")) {
+                pstmt.setString(1, file);
+                try (ResultSet resultSet = pstmt.executeQuery()) {
+                    return resultSet.next() ? new long[] { resultSet.getLong(1), resultSet.getLong(2) } : new long[] { 0, 1 };
+                }
+            }
+        }
+    }
+
+    private Void read(Path feed, long offset, long firstLine, BlockingQueue<FeedChunk> chunks) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(feed, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            long position = offset;
+            long line = firstLine;
+            long sequence = 0;
+            while (true) {
+                int read = channel.read(buffer, position + buffer.position());
+                boolean endOfFile = read < 0 || position + buffer.position() >= channel.size();
+                if (buffer.position() == 0 && endOfFile) {
+                    break;
+                }
+
+                // A chunk ends after its last newline, the rest is read again as the start of the next one
+                int length = buffer.position();
+                int lastNewline = length - 1;
+                while (lastNewline >= 0 && buffer.get(lastNewline) != '\n') {
+                    lastNewline--;
+                }
+                if (lastNewline < 0 && !endOfFile) {
+                    if (!buffer.hasRemaining()) {
+                        buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+                    }
+                    continue;
+                }
+
+                int chunkLength = endOfFile && lastNewline < length - 1 ? length : lastNewline + 1;
+                byte[] data = Arrays.copyOf(buffer.array(), chunkLength);
+                chunks.put(new FeedChunk(sequence++, position, position + chunkLength, line, data));
+
+                for (byte b : data) {
+                    if (b == '\n') {
+                        line++;
+                    }
+                }
+                position += chunkLength;
+                buffer.clear();
+            }
+        } finally {
+            for (int i = 0; i < parserThreads; i++) {
+                chunks.put(FeedChunk.END);
+            }
+        }
+        return null;
+    }
+
+    // A failure is recorded before the end marker goes out, so the writer sees it when it takes the marker
+    private Void parse(BlockingQueue<FeedChunk> chunks, BlockingQueue<ParsedChunk> parsed, AtomicReference<RuntimeException> failure)
+            throws InterruptedException {
+        try {
+            for (FeedChunk chunk = chunks.take(); chunk != FeedChunk.END; chunk = chunks.take()) {
+                parsed.put(parser.parse(chunk));
+            }
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+            throw e;
+        } finally {
+            parsed.put(ParsedChunk.END);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,16 @@
+package com.lab2.importer;
+
+import java.util.List;
+
+import com.lab2.dto.MealDTO;
+import com.lab2.dto.OrderDTO;
+
+record ParsedChunk(long sequence, long endOffset, long nextLine, List<FeedRecord<OrderDTO>> orders, List<FeedRecord<MealDTO>> meals, List<Reject> rejects) {
+    static final ParsedChunk END = new ParsedChunk(-1, -1, -1, List.of(), List.of(), List.of());
+
+    record FeedRecord<T>(long line, String text, T value) {
+    }
+
+    record Reject(long line, String text, String reason) {
+    }
+}
@@ -0,0 +1,97 @@
+package com.lab2.journal;
+
+import shared.workload.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Latency per operation in two journals of the same session, usually the recording and a replay of it.
+// Entries are matched by sequence, an entry that ended differently in the two runs is counted as a mismatch.
+public class JournalComparison {
+    public record Row(JournalOperation operation, LatencyHistogram.Snapshot baseline, LatencyHistogram.Snapshot candidate, long mismatches) {
+    }
+
+    private final List<Row> rows;
+    private final long unmatched;
+    private final String firstMismatch;
+
+    private JournalComparison(List<Row> rows, long unmatched, String firstMismatch) {
+        this.rows = rows;
+        this.unmatched = unmatched;
+        this.firstMismatch = firstMismatch;
+    }
+
+    public static JournalComparison compare(Path baseline, Path candidate) throws IOException {
+        Map<Long, JournalEntry> candidates = new HashMap<>();
+        try (JournalReader reader = new JournalReader(candidate)) {
+            JournalEntry entry;
+            while ((entry = reader.next()) != null) {
+                candidates.put(entry.sequence(), entry);
+            }
+        }
+
+        Map<JournalOperation, LatencyHistogram> baselineLatencies = new EnumMap<>(JournalOperation.class);
+        Map<JournalOperation, LatencyHistogram> candidateLatencies = new EnumMap<>(JournalOperation.class);
+        Map<JournalOperation, Long> mismatches = new EnumMap<>(JournalOperation.class);
+        long unmatched = 0;
+        String firstMismatch = null;
+        try (JournalReader reader = new JournalReader(baseline)) {
+            JournalEntry entry;
+            while ((entry = reader.next()) != null) {
+                JournalEntry other = candidates.remove(entry.sequence());
+                if (other == null || other.operation() != entry.operation()) {
+                    unmatched++;
+                    continue;
+                }
+
+                baselineLatencies.computeIfAbsent(entry.operation(), _ -> new LatencyHistogram()).record(entry.latencyMicros() * 1000);
+                candidateLatencies.computeIfAbsent(entry.operation(), _ -> new LatencyHistogram()).record(other.latencyMicros() * 1000);
+                if (other.outcome() != entry.outcome()) {
+                    mismatches.merge(entry.operation(), 1L, Long::sum);
+                    if (firstMismatch == null) {
+                        firstMismatch = entry.outcome() + " then " + other.outcome() + " " + entry;
+                    }
+                }
+            }
+        }
+
+        List<Row> rows = new ArrayList<>();
+        for (Map.Entry<JournalOperation, LatencyHistogram> entry : baselineLatencies.entrySet()) {
+            rows.add(new Row(entry.getKey(), entry.getValue().snapshot(), candidateLatencies.get(entry.getKey()).snapshot(),
+                mismatches.getOrDefault(entry.getKey(), 0L)));
+        }
+        return new JournalComparison(rows, unmatched + candidates.size(), firstMismatch);
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    public void print(PrintStream out) {
+        out.printf("%-26s %7s %17s %17s %17s %8s %10s%n", "operation", "count", "mean", "p50", "p99", "p99 diff", "mismatches");
+        for (Row row : rows) {
+            double baselineP99 = millis(row.baseline(), 99);
+            double candidateP99 = millis(row.candidate(), 99);
+            out.printf("%-26s %7d %8.2f %8.2f %8.2f %8.2f %8.2f %8.2f %7.0f%% %10d%n", row.operation().getMethodName(), row.baseline().count(),
+                row.baseline().mean() / 1e6, row.candidate().mean() / 1e6, millis(row.baseline(), 50), millis(row.candidate(), 50),
+                baselineP99, candidateP99, baselineP99 > 0 ? (candidateP99 - baselineP99) * 100 / baselineP99 : 0, row.mismatches());
+        }
+        out.println("Latencies in ms, baseline then candidate");
+        if (unmatched > 0) {
+            out.printf("%d entries are only in one of the journals%n", unmatched);
+        }
+        if (firstMismatch != null) {
+            out.println("First mismatch: " + firstMismatch);
+        }
+    }
+
+    private static double millis(LatencyHistogram.Snapshot latencies, double percentile) {
+        return latencies.percentile(percentile) / 1e6;
+    }
+}
@@ -0,0 +1,30 @@
+package com.lab2.journal;
+
+import com.lab2.util.Error;
+import com.lab2.util.Result;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+// One Model call: its position in the recorded session, when it was issued relative to the start of the
+// journal, its arguments, and how it ended. A replay keeps the sequence of the entry it re-issued.
+public record JournalEntry(long sequence, long offsetMicros, JournalOperation operation, Object[] arguments, Outcome outcome, long latencyMicros) {
+    public enum Outcome {
+        OK, REFUSED, FAILED
+    }
+
+    // REFUSED when the Model returned an error instead of throwing
+    public static Outcome outcomeOf(Object result) {
+        return switch (result) {
+            case Optional<?> optional when optional.orElse(null) instanceof Error -> Outcome.REFUSED;
+            case Result.Failure<?, ?> _ -> Outcome.REFUSED;
+            case null, default -> Outcome.OK;
+        };
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%-6d %10.3f s %-26s %-8s %9.3f ms %s", sequence, offsetMicros / 1e6, operation.getMethodName(), outcome,
+            latencyMicros / 1e3, Arrays.toString(arguments));
+    }
+}
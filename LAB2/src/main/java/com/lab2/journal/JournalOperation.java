@@ -0,0 +1,85 @@
+package com.lab2.journal;
+
+import com.lab2.common.ClientFilterParameters;
+import com.lab2.common.CourierFilterParameters;
+import com.lab2.dto.ClientDTO;
+import com.lab2.dto.CourierDTO;
+import com.lab2.dto.MealDTO;
+import com.lab2.dto.OrderDTO;
+import com.lab2.model.Model;
+
+import java.util.function.BiFunction;
+
+// The Model operations the Controller issues. Codes are written to journals, so existing ones never change.
+public enum JournalOperation {
+    ADD_CLIENT(1, "addClient", (model, arguments) -> model.addClient((ClientDTO) arguments[0])),
+    GET_ALL_CLIENTS(2, "getAllClients", (model, _) -> model.getAllClients()),
+    GET_CLIENT(3, "getClient", (model, arguments) -> model.getClient((String) arguments[0])),
+    UPDATE_CLIENT(4, "updateClient", (model, arguments) -> model.updateClient((ClientDTO) arguments[0])),
+    DELETE_CLIENT(5, "deleteClient", (model, arguments) -> model.deleteClient((String) arguments[0])),
+    GET_CLIENT_WITH_MOST_ORDERS(6, "getClientWithMostOrders", (model, _) -> model.getClientWithMostOrders()),
+    GENERATE_RANDOM_CLIENTS(7, "generateRandomClients", (model, arguments) -> {
+        model.generateRandomClients((Integer) arguments[0]);
+        return null;
+    }),
+    ADD_COURIER(8, "addCourier", (model, arguments) -> model.addCourier((CourierDTO) arguments[0])),
+    GET_ALL_COURIERS(9, "getAllCouriers", (model, _) -> model.getAllCouriers()),
+    GET_COURIER(10, "getCourier", (model, arguments) -> model.getCourier((String) arguments[0])),
+    UPDATE_COURIER(11, "updateCourier", (model, arguments) -> model.updateCourier((CourierDTO) arguments[0])),
+    DELETE_COURIER(12, "deleteCourier", (model, arguments) -> model.deleteCourier((String) arguments[0])),
+    GET_COURIERS_WITH_MOST_ORDERS(13, "getCouriersWithMostOrders", (model, arguments) -> model.getCouriersWithMostOrders((Integer) arguments[0])),
+    GENERATE_RANDOM_COURIERS(14, "generateRandomCouriers", (model, arguments) -> {
+        model.generateRandomCouriers((Integer) arguments[0]);
+        return null;
+    }),
+    ADD_MEAL(15, "addMeal", (model, arguments) -> model.addMeal((MealDTO) arguments[0])),
+    GET_ALL_MEALS(16, "getAllMeals", (model, _) -> model.getAllMeals()),
+    GET_MEAL(17, "getMeal", (model, arguments) -> model.getMeal((Long) arguments[0])),
+    UPDATE_MEAL(18, "updateMeal", (model, arguments) -> model.updateMeal((MealDTO) arguments[0])),
+    DELETE_MEAL(19, "deleteMeal", (model, arguments) -> model.deleteMeal((Long) arguments[0])),
+    ADD_ORDER(20, "addOrder", (model, arguments) -> model.addOrder((OrderDTO) arguments[0])),
+    GET_ALL_ORDERS(21, "getAllOrders", (model, _) -> model.getAllOrders()),
+    GET_ORDER(22, "getOrder", (model, arguments) -> model.getOrder((Long) arguments[0])),
+    UPDATE_ORDER(23, "updateOrder", (model, arguments) -> model.updateOrder((OrderDTO) arguments[0])),
+    DELETE_ORDER(24, "deleteOrder", (model, arguments) -> model.deleteOrder((Long) arguments[0])),
+    FETCH_CLIENT_ANALYTICS(25, "fetchClientAnalytics", (model, arguments) -> model.fetchClientAnalytics((ClientFilterParameters) arguments[0])),
+    FETCH_COURIER_ANALYTICS(26, "fetchCourierAnalytics", (model, arguments) -> model.fetchCourierAnalytics((CourierFilterParameters) arguments[0]));
+
+    private static final JournalOperation[] BY_CODE = new JournalOperation[64];
+
+    static {
+        for (JournalOperation operation : values()) {
+            BY_CODE[operation.code] = operation;
+        }
+    }
+
+    private final int code;
+    private final String methodName;
+    private final BiFunction<Model, Object[], Object> invoker;
+
+    JournalOperation(int code, String methodName, BiFunction<Model, Object[], Object> invoker) {
+        this.code = code;
+        this.methodName = methodName;
+        this.invoker = invoker;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public Object invoke(Model model, Object[] arguments) {
+        return invoker.apply(model, arguments);
+    }
+
+    public static JournalOperation fromCode(int code) throws IllegalArgumentException {
+        JournalOperation operation = code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        if (operation == null) {
+            throw new IllegalArgumentException("Unknown journal operation " + code + ".");
+        }
+        return operation;
+    }
+}
@@ -0,0 +1,157 @@
+package com.lab2.journal;
+
+import com.lab2.common.ClientFilterParameters;
+import com.lab2.common.CourierFilterParameters;
+import com.lab2.dto.ClientDTO;
+import com.lab2.dto.CourierDTO;
+import com.lab2.dto.MealDTO;
+import com.lab2.dto.OrderDTO;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Reads what JournalWriter wrote. An entry cut short by a killed process ends the journal.
+public class JournalReader implements AutoCloseable {
+    private static final JournalEntry.Outcome[] OUTCOMES = JournalEntry.Outcome.values();
+
+    private final DataInputStream in;
+    private final long startEpochMillis;
+    private long previousSequence;
+    private long previousOffset;
+
+    public JournalReader(Path file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        if (in.readInt() != JournalWriter.MAGIC) {
+            in.close();
+            throw new IOException(file + " is not a journal.");
+        }
+        int version = in.readUnsignedByte();
+        if (version != JournalWriter.VERSION) {
+            in.close();
+            throw new IOException(file + " has journal format " + version + ", expected " + JournalWriter.VERSION + ".");
+        }
+        this.startEpochMillis = in.readLong();
+    }
+
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    // Null at the end of the journal
+    public JournalEntry next() throws IOException {
+        long sequenceDelta;
+        try {
+            sequenceDelta = unzigzag(readVarLong());
+        } catch (EOFException e) {
+            return null;
+        }
+
+        try {
+            long sequence = previousSequence + sequenceDelta;
+            long offset = previousOffset + unzigzag(readVarLong());
+            JournalOperation operation = JournalOperation.fromCode(in.readUnsignedByte());
+            Object[] arguments = new Object[in.readUnsignedByte()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = readArgument();
+            }
+            JournalEntry.Outcome outcome = OUTCOMES[in.readUnsignedByte()];
+            long latency = readVarLong();
+            previousSequence = sequence;
+            previousOffset = offset;
+            return new JournalEntry(sequence, offset, operation, arguments, outcome, latency);
+        } catch (EOFException e) {
+            return null;
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("The journal is corrupt after entry " + previousSequence + ".", e);
+        }
+    }
+
+    private Object readArgument() throws IOException {
+        int type = in.readUnsignedByte();
+        return switch (type) {
+            case JournalWriter.NULL -> null;
+            case JournalWriter.STRING -> readString();
+            case JournalWriter.LONG -> unzigzag(readVarLong());
+            case JournalWriter.INTEGER -> readInt();
+            case JournalWriter.CLIENT -> ClientDTO.builder()
+                .email(readString())
+                .name(readString())
+                .phone(readString())
+                .version(readVersion())
+                .build();
+            case JournalWriter.COURIER -> CourierDTO.builder()
+                .phone(readString())
+                .name(readString())
+                .transport(readString())
+                .version(readVersion())
+                .build();
+            case JournalWriter.MEAL -> MealDTO.builder()
+                .mealID(unzigzag(readVarLong()))
+                .orderID(unzigzag(readVarLong()))
+                .name(readString())
+                .price(readInt())
+                .weight(readInt())
+                .servingSize(readInt())
+                .version(readVersion())
+                .build();
+            case JournalWriter.ORDER -> OrderDTO.builder()
+                .orderID(unzigzag(readVarLong()))
+                .orderDate(readString())
+                .courierPhone(readString())
+                .deliveryDate(readString())
+                .clientEmail(readString())
+                .rating(readInt())
+                .deliveryAddress(readString())
+                .version(readVersion())
+                .build();
+            case JournalWriter.CLIENT_FILTER -> new ClientFilterParameters(readString(), readInt(), readString());
+            case JournalWriter.COURIER_FILTER -> new CourierFilterParameters(readString(), readInt());
+            default -> throw new IllegalArgumentException("Unknown argument type " + type + ".");
+        };
+    }
+
+    private String readString() throws IOException {
+        long length = readVarLong();
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[Math.toIntExact(length - 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Long readVersion() throws IOException {
+        long value = readVarLong();
+        return value == 0 ? null : value - 1;
+    }
+
+    private int readInt() throws IOException {
+        return Math.toIntExact(unzigzag(readVarLong()));
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("A varint is longer than 64 bits.");
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,99 @@
+package com.lab2.journal;
+
+import com.lab2.model.Model;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Re-issues a journal against a Model and writes what happened to a result journal with the same sequence
+// numbers, so JournalComparison can set the two runs side by side. At a speed the entries are issued at their
+// recorded offsets divided by it and latency counts from that moment, a replay that falls behind shows the
+// queueing. At max speed each entry starts as soon as a slot is free and latency counts from the call.
+// With more than one slot, entries that depend on each other (an order and its meals) may run out of order.
+public class JournalReplayer {
+    public record Report(long entries, long failed, Duration elapsed, String lastError) {
+    }
+
+    private final Model model;
+    private final double speed;
+    private final int concurrency;
+
+    // A speed of 0 replays as fast as the Model allows
+    public JournalReplayer(Model model, double speed, int concurrency) throws IllegalArgumentException {
+        if (speed < 0 || concurrency < 1) {
+            throw new IllegalArgumentException("The speed must not be negative and at least one entry must run at a time.");
+        }
+        this.model = model;
+        this.speed = speed;
+        this.concurrency = concurrency;
+    }
+
+    public Report replay(JournalReader journal, JournalWriter results) throws IOException, InterruptedException {
+        Semaphore slots = new Semaphore(concurrency);
+        LongAdder failed = new LongAdder();
+        AtomicReference<String> lastError = new AtomicReference<>();
+        AtomicReference<IOException> writeFailure = new AtomicReference<>();
+        long entries = 0;
+        long start = System.nanoTime();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            JournalEntry entry;
+            while (writeFailure.get() == null && (entry = journal.next()) != null) {
+                long due = start;
+                if (speed > 0) {
+                    due += (long) (entry.offsetMicros() * 1000 / speed);
+                    parkUntil(due);
+                }
+                slots.acquire();
+
+                JournalEntry recorded = entry;
+                long dueAt = due;
+                executor.execute(() -> {
+                    try {
+                        JournalEntry result = run(recorded, dueAt, start, lastError);
+                        if (result.outcome() == JournalEntry.Outcome.FAILED) {
+                            failed.increment();
+                        }
+                        results.write(result);
+                    } catch (IOException e) {
+                        writeFailure.compareAndSet(null, e);
+                    } finally {
+                        slots.release();
+                    }
+                });
+                entries++;
+            }
+        }
+
+        if (writeFailure.get() != null) {
+            throw writeFailure.get();
+        }
+        return new Report(entries, failed.sum(), Duration.ofNanos(System.nanoTime() - start), lastError.get());
+    }
+
+    private JournalEntry run(JournalEntry entry, long due, long start, AtomicReference<String> lastError) {
+        long begin = speed > 0 ? due : System.nanoTime();
+        JournalEntry.Outcome outcome;
+        try {
+            outcome = JournalEntry.outcomeOf(entry.operation().invoke(model, entry.arguments()));
+        } catch (RuntimeException e) {
+            outcome = JournalEntry.Outcome.FAILED;
+            lastError.set("#" + entry.sequence() + " " + entry.operation().getMethodName() + ": " + e.getMessage());
+        }
+        long end = System.nanoTime();
+        return new JournalEntry(entry.sequence(), (begin - start) / 1000, entry.operation(), entry.arguments(), outcome, (end - begin) / 1000);
+    }
+
+    private static void parkUntil(long due) {
+        long wait;
+        while ((wait = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.lab2.journal;
+
+import com.lab2.common.ClientFilterParameters;
+import com.lab2.common.CourierFilterParameters;
+import com.lab2.dto.ClientDTO;
+import com.lab2.dto.CourierDTO;
+import com.lab2.dto.MealDTO;
+import com.lab2.dto.OrderDTO;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Journal layout: the magic "L2JN", a format version byte and the wall-clock start in epoch milliseconds,
+// then one entry after another. An entry stores its sequence and offset as zigzag varint deltas from the
+// previous entry, the operation code, the arguments with a type tag each, the outcome and the latency in
+// microseconds. Integers are varints and strings are length-prefixed UTF-8, so a lookup by ID takes about 12 bytes
+// and a lookup by email or phone about 11 bytes plus the length of the key.
+public class JournalWriter implements AutoCloseable {
+    static final int MAGIC = 0x4C324A4E;
+    static final int VERSION = 1;
+
+    static final int NULL = 0;
+    static final int STRING = 1;
+    static final int LONG = 2;
+    static final int INTEGER = 3;
+    static final int CLIENT = 4;
+    static final int COURIER = 5;
+    static final int MEAL = 6;
+    static final int ORDER = 7;
+    static final int CLIENT_FILTER = 8;
+    static final int COURIER_FILTER = 9;
+
+    private final DataOutputStream out;
+    private final boolean flushEachEntry;
+    private long previousSequence;
+    private long previousOffset;
+
+    // Flushing each entry keeps an interactive session's journal complete even if the process is killed
+    public JournalWriter(Path file, long startEpochMillis, boolean flushEachEntry) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        this.flushEachEntry = flushEachEntry;
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(startEpochMillis);
+        out.flush();
+    }
+
+    public synchronized void write(JournalEntry entry) throws IOException {
+        writeVarLong(zigzag(entry.sequence() - previousSequence));
+        writeVarLong(zigzag(entry.offsetMicros() - previousOffset));
+        previousSequence = entry.sequence();
+        previousOffset = entry.offsetMicros();
+        out.writeByte(entry.operation().getCode());
+        out.writeByte(entry.arguments().length);
+        for (Object argument : entry.arguments()) {
+            writeArgument(argument);
+        }
+        out.writeByte(entry.outcome().ordinal());
+        writeVarLong(entry.latencyMicros());
+        if (flushEachEntry) {
+            out.flush();
+        }
+    }
+
+    private void writeArgument(Object argument) throws IOException {
+        switch (argument) {
+            case null -> out.writeByte(NULL);
+            case String value -> {
+                out.writeByte(STRING);
+                writeString(value);
+            }
+            case Long value -> {
+                out.writeByte(LONG);
+                writeVarLong(zigzag(value));
+            }
+            case Integer value -> {
+                out.writeByte(INTEGER);
+                writeVarLong(zigzag(value));
+            }
+            case ClientDTO client -> {
+                out.writeByte(CLIENT);
+                writeString(client.getEmail());
+                writeString(client.getName());
+                writeString(client.getPhone());
+                writeVersion(client.getVersion());
+            }
+            case CourierDTO courier -> {
+                out.writeByte(COURIER);
+                writeString(courier.getPhone());
+                writeString(courier.getName());
+                writeString(courier.getTransport());
+                writeVersion(courier.getVersion());
+            }
+            case MealDTO meal -> {
+                out.writeByte(MEAL);
+                writeVarLong(zigzag(meal.getMealID()));
+                writeVarLong(zigzag(meal.getOrderID()));
+                writeString(meal.getName());
+                writeVarLong(zigzag(meal.getPrice()));
+                writeVarLong(zigzag(meal.getWeight()));
+                writeVarLong(zigzag(meal.getServingSize()));
+                writeVersion(meal.getVersion());
+            }
+            case OrderDTO order -> {
+                out.writeByte(ORDER);
+                writeVarLong(zigzag(order.getOrderID()));
+                writeString(order.getOrderDate());
+                writeString(order.getCourierPhone());
+                writeString(order.getDeliveryDate());
+                writeString(order.getClientEmail());
+                writeVarLong(zigzag(order.getRating()));
+                writeString(order.getDeliveryAddress());
+                writeVersion(order.getVersion());
+            }
+            case ClientFilterParameters parameters -> {
+                out.writeByte(CLIENT_FILTER);
+                writeString(parameters.getOrderStartDate());
+                writeVarLong(zigzag(parameters.getMaxMealPrice()));
+                writeString(parameters.getEmail());
+            }
+            case CourierFilterParameters parameters -> {
+                out.writeByte(COURIER_FILTER);
+                writeString(parameters.getStartDeliveryDate());
+                writeVarLong(zigzag(parameters.getMinRating()));
+            }
+            default -> throw new IllegalArgumentException("Cannot journal an argument of type " + argument.getClass().getName() + ".");
+        }
+    }
+
+    // Length + 1, so 0 stands for null
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    private void writeVersion(Long version) throws IOException {
+        writeVarLong(version == null ? 0 : version + 1);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
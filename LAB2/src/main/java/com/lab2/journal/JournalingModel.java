@@ -0,0 +1,202 @@
+package com.lab2.journal;
+
+import com.lab2.common.ClientAnalytics;
+import com.lab2.common.ClientFilterParameters;
+import com.lab2.common.CourierAnalytics;
+import com.lab2.common.CourierFilterParameters;
+import com.lab2.dto.ClientDTO;
+import com.lab2.dto.CourierDTO;
+import com.lab2.dto.MealDTO;
+import com.lab2.dto.OrderDTO;
+import com.lab2.entity.Client;
+import com.lab2.entity.Courier;
+import com.lab2.entity.Meal;
+import com.lab2.entity.Order;
+import com.lab2.model.Model;
+import com.lab2.util.Error;
+import com.lab2.util.Result;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.tuple.Pair;
+
+// A Model that appends every operation the Controller issues to a journal. Operations the Model runs on
+// its own behalf (addOrder looking up the courier) go through these overrides too, only the outermost call
+// of a thread is recorded. A journal that cannot be written is reported once and recording stops.
+public class JournalingModel extends Model {
+    private final JournalWriter writer;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadLocal<Boolean> recording = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private volatile boolean failed;
+
+    public JournalingModel(JournalWriter writer) {
+        this.writer = writer;
+    }
+
+    private <T> T record(JournalOperation operation, Supplier<T> call, Object... arguments) {
+        if (failed || recording.get()) {
+            return call.get();
+        }
+
+        recording.set(Boolean.TRUE);
+        long start = System.nanoTime();
+        JournalEntry.Outcome outcome = JournalEntry.Outcome.FAILED;
+        try {
+            T result = call.get();
+            outcome = JournalEntry.outcomeOf(result);
+            return result;
+        } finally {
+            long end = System.nanoTime();
+            recording.set(Boolean.FALSE);
+            try {
+                writer.write(new JournalEntry(sequence.getAndIncrement(), (start - startNanos) / 1000, operation, arguments,
+                    outcome, (end - start) / 1000));
+            } catch (IOException e) {
+                failed = true;
+                System.err.println("Stopped recording the journal: " + e.getMessage());
+            }
+        }
+    }
+
+    private void record(JournalOperation operation, Runnable call, Object... arguments) {
+        record(operation, () -> {
+            call.run();
+            return null;
+        }, arguments);
+    }
+
+    @Override
+    public Optional<Error> addClient(ClientDTO client) throws IllegalStateException {
+        return record(JournalOperation.ADD_CLIENT, () -> super.addClient(client), client);
+    }
+
+    @Override
+    public List<Client> getAllClients() throws IllegalStateException {
+        return record(JournalOperation.GET_ALL_CLIENTS, () -> super.getAllClients());
+    }
+
+    @Override
+    public Result<Error, Client> getClient(String email) throws IllegalStateException {
+        return record(JournalOperation.GET_CLIENT, () -> super.getClient(email), email);
+    }
+
+    @Override
+    public Optional<Error> updateClient(ClientDTO client) throws IllegalStateException {
+        return record(JournalOperation.UPDATE_CLIENT, () -> super.updateClient(client), client);
+    }
+
+    @Override
+    public Optional<Error> deleteClient(String email) throws IllegalStateException {
+        return record(JournalOperation.DELETE_CLIENT, () -> super.deleteClient(email), email);
+    }
+
+    @Override
+    public Optional<Pair<Client, Integer>> getClientWithMostOrders() throws IllegalStateException {
+        return record(JournalOperation.GET_CLIENT_WITH_MOST_ORDERS, () -> super.getClientWithMostOrders());
+    }
+
+    @Override
+    public void generateRandomClients(int numberOfRecords) throws IllegalStateException {
+        record(JournalOperation.GENERATE_RANDOM_CLIENTS, () -> super.generateRandomClients(numberOfRecords), numberOfRecords);
+    }
+
+    @Override
+    public Optional<Error> addCourier(CourierDTO courier) throws IllegalStateException {
+        return record(JournalOperation.ADD_COURIER, () -> super.addCourier(courier), courier);
+    }
+
+    @Override
+    public List<Courier> getAllCouriers() throws IllegalStateException {
+        return record(JournalOperation.GET_ALL_COURIERS, () -> super.getAllCouriers());
+    }
+
+    @Override
+    public Result<Error, Courier> getCourier(String phone) throws IllegalStateException {
+        return record(JournalOperation.GET_COURIER, () -> super.getCourier(phone), phone);
+    }
+
+    @Override
+    public Optional<Error> updateCourier(CourierDTO courier) throws IllegalStateException {
+        return record(JournalOperation.UPDATE_COURIER, () -> super.updateCourier(courier), courier);
+    }
+
+    @Override
+    public Optional<Error> deleteCourier(String phone) throws IllegalStateException {
+        return record(JournalOperation.DELETE_COURIER, () -> super.deleteCourier(phone), phone);
+    }
+
+    @Override
+    public List<Pair<Courier, Integer>> getCouriersWithMostOrders(int numberOfRecords) throws IllegalStateException {
+        return record(JournalOperation.GET_COURIERS_WITH_MOST_ORDERS, () -> super.getCouriersWithMostOrders(numberOfRecords), numberOfRecords);
+    }
+
+    @Override
+    public void generateRandomCouriers(int numberOfRecords) {
+        record(JournalOperation.GENERATE_RANDOM_COURIERS, () -> super.generateRandomCouriers(numberOfRecords), numberOfRecords);
+    }
+
+    @Override
+    public Optional<Error> addMeal(MealDTO meal) throws IllegalStateException {
+        return record(JournalOperation.ADD_MEAL, () -> super.addMeal(meal), meal);
+    }
+
+    @Override
+    public List<Meal> getAllMeals() throws IllegalStateException {
+        return record(JournalOperation.GET_ALL_MEALS, () -> super.getAllMeals());
+    }
+
+    @Override
+    public Result<Error, Meal> getMeal(long mealID) throws IllegalStateException {
+        return record(JournalOperation.GET_MEAL, () -> super.getMeal(mealID), mealID);
+    }
+
+    @Override
+    public Optional<Error> updateMeal(MealDTO meal) throws IllegalStateException {
+        return record(JournalOperation.UPDATE_MEAL, () -> super.updateMeal(meal), meal);
+    }
+
+    @Override
+    public Optional<Error> deleteMeal(long mealID) {
+        return record(JournalOperation.DELETE_MEAL, () -> super.deleteMeal(mealID), mealID);
+    }
+
+    @Override
+    public Optional<Error> addOrder(OrderDTO order) throws IllegalStateException {
+        return record(JournalOperation.ADD_ORDER, () -> super.addOrder(order), order);
+    }
+
+    @Override
+    public List<Order> getAllOrders() throws IllegalStateException {
+        return record(JournalOperation.GET_ALL_ORDERS, () -> super.getAllOrders());
+    }
+
+    @Override
+    public Result<Error, Order> getOrder(long orderID) throws IllegalStateException {
+        return record(JournalOperation.GET_ORDER, () -> super.getOrder(orderID), orderID);
+    }
+
+    @Override
+    public Optional<Error> updateOrder(OrderDTO order) throws IllegalStateException {
+        return record(JournalOperation.UPDATE_ORDER, () -> super.updateOrder(order), order);
+    }
+
+    @Override
+    public Optional<Error> deleteOrder(long orderID) throws IllegalStateException {
+        return record(JournalOperation.DELETE_ORDER, () -> super.deleteOrder(orderID), orderID);
+    }
+
+    @Override
+    public Result<Error, ClientAnalytics> fetchClientAnalytics(ClientFilterParameters parameters) throws IllegalStateException {
+        return record(JournalOperation.FETCH_CLIENT_ANALYTICS, () -> super.fetchClientAnalytics(parameters), parameters);
+    }
+
+    @Override
+    public Result<Error, ArrayList<CourierAnalytics>> fetchCourierAnalytics(CourierFilterParameters parameters) throws IllegalStateException {
+        return record(JournalOperation.FETCH_COURIER_ANALYTICS, () -> super.fetchCourierAnalytics(parameters), parameters);
+    }
+}
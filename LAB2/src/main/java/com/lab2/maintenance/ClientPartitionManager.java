@@ -0,0 +1,250 @@
+package com.lab2.maintenance;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+// Moves "Client" to HASH partitioning on "Email" without blocking writers for the duration of
+// the copy. A mirror trigger keeps the new table in sync while existing rows are copied in
+// short keyset-paginated chunks. Only the final swap takes an exclusive lock.
+public class ClientPartitionManager extends SchemaMigration {
+    // The definition is the part from USING on, which does not name the table
+    private record SecondaryIndex(String name, boolean unique, String definition) {
+        boolean matches(SecondaryIndex other) {
+            return unique == other.unique && definition.equals(other.definition);
+        }
+    }
+
+    private static final String STAGING_TABLE = "Client_partitioned";
+    private static final String STAGED_INDEX = STAGING_TABLE + "_idx";
+    private static final String LEGACY_TABLE = "Client_legacy";
+    private static final String MIRROR_TRIGGER = "Client_mirror";
+
+    public ClientPartitionManager(Connection connection) {
+        super(connection);
+    }
+
+    public boolean isPartitioned() throws IllegalStateException {
+        return isPartitioned("Client");
+    }
+
+    public long migrate(int partitionCount, int chunkSize, long pauseMillis, LongConsumer progress) throws IllegalStateException {
+        if (partitionCount < 2) {
+            throw new IllegalArgumentException("At least two partitions are required.");
+        }
+        if (isPartitioned()) {
+            return 0;
+        }
+
+        prepare(partitionCount);
+        long copied = copyInChunks(chunkSize, pauseMillis, progress);
+        swap();
+        return copied;
+    }
+
+    // A point lookup by email should only ever touch a single partition
+    public List<String> explainLookup(String email) throws IllegalStateException {
+        try {
+            return explainRelations("SELECT * FROM \"Client\" WHERE \"Email\" = ?", "Client_p\\d+\\b", email);
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while explaining a client lookup.", e);
+        }
+    }
+
+    private void prepare(int partitionCount) throws IllegalStateException {
+        // Leftovers of an interrupted run are discarded, the copy starts over
+        inTransaction("creating the partitioned \"Client\" table", () -> {
+            execute("DROP TRIGGER IF EXISTS \"" + MIRROR_TRIGGER + "\" ON \"Client\"");
+            execute("DROP TABLE IF EXISTS \"" + STAGING_TABLE + "\"");
+            execute("CREATE TABLE \"" + STAGING_TABLE + "\" (LIKE \"Client\" INCLUDING DEFAULTS INCLUDING CONSTRAINTS INCLUDING STORAGE) PARTITION BY HASH (\"Email\")");
+            execute("ALTER TABLE \"" + STAGING_TABLE + "\" ADD CONSTRAINT \"" + STAGING_TABLE + "_pkey\" PRIMARY KEY (\"Email\")");
+            for (int i = 0; i < partitionCount; i++) {
+                execute("CREATE TABLE \"Client_p" + i + "\" PARTITION OF \"" + STAGING_TABLE + "\" FOR VALUES WITH (MODULUS " + partitionCount + ", REMAINDER " + i + ")");
+            }
+            // Created on the parent, so every partition gets its own hash index
+            execute("CREATE INDEX \"" + STAGING_TABLE + "_Email_hash\" ON \"" + STAGING_TABLE + "\" USING hash (\"Email\")");
+
+            // Secondary indexes of "Client" go on the parent while it is empty, the copy then fills them as it goes.
+            // They get their names back in the swap.
+            List<SecondaryIndex> staged = secondaryIndexes(STAGING_TABLE);
+            int copies = 0;
+            for (SecondaryIndex index : secondaryIndexes("Client")) {
+                if (staged.stream().noneMatch(index::matches)) {
+                    execute("CREATE " + (index.unique() ? "UNIQUE " : "") + "INDEX \"" + STAGED_INDEX + copies++ + "\" ON \""
+                        + STAGING_TABLE + "\"" + index.definition());
+                }
+            }
+
+            execute("""
+                CREATE OR REPLACE FUNCTION "Client_mirror"() RETURNS trigger AS $$
+                BEGIN
+                    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+                        DELETE FROM "Client_partitioned" WHERE "Email" = OLD."Email";
+                    END IF;
+                    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+                        INSERT INTO "Client_partitioned" SELECT NEW.* ON CONFLICT ("Email") DO NOTHING;
+                    END IF;
+                    RETURN NULL;
+                END
+                $$ LANGUAGE plpgsql
+                """);
+            execute("""
+                CREATE TRIGGER "Client_mirror" AFTER INSERT OR UPDATE OR DELETE ON "Client"
+                FOR EACH ROW EXECUTE FUNCTION "Client_mirror"()
+                """);
+        });
+    }
+
+    private long copyInChunks(int chunkSize, long pauseMillis, LongConsumer progress) throws IllegalStateException {
+        // FOR SHARE keeps a concurrent delete from slipping in between reading a row and copying it
+        final String sql = """
+                WITH chunk AS (
+                    SELECT * FROM "Client"
+                    WHERE "Email" > ?
+                    ORDER BY "Email"
+                    LIMIT ?
+                    FOR SHARE
+                ), copied AS (
+                    INSERT INTO "Client_partitioned" SELECT * FROM chunk
+                    ON CONFLICT ("Email") DO NOTHING
+                )
+                SELECT MAX("Email"), COUNT(*) FROM chunk
+                """;
+
+        long copied = 0;
+        String lastEmail = "";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            while (true) {
+                pstmt.setString(1, lastEmail);
+                pstmt.setInt(2, chunkSize);
+
+                long chunkRows;
+                try (ResultSet resultSet = pstmt.executeQuery()) {
+                    resultSet.next();
+                    chunkRows = resultSet.getLong(2);
+                    if (chunkRows == 0) {
+                        break;
+                    }
+                    lastEmail = resultSet.getString(1);
+                }
+
+                copied += chunkRows;
+                progress.accept(copied);
+                if (pauseMillis > 0) {
+                    Thread.sleep(pauseMillis);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while copying clients after '" + lastEmail + "'.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Copying clients was interrupted after '" + lastEmail + "'.", e);
+        }
+
+        return copied;
+    }
+
+    private void swap() throws IllegalStateException {
+        List<String> foreignKeys;
+        List<String> validations;
+        try {
+            // Partitioned tables such as "Order" do not support NOT VALID foreign keys, those are checked during the swap.
+            // A reference to a partitioned table gets generated per-partition constraints named like "Order_Client Email_fkey",
+            // so constraints that already use such names are added first to keep them.
+            foreignKeys = queryStrings("""
+                SELECT format('ALTER TABLE %s ADD CONSTRAINT %I %s', conrelid::regclass, conname, pg_get_constraintdef(con.oid))
+                    || CASE WHEN relkind = 'p' THEN '' ELSE ' NOT VALID' END
+                FROM pg_constraint con JOIN pg_class ON pg_class.oid = conrelid
+                WHERE confrelid = '"Client"'::regclass AND contype = 'f' AND conparentid = 0
+                ORDER BY conname LIKE relname || '\\_%\\_fkey%' DESC, conname
+                """);
+            validations = queryStrings("""
+                SELECT format('ALTER TABLE %s VALIDATE CONSTRAINT %I', conrelid::regclass, conname)
+                FROM pg_constraint con JOIN pg_class ON pg_class.oid = conrelid
+                WHERE confrelid = '"Client"'::regclass AND contype = 'f' AND conparentid = 0 AND relkind <> 'p'
+                """);
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while reading references to \"Client\".", e);
+        }
+
+        inTransaction("swapping in the partitioned \"Client\" table", () -> {
+            execute("LOCK TABLE \"Client\" IN ACCESS EXCLUSIVE MODE");
+
+            // An index added to "Client" during the copy has no counterpart, the swap is refused instead of losing it
+            List<SecondaryIndex> staged = secondaryIndexes(STAGING_TABLE);
+            List<String> renameIndexes = new ArrayList<>();
+            for (SecondaryIndex index : secondaryIndexes("Client")) {
+                SecondaryIndex copy = staged.stream().filter(index::matches).findFirst()
+                    .orElseThrow(() -> new IllegalStateException("The partitioned \"Client\" table has no index like \"" + index.name()
+                        + "\", migrate again to rebuild it."));
+                if (copy.name().startsWith(STAGED_INDEX)) {
+                    renameIndexes.add("ALTER INDEX \"" + copy.name() + "\" RENAME TO \"" + index.name() + "\"");
+                }
+            }
+
+            List<String> triggers = queryStrings("""
+                SELECT pg_get_triggerdef(oid) FROM pg_trigger
+                WHERE tgrelid = '"Client"'::regclass AND NOT tgisinternal AND tgname <> 'Client_mirror'
+                """);
+            List<String> dropForeignKeys = queryStrings("""
+                SELECT format('ALTER TABLE %s DROP CONSTRAINT %I', conrelid::regclass, conname)
+                FROM pg_constraint
+                WHERE confrelid = '"Client"'::regclass AND contype = 'f' AND conparentid = 0
+                """);
+
+            for (String statement : dropForeignKeys) {
+                execute(statement);
+            }
+            execute("DROP TRIGGER \"" + MIRROR_TRIGGER + "\" ON \"Client\"");
+            execute("DROP FUNCTION \"" + MIRROR_TRIGGER + "\"()");
+            execute("ALTER TABLE \"Client\" RENAME TO \"" + LEGACY_TABLE + "\"");
+            execute("ALTER TABLE \"" + STAGING_TABLE + "\" RENAME TO \"Client\"");
+            execute("DROP TABLE \"" + LEGACY_TABLE + "\"");
+            execute("ALTER TABLE \"Client\" RENAME CONSTRAINT \"" + STAGING_TABLE + "_pkey\" TO \"Client_pkey\"");
+            execute("ALTER INDEX \"" + STAGING_TABLE + "_Email_hash\" RENAME TO \"Client_Email_hash\"");
+            for (String statement : renameIndexes) {
+                execute(statement);
+            }
+
+            for (String trigger : triggers) {
+                execute(trigger);
+            }
+            // NOT VALID keeps the swap short, those constraints are validated below without blocking writes
+            for (String statement : foreignKeys) {
+                execute(statement);
+            }
+        });
+
+        try {
+            for (String statement : validations) {
+                execute(statement);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while validating references to \"Client\".", e);
+        }
+    }
+
+    private List<SecondaryIndex> secondaryIndexes(String table) throws SQLException {
+        final String sql = """
+                SELECT ic.relname, i.indisunique, substring(pg_get_indexdef(i.indexrelid) FROM ' USING .*$')
+                FROM pg_index i JOIN pg_class ic ON ic.oid = i.indexrelid
+                WHERE i.indrelid = to_regclass(?) AND NOT i.indisprimary
+                ORDER BY ic.relname
+                """;
+
+        List<SecondaryIndex> indexes = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, "\"" + table + "\"");
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    indexes.add(new SecondaryIndex(resultSet.getString(1), resultSet.getBoolean(2), resultSet.getString(3)));
+                }
+            }
+        }
+        return indexes;
+    }
+}
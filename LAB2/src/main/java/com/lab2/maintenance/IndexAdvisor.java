@@ -0,0 +1,468 @@
+package com.lab2.maintenance;
+
+import com.lab2.diagnostics.StatementCapture;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Explains the statements the Model issues (plus the heaviest ones recorded by pg_stat_statements)
+// and derives index advice from the plans: indexes nothing uses, sequential scans that an index would
+// avoid and index scans that a covering index would turn into index-only scans. Candidates are costed
+// with hypopg when it is installed, or with real indexes that are rolled back when trial indexes are allowed.
+public class IndexAdvisor extends SchemaMigration {
+    public record UnusedIndex(String table, String index, long scans, long sizeBytes, boolean usedByWorkload, String dropStatement) {
+    }
+
+    public record Recommendation(String reason, List<String> queries, double costBefore, double costAfter, String createStatement) {
+        public boolean isEstimated() {
+            return !Double.isNaN(costAfter);
+        }
+
+        public double benefit() {
+            return costBefore - costAfter;
+        }
+    }
+
+    public record Report(List<String> workload, List<UnusedIndex> unusedIndexes, List<Recommendation> recommendations, List<String> notes) {
+    }
+
+    private record WorkloadQuery(String name, String sql, long calls) {
+    }
+
+    private record Candidate(String table, String method, List<String> keys, List<String> include) {
+        String definition() {
+            String statement = "CREATE INDEX ON " + table + (method.equals("btree") ? "" : " USING " + method) + " (" + String.join(", ", keys) + ")";
+            return include.isEmpty() ? statement : statement + " INCLUDE (" + String.join(", ", include) + ")";
+        }
+    }
+
+    private static final int STATEMENT_LIMIT = 20;
+    private static final int MAX_INCLUDED_COLUMNS = 3;
+    private static final double BRIN_CORRELATION = 0.9;
+
+    private static final Pattern SCAN_NODE = Pattern.compile(
+        "(Seq Scan|Index Scan|Index Only Scan|Bitmap Heap Scan)(?: Backward)?(?: using (?:\"[^\"]+\"|\\S+))? on (?:\\w+\\.)?(\"[^\"]+\"|\\w+)(?: (\\w+))?\\s+\\(cost=");
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$(\\d+)");
+    private static final Pattern TOTAL_COST = Pattern.compile("\\(cost=[\\d.]+\\.\\.([\\d.]+)");
+
+    private final boolean allowTrialIndexes;
+
+    public IndexAdvisor(Connection connection, boolean allowTrialIndexes) {
+        super(connection);
+        this.allowTrialIndexes = allowTrialIndexes;
+    }
+
+    // The operations are run once to capture their statements, so they should only read
+    public Report advise(Map<String, Runnable> modelOperations) throws IllegalStateException {
+        try {
+            List<String> notes = new ArrayList<>();
+            List<WorkloadQuery> workload = new ArrayList<>(modelWorkload(modelOperations, notes));
+            workload.addAll(referenceChecks());
+            workload = weighByRecordedCalls(workload, notes);
+
+            Map<Candidate, Set<String>> candidates = new LinkedHashMap<>();
+            Map<WorkloadQuery, Double> costs = new LinkedHashMap<>();
+            Set<String> usedIndexes = new LinkedHashSet<>();
+            for (WorkloadQuery query : workload) {
+                List<String> plan;
+                try {
+                    plan = explain(query);
+                } catch (SQLException e) {
+                    notes.add("Skipped " + query.name() + ": " + e.getMessage());
+                    continue;
+                }
+                costs.put(query, totalCost(plan));
+                for (Candidate candidate : candidatesFor(plan, usedIndexes)) {
+                    candidates.computeIfAbsent(candidate, _ -> new LinkedHashSet<>()).add(query.name());
+                }
+            }
+
+            List<Recommendation> recommendations = estimate(candidates, costs, notes);
+            return new Report(workload.stream().map(WorkloadQuery::name).toList(), unusedIndexes(usedIndexes, notes), recommendations, notes);
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while analysing index usage.", e);
+        }
+    }
+
+    // The statements the Model prepares while running each operation, captured rather than copied so they
+    // cannot drift from what the application really sends
+    private List<WorkloadQuery> modelWorkload(Map<String, Runnable> modelOperations, List<String> notes) {
+        Map<String, String> statements = new LinkedHashMap<>();
+        for (Map.Entry<String, Runnable> operation : modelOperations.entrySet()) {
+            List<String> captured;
+            try {
+                captured = StatementCapture.capture(operation.getValue());
+            } catch (RuntimeException e) {
+                notes.add("Skipped " + operation.getKey() + ": " + e.getMessage());
+                continue;
+            }
+            for (int i = 0; i < captured.size(); i++) {
+                String name = captured.size() > 1 ? operation.getKey() + " #" + (i + 1) : operation.getKey();
+                statements.putIfAbsent(numberPlaceholders(captured.get(i)), name);
+            }
+        }
+
+        List<WorkloadQuery> workload = new ArrayList<>();
+        statements.forEach((sql, name) -> workload.add(new WorkloadQuery(name, sql, 1)));
+        return workload;
+    }
+
+    // Deleting or re-keying a referenced row makes PostgreSQL look up the rows referencing it, one lookup per foreign key
+    private List<WorkloadQuery> referenceChecks() throws SQLException {
+        final String sql = """
+                SELECT format('reference check of %s', c.conname),
+                    format('SELECT 1 FROM %s x WHERE x.%I = $1 FOR KEY SHARE OF x', c.conrelid::regclass, a.attname)
+                FROM pg_constraint c
+                JOIN pg_attribute a ON a.attrelid = c.conrelid AND a.attnum = c.conkey[1]
+                WHERE c.contype = 'f' AND cardinality(c.conkey) = 1 AND c.conparentid = 0
+                AND c.connamespace = 'public'::regnamespace
+                ORDER BY c.conname
+                """;
+
+        List<WorkloadQuery> workload = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(sql); ResultSet resultSet = pstmt.executeQuery()) {
+            while (resultSet.next()) {
+                workload.add(new WorkloadQuery(resultSet.getString(1), resultSet.getString(2), 1));
+            }
+        }
+        return workload;
+    }
+
+    // Every statement is weighted by the calls pg_stat_statements counted for it. Statements it has no count for,
+    // or every statement when it is not installed, count once. The heaviest recorded statements on our tables are
+    // analysed as well. Statements on partitions and staging tables come from the maintenance tools and are left out.
+    private List<WorkloadQuery> weighByRecordedCalls(List<WorkloadQuery> workload, List<String> notes) throws SQLException {
+        if (queryString("SELECT 1 FROM pg_extension WHERE extname = 'pg_stat_statements'") == null) {
+            notes.add("pg_stat_statements is not installed, every statement counts once.");
+            return workload;
+        }
+        final String sql = """
+                SELECT query, MIN(queryid) AS queryid, SUM(calls) AS calls, SUM(total_exec_time) AS total_exec_time, query = ANY(?) AS known
+                FROM pg_stat_statements
+                WHERE dbid = (SELECT oid FROM pg_database WHERE datname = current_database())
+                GROUP BY query
+                HAVING query = ANY(?) OR (
+                    query ~ '"(Client|Courier|Order|Meal)"'
+                    AND query ~* '^\\s*(SELECT|WITH|UPDATE|DELETE)\\M'
+                    AND query !~* 'pg_stat_statements|pg_catalog|EXPLAIN'
+                    AND query !~ '"(Client|Order)_')
+                ORDER BY known DESC, total_exec_time DESC
+                """;
+
+        Map<String, WorkloadQuery> recorded = new LinkedHashMap<>();
+        int others = 0;
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            Array known = connection.createArrayOf("text", workload.stream().map(WorkloadQuery::sql).toArray());
+            pstmt.setArray(1, known);
+            pstmt.setArray(2, known);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    if (resultSet.getBoolean("known") || others++ < STATEMENT_LIMIT) {
+                        String query = resultSet.getString("query");
+                        recorded.put(query, new WorkloadQuery("pg_stat_statements " + resultSet.getLong("queryid"), query, resultSet.getLong("calls")));
+                    }
+                }
+            }
+        }
+
+        List<WorkloadQuery> weighted = new ArrayList<>();
+        for (WorkloadQuery query : workload) {
+            WorkloadQuery match = recorded.remove(query.sql());
+            weighted.add(match != null ? new WorkloadQuery(query.name(), query.sql(), match.calls()) : query);
+        }
+        weighted.addAll(recorded.values());
+        return weighted;
+    }
+
+    private List<Candidate> candidatesFor(List<String> plan, Set<String> usedIndexes) throws SQLException {
+        List<Candidate> candidates = new ArrayList<>();
+        for (int i = 0; i < plan.size(); i++) {
+            Matcher node = SCAN_NODE.matcher(plan.get(i));
+            if (!node.find()) {
+                continue;
+            }
+
+            String scan = node.group(1);
+            String relation = node.group(2);
+            String qualifier = node.group(3) != null ? node.group(3) : relation;
+            String output = "";
+            String condition = "";
+            for (int j = i + 1; j < plan.size() && !plan.get(j).contains("(cost="); j++) {
+                String detail = plan.get(j).trim();
+                if (detail.startsWith("Output: ")) {
+                    output = detail;
+                } else if (detail.startsWith("Filter: ") || detail.startsWith("Index Cond: ") || detail.startsWith("Recheck Cond: ")) {
+                    condition += " " + detail;
+                }
+            }
+
+            Matcher index = Pattern.compile("using (\"[^\"]+\"|\\S+) on").matcher(plan.get(i));
+            if (index.find()) {
+                usedIndexes.add(index.group(1).replace("\"", ""));
+            }
+
+            String table = parentTable(relation);
+            List<String> equalities = new ArrayList<>();
+            List<String> ranges = new ArrayList<>();
+            Matcher comparison = Pattern.compile(Pattern.quote(qualifier) + "\\.(\"[^\"]+\"|\\w+)\\)?(?:::[\\w ]+?)?\\s*(<=|>=|<>|=|<|>)").matcher(condition);
+            while (comparison.find()) {
+                List<String> columns = comparison.group(2).equals("=") ? equalities : ranges;
+                if (!comparison.group(2).equals("<>") && !equalities.contains(comparison.group(1)) && !columns.contains(comparison.group(1))) {
+                    columns.add(comparison.group(1));
+                }
+            }
+            ranges.removeAll(equalities);
+
+            List<String> outputs = new ArrayList<>();
+            Matcher column = Pattern.compile(Pattern.quote(qualifier) + "\\.(\"[^\"]+\"|\\w+)").matcher(output);
+            while (column.find()) {
+                if (!outputs.contains(column.group(1))) {
+                    outputs.add(column.group(1));
+                }
+            }
+
+            List<String> keys = new ArrayList<>(equalities);
+            keys.addAll(ranges);
+            List<String> include = new ArrayList<>(outputs);
+            include.removeAll(keys);
+
+            if (scan.equals("Seq Scan") && !keys.isEmpty()) {
+                if (equalities.size() == 1 && ranges.isEmpty()) {
+                    candidates.add(new Candidate(table, "hash", keys, List.of()));
+                } else if (equalities.isEmpty() && ranges.size() == 1 && isNaturallyOrdered(relation, ranges.get(0))) {
+                    candidates.add(new Candidate(table, "brin", keys, List.of()));
+                }
+                candidates.add(new Candidate(table, "btree", keys, coveringColumns(relation, include)));
+            } else if ((scan.equals("Index Scan") || scan.equals("Bitmap Heap Scan")) && !keys.isEmpty()) {
+                List<String> covering = coveringColumns(relation, include);
+                if (!covering.isEmpty()) {
+                    candidates.add(new Candidate(table, "btree", keys, covering));
+                }
+            }
+        }
+        return candidates;
+    }
+
+    // Only worth including when the scan reads a few columns, not whole rows
+    private List<String> coveringColumns(String relation, List<String> include) throws SQLException {
+        if (include.isEmpty() || include.size() > MAX_INCLUDED_COLUMNS) {
+            return List.of();
+        }
+        int columnCount = Integer.parseInt(queryString(
+            "SELECT COUNT(*) FROM pg_attribute WHERE attrelid = '" + relation.replace("'", "''") + "'::regclass AND attnum > 0 AND NOT attisdropped"));
+        return include.size() + 1 < columnCount ? include : List.of();
+    }
+
+    // BRIN only pays off when the physical row order follows the column, as it does for dates of appended rows
+    private boolean isNaturallyOrdered(String relation, String column) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT correlation FROM pg_stats WHERE tablename = ? AND attname = ?")) {
+            pstmt.setString(1, relation.replace("\"", ""));
+            pstmt.setString(2, column.replace("\"", ""));
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                return resultSet.next() && Math.abs(resultSet.getDouble(1)) >= BRIN_CORRELATION;
+            }
+        }
+    }
+
+    // Indexes are advised on the partitioned table rather than on one of its partitions
+    private String parentTable(String relation) throws SQLException {
+        String parent = queryString("SELECT inhparent::regclass::text FROM pg_inherits WHERE inhrelid = '" + relation.replace("'", "''") + "'::regclass");
+        return parent != null ? parent : relation;
+    }
+
+    private List<Recommendation> estimate(Map<Candidate, Set<String>> candidates, Map<WorkloadQuery, Double> costs, List<String> notes) throws SQLException {
+        boolean hypothetical = queryString("SELECT 1 FROM pg_extension WHERE extname = 'hypopg'") != null;
+        if (!hypothetical && !allowTrialIndexes) {
+            notes.add("hypopg is not installed and trial indexes are not allowed, the benefit of the candidates is not estimated.");
+        }
+
+        double costBefore = weightedCost(costs.keySet(), costs::get);
+        List<Recommendation> recommendations = new ArrayList<>();
+        for (Map.Entry<Candidate, Set<String>> entry : candidates.entrySet()) {
+            Candidate candidate = entry.getKey();
+            if (isCoveredByExistingIndex(candidate)) {
+                continue;
+            }
+
+            double costAfter = Double.NaN;
+            if (hypothetical && !isPartitioned(candidate.table().replace("\"", ""))) {
+                costAfter = estimateHypothetical(candidate, costs);
+            } else if (allowTrialIndexes) {
+                costAfter = estimateTrial(candidate, costs);
+            }
+
+            // A candidate the planner ignores is not worth creating
+            if (!Double.isNaN(costAfter) && costAfter >= costBefore) {
+                continue;
+            }
+            recommendations.add(new Recommendation(reason(candidate), List.copyOf(entry.getValue()), costBefore, costAfter, createStatement(candidate)));
+        }
+
+        recommendations.sort(Comparator.comparingDouble((Recommendation recommendation) ->
+            recommendation.isEstimated() ? recommendation.benefit() : 0).reversed());
+        return recommendations;
+    }
+
+    // An index leading with the same columns already serves the lookup, small tables are scanned sequentially anyway
+    private boolean isCoveredByExistingIndex(Candidate candidate) throws SQLException {
+        String keys = "(" + String.join(", ", candidate.keys());
+        String include = candidate.include().isEmpty() ? "" : "INCLUDE (" + String.join(", ", candidate.include()) + ")";
+        for (String definition : queryStrings("SELECT pg_get_indexdef(indexrelid) FROM pg_index WHERE indrelid = '" + candidate.table().replace("'", "''") + "'::regclass")) {
+            String columns = definition.substring(definition.indexOf(" USING ") + " USING ".length());
+            columns = columns.substring(columns.indexOf(' ') + 1);
+            if (columns.startsWith(keys) && columns.contains(include)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private double estimateHypothetical(Candidate candidate, Map<WorkloadQuery, Double> costs) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT indexrelid FROM hypopg_create_index(?)")) {
+            pstmt.setString(1, candidate.definition());
+            pstmt.executeQuery().close();
+            return weightedCost(costs.keySet(), this::costOf);
+        } finally {
+            execute("SELECT hypopg_reset()");
+        }
+    }
+
+    // The index is really built, costed and rolled back, which locks the table against writes meanwhile
+    private double estimateTrial(Candidate candidate, Map<WorkloadQuery, Double> costs) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            execute(candidate.definition());
+            return weightedCost(costs.keySet(), this::costOf);
+        } finally {
+            connection.rollback();
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    @FunctionalInterface
+    private interface CostFunction {
+        double cost(WorkloadQuery query) throws SQLException;
+    }
+
+    private double weightedCost(Set<WorkloadQuery> workload, CostFunction costFunction) throws SQLException {
+        double total = 0;
+        for (WorkloadQuery query : workload) {
+            total += costFunction.cost(query) * query.calls();
+        }
+        return total;
+    }
+
+    private double costOf(WorkloadQuery query) throws SQLException {
+        return totalCost(explain(query));
+    }
+
+    // Statements have $n placeholders instead of values. A prepared statement forced to a generic
+    // plan can be explained with NULL arguments, which then never make it into the plan.
+    private List<String> explain(WorkloadQuery query) throws SQLException {
+        String sql = query.sql();
+        int parameterCount = 0;
+        Matcher placeholder = PLACEHOLDER.matcher(sql);
+        while (placeholder.find()) {
+            parameterCount = Math.max(parameterCount, Integer.parseInt(placeholder.group(1)));
+        }
+        String arguments = parameterCount == 0 ? "" : "(" + String.join(", ", Collections.nCopies(parameterCount, "NULL")) + ")";
+
+        execute("SET plan_cache_mode = force_generic_plan");
+        try {
+            execute("PREPARE advisor_statement AS " + sql);
+            try {
+                return queryStrings("EXPLAIN (VERBOSE) EXECUTE advisor_statement" + arguments);
+            } finally {
+                execute("DEALLOCATE advisor_statement");
+            }
+        } finally {
+            execute("RESET plan_cache_mode");
+        }
+    }
+
+    private List<UnusedIndex> unusedIndexes(Set<String> usedIndexes, List<String> notes) throws SQLException {
+        String statsReset = queryString("SELECT stats_reset::text FROM pg_stat_database WHERE datname = current_database()");
+        notes.add("Index scan counts are collected since " + (statsReset != null ? statsReset : "the statistics were created") + ".");
+
+        // Unique indexes enforce constraints, so they stay even when nothing reads through them
+        final String sql = """
+                SELECT format('%I', s.relname), format('%I', s.indexrelname), s.idx_scan, pg_relation_size(s.indexrelid)
+                FROM pg_stat_user_indexes s
+                JOIN pg_index i ON i.indexrelid = s.indexrelid
+                WHERE s.schemaname = 'public' AND NOT i.indisunique
+                ORDER BY s.idx_scan, pg_relation_size(s.indexrelid) DESC
+                """;
+
+        List<UnusedIndex> unused = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(sql); ResultSet resultSet = pstmt.executeQuery()) {
+            while (resultSet.next()) {
+                String index = resultSet.getString(2);
+                long scans = resultSet.getLong(3);
+                boolean usedByWorkload = usedIndexes.contains(index.replace("\"", ""));
+                if (scans == 0) {
+                    unused.add(new UnusedIndex(resultSet.getString(1), index, scans, resultSet.getLong(4), usedByWorkload,
+                        "DROP INDEX CONCURRENTLY " + index));
+                }
+            }
+        }
+        return unused;
+    }
+
+    private String createStatement(Candidate candidate) throws SQLException {
+        // CONCURRENTLY is not supported on partitioned tables
+        String definition = candidate.definition();
+        return isPartitioned(candidate.table().replace("\"", "")) ? definition : definition.replaceFirst("CREATE INDEX", "CREATE INDEX CONCURRENTLY");
+    }
+
+    private static String reason(Candidate candidate) {
+        String columns = String.join(", ", candidate.keys());
+        return switch (candidate.method()) {
+            case "hash" -> "Equality lookups on " + columns + " scan all of " + candidate.table();
+            case "brin" -> "Range filters on " + columns + " scan all of " + candidate.table() + " although it is stored in that order";
+            default -> candidate.include().isEmpty()
+                ? "Filters on " + columns + " scan all of " + candidate.table()
+                : "Scans of " + candidate.table() + " by " + columns + " could be answered from a covering index";
+        };
+    }
+
+    // Hibernate writes JDBC placeholders, the server numbers them as the driver sends the statement
+    private static String numberPlaceholders(String sql) {
+        StringBuilder numbered = new StringBuilder(sql.length() + 16);
+        int parameter = 0;
+        char quote = 0;
+        for (char c : sql.toCharArray()) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '?') {
+                numbered.append('$').append(++parameter);
+                continue;
+            }
+            numbered.append(c);
+        }
+        return numbered.toString();
+    }
+
+    private static double totalCost(List<String> plan) {
+        Matcher matcher = TOTAL_COST.matcher(plan.isEmpty() ? "" : plan.get(0));
+        return matcher.find() ? Double.parseDouble(matcher.group(1)) : 0;
+    }
+}
@@ -0,0 +1,41 @@
+package com.lab2.maintenance;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Transaction and statement helpers for the maintenance jobs that run on a borrowed connection
+final class Jdbc {
+    @FunctionalInterface
+    interface Work {
+        void execute() throws SQLException;
+    }
+
+    private Jdbc() {
+    }
+
+    // Commits the work or rolls it back, the connection is left in the auto-commit mode it had
+    static void inTransaction(Connection connection, String description, Work work) throws IllegalStateException {
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                work.execute();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while " + description + ".", e);
+        }
+    }
+
+    static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.lab2.maintenance;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Keeps "Order" range partitioned by "Order Date", one partition per month. PostgreSQL cannot
+// reference a partitioned table by "Order ID" alone, so the foreign key from "Meal" is replaced
+// with an index on "Meal"("Order ID") and a pair of triggers with the same semantics. For the same
+// reason the primary key includes "Order Date", and "Order ID" is kept unique through "Order Key".
+public class OrderPartitionManager extends SchemaMigration {
+    public record PruningReport(String query, int scannedPartitions, int totalPartitions) {
+        public boolean isPruned() {
+            return scannedPartitions < totalPartitions;
+        }
+    }
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("'y'yyyy'm'MM");
+    private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Pattern PARTITION_NAME = Pattern.compile("Order_y(\\d{4})m(\\d{2})");
+    private static final String PLAN_PARTITION = "Order_(?:y\\d{4}m\\d{2}|default)\\b";
+    private static final String DEFAULT_PARTITION = "Order_default";
+    private static final String LEGACY_TABLE = "Order_legacy";
+    private static final String KEY_TABLE = "Order Key";
+
+    public OrderPartitionManager(Connection connection) {
+        super(connection);
+    }
+
+    public boolean isPartitioned() throws IllegalStateException {
+        return isPartitioned("Order");
+    }
+
+    public void migrate(int monthsAhead) throws IllegalStateException {
+        if (isPartitioned()) {
+            // Tables partitioned before "Order Key" existed get it now
+            inTransaction("claiming the keys of \"Order\"", () -> {
+                execute("LOCK TABLE \"Order\" IN SHARE ROW EXCLUSIVE MODE");
+                if (queryString("SELECT to_regclass('\"" + KEY_TABLE + "\"')::text") == null) {
+                    claimOrderKeys();
+                }
+            });
+            ensureFuturePartitions(monthsAhead);
+            return;
+        }
+
+        inTransaction("migrating \"Order\" to monthly partitions", () -> {
+            execute("LOCK TABLE \"Order\" IN ACCESS EXCLUSIVE MODE");
+
+            // Everything that hangs off the old heap has to be recreated on the partitioned one
+            List<String> indexes = queryStrings("""
+                SELECT pg_get_indexdef(indexrelid) FROM pg_index
+                WHERE indrelid = '"Order"'::regclass AND NOT indisprimary
+                """);
+            List<String> foreignKeys = queryStrings("""
+                SELECT format('ALTER TABLE "Order" ADD CONSTRAINT %I %s', conname, pg_get_constraintdef(oid))
+                FROM pg_constraint WHERE conrelid = '"Order"'::regclass AND contype = 'f'
+                """);
+            List<String> triggers = queryStrings("""
+                SELECT pg_get_triggerdef(oid) FROM pg_trigger
+                WHERE tgrelid = '"Order"'::regclass AND NOT tgisinternal
+                """);
+            boolean cascadeMeals = "c".equals(queryString("""
+                SELECT confdeltype::text FROM pg_constraint
+                WHERE confrelid = '"Order"'::regclass AND conrelid = '"Meal"'::regclass AND contype = 'f'
+                LIMIT 1
+                """));
+            List<String> referencingKeys = queryStrings("""
+                SELECT format('ALTER TABLE %s DROP CONSTRAINT %I', conrelid::regclass, conname)
+                FROM pg_constraint WHERE confrelid = '"Order"'::regclass AND contype = 'f'
+                """);
+            String primaryKey = queryString("""
+                SELECT conname FROM pg_constraint WHERE conrelid = '"Order"'::regclass AND contype = 'p'
+                """);
+            Timestamp firstOrderDate = queryTimestamp("SELECT MIN(\"Order Date\") FROM \"Order\"");
+
+            for (String statement : referencingKeys) {
+                execute(statement);
+            }
+            execute("ALTER TABLE \"Order\" RENAME TO \"" + LEGACY_TABLE + "\"");
+            if (primaryKey != null) {
+                execute("ALTER TABLE \"" + LEGACY_TABLE + "\" RENAME CONSTRAINT \"" + primaryKey + "\" TO \"" + LEGACY_TABLE + "_pkey\"");
+            }
+
+            execute("""
+                CREATE TABLE "Order" (LIKE "Order_legacy" INCLUDING DEFAULTS INCLUDING CONSTRAINTS INCLUDING STORAGE)
+                PARTITION BY RANGE ("Order Date")
+                """);
+            // The partition key has to be part of every unique constraint
+            execute("ALTER TABLE \"Order\" ADD PRIMARY KEY (\"Order ID\", \"Order Date\")");
+            for (String statement : foreignKeys) {
+                execute(statement);
+            }
+
+            execute("CREATE TABLE \"" + DEFAULT_PARTITION + "\" PARTITION OF \"Order\" DEFAULT");
+            YearMonth first = firstOrderDate == null ? YearMonth.now() : YearMonth.from(firstOrderDate.toLocalDateTime());
+            for (YearMonth month = first; !month.isAfter(YearMonth.now().plusMonths(monthsAhead)); month = month.plusMonths(1)) {
+                execute("CREATE TABLE \"" + partitionName(month) + "\" PARTITION OF \"Order\" " + bounds(month));
+            }
+
+            long rowCount = executeUpdate("INSERT INTO \"Order\" SELECT * FROM \"" + LEGACY_TABLE + "\"");
+            execute("DROP TABLE \"" + LEGACY_TABLE + "\"");
+            logger.info("Moved " + rowCount + " orders into monthly partitions.");
+
+            for (String index : indexes) {
+                if (index.startsWith("CREATE UNIQUE") && !index.contains("\"Order Date\"")) {
+                    logger.warning("Skipping unique index without the partition key: " + index);
+                    continue;
+                }
+                execute(index);
+            }
+            for (String trigger : triggers) {
+                execute(trigger);
+            }
+
+            claimOrderKeys();
+            linkMeals(cascadeMeals);
+        });
+    }
+
+    public List<String> ensureFuturePartitions(int monthsAhead) throws IllegalStateException {
+        List<String> created = new ArrayList<>();
+        Set<YearMonth> existing = listPartitions();
+
+        for (YearMonth month = YearMonth.now(); !month.isAfter(YearMonth.now().plusMonths(monthsAhead)); month = month.plusMonths(1)) {
+            if (existing.contains(month)) {
+                continue;
+            }
+
+            YearMonth target = month;
+            inTransaction("creating partition " + partitionName(target), () -> createPartition(target));
+            created.add(partitionName(target));
+        }
+
+        return created;
+    }
+
+    // Detaches partitions older than the cutoff month. Detached partitions are kept as
+    // "Order_archive_..." tables unless drop is set, in which case they are dropped together
+    // with their meals.
+    public List<String> retireBefore(YearMonth cutoff, boolean drop) throws IllegalStateException {
+        List<String> retired = new ArrayList<>();
+
+        for (YearMonth month : listPartitions()) {
+            if (!month.isBefore(cutoff)) {
+                continue;
+            }
+
+            String partition = partitionName(month);
+            inTransaction("retiring partition " + partition, () -> {
+                // Detaching fires no delete triggers, the IDs leave "Order" and are released here
+                executeUpdate("DELETE FROM \"" + KEY_TABLE + "\" k USING \"" + partition + "\" o WHERE k.\"Order ID\" = o.\"Order ID\"");
+                if (drop) {
+                    executeUpdate("DELETE FROM \"Meal\" m USING \"" + partition + "\" o WHERE m.\"Order ID\" = o.\"Order ID\"");
+                }
+                execute("ALTER TABLE \"Order\" DETACH PARTITION \"" + partition + "\"");
+                if (drop) {
+                    execute("DROP TABLE \"" + partition + "\"");
+                }
+                else {
+                    execute("ALTER TABLE \"" + partition + "\" RENAME TO \"Order_archive_" + month.format(PARTITION_SUFFIX) + "\"");
+                }
+            });
+            retired.add(partition);
+        }
+
+        return retired;
+    }
+
+    // Runs the date-filtered queries of the Models under EXPLAIN and counts how many
+    // partitions each of them still has to visit
+    public List<PruningReport> checkPruning(LocalDateTime since) throws IllegalStateException {
+        final String clientAnalytics = """
+                SELECT c."Name", COUNT(DISTINCT o."Order ID"), SUM(m."Price")
+                FROM "Client" c
+                JOIN "Order" o ON c."Email" = o."Client Email"
+                JOIN "Meal" m ON o."Order ID" = m."Order ID"
+                WHERE o."Order Date" >= ? AND m."Price" <= ? AND c."Email" LIKE ?
+                GROUP BY c."Email", c."Name"
+                """;
+        final String courierAnalytics = """
+                SELECT co."Name", co."Phone", AVG(o."Rating"), MAX(o."Delivery Date"), MIN(o."Order Date")
+                FROM "Courier" co
+                JOIN "Order" o ON co."Phone" = o."Courier Phone"
+                WHERE o."Delivery Date" >= ? AND o."Rating" >= ?
+                GROUP BY co."Name", co."Phone"
+                """;
+        final String ordersSince = "SELECT * FROM \"Order\" o WHERE o.\"Order Date\" >= ?";
+
+        try {
+            int totalPartitions = listPartitions().size() + 1;
+            Timestamp timestamp = Timestamp.valueOf(since);
+
+            List<PruningReport> reports = new ArrayList<>();
+            reports.add(new PruningReport("fetchClientAnalytics", explainRelations(clientAnalytics, PLAN_PARTITION, timestamp, Integer.MAX_VALUE, "%").size(), totalPartitions));
+            reports.add(new PruningReport("fetchCourierAnalytics", explainRelations(courierAnalytics, PLAN_PARTITION, timestamp, 1).size(), totalPartitions));
+            reports.add(new PruningReport("ordersSince", explainRelations(ordersSince, PLAN_PARTITION, timestamp).size(), totalPartitions));
+            return reports;
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while checking partition pruning.", e);
+        }
+    }
+
+    private void createPartition(YearMonth month) throws SQLException {
+        String partition = partitionName(month);
+        Timestamp from = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+        Timestamp to = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+
+        long strayRows;
+        try (PreparedStatement pstmt = connection.prepareStatement(
+                "SELECT COUNT(*) FROM \"" + DEFAULT_PARTITION + "\" WHERE \"Order Date\" >= ? AND \"Order Date\" < ?")) {
+            pstmt.setTimestamp(1, from);
+            pstmt.setTimestamp(2, to);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                resultSet.next();
+                strayRows = resultSet.getLong(1);
+            }
+        }
+
+        if (strayRows == 0) {
+            execute("CREATE TABLE \"" + partition + "\" PARTITION OF \"Order\" " + bounds(month));
+            return;
+        }
+
+        // Rows that already landed in the default partition have to move before the range can be attached
+        execute("SET LOCAL order_partitions.moving = 'on'");
+        execute("CREATE TABLE \"" + partition + "\" (LIKE \"Order\" INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+        String range = " WHERE \"Order Date\" >= '" + from + "' AND \"Order Date\" < '" + to + "'";
+        executeUpdate("INSERT INTO \"" + partition + "\" SELECT * FROM \"" + DEFAULT_PARTITION + "\"" + range);
+        executeUpdate("DELETE FROM \"" + DEFAULT_PARTITION + "\"" + range);
+        execute("ALTER TABLE \"Order\" ATTACH PARTITION \"" + partition + "\" " + bounds(month));
+    }
+
+    // Every "Order ID" claims a row in "Order Key", whose primary key refuses the same ID in any other month.
+    // The table is filled before its primary key is built, the IDs copied from the old primary key are unique.
+    // AFTER triggers see a change of "Order Date" across partitions as a delete and an insert, so the key is
+    // released and claimed again.
+    private void claimOrderKeys() throws SQLException {
+        execute("DROP TABLE IF EXISTS \"" + KEY_TABLE + "\"");
+        execute("CREATE TABLE \"" + KEY_TABLE + "\" AS SELECT \"Order ID\" FROM \"Order\"");
+        execute("ALTER TABLE \"" + KEY_TABLE + "\" ADD PRIMARY KEY (\"Order ID\")");
+
+        execute("""
+            CREATE OR REPLACE FUNCTION "Order_claim_key"() RETURNS trigger AS $$
+            BEGIN
+                IF current_setting('order_partitions.moving', true) = 'on' THEN
+                    RETURN NULL;
+                END IF;
+                IF TG_OP = 'INSERT' THEN
+                    INSERT INTO "Order Key" VALUES (NEW."Order ID");
+                ELSIF TG_OP = 'DELETE' THEN
+                    DELETE FROM "Order Key" WHERE "Order ID" = OLD."Order ID";
+                ELSIF NEW."Order ID" <> OLD."Order ID" THEN
+                    UPDATE "Order Key" SET "Order ID" = NEW."Order ID" WHERE "Order ID" = OLD."Order ID";
+                END IF;
+                RETURN NULL;
+            END
+            $$ LANGUAGE plpgsql
+            """);
+        execute("DROP TRIGGER IF EXISTS \"Order_claim_key\" ON \"Order\"");
+        execute("""
+            CREATE TRIGGER "Order_claim_key" AFTER INSERT OR DELETE OR UPDATE OF "Order ID" ON "Order"
+            FOR EACH ROW EXECUTE FUNCTION "Order_claim_key"()
+            """);
+    }
+
+    private void linkMeals(boolean cascade) throws SQLException {
+        execute("""
+            CREATE OR REPLACE FUNCTION "Meal_check_order"() RETURNS trigger AS $$
+            BEGIN
+                IF NOT EXISTS (SELECT 1 FROM "Order" WHERE "Order ID" = NEW."Order ID") THEN
+                    RAISE foreign_key_violation USING MESSAGE = format('Order %s does not exist', NEW."Order ID");
+                END IF;
+                RETURN NEW;
+            END
+            $$ LANGUAGE plpgsql
+            """);
+        execute("DROP TRIGGER IF EXISTS \"Meal_check_order\" ON \"Meal\"");
+        execute("""
+            CREATE TRIGGER "Meal_check_order" BEFORE INSERT OR UPDATE OF "Order ID" ON "Meal"
+            FOR EACH ROW EXECUTE FUNCTION "Meal_check_order"()
+            """);
+
+        // Rows moved between partitions by this manager are not real deletes
+        String onReferenced = cascade
+            ? "DELETE FROM \"Meal\" WHERE \"Order ID\" = OLD.\"Order ID\";"
+            : """
+                IF EXISTS (SELECT 1 FROM "Meal" WHERE "Order ID" = OLD."Order ID") THEN
+                    RAISE foreign_key_violation USING MESSAGE = format('Order %s is still referenced from "Meal"', OLD."Order ID");
+                END IF;
+              """;
+        execute("""
+            CREATE OR REPLACE FUNCTION "Order_release_meals"() RETURNS trigger AS $$
+            BEGIN
+                IF current_setting('order_partitions.moving', true) = 'on' THEN
+                    RETURN OLD;
+                END IF;
+                %s
+                RETURN OLD;
+            END
+            $$ LANGUAGE plpgsql
+            """.formatted(onReferenced));
+        execute("DROP TRIGGER IF EXISTS \"Order_release_meals\" ON \"Order\"");
+        execute("""
+            CREATE TRIGGER "Order_release_meals" BEFORE DELETE ON "Order"
+            FOR EACH ROW EXECUTE FUNCTION "Order_release_meals"()
+            """);
+    }
+
+    private Set<YearMonth> listPartitions() throws IllegalStateException {
+        try {
+            Set<YearMonth> months = new TreeSet<>();
+            for (String name : queryStrings("""
+                    SELECT c.relname::text FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+                    WHERE i.inhparent = '"Order"'::regclass
+                    """)) {
+                Matcher matcher = PARTITION_NAME.matcher(name);
+                if (matcher.matches()) {
+                    months.add(YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))));
+                }
+            }
+            return months;
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while listing partitions of \"Order\".", e);
+        }
+    }
+
+    private static String partitionName(YearMonth month) {
+        return "Order_" + month.format(PARTITION_SUFFIX);
+    }
+
+    private static String bounds(YearMonth month) {
+        return "FOR VALUES FROM ('" + month.atDay(1).atStartOfDay().format(BOUND_FORMAT) + "') TO ('"
+            + month.plusMonths(1).atDay(1).atStartOfDay().format(BOUND_FORMAT) + "')";
+    }
+
+    private Timestamp queryTimestamp(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            return resultSet.next() ? resultSet.getTimestamp(1) : null;
+        }
+    }
+}
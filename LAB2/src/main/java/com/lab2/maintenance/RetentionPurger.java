@@ -0,0 +1,148 @@
+package com.lab2.maintenance;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+// Deletes orders placed before a cutoff, together with their meals, in short chunks so the interactive
+// workload never waits long behind the purge. Each chunk is its own transaction: orders are picked by
+// keyset on "Order ID", orders that are locked by someone else are skipped and left for the next run,
+// and a lock timeout gives up on a chunk instead of queueing behind a long transaction.
+public class RetentionPurger {
+    public record Report(long orders, long meals, long skipped) {
+    }
+
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+    private static final int ATTEMPTS_PER_CHUNK = 3;
+
+    private final Connection connection;
+    private final long lockTimeoutMillis;
+
+    // Meals are deleted through "Meal_Order ID_idx" from the V3 migration, without it every chunk scans
+    // "Meal" twice, once for the delete and once for the foreign key check
+    public RetentionPurger(Connection connection, long lockTimeoutMillis) {
+        if (lockTimeoutMillis < 1) {
+            throw new IllegalArgumentException("The lock timeout must be positive.");
+        }
+        this.connection = connection;
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    public Report purgeOrdersBefore(LocalDate cutoff, int chunkSize, long pauseMillis, LongConsumer progress) throws IllegalStateException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive.");
+        }
+
+        Timestamp before = Timestamp.valueOf(cutoff.atStartOfDay());
+        long orders = 0;
+        long meals = 0;
+        long skipped = 0;
+        long lastOrderID = Long.MIN_VALUE;
+        try {
+            while (true) {
+                List<Long> candidates = nextCandidates(lastOrderID, before, chunkSize);
+                if (candidates.isEmpty()) {
+                    break;
+                }
+
+                long[] deleted = deleteChunk(candidates, before);
+                lastOrderID = candidates.get(candidates.size() - 1);
+                orders += deleted[0];
+                meals += deleted[1];
+                skipped += candidates.size() - deleted[0];
+                progress.accept(orders);
+
+                if (pauseMillis > 0) {
+                    Thread.sleep(pauseMillis);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while purging orders after ID " + lastOrderID + ".", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Purging orders was interrupted after ID " + lastOrderID + ".", e);
+        }
+
+        return new Report(orders, meals, skipped);
+    }
+
+    // Plain reads take no row locks, the chunk decides what it can lock itself
+    private List<Long> nextCandidates(long lastOrderID, Timestamp before, int chunkSize) throws SQLException {
+        final String sql = """
+                SELECT "Order ID" FROM "Order"
+                WHERE "Order ID" > ? AND "Order Date" < ?
+                ORDER BY "Order ID"
+                LIMIT ?
+                """;
+
+        List<Long> candidates = new ArrayList<>(chunkSize);
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setLong(1, lastOrderID);
+            pstmt.setTimestamp(2, before);
+            pstmt.setInt(3, chunkSize);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    candidates.add(resultSet.getLong(1));
+                }
+            }
+        }
+        return candidates;
+    }
+
+    // Deleted orders and meals of the chunk, retried a few times when a meal stays locked past the timeout
+    private long[] deleteChunk(List<Long> candidates, Timestamp before) throws SQLException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                long[] deleted = new long[2];
+                Jdbc.inTransaction(connection, "deleting a chunk of orders", () -> {
+                    Jdbc.execute(connection, "SET LOCAL lock_timeout = " + lockTimeoutMillis);
+                    Array locked = lockOrders(candidates, before);
+                    deleted[1] = deleteByOrder("DELETE FROM \"Meal\" WHERE \"Order ID\" = ANY(?)", locked);
+                    deleted[0] = deleteByOrder("DELETE FROM \"Order\" WHERE \"Order ID\" = ANY(?)", locked);
+                });
+                return deleted;
+            } catch (IllegalStateException e) {
+                if (!(e.getCause() instanceof SQLException cause) || !LOCK_NOT_AVAILABLE.equals(cause.getSQLState())
+                        || attempt == ATTEMPTS_PER_CHUNK) {
+                    throw e;
+                }
+                Thread.sleep(lockTimeoutMillis);
+            }
+        }
+    }
+
+    // The date is checked again, an order may have been moved past the cutoff since it was picked
+    private Array lockOrders(List<Long> candidates, Timestamp before) throws SQLException {
+        final String sql = """
+                SELECT "Order ID" FROM "Order"
+                WHERE "Order ID" = ANY(?) AND "Order Date" < ?
+                FOR UPDATE SKIP LOCKED
+                """;
+
+        List<Long> locked = new ArrayList<>(candidates.size());
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setArray(1, connection.createArrayOf("bigint", candidates.toArray()));
+            pstmt.setTimestamp(2, before);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    locked.add(resultSet.getLong(1));
+                }
+            }
+        }
+        return connection.createArrayOf("bigint", locked.toArray());
+    }
+
+    private long deleteByOrder(String sql, Array orderIDs) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setArray(1, orderIDs);
+            return pstmt.executeLargeUpdate();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.lab2.maintenance;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Plain JDBC helpers shared by the schema maintenance tools
+abstract class SchemaMigration {
+    protected final Logger logger = Logger.getLogger(getClass().getName());
+    protected final Connection connection;
+
+    protected SchemaMigration(Connection connection) {
+        this.connection = connection;
+        logger.setLevel(Level.OFF);
+    }
+
+    protected boolean isPartitioned(String table) throws IllegalStateException {
+        try {
+            return "p".equals(queryString("SELECT relkind::text FROM pg_class WHERE oid = '\"" + table + "\"'::regclass"));
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while inspecting the \"" + table + "\" table.", e);
+        }
+    }
+
+    protected void inTransaction(String description, Jdbc.Work work) throws IllegalStateException {
+        Jdbc.inTransaction(connection, description, work);
+    }
+
+    protected void execute(String sql) throws SQLException {
+        logger.info(sql);
+        Jdbc.execute(connection, sql);
+    }
+
+    protected long executeUpdate(String sql) throws SQLException {
+        logger.info(sql);
+        try (Statement statement = connection.createStatement()) {
+            return statement.executeLargeUpdate(sql);
+        }
+    }
+
+    protected String queryString(String sql) throws SQLException {
+        List<String> values = queryStrings(sql);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    protected List<String> queryStrings(String sql) throws SQLException {
+        List<String> values = new ArrayList<>();
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            while (resultSet.next()) {
+                values.add(resultSet.getString(1));
+            }
+        }
+        return values;
+    }
+
+    // Distinct relation names matching the pattern that show up in the plan of the statement
+    protected List<String> explainRelations(String sql, String relationPattern, Object... parameters) throws SQLException {
+        Pattern pattern = Pattern.compile(relationPattern);
+        List<String> relations = new ArrayList<>();
+        for (String line : explain(sql, parameters)) {
+            Matcher matcher = pattern.matcher(line);
+            while (matcher.find()) {
+                if (!relations.contains(matcher.group())) {
+                    relations.add(matcher.group());
+                }
+            }
+        }
+        return relations;
+    }
+
+    // Lines of the verbose plan of the statement, without running it
+    protected List<String> explain(String sql, Object... parameters) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement("EXPLAIN (VERBOSE) " + sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                pstmt.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    plan.add(resultSet.getString(1));
+                }
+            }
+        }
+        return plan;
+    }
+}
@@ -1,47 +1,305 @@
 package com.lab2.model;
 
 import com.lab2.common.*;
+import com.lab2.diagnostics.OperationContext;
 import com.lab2.dto.*;
 import com.lab2.entity.*;
+import com.lab2.maintenance.RetentionPurger;
+import com.lab2.model.connector.DatabaseConnector;
+import com.lab2.model.migration.MigrationRunner;
 import com.lab2.model.validation.*;
 import com.lab2.service.*;
+import com.lab2.snapshot.DatasetSnapshot;
+import com.lab2.snapshot.SnapshotWarmStart;
 import com.lab2.util.Error;
 import com.lab2.util.Result;
 import com.lab2.util.SQLQueryRuntime;
-
+import com.lab2.util.StartupTimer;
+import shared.SingleFlight;
+import shared.ranking.ClientHeavyHitters;
+import shared.ranking.CourierLeaderboard;
+import shared.ranking.OrderCounts;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.List;
 import org.apache.commons.lang3.tuple.Pair;
 import jakarta.persistence.Persistence;
+import jakarta.persistence.SchemaValidationException;
 import jakarta.persistence.TypedQuery;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.OptimisticLockException;
+import jakarta.persistence.PersistenceException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.jpa.HibernateHints;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
 
 public class Model {
+    private static final String CLIENT_ANALYTICS = """
+        SELECT new com.lab2.common.ClientAnalytics(
+            c.name,
+            COUNT(DISTINCT o.orderID),
+            SUM(m.price)
+        )
+        FROM Client c
+        JOIN Order o ON c.email = o.client.email
+        JOIN Meal m ON o.orderID = m.order.orderID
+        WHERE o.orderDate >= :startOrderDate
+        AND m.price <= :maxMealPrice
+        AND c.email LIKE :email
+        GROUP BY c.email, c.name
+        ORDER BY SUM(m.price) DESC
+        """;
+
+    private static final String COURIER_ANALYTICS = """
+        SELECT new com.lab2.common.CourierAnalytics(
+            co.name,
+            co.phone,
+            AVG(o.rating),
+            MAX(o.deliveryDate),
+            MIN(o.orderDate)
+        )
+        FROM Courier co
+        JOIN Order o ON co.phone = o.courier.phone
+        WHERE o.deliveryDate >= :startDeliveryDate
+        AND o.rating >= :minRating
+        GROUP BY co.name, co.phone
+        ORDER BY AVG(o.rating) DESC
+        """;
+
+    // A purge chunk gives up rather than wait longer than this behind an interactive transaction
+    private static final long PURGE_LOCK_TIMEOUT_MILLIS = 2000;
+
+    private final CompletableFuture<Void> bootstrap;
     private EntityManagerFactory emf;
     private ClientService clientService;
     private CourierService courierService;
     private MealService mealService;
     private OrderService orderService;
+    private CourierLeaderboard<Courier> courierLeaderboard;
+    private ClientHeavyHitters<Client> clientHeavyHitters;
+    private boolean verifyClientRanking;
+    private final SingleFlight singleFlight = new SingleFlight();
 
     public Model() {
-        this.emf = Persistence.createEntityManagerFactory("FoodDeliveryPU");
-        this.clientService = new ClientService(emf);
-        this.courierService = new CourierService(emf);
-        this.mealService = new MealService(emf);
-        this.orderService = new OrderService(emf);
+        this.courierLeaderboard = new CourierLeaderboard<>(Courier::getPhone);
+        this.clientHeavyHitters = new ClientHeavyHitters<>(Client::getEmail);
+        this.verifyClientRanking = Boolean.getBoolean("model.verifyClientRanking");
+        this.bootstrap = CompletableFuture.runAsync(this::bootstrap, Model::startBackgroundThread);
+        this.bootstrap.thenRunAsync(this::prepareQueries, Model::startBackgroundThread)
+            .exceptionally(this::reportQueryPreparationFailure);
+    }
+
+    private static void startBackgroundThread(Runnable task) {
+        Thread thread = new Thread(task, "model-bootstrap");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Runs in the background while the menu is already shown: builds the EntityManagerFactory and
+    // migrates the schema through the first pooled connection
+    private void bootstrap() throws IllegalStateException {
+        emf = Persistence.createEntityManagerFactory("FoodDeliveryPU");
+        migrateSchema();
+        clientService = new ClientService(emf);
+        courierService = new CourierService(emf);
+        mealService = new MealService(emf);
+        orderService = new OrderService(emf);
+        StartupTimer.markPersistenceReady();
+    }
+
+    // Parses the JPQL of the services into Hibernate's query plan cache once data operations are
+    // already possible, so the first listing or ranking skips the parser warm-up without delaying a lookup
+    private void prepareQueries() {
+        Map<String, Class<?>> queries = new HashMap<>(Map.of(CLIENT_ANALYTICS, ClientAnalytics.class, COURIER_ANALYTICS, CourierAnalytics.class));
+        for (Service<?, ?, ?> service : List.<Service<?, ?, ?>>of(clientService, courierService, mealService, orderService)) {
+            queries.putAll(service.getQueries());
+        }
+        EntityManager em = emf.createEntityManager();
+        try {
+            queries.forEach(em::createQuery);
+        } finally {
+            em.close();
+        }
+    }
+
+    // Only a warm-up, the queries are parsed on first use instead. A failed bootstrap reaches this stage as
+    // well, it is left to the first data operation to report.
+    private Void reportQueryPreparationFailure(Throwable e) {
+        if (!bootstrap.isCompletedExceptionally()) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            System.err.println("Failed to prepare the queries in the background: " + cause);
+        }
+        return null;
+    }
+
+    // Only the first data operation can wait here, every later call finds the bootstrap done
+    private void awaitBootstrap() throws IllegalStateException {
+        if (!bootstrap.isDone()) {
+            long startTime = System.nanoTime();
+            bootstrap.handle((_, _) -> null).join();
+            StartupTimer.recordBootstrapWait((System.nanoTime() - startTime) / 1_000_000);
+        }
+
+        try {
+            bootstrap.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IllegalStateException cause
+                ? cause : new IllegalStateException("Failed to start the persistence layer.", e.getCause());
+        }
+    }
+
+    private EntityManagerFactory emf() throws IllegalStateException {
+        awaitBootstrap();
+        return emf;
+    }
+
+    private ClientService clientService() throws IllegalStateException {
+        awaitBootstrap();
+        return clientService;
+    }
+
+    private CourierService courierService() throws IllegalStateException {
+        awaitBootstrap();
+        return courierService;
+    }
+
+    private MealService mealService() throws IllegalStateException {
+        awaitBootstrap();
+        return mealService;
+    }
+
+    private OrderService orderService() throws IllegalStateException {
+        awaitBootstrap();
+        return orderService;
+    }
+
+    // Hibernate neither creates nor inspects the schema at startup (hbm2ddl.auto=none), the versioned
+    // migrations do. The connection comes from Hibernate's pool, so the first query does not open another.
+    private void migrateSchema() throws IllegalStateException {
+        ConnectionProvider connectionProvider = emf.unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry()
+            .requireService(ConnectionProvider.class);
+        try {
+            Connection connection = connectionProvider.getConnection();
+            try {
+                new MigrationRunner(connection).migrate();
+            } finally {
+                connectionProvider.closeConnection(connection);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to connect to the database.", e);
+        }
+
+        if (Boolean.getBoolean("model.validateSchema")) {
+            try {
+                emf.getSchemaManager().validate();
+            } catch (SchemaValidationException e) {
+                throw new IllegalStateException("The database schema does not match the entities.", e);
+            }
+        }
+    }
+
+    public void setClientRankingVerification(boolean enabled) {
+        this.verifyClientRanking = enabled;
+    }
+
+    // Loads the rankings from a snapshot and the rows changed since it instead of grouping all orders on first use
+    public Optional<Error> warmStart(Path snapshotFile) throws IllegalStateException {
+        return operation("warmStart", () -> {
+            // Begun before the query, so orders written meanwhile are kept for the replay
+            long courierLoad = courierLeaderboard.beginLoad();
+            long clientLoad = clientHeavyHitters.beginLoad();
+            try (DatasetSnapshot snapshot = DatasetSnapshot.open(snapshotFile); Connection connection = openConnection()) {
+                Optional<SnapshotWarmStart.Rankings> rankings = new SnapshotWarmStart(connection).load(snapshot, clientHeavyHitters.getCapacity());
+                if (rankings.isEmpty()) {
+                    return Optional.of(new Error.ValidationError("The snapshot is too old to catch up with the database."));
+                }
+
+                List<Pair<Courier, Integer>> courierOrderCounts = rankings.get().courierOrderCounts();
+                courierLeaderboard.finishLoad(courierLoad, new OrderCounts<>(courierOrderCounts, rankings.get().snapshot()));
+                clientHeavyHitters.finishLoad(clientLoad, new OrderCounts<>(rankings.get().clientsWithMostOrders(), rankings.get().snapshot()));
+                assert isCourierLeaderboardConsistent(courierOrderCounts.size()) : "Courier leaderboard diverged from the Order table after the warm start";
+                return Optional.empty();
+            } catch (IOException e) {
+                return Optional.of(new Error.OtherError(e));
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to close the snapshot connection.", e);
+            } finally {
+                courierLeaderboard.abortLoad(courierLoad);
+                clientHeavyHitters.abortLoad(clientLoad);
+            }
+        });
+    }
+
+    public SingleFlight.Statistics getCoalescingStatistics() {
+        return singleFlight.getStatistics();
+    }
+
+    // Counts nothing until statistics are enabled on it
+    public Statistics getPersistenceStatistics() throws IllegalStateException {
+        return emf().unwrap(SessionFactoryImplementor.class).getStatistics();
+    }
+
+    // Connections Hibernate's pool hands out at most, borrowing one more fails instead of waiting
+    public int getConnectionPoolSize() throws IllegalStateException {
+        return emf().unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry()
+            .requireService(ConfigurationService.class)
+            .getSetting(AvailableSettings.POOL_SIZE, StandardConverters.INTEGER, 20);
+    }
+
+    public Connection openConnection() throws IllegalStateException {
+        // EntityManagerFactory.getProperties() masks the password, the configuration service does not
+        Map<String, Object> settings = emf().unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry()
+            .requireService(ConfigurationService.class)
+            .getSettings();
+        return new DatabaseConnector(settings).openConnection();
+    }
+
+    // Names the public operation the statements below it belong to, for the JFR events
+    private <T> T operation(String name, Supplier<T> body) {
+        return OperationContext.run(name, body);
+    }
+
+    private void operation(String name, Runnable body) {
+        OperationContext.run(name, body);
     }
 
     private <T, D, ID> Result<Error, T> getRecord(Service<T, D, ID> service, ID identifier) throws IllegalStateException {
         try {
             Optional<T> record = service.findRecord(identifier);
+            StartupTimer.markFirstQuery();
             if (record.isPresent()) {
                 return new Result.Success<>(record.get());
             }
@@ -52,9 +310,20 @@ public class Model {
         return new Result.Failure<>(new Error.RecordNotFound(identifier.toString()));
     }
 
+    private <T, D, ID> Map<ID, T> getRecords(Service<T, D, ID> service, Collection<ID> identifiers) throws IllegalStateException {
+        try {
+            Map<ID, T> records = service.findRecords(identifiers);
+            StartupTimer.markFirstQuery();
+            return records;
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("An unexpected error occurred while collecting records from the database.", e);
+        }
+    }
+
     private <T, D, ID> List<T> getAllRecords(Service<T, D, ID> service) throws IllegalStateException {
         try {
             List<T> records = service.getAllRecords();
+            StartupTimer.markFirstQuery();
             return records;
         } catch (RuntimeException e) {
             throw new IllegalStateException("An unexpected error occurred while fetching records from the database.", e);
@@ -66,14 +335,41 @@ public class Model {
             service.addRecord(dto);
         } catch (RuntimeException e) {
             throw new IllegalStateException("An unexpected error occurred while adding record to the database.", e);
+        } finally {
+            singleFlight.forget();
         }
     }
 
-    private <T, D, ID> boolean updateRecord(Service<T, D, ID> service, D dto) throws IllegalStateException {
+    private <T> T addRecord(Supplier<T> insert) throws IllegalStateException {
         try {
-            return service.updateRecord(dto);
+            return insert.get();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("An unexpected error occurred while adding record to the database.", e);
+        } finally {
+            singleFlight.forget();
+        }
+    }
+
+    private void addRecords(Runnable insert) throws IllegalStateException {
+        try {
+            insert.run();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("An unexpected error occurred while adding records to the database.", e);
+        } finally {
+            singleFlight.forget();
+        }
+    }
+
+    // A version conflict when the DTO was read at a version that is no longer current
+    private <T, D, ID> Optional<Error> updateRecord(Service<T, D, ID> service, D dto, String key) throws IllegalStateException {
+        try {
+            return service.updateRecord(dto) ? Optional.empty() : Optional.of(new Error.RecordNotFound(key));
+        } catch (OptimisticLockException e) {
+            return Optional.of(new Error.VersionConflictError(key));
         } catch (RuntimeException e) {
             throw new IllegalStateException("An unexpected error occurred while updating record in the database.", e);
+        } finally {
+            singleFlight.forget();
         }
     }
 
@@ -82,6 +378,8 @@ public class Model {
             return service.deleteRecord(identifier);
         } catch (RuntimeException e) {
             throw new IllegalStateException("An unexpected error occurred while deleting record from the database.", e);
+        } finally {
+            singleFlight.forget();
         }
     }
 
@@ -102,65 +400,145 @@ public class Model {
     }
 
     public Optional<Error> addClient(ClientDTO client) throws IllegalStateException {
-        Optional<Error> validationError = validateClient(client);
-        if (validationError.isPresent()) {
-            return validationError;
-        }
-
-        switch (getClient(client.getEmail())) {
-            case Result.Success<?,Client> _ -> {
-                return Optional.of(new Error.DuplicateKeyError(client.getEmail()));
+        return operation("addClient", () -> {
+            Optional<Error> validationError = validateClient(client);
+            if (validationError.isPresent()) {
+                return validationError;
             }
-            default -> {
-                addRecord(clientService, client);
-                return Optional.empty();
+
+            switch (getClient(client.getEmail())) {
+                case Result.Success<?,Client> _ -> {
+                    return Optional.of(new Error.DuplicateKeyError(client.getEmail()));
+                }
+                default -> {
+                    addRecord(clientService(), client);
+                    return Optional.empty();
+                }
             }
-        }
+        });
     }
 
     public List<Client> getAllClients() throws IllegalStateException {
-        return getAllRecords(clientService);
+        return operation("getAllClients", () -> getAllRecords(clientService()));
     }
 
     public Result<Error, Client> getClient(String email) throws IllegalStateException {
-        return getRecord(clientService, email);
+        return operation("getClient", () -> singleFlight.execute("getClient", () -> getRecord(clientService(), email), email));
+    }
+
+    public Map<String, Client> getClients(Collection<String> emails) throws IllegalStateException {
+        return operation("getClients", () -> getRecords(clientService(), emails));
     }
 
     public Optional<Error> updateClient(ClientDTO client) throws IllegalStateException {
-        Optional<Error> validationError = validateClient(client);
-        if (validationError.isPresent()) {
-            return validationError;
-        }
+        return operation("updateClient", () -> {
+            Optional<Error> validationError = validateClient(client);
+            if (validationError.isPresent()) {
+                return validationError;
+            }
 
-        if (!updateRecord(clientService, client)) {
-            return Optional.of(new Error.RecordNotFound(client.getEmail()));
-        }
+            Optional<Error> updateError = updateRecord(clientService(), client, client.getEmail());
+            if (updateError.isPresent()) {
+                return updateError;
+            }
+            clientHeavyHitters.updateClient(toEntity(client));
 
-        return Optional.empty();
+            return Optional.empty();
+        });
     }
 
     public Optional<Error> deleteClient(String email) throws IllegalStateException {
-        if (!deleteRecord(clientService, email)) {
-            return Optional.of(new Error.RecordNotFound(email));
-        }
+        return operation("deleteClient", () -> {
+            if (!deleteRecord(clientService(), email)) {
+                return Optional.of(new Error.RecordNotFound(email));
+            }
 
-        return Optional.empty();
+            // Orders of the client may be removed along with it, so courier counters are rebuilt on next read
+            courierLeaderboard.invalidate();
+            clientHeavyHitters.removeClient(email);
+            return Optional.empty();
+        });
     }
 
-    public Optional<Pair<Client, Integer>> getClientWithMostOrders() throws IllegalStateException {       
-        try {
-            return clientService.getClientWithMostOrders();
-        } catch (RuntimeException _) {
-            throw new IllegalStateException("An unexpected error occurred while fetching a client with most orders from the database.");
+    public Optional<Pair<Client, Integer>> getClientWithMostOrders() throws IllegalStateException {
+        return operation("getClientWithMostOrders", () -> {
+            List<Pair<Client, Integer>> clients = getClientsWithMostOrders(1);
+            return clients.isEmpty() ? Optional.empty() : Optional.of(clients.get(0));
+        });
+    }
+
+    public List<Pair<Client, Integer>> getClientsWithMostOrders(int numberOfRecords) throws IllegalStateException {
+        return operation("getClientsWithMostOrders", () -> {
+            try {
+                SQLQueryRuntime.beginScope();
+                if (numberOfRecords > clientHeavyHitters.getCapacity()) {
+                    List<Pair<Client, Integer>> clients = clientService().getClientsWithMostOrders(numberOfRecords);
+                    SQLQueryRuntime.endScope();
+                    return clients;
+                }
+
+                List<ClientHeavyHitters.Candidate<Client>> candidates = clientHeavyHitters.top(numberOfRecords,
+                    () -> clientService().getClientOrderCounts(clientHeavyHitters.getCapacity()));
+                List<Pair<Client, Integer>> clients;
+                if (verifyClientRanking && !clientHeavyHitters.isExact()) {
+                    clients = confirmClientRanking(candidates, numberOfRecords)
+                        .orElseGet(() -> clientService().getClientsWithMostOrders(numberOfRecords));
+                }
+                else {
+                    clients = candidates.stream()
+                        .map(candidate -> Pair.of(candidate.client(), Integer.valueOf(candidate.orderCount())))
+                        .toList();
+                }
+                SQLQueryRuntime.endScope();
+
+                return clients;
+            } catch (RuntimeException _) {
+                throw new IllegalStateException("An unexpected error occurred while fetching a client with most orders from the database.");
+            }
+        });
+    }
+
+    // The sketch only overestimates, so the candidates are the true top clients if their exact
+    // counts are not below the largest estimate left outside of them
+    private Optional<List<Pair<Client, Integer>>> confirmClientRanking(List<ClientHeavyHitters.Candidate<Client>> candidates, int numberOfRecords) {
+        if (candidates.size() < numberOfRecords) {
+            return Optional.empty();
+        }
+
+        Map<String, Integer> orderCounts = clientService().getClientOrderCounts(candidates.stream()
+            .map(candidate -> candidate.client().getEmail())
+            .toList());
+
+        List<Pair<Client, Integer>> clients = candidates.stream()
+            .map(candidate -> Pair.of(candidate.client(), orderCounts.getOrDefault(candidate.client().getEmail(), 0)))
+            .sorted(Comparator.comparing(Pair<Client, Integer>::getRight).reversed())
+            .toList();
+
+        int lowestConfirmed = clients.get(clients.size() - 1).getRight();
+        if (lowestConfirmed < clientHeavyHitters.boundBeyond(numberOfRecords)) {
+            return Optional.empty();
         }
+        return Optional.of(clients);
+    }
+
+    private Client toEntity(ClientDTO client) {
+        return Client.builder()
+            .email(client.getEmail())
+            .name(client.getName())
+            .phone(client.getPhone())
+            .build();
     }
 
     public void generateRandomClients(int numberOfRecords) throws IllegalStateException {
-        try {
-            clientService.generateRandomClients(numberOfRecords);
-        } catch (RuntimeException _) {
-            throw new IllegalStateException("An unexpected error occurred while generating random clients in the database.");
-        }
+        operation("generateRandomClients", () -> {
+            try {
+                clientService().generateRandomClients(numberOfRecords);
+            } catch (RuntimeException _) {
+                throw new IllegalStateException("An unexpected error occurred while generating random clients in the database.");
+            } finally {
+                singleFlight.forget();
+            }
+        });
     }
 
     private Optional<Error> validateCourier(CourierDTO courier) throws IllegalStateException {
@@ -174,57 +552,117 @@ public class Model {
     }
 
     public Optional<Error> addCourier(CourierDTO courier) throws IllegalStateException {
-        Optional<Error> validationError = validateCourier(courier);
-        if (validationError.isPresent()) {
-            return validationError;
-        }
-
-        switch (getCourier(courier.getPhone())) {
-            case Result.Success<?,Courier> _ -> {
-                return Optional.of(new Error.DuplicateKeyError(courier.getPhone()));
+        return operation("addCourier", () -> {
+            Optional<Error> validationError = validateCourier(courier);
+            if (validationError.isPresent()) {
+                return validationError;
             }
-            default -> {
-                addRecord(courierService, courier);
-                return Optional.empty();
+
+            switch (getCourier(courier.getPhone())) {
+                case Result.Success<?,Courier> _ -> {
+                    return Optional.of(new Error.DuplicateKeyError(courier.getPhone()));
+                }
+                default -> {
+                    addRecord(courierService(), courier);
+                    courierLeaderboard.addCourier(toEntity(courier));
+                    return Optional.empty();
+                }
             }
-        }
+        });
     }
 
     public List<Courier> getAllCouriers() throws IllegalStateException {
-        return getAllRecords(courierService);
+        return operation("getAllCouriers", () -> getAllRecords(courierService()));
     }
 
     public Result<Error, Courier> getCourier(String phone) throws IllegalStateException {
-        return getRecord(courierService, phone);
+        return operation("getCourier", () -> singleFlight.execute("getCourier", () -> getRecord(courierService(), phone), phone));
+    }
+
+    public Map<String, Courier> getCouriers(Collection<String> phones) throws IllegalStateException {
+        return operation("getCouriers", () -> getRecords(courierService(), phones));
     }
 
     public Optional<Error> updateCourier(CourierDTO courier) throws IllegalStateException {
-        Optional<Error> validationError = validateCourier(courier);
-        if (validationError.isPresent()) {
-            return validationError;
-        }
+        return operation("updateCourier", () -> {
+            Optional<Error> validationError = validateCourier(courier);
+            if (validationError.isPresent()) {
+                return validationError;
+            }
 
-        if (!updateRecord(courierService, courier)) {
-            return Optional.of(new Error.RecordNotFound(courier.getPhone()));
-        }
+            Optional<Error> updateError = updateRecord(courierService(), courier, courier.getPhone());
+            if (updateError.isPresent()) {
+                return updateError;
+            }
+            courierLeaderboard.updateCourier(toEntity(courier));
 
-        return Optional.empty();
+            return Optional.empty();
+        });
     }
 
     public Optional<Error> deleteCourier(String phone) throws IllegalStateException {
-        if (!deleteRecord(courierService, phone)) {
-            return Optional.of(new Error.RecordNotFound(phone));
-        }
+        return operation("deleteCourier", () -> {
+            if (!deleteRecord(courierService(), phone)) {
+                return Optional.of(new Error.RecordNotFound(phone));
+            }
+            courierLeaderboard.removeCourier(phone);
 
-        return Optional.empty();
+            return Optional.empty();
+        });
     }
 
     public List<Pair<Courier, Integer>> getCouriersWithMostOrders(int numberOfRecords) throws IllegalStateException {
-        return courierService.getCouriersWithMostOrders(numberOfRecords);
+        return operation("getCouriersWithMostOrders", () -> {
+            boolean[] loaded = {false};
+            SQLQueryRuntime.beginScope();
+            List<Pair<Courier, Integer>> couriers = courierLeaderboard.top(numberOfRecords, () -> {
+                loaded[0] = true;
+                return courierService().getCourierOrderCounts();
+            });
+            SQLQueryRuntime.endScope();
+
+            assert isCourierLeaderboardConsistent(numberOfRecords) : "Courier leaderboard diverged from the Order table";
+            assert !loaded[0] || isCourierLeaderboardConsistent(Integer.MAX_VALUE) : "Courier leaderboard diverged from the Order table after loading";
+            return couriers;
+        });
+    }
+
+    public boolean isCourierLeaderboardConsistent(int numberOfRecords) throws IllegalStateException {
+        return operation("isCourierLeaderboardConsistent", () -> {
+            List<Pair<Courier, Integer>> cached = courierLeaderboard.top(numberOfRecords);
+            List<Pair<Courier, Integer>> actual = courierService().getCouriersWithMostOrders(numberOfRecords);
+
+            if (cached.size() != actual.size()) {
+                return false;
+            }
+
+            // Couriers with equal counts may come in any order, so positions are compared by count only
+            for (int i = 0; i < actual.size(); i++) {
+                if (!cached.get(i).getRight().equals(actual.get(i).getRight())) {
+                    return false;
+                }
+            }
+
+            return cached.stream().allMatch(courier -> actual.stream()
+                .filter(other -> other.getLeft().getPhone().equals(courier.getLeft().getPhone()))
+                .allMatch(other -> other.getRight().equals(courier.getRight())));
+        });
     }
 
     public void generateRandomCouriers(int numberOfRecords) {
-        courierService.generateRandomCouriers(numberOfRecords);
+        operation("generateRandomCouriers", () -> {
+            courierService().generateRandomCouriers(numberOfRecords);
+            singleFlight.forget();
+            courierLeaderboard.invalidate();
+        });
+    }
+
+    private Courier toEntity(CourierDTO courier) {
+        return Courier.builder()
+            .phone(courier.getPhone())
+            .name(courier.getName())
+            .transport(courier.getTransport())
+            .build();
     }
 
     public Optional<Error> validateMeal(MealDTO meal) throws IllegalStateException {
@@ -234,68 +672,96 @@ public class Model {
         return validateEntity(validationRules);
     }
 
+    // The order it was validated against is written by key, so it is not loaded again
     public Optional<Error> addMeal(MealDTO meal) throws IllegalStateException {
-        Optional<Error> validationError = validateMeal(meal);
-        if (validationError.isPresent()) {
-            return validationError;
-        }
+        return operation("addMeal", () -> {
+            Optional<Error> validationError = validateMeal(meal);
+            if (validationError.isPresent()) {
+                return validationError;
+            }
 
-        switch (getOrder(meal.getOrderID())) {
-            case Result.Failure<Error, ?> failure -> {
-                if (failure.error() instanceof Error.RecordNotFound _) {
-                    return Optional.of(new Error.ForeignKeyConstraintError("Order ID", String.valueOf(meal.getOrderID())));
-                }
-                else {
-                    return Optional.of(new Error.UnknownError());
+            return switch (addRecord(() -> mealService().addMeal(meal))) {
+                case MISSING_ORDER -> Optional.of(new Error.ForeignKeyConstraintError("Order ID", String.valueOf(meal.getOrderID())));
+                case DUPLICATE_KEY -> Optional.of(new Error.DuplicateKeyError(String.valueOf(meal.getMealID())));
+                case ADDED -> Optional.empty();
+            };
+        });
+    }
+
+    // The errors line up with the meals. Their keys are looked up with one statement per table for the whole
+    // batch, and only the meals without an error are inserted, together.
+    public List<Optional<Error>> addMeals(List<MealDTO> meals) throws IllegalStateException {
+        return operation("addMeals", () -> {
+            Map<Long, Meal> existingMeals = getMeals(meals.stream().map(MealDTO::getMealID).collect(Collectors.toSet()));
+            Map<Long, Order> orders = getOrders(meals.stream().map(MealDTO::getOrderID).collect(Collectors.toSet()));
+
+            List<Optional<Error>> errors = new ArrayList<>(meals.size());
+            List<MealDTO> valid = new ArrayList<>();
+            Set<Long> accepted = new HashSet<>();
+            for (MealDTO meal : meals) {
+                Optional<Error> error = validateMeal(meal);
+                if (error.isEmpty()) {
+                    if (existingMeals.containsKey(meal.getMealID()) || accepted.contains(meal.getMealID())) {
+                        error = Optional.of(new Error.DuplicateKeyError(String.valueOf(meal.getMealID())));
+                    } else if (!orders.containsKey(meal.getOrderID())) {
+                        error = Optional.of(new Error.ForeignKeyConstraintError("Order ID", String.valueOf(meal.getOrderID())));
+                    } else {
+                        valid.add(meal);
+                        accepted.add(meal.getMealID());
+                    }
                 }
+                errors.add(error);
             }
-            default -> {
-                break;
-            }
-        }
 
-        switch (getMeal(meal.getMealID())) {
-            case Result.Success<?,Meal> _ -> {
-                return Optional.of(new Error.DuplicateKeyError(String.valueOf(meal.getMealID())));
-            }
-            default -> {
-                addRecord(mealService, meal);
-                return Optional.empty();
-            }
-        }
+            addRecords(() -> mealService().addRecords(valid, orders));
+            return errors;
+        });
     }
 
     public List<Meal> getAllMeals() throws IllegalStateException {
-        return getAllRecords(mealService);
+        return operation("getAllMeals", () -> getAllRecords(mealService()));
     }
 
     public Optional<Error> updateMeal(MealDTO meal) throws IllegalStateException {
-        Optional<Error> validationError = validateMeal(meal);
-        if (validationError.isPresent()) {
-            return validationError;
-        }
+        return operation("updateMeal", () -> {
+            Optional<Error> validationError = validateMeal(meal);
+            if (validationError.isPresent()) {
+                return validationError;
+            }
 
-        if (!updateRecord(mealService, meal)) {
-            return Optional.of(new Error.RecordNotFound(String.valueOf(meal.getMealID())));
-        }
+            Optional<Error> updateError = updateRecord(mealService(), meal, String.valueOf(meal.getMealID()));
+            if (updateError.isPresent()) {
+                return updateError;
+            }
 
-        return Optional.empty();
+            return Optional.empty();
+        });
     }
 
     public Result<Error, Meal> getMeal(long mealID) throws IllegalStateException {
-        return getRecord(mealService, mealID);
+        return operation("getMeal", () -> getRecord(mealService(), mealID));
+    }
+
+    public Map<Long, Meal> getMeals(Collection<Long> mealIDs) throws IllegalStateException {
+        return operation("getMeals", () -> getRecords(mealService(), mealIDs));
     }
 
     public Optional<Error> deleteMeal(long mealID) {
-        if (!deleteRecord(mealService, mealID)) {
-            return Optional.of(new Error.RecordNotFound(String.valueOf(mealID)));
-        }
+        return operation("deleteMeal", () -> {
+            if (!deleteRecord(mealService(), mealID)) {
+                return Optional.of(new Error.RecordNotFound(String.valueOf(mealID)));
+            }
 
-        return Optional.empty();
+            return Optional.empty();
+        });
     }
 
     public Result<Error, Order> getOrder(long orderID) throws IllegalStateException {
-        return getRecord(orderService, orderID);
+        return operation("getOrder", () -> getRecord(orderService(), orderID));
+    }
+
+    public Map<Long, Order> getOrders(Collection<Long> orderIDs) throws IllegalStateException {
+        return operation("getOrders", () -> getRecords(orderService(), orderIDs));
     }
 
     public Optional<Error> validateOrder(OrderDTO order) throws IllegalStateException {
@@ -305,129 +771,262 @@ public class Model {
         return validateEntity(validationRules);
     }
 
+    // The courier and client it was validated against are written by key, so neither is loaded again
     public Optional<Error> addOrder(OrderDTO order) throws IllegalStateException {
-        Optional<Error> validationError = validateOrder(order);
-        if (validationError.isPresent()) {
-            return validationError;
-        }
-
-        switch (getOrder(order.getOrderID())) {
-            case Result.Success<?,Order> _ -> {
-                return Optional.of(new Error.DuplicateKeyError(String.valueOf(order.getOrderID())));
-            }
-            default -> {
-                break;
+        return operation("addOrder", () -> {
+            Optional<Error> validationError = validateOrder(order).or(() -> validateOrderDates(order));
+            if (validationError.isPresent()) {
+                return validationError;
             }
-        }
 
-        switch (getCourier(order.getCourierPhone())) {
-            case Result.Failure<Error, ?> failure -> {
-                if (failure.error() instanceof Error.RecordNotFound _) {
-                    return Optional.of(new Error.ForeignKeyConstraintError("Courier Phone", order.getCourierPhone()));
-                }
-                else {
-                    return Optional.of(new Error.UnknownError());
+            OrderService.AddedOrder added = addRecord(() -> orderService().addOrder(order));
+            return switch (added.outcome()) {
+                case DUPLICATE_KEY -> Optional.of(new Error.DuplicateKeyError(String.valueOf(order.getOrderID())));
+                case MISSING_COURIER -> Optional.of(new Error.ForeignKeyConstraintError("Courier Phone", order.getCourierPhone()));
+                case MISSING_CLIENT -> Optional.of(new Error.ForeignKeyConstraintError("Client Email", order.getClientEmail()));
+                case ADDED -> {
+                    courierLeaderboard.recordOrderAdded(order.getCourierPhone(), added.transaction());
+                    clientHeavyHitters.recordOrderAdded(added.client(), added.transaction());
+                    yield Optional.empty();
                 }
-            }
-            default -> {
-                break;
-            }
-        }
+            };
+        });
+    }
 
-        switch (getClient(order.getClientEmail())) {
-            case Result.Failure<Error, ?> failure -> {
-                if (failure.error() instanceof Error.RecordNotFound _) {
-                    return Optional.of(new Error.ForeignKeyConstraintError("Client Email", order.getClientEmail()));
-                }
-                else {
-                    return Optional.of(new Error.UnknownError());
+    // The errors line up with the orders. Their keys, couriers and clients are looked up with one statement per
+    // table for the whole batch, and only the orders without an error are inserted, together.
+    public List<Optional<Error>> addOrders(List<OrderDTO> orders) throws IllegalStateException {
+        return operation("addOrders", () -> {
+            Map<Long, Order> existingOrders = getOrders(orders.stream().map(OrderDTO::getOrderID).collect(Collectors.toSet()));
+            Map<String, Courier> couriers = getCouriers(orders.stream().map(OrderDTO::getCourierPhone).collect(Collectors.toSet()));
+            Map<String, Client> clients = getClients(orders.stream().map(OrderDTO::getClientEmail).collect(Collectors.toSet()));
+
+            List<Optional<Error>> errors = new ArrayList<>(orders.size());
+            List<OrderDTO> valid = new ArrayList<>();
+            Set<Long> accepted = new HashSet<>();
+            for (OrderDTO order : orders) {
+                Optional<Error> error = validateOrder(order).or(() -> validateOrderDates(order));
+                if (error.isEmpty()) {
+                    if (existingOrders.containsKey(order.getOrderID()) || accepted.contains(order.getOrderID())) {
+                        error = Optional.of(new Error.DuplicateKeyError(String.valueOf(order.getOrderID())));
+                    } else if (!couriers.containsKey(order.getCourierPhone())) {
+                        error = Optional.of(new Error.ForeignKeyConstraintError("Courier Phone", order.getCourierPhone()));
+                    } else if (!clients.containsKey(order.getClientEmail())) {
+                        error = Optional.of(new Error.ForeignKeyConstraintError("Client Email", order.getClientEmail()));
+                    } else {
+                        valid.add(order);
+                        accepted.add(order.getOrderID());
+                    }
                 }
+                errors.add(error);
             }
-            default -> {
-                addRecord(orderService, order);
-                return Optional.empty();
+
+            long transaction = addRecord(() -> orderService().addRecords(valid, couriers, clients));
+            for (OrderDTO order : valid) {
+                courierLeaderboard.recordOrderAdded(order.getCourierPhone(), transaction);
+                clientHeavyHitters.recordOrderAdded(clients.get(order.getClientEmail()), transaction);
             }
+            return errors;
+        });
+    }
+
+    // The inserts parse the dates without checking them
+    private Optional<Error> validateOrderDates(OrderDTO order) {
+        if (order.getOrderDate() == null || order.getDeliveryDate() == null) {
+            return Optional.of(new Error.ValidationError("Wrong date format."));
         }
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        try {
+            LocalDateTime.parse(order.getOrderDate(), format);
+            LocalDateTime.parse(order.getDeliveryDate(), format);
+        } catch (DateTimeParseException e) {
+            return Optional.of(new Error.ValidationError("Wrong date format."));
+        }
+        return Optional.empty();
     }
 
     public List<Order> getAllOrders() throws IllegalStateException {
-        return getAllRecords(orderService);
+        return operation("getAllOrders", () -> getAllRecords(orderService()));
     }
 
     public Optional<Error> updateOrder(OrderDTO order) throws IllegalStateException {
-        Optional<Error> validationError = validateOrder(order);
-        if (validationError.isPresent()) {
-            return validationError;
-        }
+        return operation("updateOrder", () -> {
+            Optional<Error> validationError = validateOrder(order);
+            if (validationError.isPresent()) {
+                return validationError;
+            }
 
-        if (!updateRecord(orderService, order)) {
-            return Optional.of(new Error.RecordNotFound(String.valueOf(order.getOrderID())));
-        }
+            Optional<Error> updateError = updateRecord(orderService(), order, String.valueOf(order.getOrderID()));
+            if (updateError.isPresent()) {
+                return updateError;
+            }
 
-        return Optional.empty();
+            return Optional.empty();
+        });
     }
 
+    // The delete returns the courier and client of the order, so it is not read first
     public Optional<Error> deleteOrder(long orderID) throws IllegalStateException {
-        if (!deleteRecord(orderService, orderID)) {
-            return Optional.of(new Error.RecordNotFound(String.valueOf(orderID)));
-        }
+        return operation("deleteOrder", () -> {
+            Optional<OrderService.DeletedOrder> order;
+            try {
+                order = orderService().deleteOrder(orderID);
+            } catch (RuntimeException e) {
+                throw new IllegalStateException("An unexpected error occurred while deleting record from the database.", e);
+            } finally {
+                singleFlight.forget();
+            }
 
-        return Optional.empty();
+            if (order.isEmpty()) {
+                return Optional.of(new Error.RecordNotFound(String.valueOf(orderID)));
+            }
+
+            courierLeaderboard.recordOrderRemoved(order.get().courierPhone(), order.get().transaction());
+            clientHeavyHitters.recordOrderRemoved(order.get().clientEmail(), order.get().transaction());
+            return Optional.empty();
+        });
+    }
+
+    // Deletes orders placed before the cutoff and their meals, chunkSize orders per transaction
+    public RetentionPurger.Report purgeOrdersBefore(LocalDate cutoff, int chunkSize, long pauseMillis, LongConsumer progress) throws IllegalStateException {
+        return operation("purgeOrdersBefore", () -> {
+            try (Connection connection = openConnection()) {
+                return new RetentionPurger(connection, PURGE_LOCK_TIMEOUT_MILLIS).purgeOrdersBefore(cutoff, chunkSize, pauseMillis, progress);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to close the purge connection.", e);
+            } finally {
+                // Even a failed purge may have committed some chunks
+                singleFlight.forget();
+                courierLeaderboard.invalidate();
+                clientHeavyHitters.invalidate();
+            }
+        });
     }
 
     public Result<Error, ClientAnalytics> fetchClientAnalytics(ClientFilterParameters parameters) throws IllegalStateException {
-        EntityManager em = emf.createEntityManager();
-    
-        LocalDateTime startOrderDate;
-        try {
-            startOrderDate = LocalDateTime.parse(parameters.getOrderStartDate(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-        } catch (DateTimeParseException e) {
-            return new Result.Failure<>(new Error.ValidationError("Wrong date format."));
-        }
-    
+        return operation("fetchClientAnalytics", () -> {
+            EntityManager em = emf().createEntityManager();
+            try {
+                switch (clientAnalyticsQuery(em, parameters)) {
+                    case Result.Failure<Error, TypedQuery<ClientAnalytics>> failure -> {
+                        return new Result.Failure<>(failure.error());
+                    }
+                    case Result.Success<Error, TypedQuery<ClientAnalytics>> query -> {
+                        // Begin SQL query measurement scope
+                        SQLQueryRuntime.beginScope();
+
+                        List<ClientAnalytics> resultList = query.value().getResultList();
+
+                        // End SQL query measurement scope
+                        SQLQueryRuntime.endScope();
+
+                        if (!resultList.isEmpty()) {
+                            return new Result.Success<>(resultList.get(0));
+                        } else {
+                            return new Result.Failure<>(new Error.RecordNotFound("No client analytics found."));
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalStateException("An unexpected error occurred while fetching client analytics.", e);
+            } finally {
+                em.close();
+            }
+        });
+    }
+
+    public Result<Error, ArrayList<CourierAnalytics>> fetchCourierAnalytics(CourierFilterParameters parameters) throws IllegalStateException {
+        return operation("fetchCourierAnalytics", () -> {
+            return singleFlight.execute("fetchCourierAnalytics", () -> queryCourierAnalytics(parameters),
+                parameters.getStartDeliveryDate(), parameters.getMinRating());
+        });
+    }
+
+    // Shared by identical concurrent callers, so the returned list must not be modified
+    private Result<Error, ArrayList<CourierAnalytics>> queryCourierAnalytics(CourierFilterParameters parameters) throws IllegalStateException {
+        EntityManager em = emf().createEntityManager();
+        ArrayList<CourierAnalytics> couriers = new ArrayList<>();
+
         try {
-            String jpql = """
-                SELECT new com.lab2.common.ClientAnalytics(
-                    c.name,
-                    COUNT(DISTINCT o.orderID),
-                    SUM(m.price)
-                )
-                FROM Client c
-                JOIN Order o ON c.email = o.client.email
-                JOIN Meal m ON o.orderID = m.order.orderID
-                WHERE o.orderDate >= :startOrderDate
-                AND m.price <= :maxMealPrice
-                AND c.email LIKE :email
-                GROUP BY c.email, c.name
-                ORDER BY SUM(m.price) DESC
-                """;
-
-            // Begin SQL query measurement scope
-            SQLQueryRuntime.beginScope();
+            switch (courierAnalyticsQuery(em, parameters)) {
+                case Result.Failure<Error, TypedQuery<CourierAnalytics>> failure -> {
+                    return new Result.Failure<>(failure.error());
+                }
+                case Result.Success<Error, TypedQuery<CourierAnalytics>> query -> {
+                    // Begin SQL query measurement scope
+                    SQLQueryRuntime.beginScope();
 
-            TypedQuery<ClientAnalytics> query = em.createQuery(jpql, ClientAnalytics.class);
-            query.setParameter("startOrderDate", startOrderDate);
-            query.setParameter("maxMealPrice", parameters.getMaxMealPrice());
-            query.setParameter("email", parameters.getEmail());
-    
-            List<ClientAnalytics> resultList = query.getResultList();
-    
-            // End SQL query measurement scope
-            SQLQueryRuntime.endScope();
+                    // End SQL query measurement scope
+                    SQLQueryRuntime.endScope();
 
-            if (!resultList.isEmpty()) {
-                return new Result.Success<>(resultList.get(0));
-            } else {
-                return new Result.Failure<>(new Error.RecordNotFound("No client analytics found."));
+                    couriers.addAll(query.value().getResultList());
+                    return new Result.Success<>(couriers);
+                }
             }
         } catch (RuntimeException e) {
-            throw new IllegalStateException("An unexpected error occurred while fetching client analytics.", e);
+            throw new IllegalStateException("An unexpected error occurred while fetching courier analytics.", e);
         } finally {
             em.close();
         }
     }
 
-    public Result<Error, ArrayList<CourierAnalytics>> fetchCourierAnalytics(CourierFilterParameters parameters) throws IllegalStateException {
+    // Every row of the analytics rather than only the first one, read from a cursor fetchSize rows at a time
+    public Result<Error, Long> streamClientAnalytics(ClientFilterParameters parameters, int fetchSize, Consumer<ClientAnalytics> rows) throws IllegalStateException {
+        return operation("streamClientAnalytics", () -> streamAnalytics(em -> clientAnalyticsQuery(em, parameters), fetchSize, rows));
+    }
+
+    public Result<Error, Long> streamCourierAnalytics(CourierFilterParameters parameters, int fetchSize, Consumer<CourierAnalytics> rows) throws IllegalStateException {
+        return operation("streamCourierAnalytics", () -> streamAnalytics(em -> courierAnalyticsQuery(em, parameters), fetchSize, rows));
+    }
+
+    // PostgreSQL only keeps a cursor open inside a transaction. Nothing is written, so it is rolled back.
+    // Failures of the consumer are its own and are passed on as they are.
+    private <T> Result<Error, Long> streamAnalytics(Function<EntityManager, Result<Error, TypedQuery<T>>> analyticsQuery, int fetchSize,
+            Consumer<T> rows) throws IllegalStateException {
+        EntityManager em = emf().createEntityManager();
+        try {
+            em.getTransaction().begin();
+            try {
+                switch (analyticsQuery.apply(em)) {
+                    case Result.Failure<Error, TypedQuery<T>> failure -> {
+                        return new Result.Failure<>(failure.error());
+                    }
+                    case Result.Success<Error, TypedQuery<T>> query -> {
+                        long count = 0;
+                        try (Stream<T> stream = query.value().setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize).getResultStream()) {
+                            for (Iterator<T> iterator = stream.iterator(); iterator.hasNext(); count++) {
+                                rows.accept(iterator.next());
+                            }
+                        }
+                        return new Result.Success<>(count);
+                    }
+                }
+            } finally {
+                em.getTransaction().rollback();
+            }
+        } catch (PersistenceException e) {
+            throw new IllegalStateException("An unexpected error occurred while reading analytics.", e);
+        } finally {
+            em.close();
+        }
+    }
+
+    private Result<Error, TypedQuery<ClientAnalytics>> clientAnalyticsQuery(EntityManager em, ClientFilterParameters parameters) {
+        LocalDateTime startOrderDate;
+        try {
+            startOrderDate = LocalDateTime.parse(parameters.getOrderStartDate(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        } catch (DateTimeParseException e) {
+            return new Result.Failure<>(new Error.ValidationError("Wrong date format."));
+        }
+
+        TypedQuery<ClientAnalytics> query = em.createQuery(CLIENT_ANALYTICS, ClientAnalytics.class);
+        query.setParameter("startOrderDate", startOrderDate);
+        query.setParameter("maxMealPrice", parameters.getMaxMealPrice());
+        query.setParameter("email", parameters.getEmail());
+        return new Result.Success<>(query);
+    }
+
+    private Result<Error, TypedQuery<CourierAnalytics>> courierAnalyticsQuery(EntityManager em, CourierFilterParameters parameters) {
         LocalDateTime startDeliveryDate;
         try {
             startDeliveryDate = LocalDate.parse(parameters.getStartDeliveryDate()).atStartOfDay();
@@ -439,43 +1038,9 @@ public class Model {
             return new Result.Failure<>(new Error.ValidationError("Wrong rating."));
         }
 
-        EntityManager em = emf.createEntityManager();
-        ArrayList<CourierAnalytics> couriers = new ArrayList<>();
-
-        try {
-            final String jpql = """
-                    SELECT new com.lab2.common.CourierAnalytics(
-                        co.name,
-                        co.phone,
-                        AVG(o.rating),
-                        MAX(o.deliveryDate),
-                        MIN(o.orderDate)
-                    )
-                    FROM Courier co
-                    JOIN Order o ON co.phone = o.courier.phone
-                    WHERE o.deliveryDate >= :startDeliveryDate
-                    AND o.rating >= :minRating
-                    GROUP BY co.name, co.phone
-                    ORDER BY AVG(o.rating) DESC
-                    """;
-
-            // Begin SQL query measurement scope
-            SQLQueryRuntime.beginScope();
-
-            TypedQuery<CourierAnalytics> query = em.createQuery(jpql, CourierAnalytics.class);
-            query.setParameter("startDeliveryDate", startDeliveryDate);
-            query.setParameter("minRating", parameters.getMinRating());
-
-            // End SQL query measurement scope
-            SQLQueryRuntime.endScope();
-
-            couriers.addAll(query.getResultList());
-            return new Result.Success<>(couriers);
-
-        } catch (RuntimeException e) {
-            throw new IllegalStateException("An unexpected error occurred while fetching courier analytics.", e);
-        } finally {
-            em.close();
-        }
+        TypedQuery<CourierAnalytics> query = em.createQuery(COURIER_ANALYTICS, CourierAnalytics.class);
+        query.setParameter("startDeliveryDate", startDeliveryDate);
+        query.setParameter("minRating", parameters.getMinRating());
+        return new Result.Success<>(query);
     }
 }
\ No newline at end of file
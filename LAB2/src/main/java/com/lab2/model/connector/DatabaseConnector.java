@@ -0,0 +1,29 @@
+package com.lab2.model.connector;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+
+// Plain JDBC connections to the database configured for the persistence unit, for work
+// that has to bypass Hibernate (DDL, EXPLAIN, COPY and other maintenance)
+public class DatabaseConnector {
+    private final String url;
+    private final Properties properties;
+
+    public DatabaseConnector(Map<String, Object> settings) {
+        this.url = String.valueOf(settings.get("jakarta.persistence.jdbc.url"));
+        this.properties = new Properties();
+        this.properties.setProperty("user", String.valueOf(settings.get("jakarta.persistence.jdbc.user")));
+        this.properties.setProperty("password", String.valueOf(settings.get("jakarta.persistence.jdbc.password")));
+    }
+
+    public Connection openConnection() throws IllegalStateException {
+        try {
+            return DriverManager.getConnection(url, properties);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to connect to the database.", e);
+        }
+    }
+}
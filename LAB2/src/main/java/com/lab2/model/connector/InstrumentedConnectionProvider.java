@@ -0,0 +1,25 @@
+package com.lab2.model.connector;
+
+import com.lab2.diagnostics.JdbcInstrumentation;
+
+import java.io.Serial;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.hibernate.engine.jdbc.connections.internal.DriverManagerConnectionProviderImpl;
+
+// Hibernate's built-in pool, with borrowing timed and statements reported to JFR (see JdbcInstrumentation).
+// Configured as hibernate.connection.provider_class in persistence.xml.
+public class InstrumentedConnectionProvider extends DriverManagerConnectionProviderImpl {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return JdbcInstrumentation.acquire(super::getConnection);
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        super.closeConnection(JdbcInstrumentation.release(connection));
+    }
+}
@@ -0,0 +1,193 @@
+package com.lab2.model.migration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Applies the scripts under db/migration in version order and records each one in "Schema Version"
+// with a checksum, so a script edited after it was applied is refused instead of silently skipped.
+// When everything is applied the check is two small queries and takes no locks.
+public class MigrationRunner {
+    public record Migration(int version, String description, String script, String checksum) {
+    }
+
+    // Add new scripts at the end, versions must increase
+    private static final List<String> SCRIPTS = List.of(
+        "V1__baseline.sql",
+        "V2__row_versions.sql",
+        "V3__meal_order_index.sql",
+        "V4__generator_keys.sql"
+    );
+
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+
+    // Serialises processes starting at the same time, only one of them applies a script
+    private static final long LOCK_KEY = 0x4C41423253434845L;
+
+    private final Connection connection;
+    private final List<Migration> migrations;
+
+    public MigrationRunner(Connection connection) throws IllegalStateException {
+        this.connection = connection;
+        this.migrations = loadMigrations();
+    }
+
+    // Returns the migrations applied by this call
+    public List<Migration> migrate() throws IllegalStateException {
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(true);
+            try {
+                if (pending(appliedChecksums()).isEmpty()) {
+                    return List.of();
+                }
+
+                execute("SELECT pg_advisory_lock(" + LOCK_KEY + ")");
+                try {
+                    createVersionTable();
+                    List<Migration> applied = new ArrayList<>();
+                    for (Migration migration : pending(appliedChecksums())) {
+                        apply(migration);
+                        applied.add(migration);
+                    }
+                    return applied;
+                } finally {
+                    execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+                }
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while migrating the database schema.", e);
+        }
+    }
+
+    public List<Migration> getMigrations() {
+        return migrations;
+    }
+
+    private List<Migration> pending(Map<Integer, String> appliedChecksums) throws IllegalStateException {
+        List<Migration> pending = new ArrayList<>();
+        for (Migration migration : migrations) {
+            String checksum = appliedChecksums.get(migration.version());
+            if (checksum == null) {
+                pending.add(migration);
+            } else if (!checksum.equals(migration.checksum())) {
+                throw new IllegalStateException("Migration " + migration.script() + " was changed after it was applied.");
+            }
+        }
+        return pending;
+    }
+
+    private Map<Integer, String> appliedChecksums() throws SQLException {
+        Map<Integer, String> checksums = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement()) {
+            try (ResultSet resultSet = statement.executeQuery("SELECT to_regclass('\"Schema Version\"') IS NOT NULL")) {
+                resultSet.next();
+                if (!resultSet.getBoolean(1)) {
+                    return checksums;
+                }
+            }
+            try (ResultSet resultSet = statement.executeQuery("SELECT \"Version\", \"Checksum\" FROM \"Schema Version\" ORDER BY \"Version\"")) {
+                while (resultSet.next()) {
+                    checksums.put(resultSet.getInt(1), resultSet.getString(2));
+                }
+            }
+        }
+        return checksums;
+    }
+
+    private void createVersionTable() throws SQLException {
+        execute("""
+            CREATE TABLE IF NOT EXISTS "Schema Version" (
+                "Version" integer PRIMARY KEY,
+                "Description" varchar(255) NOT NULL,
+                "Checksum" char(64) NOT NULL,
+                "Applied" timestamp NOT NULL DEFAULT now(),
+                "Duration" bigint NOT NULL
+            )
+            """);
+    }
+
+    // The script and its version row commit together, a failed script leaves no trace
+    private void apply(Migration migration) throws SQLException {
+        long startTime = System.nanoTime();
+        connection.setAutoCommit(false);
+        try {
+            execute(readScript(migration.script()));
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "INSERT INTO \"Schema Version\" (\"Version\", \"Description\", \"Checksum\", \"Duration\") VALUES (?, ?, ?, ?)")) {
+                pstmt.setInt(1, migration.version());
+                pstmt.setString(2, migration.description());
+                pstmt.setString(3, migration.checksum());
+                pstmt.setLong(4, (System.nanoTime() - startTime) / 1_000_000);
+                pstmt.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static List<Migration> loadMigrations() throws IllegalStateException {
+        List<Migration> migrations = new ArrayList<>();
+        int previousVersion = 0;
+        for (String script : SCRIPTS) {
+            Matcher matcher = SCRIPT_NAME.matcher(script);
+            if (!matcher.matches()) {
+                throw new IllegalStateException("Migration " + script + " is not named V<version>__<description>.sql.");
+            }
+            int version = Integer.parseInt(matcher.group(1));
+            if (version <= previousVersion) {
+                throw new IllegalStateException("Migration " + script + " does not follow version " + previousVersion + ".");
+            }
+            previousVersion = version;
+            migrations.add(new Migration(version, matcher.group(2).replace('_', ' '), script, checksum(readScript(script))));
+        }
+        return migrations;
+    }
+
+    private static String readScript(String script) throws IllegalStateException {
+        try (InputStream input = MigrationRunner.class.getResourceAsStream("/db/migration/" + script)) {
+            if (input == null) {
+                throw new IllegalStateException("Migration " + script + " is missing from the classpath.");
+            }
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read migration " + script + ".", e);
+        }
+    }
+
+    // Line endings are normalised so a checkout with CRLF does not look like an edit
+    private static String checksum(String content) throws IllegalStateException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package com.lab2.server;
+
+import com.lab2.common.ClientAnalytics;
+import com.lab2.common.ClientFilterParameters;
+import com.lab2.common.CourierAnalytics;
+import com.lab2.common.CourierFilterParameters;
+import com.lab2.dto.ClientDTO;
+import com.lab2.dto.CourierDTO;
+import com.lab2.dto.MealDTO;
+import com.lab2.dto.OrderDTO;
+import com.lab2.entity.Client;
+import com.lab2.entity.Courier;
+import com.lab2.entity.Meal;
+import com.lab2.entity.Order;
+import com.lab2.model.Model;
+import com.lab2.util.Error;
+import com.lab2.util.Result;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import shared.SingleFlight;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.tuple.Pair;
+
+// Serves the Model over HTTP/JSON on the JDK server. Every exchange runs on its own virtual thread, so
+// thousands of open requests cost little; what is scarce are pooled connections, and Hibernate's pool
+// fails instead of waiting when they run out, so model calls queue on a semaphore of the pool's size.
+//
+//   GET|POST            /clients, /couriers, /meals, /orders
+//   GET                 /clients?id=a@x.com&id=b@x.com, /orders?id=1&id=2 and so on, found records in the order asked
+//   GET|PUT|DELETE      /clients/{email}, /couriers/{phone}, /meals/{id}, /orders/{id}
+//   GET                 /rankings/couriers?limit=10, /rankings/clients?limit=1
+//   GET                 /analytics/clients?orderStartDate=&maxMealPrice=&email=
+//   GET                 /analytics/couriers?startDeliveryDate=&minRating=
+//   GET                 /metrics/coalescing
+public class ApiServer implements AutoCloseable {
+    private record Resource<T, D, ID>(String[] fields, Function<T, Object[]> values, Function<String, ID> key,
+            BiFunction<Map<String, Object>, ID, D> dto, Supplier<List<T>> list, Function<ID, Result<Error, T>> get,
+            Function<Collection<ID>, Map<ID, T>> getMany,
+            Function<D, Optional<Error>> add, Function<D, Optional<Error>> update, Function<ID, Optional<Error>> delete) {
+    }
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int BACKLOG = 1024;
+    private static final int MAX_BODY_SIZE = 64 * 1024;
+
+    private static final String[] CLIENT_FIELDS = { "email", "name", "phone", "version" };
+    private static final String[] COURIER_FIELDS = { "phone", "name", "transport", "version" };
+    private static final String[] MEAL_FIELDS = { "mealID", "orderID", "name", "price", "weight", "servingSize", "version" };
+    private static final String[] ORDER_FIELDS = { "orderID", "courierPhone", "clientEmail", "orderDate", "deliveryDate", "rating", "deliveryAddress", "version" };
+    private static final String[] CLIENT_RANKING_FIELDS = { "email", "name", "phone", "orderCount" };
+    private static final String[] COURIER_RANKING_FIELDS = { "phone", "name", "transport", "orderCount" };
+    private static final String[] CLIENT_ANALYTICS_FIELDS = { "name", "orderCount", "totalSpent" };
+    private static final String[] COURIER_ANALYTICS_FIELDS = { "name", "phone", "averageRating", "lastDeliveryDate", "firstOrderDate" };
+    private static final String[] COALESCING_FIELDS = { "calls", "coalesced" };
+    private static final String[] ERROR_FIELDS = { "error", "message" };
+
+    private final Semaphore connectionPermits;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public ApiServer(Model model, InetSocketAddress address) throws IllegalStateException {
+        this.connectionPermits = new Semaphore(model.getConnectionPoolSize(), true);
+
+        // Kept-alive connections beyond this count are closed after their response (the JDK keeps 200)
+        if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+            System.setProperty("sun.net.httpserver.maxIdleConnections", "10000");
+        }
+
+        try {
+            this.server = HttpServer.create(address, BACKLOG);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to listen on " + address + ".", e);
+        }
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+
+        route("/clients", new Resource<Client, ClientDTO, String>(CLIENT_FIELDS, ApiServer::clientValues, key -> key,
+            (body, email) -> ClientDTO.builder()
+                .email(email != null ? email : string(body, "email"))
+                .name(string(body, "name"))
+                .phone(string(body, "phone"))
+                .version(optionalLongValue(body, "version"))
+                .build(),
+            model::getAllClients, model::getClient, model::getClients, model::addClient, model::updateClient, model::deleteClient));
+        route("/couriers", new Resource<Courier, CourierDTO, String>(COURIER_FIELDS, ApiServer::courierValues, key -> key,
+            (body, phone) -> CourierDTO.builder()
+                .phone(phone != null ? phone : string(body, "phone"))
+                .name(string(body, "name"))
+                .transport(string(body, "transport"))
+                .version(optionalLongValue(body, "version"))
+                .build(),
+            model::getAllCouriers, model::getCourier, model::getCouriers, model::addCourier, model::updateCourier, model::deleteCourier));
+        route("/meals", new Resource<Meal, MealDTO, Long>(MEAL_FIELDS, ApiServer::mealValues, ApiServer::parseID,
+            (body, mealID) -> MealDTO.builder()
+                .mealID(mealID != null ? mealID : longValue(body, "mealID"))
+                .orderID(longValue(body, "orderID"))
+                .name(string(body, "name"))
+                .price(intValue(body, "price"))
+                .weight(intValue(body, "weight"))
+                .servingSize(intValue(body, "servingSize"))
+                .version(optionalLongValue(body, "version"))
+                .build(),
+            model::getAllMeals, model::getMeal, model::getMeals, model::addMeal, model::updateMeal, model::deleteMeal));
+        route("/orders", new Resource<Order, OrderDTO, Long>(ORDER_FIELDS, ApiServer::orderValues, ApiServer::parseID,
+            (body, orderID) -> OrderDTO.builder()
+                .orderID(orderID != null ? orderID : longValue(body, "orderID"))
+                .courierPhone(string(body, "courierPhone"))
+                .clientEmail(string(body, "clientEmail"))
+                .orderDate(string(body, "orderDate"))
+                .deliveryDate(string(body, "deliveryDate"))
+                .rating(intValue(body, "rating"))
+                .deliveryAddress(string(body, "deliveryAddress"))
+                .version(optionalLongValue(body, "version"))
+                .build(),
+            model::getAllOrders, model::getOrder, model::getOrders, model::addOrder, model::updateOrder, model::deleteOrder));
+
+        server.createContext("/rankings/couriers", exchange -> handle(exchange, () -> {
+            int limit = Integer.parseInt(queryParameters(exchange).getOrDefault("limit", "10"));
+            List<Pair<Courier, Integer>> couriers = withConnection(() -> model.getCouriersWithMostOrders(limit));
+            sendArray(exchange, COURIER_RANKING_FIELDS, couriers, courier -> new Object[] {
+                courier.getLeft().getPhone(), courier.getLeft().getName(), courier.getLeft().getTransport(), courier.getRight() });
+        }));
+        server.createContext("/rankings/clients", exchange -> handle(exchange, () -> {
+            int limit = Integer.parseInt(queryParameters(exchange).getOrDefault("limit", "1"));
+            List<Pair<Client, Integer>> clients = withConnection(() -> model.getClientsWithMostOrders(limit));
+            sendArray(exchange, CLIENT_RANKING_FIELDS, clients, client -> new Object[] {
+                client.getLeft().getEmail(), client.getLeft().getName(), client.getLeft().getPhone(), client.getRight() });
+        }));
+        server.createContext("/analytics/clients", exchange -> handle(exchange, () -> {
+            Map<String, String> parameters = queryParameters(exchange);
+            ClientFilterParameters filter = new ClientFilterParameters(
+                parameters.getOrDefault("orderStartDate", "1970-01-01 00:00:00"),
+                Integer.parseInt(parameters.getOrDefault("maxMealPrice", String.valueOf(Integer.MAX_VALUE))),
+                parameters.getOrDefault("email", "%"));
+            switch (withConnection(() -> model.fetchClientAnalytics(filter))) {
+                case Result.Success<Error, ClientAnalytics> success -> sendObject(exchange, 200, CLIENT_ANALYTICS_FIELDS, new Object[] {
+                    success.value().getName(), success.value().getOrderCount(), success.value().getTotalSpent() });
+                case Result.Failure<Error, ClientAnalytics> failure -> sendError(exchange, failure.error());
+            }
+        }));
+        server.createContext("/analytics/couriers", exchange -> handle(exchange, () -> {
+            Map<String, String> parameters = queryParameters(exchange);
+            CourierFilterParameters filter = new CourierFilterParameters(
+                parameters.getOrDefault("startDeliveryDate", "1970-01-01"),
+                Integer.parseInt(parameters.getOrDefault("minRating", "1")));
+            switch (withConnection(() -> model.fetchCourierAnalytics(filter))) {
+                case Result.Success<Error, ArrayList<CourierAnalytics>> success -> sendArray(exchange, COURIER_ANALYTICS_FIELDS,
+                    success.value(), courier -> new Object[] { courier.getName(), courier.getPhone(), courier.getAverageRating(),
+                        format(courier.getLastDeliveryDate()), format(courier.getFirstOrderDate()) });
+                case Result.Failure<Error, ArrayList<CourierAnalytics>> failure -> sendError(exchange, failure.error());
+            }
+        }));
+        server.createContext("/metrics/coalescing", exchange -> handle(exchange, () -> {
+            SingleFlight.Statistics statistics = model.getCoalescingStatistics();
+            sendObject(exchange, 200, COALESCING_FIELDS, new Object[] { statistics.calls(), statistics.coalesced() });
+        }));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    // Lets the requests in flight finish for up to a second, then stops the virtual threads
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.close();
+    }
+
+    private interface Exchange {
+        void run() throws IOException;
+    }
+
+    private <T, D, ID> void route(String path, Resource<T, D, ID> resource) {
+        server.createContext(path, exchange -> handle(exchange, () -> {
+            String rawKey = exchange.getRequestURI().getRawPath().substring(path.length());
+            ID key = rawKey.isEmpty() || rawKey.equals("/") ? null
+                : resource.key().apply(URLDecoder.decode(rawKey.substring(1), StandardCharsets.UTF_8));
+
+            switch (exchange.getRequestMethod()) {
+                case "GET" -> {
+                    if (key == null) {
+                        List<ID> keys = queryParameterValues(exchange, "id").stream().map(resource.key()).toList();
+                        if (keys.isEmpty()) {
+                            sendArray(exchange, resource.fields(), withConnection(resource.list()), resource.values());
+                        } else {
+                            Map<ID, T> records = withConnection(() -> resource.getMany().apply(keys));
+                            sendArray(exchange, resource.fields(), keys.stream().distinct().filter(records::containsKey).map(records::get).toList(),
+                                resource.values());
+                        }
+                        return;
+                    }
+                    switch (withConnection(() -> resource.get().apply(key))) {
+                        case Result.Success<Error, T> success -> sendObject(exchange, 200, resource.fields(), resource.values().apply(success.value()));
+                        case Result.Failure<Error, T> failure -> sendError(exchange, failure.error());
+                    }
+                }
+                case "POST" -> {
+                    if (key != null) {
+                        sendMethodNotAllowed(exchange, "GET, PUT, DELETE");
+                        return;
+                    }
+                    D dto = resource.dto().apply(readBody(exchange), null);
+                    sendOutcome(exchange, withConnection(() -> resource.add().apply(dto)), 201);
+                }
+                case "PUT" -> {
+                    if (key == null) {
+                        sendMethodNotAllowed(exchange, "GET, POST");
+                        return;
+                    }
+                    D dto = resource.dto().apply(readBody(exchange), key);
+                    sendOutcome(exchange, withConnection(() -> resource.update().apply(dto)), 204);
+                }
+                case "DELETE" -> {
+                    if (key == null) {
+                        sendMethodNotAllowed(exchange, "GET, POST");
+                        return;
+                    }
+                    sendOutcome(exchange, withConnection(() -> resource.delete().apply(key)), 204);
+                }
+                default -> sendMethodNotAllowed(exchange, key == null ? "GET, POST" : "GET, PUT, DELETE");
+            }
+        }));
+    }
+
+    // Once the headers are out nothing but closing the connection can signal a failure
+    private void handle(HttpExchange exchange, Exchange handler) throws IOException {
+        try {
+            handler.run();
+        } catch (IllegalArgumentException e) {
+            if (exchange.getResponseCode() < 0) {
+                sendObject(exchange, 400, ERROR_FIELDS, new Object[] { "BadRequest", e.getMessage() });
+            }
+        } catch (IllegalStateException e) {
+            if (exchange.getResponseCode() < 0) {
+                sendObject(exchange, 500, ERROR_FIELDS, new Object[] { "InternalError", e.getMessage() });
+            }
+        } catch (RuntimeException e) {
+            // Anything else is a bug, its message is not meant for clients
+            if (exchange.getResponseCode() < 0) {
+                sendObject(exchange, 500, ERROR_FIELDS, new Object[] { "InternalError", "An unexpected error occurred." });
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private <R> R withConnection(Supplier<R> operation) throws IOException {
+        try {
+            connectionPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a database connection.");
+        }
+        try {
+            return operation.get();
+        } finally {
+            connectionPermits.release();
+        }
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException, IllegalArgumentException {
+        try (InputStream input = exchange.getRequestBody()) {
+            byte[] body = input.readNBytes(MAX_BODY_SIZE + 1);
+            if (body.length > MAX_BODY_SIZE) {
+                throw new IllegalArgumentException("The request body is larger than " + MAX_BODY_SIZE + " bytes.");
+            }
+            return JsonParser.parseObject(new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                    URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static List<String> queryParameterValues(HttpExchange exchange, String name) {
+        List<String> values = new ArrayList<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return values;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                values.add(URLDecoder.decode(parameter.substring(name.length() + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return values;
+    }
+
+    // Lists go out as they are serialised, in chunks, instead of as one buffered document
+    private static <T> void sendArray(HttpExchange exchange, String[] fields, List<T> rows, Function<T, Object[]> values) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 16 * 1024))) {
+            json.beginArray();
+            for (T row : rows) {
+                json.writeObject(fields, values.apply(row));
+            }
+            json.endArray();
+        }
+    }
+
+    // Single objects are small, a known length spares the chunked framing
+    private static void sendObject(HttpExchange exchange, int status, String[] fields, Object[] values) throws IOException {
+        StringWriter text = new StringWriter();
+        try (JsonWriter json = new JsonWriter(text)) {
+            json.writeObject(fields, values);
+        }
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private static void sendOutcome(HttpExchange exchange, Optional<Error> error, int status) throws IOException {
+        if (error.isPresent()) {
+            sendError(exchange, error.get());
+        } else {
+            exchange.sendResponseHeaders(status, -1);
+        }
+    }
+
+    private static void sendMethodNotAllowed(HttpExchange exchange, String allowed) throws IOException {
+        exchange.getResponseHeaders().set("Allow", allowed);
+        sendObject(exchange, 405, ERROR_FIELDS, new Object[] { "MethodNotAllowed", exchange.getRequestMethod() + " is not supported here." });
+    }
+
+    private static void sendError(HttpExchange exchange, Error error) throws IOException {
+        int status = switch (error) {
+            case Error.ValidationError _ -> 400;
+            case Error.RecordNotFound _ -> 404;
+            case Error.DuplicateKeyError _, Error.ForeignKeyConstraintError _, Error.VersionConflictError _ -> 409;
+            case Error.InsertError _, Error.OtherError _, Error.UnknownError _ -> 500;
+        };
+        String message = switch (error) {
+            case Error.ValidationError e -> e.description();
+            case Error.RecordNotFound e -> "Record '" + e.name() + "' not found.";
+            case Error.DuplicateKeyError e -> "Record '" + e.key() + "' already exists.";
+            case Error.VersionConflictError e -> "Record '" + e.key() + "' was changed since it was read, fetch it again.";
+            case Error.ForeignKeyConstraintError e -> "No record with " + e.field() + " '" + e.value() + "'.";
+            case Error.InsertError e -> "Failed to insert into " + e.table() + ".";
+            case Error.OtherError e -> e.cause().getMessage();
+            case Error.UnknownError _ -> "An unknown error occurred.";
+        };
+        sendObject(exchange, status, ERROR_FIELDS, new Object[] { error.getClass().getSimpleName(), message });
+    }
+
+    private static Long parseID(String key) throws IllegalArgumentException {
+        try {
+            return Long.valueOf(key);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + key + "' is not an ID.");
+        }
+    }
+
+    private static String string(Map<String, Object> body, String name) throws IllegalArgumentException {
+        return switch (body.get(name)) {
+            case String value -> value;
+            case null -> throw new IllegalArgumentException("'" + name + "' is required.");
+            default -> throw new IllegalArgumentException("'" + name + "' must be a string.");
+        };
+    }
+
+    private static long longValue(Map<String, Object> body, String name) throws IllegalArgumentException {
+        return switch (body.get(name)) {
+            case BigDecimal value -> {
+                try {
+                    yield value.longValueExact();
+                } catch (ArithmeticException e) {
+                    throw new IllegalArgumentException("'" + name + "' must be an integer.");
+                }
+            }
+            case null -> throw new IllegalArgumentException("'" + name + "' is required.");
+            default -> throw new IllegalArgumentException("'" + name + "' must be a number.");
+        };
+    }
+
+    private static Long optionalLongValue(Map<String, Object> body, String name) throws IllegalArgumentException {
+        return body.get(name) == null ? null : longValue(body, name);
+    }
+
+    private static int intValue(Map<String, Object> body, String name) throws IllegalArgumentException {
+        long value = longValue(body, name);
+        if (value != (int) value) {
+            throw new IllegalArgumentException("'" + name + "' is out of range.");
+        }
+        return (int) value;
+    }
+
+    private static String format(LocalDateTime dateTime) {
+        return dateTime == null ? null : dateTime.format(DATE_TIME);
+    }
+
+    private static Object[] clientValues(Client client) {
+        return new Object[] { client.getEmail(), client.getName(), client.getPhone(), client.getVersion() };
+    }
+
+    private static Object[] courierValues(Courier courier) {
+        return new Object[] { courier.getPhone(), courier.getName(), courier.getTransport(), courier.getVersion() };
+    }
+
+    private static Object[] mealValues(Meal meal) {
+        return new Object[] { meal.getMealID(), meal.getOrder().getOrderID(), meal.getName(), meal.getPrice(), meal.getWeight(), meal.getServingSize(), meal.getVersion() };
+    }
+
+    private static Object[] orderValues(Order order) {
+        return new Object[] { order.getOrderID(), order.getCourier().getPhone(), order.getClient().getEmail(),
+            format(order.getOrderDate()), format(order.getDeliveryDate()), order.getRating(), order.getDeliveryAddress(), order.getVersion() };
+    }
+}
@@ -0,0 +1,74 @@
+package com.lab2.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+// Writes flat JSON objects and arrays of them straight to the response, nothing is built up in memory
+final class JsonWriter implements Closeable {
+    private final Writer writer;
+    private boolean firstElement = true;
+
+    JsonWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    void beginArray() throws IOException {
+        writer.write('[');
+        firstElement = true;
+    }
+
+    void endArray() throws IOException {
+        writer.write(']');
+    }
+
+    void writeObject(String[] names, Object[] values) throws IOException {
+        if (!firstElement) {
+            writer.write(',');
+        }
+        firstElement = false;
+
+        writer.write('{');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeString(names[i]);
+            writer.write(':');
+            switch (values[i]) {
+                case null -> writer.write("null");
+                case Number number -> writer.write(number.toString());
+                case Boolean bool -> writer.write(bool.toString());
+                case Object value -> writeString(value.toString());
+            }
+        }
+        writer.write('}');
+    }
+
+    private void writeString(String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> writer.write("\\\"");
+                case '\\' -> writer.write("\\\\");
+                case '\n' -> writer.write("\\n");
+                case '\r' -> writer.write("\\r");
+                case '\t' -> writer.write("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+                }
+            }
+        }
+        writer.write('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -3,41 +3,94 @@ package com.lab2.service;
 import com.lab2.entity.Client;
 import com.lab2.util.SQLQueryRuntime;
 import com.lab2.dto.ClientDTO;
+import com.lab2.util.Tracer;
+import com.lab2.util.Tracer.Outcome;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.OptimisticLockException;
 import jakarta.persistence.TypedQuery;
+import org.hibernate.Session;
 import org.apache.commons.lang3.tuple.Pair;
+import shared.ranking.OrderCounts;
+import shared.ranking.TransactionSnapshot;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.logging.Logger;
-import java.util.logging.Level;
 
 public class ClientService implements Service<Client, ClientDTO, String> {
-    private static final Logger LOGGER = Logger.getLogger(ClientService.class.getName());
+    private static final String ALL_CLIENTS = "SELECT c FROM Client c";
+    private static final String CLIENTS_WITH_MOST_ORDERS = """
+        SELECT c, COUNT(o) AS orderCount
+        FROM Client c
+        JOIN Order o ON c.email = o.client.email
+        GROUP BY c.email
+        ORDER BY orderCount DESC
+        """;
+    private static final String CLIENT_ORDER_COUNTS = """
+        SELECT o.client.email, COUNT(o)
+        FROM Order o
+        WHERE o.client.email IN :emails
+        GROUP BY o.client.email
+        """;
+    private static final String UPDATE_CLIENT = """
+        UPDATE Client c SET c.name = :name, c.phone = :phone, c.version = c.version + 1
+        WHERE c.email = :key
+        """;
+    private static final String UPDATE_CLIENT_VERSION = UPDATE_CLIENT + "AND c.version = :version";
+    private static final String CLIENT_EXISTS = "SELECT COUNT(c) FROM Client c WHERE c.email = :key";
+    private static final String DELETE_CLIENT = "DELETE FROM Client c WHERE c.email = :key";
+    private static final int MULTI_LOAD_BATCH_SIZE = 500;
     private EntityManagerFactory emf;
 
     public ClientService(EntityManagerFactory emf) {
         this.emf = emf;
-        LOGGER.info("ClientService initialized.");
-        LOGGER.setLevel(Level.OFF);
     }
 
     @Override
     public Optional<Client> findRecord(String email) throws RuntimeException {
-        LOGGER.info("Finding client with email: " + email);
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         try {
             Client client = em.find(Client.class, email);
-            if (client == null) {
-                LOGGER.warning("Client with email " + email + " not found.");
-            }
+            Tracer.end("ClientService.findRecord", email, start, client == null ? Outcome.NOT_FOUND : Outcome.OK);
             return Optional.ofNullable(client);
         } catch (RuntimeException e) {
-            LOGGER.log(Level.SEVERE, "Error while finding client with email: " + email, e);
+            Tracer.end("ClientService.findRecord", email, start, Outcome.ERROR);
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    @Override
+    public Map<String, Client> findRecords(Collection<String> emails) throws RuntimeException {
+        long start = Tracer.start();
+        Map<String, Client> clients = new HashMap<>();
+        if (emails.isEmpty()) {
+            return clients;
+        }
+
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<Client> found = em.unwrap(Session.class)
+                .byMultipleIds(Client.class)
+                .withBatchSize(MULTI_LOAD_BATCH_SIZE)
+                .enableOrderedReturn(false)
+                .multiLoad(List.copyOf(emails));
+            for (Client client : found) {
+                clients.put(client.getEmail(), client);
+            }
+            Tracer.end("ClientService.findRecords", emails.size(), start, Outcome.OK);
+            return clients;
+        } catch (RuntimeException e) {
+            Tracer.end("ClientService.findRecords", emails.size(), start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -46,14 +99,14 @@ public class ClientService implements Service<Client, ClientDTO, String> {
 
     @Override
     public List<Client> getAllRecords() throws RuntimeException {
-        LOGGER.info("Fetching all clients.");
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         try {
-            List<Client> clients = em.createQuery("SELECT c FROM Client c", Client.class).getResultList();
-            LOGGER.info("Retrieved " + clients.size() + " clients.");
+            List<Client> clients = em.createQuery(ALL_CLIENTS, Client.class).getResultList();
+            Tracer.end("ClientService.getAllRecords", clients.size(), start, Outcome.OK);
             return clients;
         } catch (RuntimeException e) {
-            LOGGER.log(Level.SEVERE, "Error while fetching all clients.", e);
+            Tracer.end("ClientService.getAllRecords", 0, start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -62,7 +115,7 @@ public class ClientService implements Service<Client, ClientDTO, String> {
 
     @Override
     public void addRecord(ClientDTO client) throws RuntimeException {
-        LOGGER.info("Adding client: " + client.getEmail());
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         EntityTransaction transaction = em.getTransaction();
         try {
@@ -73,12 +126,12 @@ public class ClientService implements Service<Client, ClientDTO, String> {
                 .phone(client.getPhone())
                 .build());
             transaction.commit();
-            LOGGER.info("Client added successfully: " + client.getEmail());
+            Tracer.end("ClientService.addRecord", client.getEmail(), start, Outcome.OK);
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while adding client: " + client.getEmail(), e);
+            Tracer.end("ClientService.addRecord", client.getEmail(), start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -86,30 +139,26 @@ public class ClientService implements Service<Client, ClientDTO, String> {
     }
 
     @Override
-    public boolean updateRecord(ClientDTO client) throws RuntimeException {
-        LOGGER.info("Updating client: " + client.getEmail());
+    public boolean updateRecord(ClientDTO client) throws RuntimeException, OptimisticLockException {
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         EntityTransaction transaction = em.getTransaction();
         try {
             transaction.begin();
-            Client existingClient = em.find(Client.class, client.getEmail());
-            if (existingClient == null) {
-                transaction.rollback();
-                LOGGER.warning("Client with email " + client.getEmail() + " not found for update.");
+            boolean updated = RecordStatements.update(em, UPDATE_CLIENT, UPDATE_CLIENT_VERSION, CLIENT_EXISTS,
+                Map.of("key", client.getEmail(), "name", client.getName(), "phone", client.getPhone()), client.getVersion());
+            transaction.commit();
+            if (!updated) {
+                Tracer.end("ClientService.updateRecord", client.getEmail(), start, Outcome.NOT_FOUND);
                 return false;
             }
-
-            existingClient.setName(client.getName());
-            existingClient.setPhone(client.getPhone());
-            em.merge(existingClient);
-            transaction.commit();
-            LOGGER.info("Client updated successfully: " + client.getEmail());
+            Tracer.end("ClientService.updateRecord", client.getEmail(), start, Outcome.OK);
             return true;
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while updating client: " + client.getEmail(), e);
+            Tracer.end("ClientService.updateRecord", client.getEmail(), start, e instanceof OptimisticLockException ? Outcome.CONFLICT : Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -118,27 +167,24 @@ public class ClientService implements Service<Client, ClientDTO, String> {
 
     @Override
     public boolean deleteRecord(String email) throws RuntimeException {
-        LOGGER.info("Deleting client with email: " + email);
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         EntityTransaction transaction = em.getTransaction();
         try {
             transaction.begin();
-            Client client = em.find(Client.class, email);
-            if (client == null) {
-                transaction.rollback();
-                LOGGER.warning("Client with email " + email + " not found for deletion.");
+            boolean deleted = RecordStatements.delete(em, DELETE_CLIENT, email);
+            transaction.commit();
+            if (!deleted) {
+                Tracer.end("ClientService.deleteRecord", email, start, Outcome.NOT_FOUND);
                 return false;
             }
-
-            em.remove(client);
-            transaction.commit();
-            LOGGER.info("Client deleted successfully: " + email);
+            Tracer.end("ClientService.deleteRecord", email, start, Outcome.OK);
             return true;
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while deleting client with email: " + email, e);
+            Tracer.end("ClientService.deleteRecord", email, start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -146,38 +192,47 @@ public class ClientService implements Service<Client, ClientDTO, String> {
     }
 
     public Optional<Pair<Client, Integer>> getClientWithMostOrders() throws RuntimeException {
+        List<Pair<Client, Integer>> clients = getClientsWithMostOrders(1);
+        return clients.isEmpty() ? Optional.empty() : Optional.of(clients.get(0));
+    }
+
+    public List<Pair<Client, Integer>> getClientsWithMostOrders(int numberOfRecords) throws RuntimeException {
+        return queryClientsWithMostOrders(numberOfRecords, false).counts();
+    }
+
+    // The top clients, with the snapshot the counts were read in for the heavy hitters
+    public OrderCounts<Client> getClientOrderCounts(int numberOfRecords) throws RuntimeException {
+        return queryClientsWithMostOrders(numberOfRecords, true);
+    }
+
+    private OrderCounts<Client> queryClientsWithMostOrders(int numberOfRecords, boolean readSnapshot) throws RuntimeException {
         EntityManager em = emf.createEntityManager();
+        List<Pair<Client, Integer>> clients = new ArrayList<>();
+        TransactionSnapshot snapshot = null;
         try {
             em.getTransaction().begin();
-            
-            final String jpql = """
-                SELECT c, COUNT(o) AS orderCount
-                FROM Client c
-                JOIN Order o ON c.email = o.client.email
-                GROUP BY c.email
-                ORDER BY orderCount DESC
-            """;
-            
+            if (readSnapshot) {
+                snapshot = TransactionSnapshots.repeatableRead(em);
+            }
+
             // Begin SQL query measurement scope
             SQLQueryRuntime.beginScope();
 
-            TypedQuery<Object[]> query = em.createQuery(jpql, Object[].class);
-            query.setMaxResults(1);
+            TypedQuery<Object[]> query = em.createQuery(CLIENTS_WITH_MOST_ORDERS, Object[].class);
+            query.setMaxResults(numberOfRecords);
             
-            Object[] result = query.getSingleResult();
-            if (result == null) {
-                return Optional.empty();
-            }
+            List<Object[]> resultList = query.getResultList();
 
             // End SQL query measurement scope
             SQLQueryRuntime.endScope();
 
-            Client client = (Client) result[0];
-            Long orderCount = (Long) result[1];
+            for (Object[] result : resultList) {
+                Client client = (Client) result[0];
+                Long orderCount = (Long) result[1];
+                clients.add(Pair.of(client, Integer.valueOf(orderCount.intValue())));
+            }
             
             em.getTransaction().commit();
-
-            return Optional.of(Pair.of(client, Integer.valueOf(orderCount.intValue())));
         } catch (RuntimeException e) {
             if (em.getTransaction().isActive()) {
                 em.getTransaction().rollback();
@@ -186,6 +241,24 @@ public class ClientService implements Service<Client, ClientDTO, String> {
         } finally {
             em.close();
         }
+
+        return new OrderCounts<>(clients, snapshot);
+    }
+
+    public Map<String, Integer> getClientOrderCounts(Collection<String> emails) throws RuntimeException {
+        EntityManager em = emf.createEntityManager();
+        Map<String, Integer> orderCounts = new HashMap<>();
+        try {
+            TypedQuery<Object[]> query = em.createQuery(CLIENT_ORDER_COUNTS, Object[].class);
+            query.setParameter("emails", emails);
+
+            for (Object[] result : query.getResultList()) {
+                orderCounts.put((String) result[0], Integer.valueOf(((Long) result[1]).intValue()));
+            }
+            return orderCounts;
+        } finally {
+            em.close();
+        }
     }
 
     public void generateRandomClients(int numberOfRecords) throws RuntimeException {
@@ -225,9 +298,13 @@ public class ClientService implements Service<Client, ClientDTO, String> {
     }
 
     public void close() {
-        LOGGER.info("Closing EntityManagerFactory.");
         if (emf != null) {
             emf.close();
         }
     }
+
+    @Override
+    public Map<String, Class<?>> getQueries() {
+        return Map.of(ALL_CLIENTS, Client.class, CLIENTS_WITH_MOST_ORDERS, Object[].class, CLIENT_ORDER_COUNTS, Object[].class, CLIENT_EXISTS, Long.class);
+    }
 }
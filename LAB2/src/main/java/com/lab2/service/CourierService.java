@@ -3,42 +3,88 @@ package com.lab2.service;
 import com.lab2.dto.CourierDTO;
 import com.lab2.entity.Courier;
 import com.lab2.util.SQLQueryRuntime;
+import com.lab2.util.Tracer;
+import com.lab2.util.Tracer.Outcome;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.OptimisticLockException;
 import jakarta.persistence.TypedQuery;
+import org.hibernate.Session;
 import org.apache.commons.lang3.tuple.Pair;
+import shared.ranking.OrderCounts;
+import shared.ranking.TransactionSnapshot;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.logging.Logger;
-import java.util.logging.Level;
 
 public class CourierService implements Service<Courier, CourierDTO, String> {
-    private static final Logger LOGGER = Logger.getLogger(CourierService.class.getName());
+    private static final String ALL_COURIERS = "SELECT c FROM Courier c";
+    private static final String COURIERS_WITH_MOST_ORDERS = """
+        SELECT c, COUNT(o) AS orderCount
+        FROM Courier c
+        LEFT JOIN Order o ON c.phone = o.courier.phone
+        GROUP BY c.name, c.phone
+        ORDER BY orderCount DESC
+        """;
+    private static final String UPDATE_COURIER = """
+        UPDATE Courier c SET c.name = :name, c.transport = :transport, c.version = c.version + 1
+        WHERE c.phone = :key
+        """;
+    private static final String UPDATE_COURIER_VERSION = UPDATE_COURIER + "AND c.version = :version";
+    private static final String COURIER_EXISTS = "SELECT COUNT(c) FROM Courier c WHERE c.phone = :key";
+    private static final String DELETE_COURIER = "DELETE FROM Courier c WHERE c.phone = :key";
+    private static final int MULTI_LOAD_BATCH_SIZE = 500;
     private EntityManagerFactory emf;
 
     public CourierService(EntityManagerFactory emf) {
         this.emf = emf;
-        LOGGER.info("CourierService initialized.");
-        LOGGER.setLevel(Level.OFF);
     }
 
     @Override
     public Optional<Courier> findRecord(String phone) throws RuntimeException {
-        LOGGER.info("Finding courier with phone: " + phone);
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         try {
             Courier courier = em.find(Courier.class, phone);
-            if (courier == null) {
-                LOGGER.warning("Courier with phone " + phone + " not found.");
-            }
+            Tracer.end("CourierService.findRecord", phone, start, courier == null ? Outcome.NOT_FOUND : Outcome.OK);
             return Optional.ofNullable(courier);
         } catch (RuntimeException e) {
-            LOGGER.log(Level.SEVERE, "Error while finding courier with phone: " + phone, e);
+            Tracer.end("CourierService.findRecord", phone, start, Outcome.ERROR);
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    @Override
+    public Map<String, Courier> findRecords(Collection<String> phones) throws RuntimeException {
+        long start = Tracer.start();
+        Map<String, Courier> couriers = new HashMap<>();
+        if (phones.isEmpty()) {
+            return couriers;
+        }
+
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<Courier> found = em.unwrap(Session.class)
+                .byMultipleIds(Courier.class)
+                .withBatchSize(MULTI_LOAD_BATCH_SIZE)
+                .enableOrderedReturn(false)
+                .multiLoad(List.copyOf(phones));
+            for (Courier courier : found) {
+                couriers.put(courier.getPhone(), courier);
+            }
+            Tracer.end("CourierService.findRecords", phones.size(), start, Outcome.OK);
+            return couriers;
+        } catch (RuntimeException e) {
+            Tracer.end("CourierService.findRecords", phones.size(), start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -47,14 +93,14 @@ public class CourierService implements Service<Courier, CourierDTO, String> {
 
     @Override
     public List<Courier> getAllRecords() throws RuntimeException {
-        LOGGER.info("Fetching all couriers.");
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         try {
-            List<Courier> couriers = em.createQuery("SELECT c FROM Courier c", Courier.class).getResultList();
-            LOGGER.info("Retrieved " + couriers.size() + " couriers.");
+            List<Courier> couriers = em.createQuery(ALL_COURIERS, Courier.class).getResultList();
+            Tracer.end("CourierService.getAllRecords", couriers.size(), start, Outcome.OK);
             return couriers;
         } catch (RuntimeException e) {
-            LOGGER.log(Level.SEVERE, "Error while fetching all couriers.", e);
+            Tracer.end("CourierService.getAllRecords", 0, start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -63,7 +109,7 @@ public class CourierService implements Service<Courier, CourierDTO, String> {
 
     @Override
     public void addRecord(CourierDTO courier) throws RuntimeException {
-        LOGGER.info("Adding courier: " + courier.getName());
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         EntityTransaction transaction = em.getTransaction();
         try {
@@ -74,12 +120,12 @@ public class CourierService implements Service<Courier, CourierDTO, String> {
                 .transport(courier.getTransport())
                 .build());
             transaction.commit();
-            LOGGER.info("Courier added successfully: " + courier.getName());
+            Tracer.end("CourierService.addRecord", courier.getPhone(), start, Outcome.OK);
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while adding courier: " + courier.getName(), e);
+            Tracer.end("CourierService.addRecord", courier.getPhone(), start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -87,30 +133,26 @@ public class CourierService implements Service<Courier, CourierDTO, String> {
     }
 
     @Override
-    public boolean updateRecord(CourierDTO courier) throws RuntimeException {
-        LOGGER.info("Updating courier: " + courier.getName());
+    public boolean updateRecord(CourierDTO courier) throws RuntimeException, OptimisticLockException {
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         EntityTransaction transaction = em.getTransaction();
         try {
             transaction.begin();
-            Courier existingCourier = em.find(Courier.class, courier.getPhone());
-            if (existingCourier == null) {
-                transaction.rollback();
-                LOGGER.warning("Courier with phone " + courier.getPhone() + " not found for update.");
+            boolean updated = RecordStatements.update(em, UPDATE_COURIER, UPDATE_COURIER_VERSION, COURIER_EXISTS,
+                Map.of("key", courier.getPhone(), "name", courier.getName(), "transport", courier.getTransport()), courier.getVersion());
+            transaction.commit();
+            if (!updated) {
+                Tracer.end("CourierService.updateRecord", courier.getPhone(), start, Outcome.NOT_FOUND);
                 return false;
             }
-
-            existingCourier.setName(courier.getName());
-            existingCourier.setTransport(courier.getTransport());
-            em.merge(existingCourier);
-            transaction.commit();
-            LOGGER.info("Courier updated successfully: " + courier.getName());
+            Tracer.end("CourierService.updateRecord", courier.getPhone(), start, Outcome.OK);
             return true;
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while updating courier: " + courier.getName(), e);
+            Tracer.end("CourierService.updateRecord", courier.getPhone(), start, e instanceof OptimisticLockException ? Outcome.CONFLICT : Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -119,27 +161,24 @@ public class CourierService implements Service<Courier, CourierDTO, String> {
 
     @Override
     public boolean deleteRecord(String phone) throws RuntimeException {
-        LOGGER.info("Deleting courier with phone: " + phone);
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         EntityTransaction transaction = em.getTransaction();
         try {
             transaction.begin();
-            Courier courier = em.find(Courier.class, phone);
-            if (courier == null) {
-                transaction.rollback();
-                LOGGER.warning("Courier with phone " + phone + " not found for deletion.");
+            boolean deleted = RecordStatements.delete(em, DELETE_COURIER, phone);
+            transaction.commit();
+            if (!deleted) {
+                Tracer.end("CourierService.deleteRecord", phone, start, Outcome.NOT_FOUND);
                 return false;
             }
-
-            em.remove(courier);
-            transaction.commit();
-            LOGGER.info("Courier deleted successfully: " + phone);
+            Tracer.end("CourierService.deleteRecord", phone, start, Outcome.OK);
             return true;
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while deleting courier with phone: " + phone, e);
+            Tracer.end("CourierService.deleteRecord", phone, start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -147,25 +186,32 @@ public class CourierService implements Service<Courier, CourierDTO, String> {
     }
 
     public List<Pair<Courier, Integer>> getCouriersWithMostOrders(int numberOfRecords) throws RuntimeException {
+        return queryCouriersWithMostOrders(numberOfRecords, false).counts();
+    }
+
+    // All couriers, with the snapshot the counts were read in for the leaderboard
+    public OrderCounts<Courier> getCourierOrderCounts() throws RuntimeException {
+        return queryCouriersWithMostOrders(-1, true);
+    }
+
+    private OrderCounts<Courier> queryCouriersWithMostOrders(int numberOfRecords, boolean readSnapshot) throws RuntimeException {
         EntityManager em = emf.createEntityManager();
         List<Pair<Courier, Integer>> couriers = new ArrayList<>();
+        TransactionSnapshot snapshot = null;
         
         try {
             em.getTransaction().begin();
-
-            final String jpql = """
-                SELECT c, COUNT(o) AS orderCount
-                FROM Courier c
-                LEFT JOIN Order o ON c.phone = o.courier.phone
-                GROUP BY c.name, c.phone
-                ORDER BY orderCount DESC
-            """;
+            if (readSnapshot) {
+                snapshot = TransactionSnapshots.repeatableRead(em);
+            }
 
             // Begin SQL query measurement scope
             SQLQueryRuntime.beginScope();
             
-            TypedQuery<Object[]> query = em.createQuery(jpql, Object[].class);
-            query.setMaxResults(numberOfRecords);
+            TypedQuery<Object[]> query = em.createQuery(COURIERS_WITH_MOST_ORDERS, Object[].class);
+            if (numberOfRecords >= 0) {
+                query.setMaxResults(numberOfRecords);
+            }
             
             List<Object[]> resultList = query.getResultList();
 
@@ -189,7 +235,7 @@ public class CourierService implements Service<Courier, CourierDTO, String> {
             em.close();
         }
         
-        return couriers;
+        return new OrderCounts<>(couriers, snapshot);
     }
 
     public void generateRandomCouriers(int numberOfRecords) throws RuntimeException {
@@ -226,9 +272,13 @@ public class CourierService implements Service<Courier, CourierDTO, String> {
     }
 
     public void close() {
-        LOGGER.info("Closing EntityManagerFactory.");
         if (emf != null) {
             emf.close();
         }
     }
+
+    @Override
+    public Map<String, Class<?>> getQueries() {
+        return Map.of(ALL_COURIERS, Courier.class, COURIERS_WITH_MOST_ORDERS, Object[].class, COURIER_EXISTS, Long.class);
+    }
 }
@@ -3,39 +3,95 @@ package com.lab2.service;
 import com.lab2.dto.MealDTO;
 import com.lab2.entity.Meal;
 import com.lab2.entity.Order;
+import com.lab2.util.Tracer;
+import com.lab2.util.Tracer.Outcome;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.OptimisticLockException;
+import org.hibernate.Session;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.logging.Logger;
-import java.util.logging.Level;
 
 public class MealService implements Service<Meal, MealDTO, Long> {
-    private static final Logger LOGGER = Logger.getLogger(MealService.class.getName());
+    public enum AddOutcome {
+        ADDED, MISSING_ORDER, DUPLICATE_KEY
+    }
+
+    // A meal needs its order and the order its courier and client, joined instead of loaded per order
+    private static final String ALL_MEALS = "SELECT m FROM Meal m JOIN FETCH m.order o JOIN FETCH o.courier JOIN FETCH o.client";
+    private static final String UPDATE_MEAL = """
+        UPDATE Meal m SET m.name = :name, m.price = :price, m.weight = :weight, m.servingSize = :servingSize,
+            m.version = m.version + 1
+        WHERE m.mealID = :key
+        """;
+    private static final String UPDATE_MEAL_VERSION = UPDATE_MEAL + "AND m.version = :version";
+    private static final String MEAL_EXISTS = "SELECT COUNT(m) FROM Meal m WHERE m.mealID = :key";
+    private static final String DELETE_MEAL = "DELETE FROM Meal m WHERE m.mealID = :key";
+    // The order and the key are checked by the insert itself, so a single meal is one statement
+    private static final String ADD_MEAL = """
+        WITH parent AS (SELECT "Order ID" FROM "Order" WHERE "Order ID" = :orderID LIMIT 1),
+        taken AS (SELECT 1 FROM "Meal" WHERE "Meal ID" = :mealID),
+        inserted AS (
+            INSERT INTO "Meal" ("Meal ID", "Order ID", "Name", "Price", "Weight", "Serving Size", "Version")
+            SELECT :mealID, parent."Order ID", :name, :price, :weight, :servingSize, 0
+            FROM parent
+            WHERE NOT EXISTS (SELECT 1 FROM taken)
+        )
+        SELECT EXISTS (SELECT 1 FROM parent), EXISTS (SELECT 1 FROM taken)
+        """;
+    private static final int MULTI_LOAD_BATCH_SIZE = 500;
+    private static final int INSERT_BATCH_SIZE = 500;
     private EntityManagerFactory emf;
 
     public MealService(EntityManagerFactory emf) {
         this.emf = emf;
-        LOGGER.info("MealService initialized.");
-        LOGGER.setLevel(Level.OFF);
     }
 
     @Override
     public Optional<Meal> findRecord(Long mealID) throws RuntimeException {
-        LOGGER.info("Finding meal with ID: " + mealID);
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         try {
             Meal meal = em.find(Meal.class, mealID);
-            if (meal == null) {
-                LOGGER.warning("Meal with ID " + mealID + " not found.");
-            }
+            Tracer.end("MealService.findRecord", mealID, start, meal == null ? Outcome.NOT_FOUND : Outcome.OK);
             return Optional.ofNullable(meal);
         } catch (RuntimeException e) {
-            LOGGER.log(Level.SEVERE, "Error while finding meal with ID: " + mealID, e);
+            Tracer.end("MealService.findRecord", mealID, start, Outcome.ERROR);
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    @Override
+    public Map<Long, Meal> findRecords(Collection<Long> mealIDs) throws RuntimeException {
+        long start = Tracer.start();
+        Map<Long, Meal> meals = new HashMap<>();
+        if (mealIDs.isEmpty()) {
+            return meals;
+        }
+
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<Meal> found = em.unwrap(Session.class)
+                .byMultipleIds(Meal.class)
+                .withBatchSize(MULTI_LOAD_BATCH_SIZE)
+                .enableOrderedReturn(false)
+                .multiLoad(List.copyOf(mealIDs));
+            for (Meal meal : found) {
+                meals.put(meal.getMealID(), meal);
+            }
+            Tracer.end("MealService.findRecords", mealIDs.size(), start, Outcome.OK);
+            return meals;
+        } catch (RuntimeException e) {
+            Tracer.end("MealService.findRecords", mealIDs.size(), start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -44,14 +100,14 @@ public class MealService implements Service<Meal, MealDTO, Long> {
 
     @Override
     public List<Meal> getAllRecords() throws RuntimeException {
-        LOGGER.info("Fetching all meals.");
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         try {
-            List<Meal> meals = em.createQuery("SELECT m FROM Meal m", Meal.class).getResultList();
-            LOGGER.info("Retrieved " + meals.size() + " meals.");
+            List<Meal> meals = em.createQuery(ALL_MEALS, Meal.class).getResultList();
+            Tracer.end("MealService.getAllRecords", meals.size(), start, Outcome.OK);
             return meals;
         } catch (RuntimeException e) {
-            LOGGER.log(Level.SEVERE, "Error while fetching all meals.", e);
+            Tracer.end("MealService.getAllRecords", 0, start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -59,7 +115,7 @@ public class MealService implements Service<Meal, MealDTO, Long> {
     }
 
     public void addRecord(MealDTO mealDTO) throws RuntimeException {
-        LOGGER.info("Adding meal: " + mealDTO.getName());
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         EntityTransaction transaction = em.getTransaction();
         try {
@@ -78,45 +134,98 @@ public class MealService implements Service<Meal, MealDTO, Long> {
     
             em.persist(newMeal);
             transaction.commit();
-            LOGGER.info("Meal added successfully: " + mealDTO.getName());
+            Tracer.end("MealService.addRecord", mealDTO.getMealID(), start, Outcome.OK);
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while adding meal: " + mealDTO.getName(), e);
+            Tracer.end("MealService.addRecord", mealDTO.getMealID(), start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
         }
     }
 
-    @Override
-    public boolean updateRecord(MealDTO meal) throws RuntimeException {
-        LOGGER.info("Updating meal: " + meal.getName());
+    // The errors are checked in the order the Model reports them: the order and then the key. A key taken by
+    // a concurrent insert after the check is refused by the primary key.
+    public AddOutcome addMeal(MealDTO meal) throws RuntimeException {
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         EntityTransaction transaction = em.getTransaction();
         try {
             transaction.begin();
-            Meal existingMeal = em.find(Meal.class, meal.getMealID());
-            if (existingMeal == null) {
+            Object[] row = (Object[]) em.createNativeQuery(ADD_MEAL)
+                .setParameter("mealID", meal.getMealID())
+                .setParameter("orderID", meal.getOrderID())
+                .setParameter("name", meal.getName())
+                .setParameter("price", meal.getPrice())
+                .setParameter("weight", meal.getWeight())
+                .setParameter("servingSize", meal.getServingSize())
+                .getSingleResult();
+            transaction.commit();
+
+            AddOutcome outcome = !(Boolean) row[0] ? AddOutcome.MISSING_ORDER
+                : (Boolean) row[1] ? AddOutcome.DUPLICATE_KEY : AddOutcome.ADDED;
+            Tracer.end("MealService.addMeal", meal.getMealID(), start, outcome(outcome));
+            return outcome;
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
                 transaction.rollback();
-                LOGGER.warning("Meal with ID " + meal.getMealID() + " not found for update.");
-                return false;
             }
+            if (RecordStatements.isUniqueViolation(e)) {
+                Tracer.end("MealService.addMeal", meal.getMealID(), start, Outcome.CONFLICT);
+                return AddOutcome.DUPLICATE_KEY;
+            }
+            Tracer.end("MealService.addMeal", meal.getMealID(), start, Outcome.ERROR);
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    private static Outcome outcome(AddOutcome outcome) {
+        return switch (outcome) {
+            case ADDED -> Outcome.OK;
+            case DUPLICATE_KEY -> Outcome.CONFLICT;
+            default -> Outcome.NOT_FOUND;
+        };
+    }
 
-            existingMeal.setName(meal.getName());
-            existingMeal.setPrice(meal.getPrice());
-            existingMeal.setWeight(meal.getWeight());
-            existingMeal.setServingSize(meal.getServingSize());
-            em.merge(existingMeal);
+    // All of them in one transaction, sent in JDBC batches. The orders are the ones the caller validated the
+    // meals against, by ID. Only their IDs are written, so none of them is loaded again.
+    public void addRecords(List<MealDTO> meals, Map<Long, Order> orders) throws RuntimeException {
+        long start = Tracer.start();
+        if (meals.isEmpty()) {
+            return;
+        }
+
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction transaction = em.getTransaction();
+        try {
+            em.unwrap(Session.class).setJdbcBatchSize(INSERT_BATCH_SIZE);
+            transaction.begin();
+            for (int i = 0; i < meals.size(); i++) {
+                MealDTO meal = meals.get(i);
+                em.persist(Meal.builder()
+                    .mealID(meal.getMealID())
+                    .order(orders.get(meal.getOrderID()))
+                    .name(meal.getName())
+                    .price(meal.getPrice())
+                    .weight(meal.getWeight())
+                    .servingSize(meal.getServingSize())
+                    .build());
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+                    em.flush();
+                    em.clear();
+                }
+            }
             transaction.commit();
-            LOGGER.info("Meal updated successfully: " + meal.getName());
-            return true;
+            Tracer.end("MealService.addRecords", meals.size(), start, Outcome.OK);
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while updating meal: " + meal.getName(), e);
+            Tracer.end("MealService.addRecords", meals.size(), start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -124,28 +233,53 @@ public class MealService implements Service<Meal, MealDTO, Long> {
     }
 
     @Override
-    public boolean deleteRecord(Long mealID) throws RuntimeException {
-        LOGGER.info("Deleting meal with ID: " + mealID);
+    public boolean updateRecord(MealDTO meal) throws RuntimeException, OptimisticLockException {
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         EntityTransaction transaction = em.getTransaction();
         try {
             transaction.begin();
-            Meal meal = em.find(Meal.class, mealID);
-            if (meal == null) {
-                transaction.rollback();
-                LOGGER.warning("Meal with ID " + mealID + " not found for deletion.");
+            boolean updated = RecordStatements.update(em, UPDATE_MEAL, UPDATE_MEAL_VERSION, MEAL_EXISTS,
+                Map.of("key", meal.getMealID(), "name", meal.getName(), "price", meal.getPrice(),
+                    "weight", meal.getWeight(), "servingSize", meal.getServingSize()), meal.getVersion());
+            transaction.commit();
+            if (!updated) {
+                Tracer.end("MealService.updateRecord", meal.getMealID(), start, Outcome.NOT_FOUND);
                 return false;
             }
+            Tracer.end("MealService.updateRecord", meal.getMealID(), start, Outcome.OK);
+            return true;
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            Tracer.end("MealService.updateRecord", meal.getMealID(), start, e instanceof OptimisticLockException ? Outcome.CONFLICT : Outcome.ERROR);
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
 
-            em.remove(meal);
+    @Override
+    public boolean deleteRecord(Long mealID) throws RuntimeException {
+        long start = Tracer.start();
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction transaction = em.getTransaction();
+        try {
+            transaction.begin();
+            boolean deleted = RecordStatements.delete(em, DELETE_MEAL, mealID);
             transaction.commit();
-            LOGGER.info("Meal deleted successfully: " + meal.getName());
+            if (!deleted) {
+                Tracer.end("MealService.deleteRecord", mealID, start, Outcome.NOT_FOUND);
+                return false;
+            }
+            Tracer.end("MealService.deleteRecord", mealID, start, Outcome.OK);
             return true;
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while deleting meal with ID: " + mealID, e);
+            Tracer.end("MealService.deleteRecord", mealID, start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -158,9 +292,13 @@ public class MealService implements Service<Meal, MealDTO, Long> {
     }
 
     public void close() {
-        LOGGER.info("Closing EntityManagerFactory.");
         if (emf != null) {
             emf.close();
         }
     }
+
+    @Override
+    public Map<String, Class<?>> getQueries() {
+        return Map.of(ALL_MEALS, Meal.class, MEAL_EXISTS, Long.class);
+    }
 }
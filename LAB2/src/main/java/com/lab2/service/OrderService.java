@@ -4,42 +4,117 @@ import com.lab2.dto.OrderDTO;
 import com.lab2.entity.Client;
 import com.lab2.entity.Courier;
 import com.lab2.entity.Order;
+import com.lab2.util.Tracer;
+import com.lab2.util.Tracer.Outcome;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.OptimisticLockException;
+import org.hibernate.Session;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.logging.Logger;
-import java.util.logging.Level;
 
 public class OrderService implements Service<Order, OrderDTO, Long> {
-    private static final Logger LOGGER = Logger.getLogger(OrderService.class.getName());
+    public enum AddOutcome {
+        ADDED, DUPLICATE_KEY, MISSING_COURIER, MISSING_CLIENT
+    }
+
+    // The client the order was added for and the inserting transaction, read by the insert for the rankings
+    public record AddedOrder(AddOutcome outcome, Client client, long transaction) {
+    }
+
+    // The courier and client of a deleted order and the deleting transaction, for the rankings
+    public record DeletedOrder(String courierPhone, String clientEmail, long transaction) {
+    }
+
+    // The courier and client are eager, fetched in the same statement instead of one per distinct key
+    private static final String ALL_ORDERS = "SELECT o FROM Order o JOIN FETCH o.courier JOIN FETCH o.client";
+    private static final String UPDATE_ORDER = """
+        UPDATE Order o SET o.orderDate = :orderDate, o.deliveryDate = :deliveryDate, o.rating = :rating,
+            o.deliveryAddress = :deliveryAddress, o.version = o.version + 1
+        WHERE o.orderID = :key
+        """;
+    private static final String UPDATE_ORDER_VERSION = UPDATE_ORDER + "AND o.version = :version";
+    private static final String ORDER_EXISTS = "SELECT COUNT(o) FROM Order o WHERE o.orderID = :key";
+    // Native, so the keys the rankings need come back from the delete instead of a read before it
+    private static final String DELETE_ORDER = """
+        DELETE FROM "Order" WHERE "Order ID" = :key
+        RETURNING "Courier Phone", "Client Email", pg_current_xact_id()::text::bigint
+        """;
+    // The key, courier and client are checked by the insert itself, so a single order is one statement
+    private static final String ADD_ORDER = """
+        WITH taken AS (SELECT 1 FROM "Order" WHERE "Order ID" = :orderID),
+        courier AS (SELECT "Phone" FROM "Courier" WHERE "Phone" = :courierPhone),
+        client AS (SELECT "Email", "Name", "Phone", "Version" FROM "Client" WHERE "Email" = :clientEmail),
+        inserted AS (
+            INSERT INTO "Order" ("Order ID", "Courier Phone", "Client Email", "Order Date", "Delivery Date",
+                "Rating", "Delivery Address", "Version")
+            SELECT :orderID, courier."Phone", client."Email", :orderDate, :deliveryDate, :rating, :deliveryAddress, 0
+            FROM courier, client
+            WHERE NOT EXISTS (SELECT 1 FROM taken)
+            RETURNING 1
+        )
+        SELECT EXISTS (SELECT 1 FROM taken), EXISTS (SELECT 1 FROM courier),
+            client."Email", client."Name", client."Phone", client."Version",
+            (SELECT pg_current_xact_id() FROM inserted)::text::bigint
+        FROM (VALUES (1)) AS one LEFT JOIN client ON true
+        """;
+    private static final String CURRENT_TRANSACTION = "SELECT pg_current_xact_id()::text::bigint";
+    private static final int MULTI_LOAD_BATCH_SIZE = 500;
+    private static final int INSERT_BATCH_SIZE = 500;
     private EntityManagerFactory emf;
 
     public OrderService(EntityManagerFactory emf) {
         this.emf = emf;
-        LOGGER.info("OrderService initialized.");
-        LOGGER.setLevel(Level.OFF);
     }
 
     @Override
     public Optional<Order> findRecord(Long orderID) throws RuntimeException {
-        LOGGER.info("Finding order with ID: " + orderID);
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         try {
             Order order = em.find(Order.class, orderID);
-            if (order == null) {
-                LOGGER.warning("Order with ID " + orderID + " not found.");
-            }
+            Tracer.end("OrderService.findRecord", orderID, start, order == null ? Outcome.NOT_FOUND : Outcome.OK);
             return Optional.ofNullable(order);
         } catch (RuntimeException e) {
-            LOGGER.log(Level.SEVERE, "Error while finding order with ID: " + orderID, e);
+            Tracer.end("OrderService.findRecord", orderID, start, Outcome.ERROR);
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    @Override
+    public Map<Long, Order> findRecords(Collection<Long> orderIDs) throws RuntimeException {
+        long start = Tracer.start();
+        Map<Long, Order> orders = new HashMap<>();
+        if (orderIDs.isEmpty()) {
+            return orders;
+        }
+
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<Order> found = em.unwrap(Session.class)
+                .byMultipleIds(Order.class)
+                .withBatchSize(MULTI_LOAD_BATCH_SIZE)
+                .enableOrderedReturn(false)
+                .multiLoad(List.copyOf(orderIDs));
+            for (Order order : found) {
+                orders.put(order.getOrderID(), order);
+            }
+            Tracer.end("OrderService.findRecords", orderIDs.size(), start, Outcome.OK);
+            return orders;
+        } catch (RuntimeException e) {
+            Tracer.end("OrderService.findRecords", orderIDs.size(), start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -48,14 +123,14 @@ public class OrderService implements Service<Order, OrderDTO, Long> {
 
     @Override
     public List<Order> getAllRecords() throws RuntimeException {
-        LOGGER.info("Fetching all orders.");
+        long start = Tracer.start();
         EntityManager em = emf.createEntityManager();
         try {
-            List<Order> orders = em.createQuery("SELECT o FROM Order o", Order.class).getResultList();
-            LOGGER.info("Retrieved " + orders.size() + " orders.");
+            List<Order> orders = em.createQuery(ALL_ORDERS, Order.class).getResultList();
+            Tracer.end("OrderService.getAllRecords", orders.size(), start, Outcome.OK);
             return orders;
         } catch (RuntimeException e) {
-            LOGGER.log(Level.SEVERE, "Error while fetching all orders.", e);
+            Tracer.end("OrderService.getAllRecords", 0, start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -64,14 +139,14 @@ public class OrderService implements Service<Order, OrderDTO, Long> {
 
     @Override
     public void addRecord(OrderDTO order) throws RuntimeException {
-        LOGGER.info("Adding order: " + order.getOrderID());
+        long start = Tracer.start();
 
         LocalDateTime orderDate = null, deliveryDate = null;
         try {
             orderDate = LocalDateTime.parse(order.getOrderDate(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
             deliveryDate = LocalDateTime.parse(order.getDeliveryDate(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
         } catch (DateTimeParseException e) {
-            LOGGER.warning("Invalid date format for Order ID " + order.getOrderID() + ". Skipping adding.");
+            // Left null, the insert below then fails on the NOT NULL date columns and is traced as an error
         }
         
         EntityManager em = emf.createEntityManager();
@@ -95,54 +170,119 @@ public class OrderService implements Service<Order, OrderDTO, Long> {
 
             em.persist(newOrder);
             transaction.commit();
-            LOGGER.info("Order added successfully: " + order.getOrderID());
+            Tracer.end("OrderService.addRecord", order.getOrderID(), start, Outcome.OK);
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while adding order: " + order.getOrderID(), e);
+            Tracer.end("OrderService.addRecord", order.getOrderID(), start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
         }
     }
 
-    @Override
-    public boolean updateRecord(OrderDTO order) throws RuntimeException {
-        LOGGER.info("Updating order: " + order.getOrderID());
+    // The dates must have been validated. The errors are checked in the order the Model reports them: the key,
+    // the courier and then the client. A key taken by a concurrent insert after the check is refused by the
+    // primary key.
+    public AddedOrder addOrder(OrderDTO order) throws RuntimeException {
+        long start = Tracer.start();
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
         EntityManager em = emf.createEntityManager();
         EntityTransaction transaction = em.getTransaction();
         try {
             transaction.begin();
-            Order existingOrder = em.find(Order.class, order.getOrderID());
-            if (existingOrder == null) {
+            Object[] row = (Object[]) em.createNativeQuery(ADD_ORDER)
+                .setParameter("orderID", order.getOrderID())
+                .setParameter("courierPhone", order.getCourierPhone())
+                .setParameter("clientEmail", order.getClientEmail())
+                .setParameter("orderDate", LocalDateTime.parse(order.getOrderDate(), format))
+                .setParameter("deliveryDate", LocalDateTime.parse(order.getDeliveryDate(), format))
+                .setParameter("rating", order.getRating())
+                .setParameter("deliveryAddress", order.getDeliveryAddress())
+                .getSingleResult();
+            transaction.commit();
+
+            AddOutcome outcome;
+            if ((Boolean) row[0]) {
+                outcome = AddOutcome.DUPLICATE_KEY;
+            } else if (!(Boolean) row[1]) {
+                outcome = AddOutcome.MISSING_COURIER;
+            } else if (row[2] == null) {
+                outcome = AddOutcome.MISSING_CLIENT;
+            } else {
+                outcome = AddOutcome.ADDED;
+            }
+            Tracer.end("OrderService.addOrder", order.getOrderID(), start, outcome(outcome));
+            if (outcome != AddOutcome.ADDED) {
+                return new AddedOrder(outcome, null, 0);
+            }
+            return new AddedOrder(outcome, new Client((String) row[2], (String) row[3], (String) row[4], ((Number) row[5]).longValue()),
+                ((Number) row[6]).longValue());
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
                 transaction.rollback();
-                LOGGER.warning("Order with ID " + order.getOrderID() + " not found for update.");
-                return false;
             }
+            if (RecordStatements.isUniqueViolation(e)) {
+                Tracer.end("OrderService.addOrder", order.getOrderID(), start, Outcome.CONFLICT);
+                return new AddedOrder(AddOutcome.DUPLICATE_KEY, null, 0);
+            }
+            Tracer.end("OrderService.addOrder", order.getOrderID(), start, Outcome.ERROR);
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
 
-            LocalDateTime orderDate = null, deliveryDate = null;
-            try {
-                orderDate = LocalDateTime.parse(order.getOrderDate(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
-                deliveryDate = LocalDateTime.parse(order.getDeliveryDate(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
-            } catch (DateTimeParseException e) {
-                LOGGER.warning("Invalid 'orderDate' format for Order ID " + order.getOrderID() + ". Skipping update.");
-                return false;
+    private static Outcome outcome(AddOutcome outcome) {
+        return switch (outcome) {
+            case ADDED -> Outcome.OK;
+            case DUPLICATE_KEY -> Outcome.CONFLICT;
+            default -> Outcome.NOT_FOUND;
+        };
+    }
+
+    // All of them in one transaction, sent in JDBC batches. The dates must have been validated, and the couriers
+    // and clients are the ones the caller validated the orders against, by key. Only their keys are written,
+    // so none of them is loaded again. Returns the inserting transaction for the rankings, the batch cannot
+    // return it from its statements and reads it first.
+    public long addRecords(List<OrderDTO> orders, Map<String, Courier> couriers, Map<String, Client> clients) throws RuntimeException {
+        long start = Tracer.start();
+        if (orders.isEmpty()) {
+            return 0;
+        }
+
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction transaction = em.getTransaction();
+        try {
+            em.unwrap(Session.class).setJdbcBatchSize(INSERT_BATCH_SIZE);
+            transaction.begin();
+            long transactionID = ((Number) em.createNativeQuery(CURRENT_TRANSACTION).getSingleResult()).longValue();
+            for (int i = 0; i < orders.size(); i++) {
+                OrderDTO order = orders.get(i);
+                em.persist(Order.builder()
+                    .orderID(order.getOrderID())
+                    .courier(couriers.get(order.getCourierPhone()))
+                    .client(clients.get(order.getClientEmail()))
+                    .orderDate(LocalDateTime.parse(order.getOrderDate(), format))
+                    .deliveryDate(LocalDateTime.parse(order.getDeliveryDate(), format))
+                    .rating(order.getRating())
+                    .deliveryAddress(order.getDeliveryAddress())
+                    .build());
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+                    em.flush();
+                    em.clear();
+                }
             }
-            
-            existingOrder.setOrderDate(orderDate);
-            existingOrder.setDeliveryDate(deliveryDate);
-            existingOrder.setRating(order.getRating());
-            existingOrder.setDeliveryAddress(order.getDeliveryAddress());
-            em.merge(existingOrder);
             transaction.commit();
-            LOGGER.info("Order updated successfully: " + order.getOrderID());
-            return true;
+            Tracer.end("OrderService.addRecords", orders.size(), start, Outcome.OK);
+            return transactionID;
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while updating order: " + order.getOrderID(), e);
+            Tracer.end("OrderService.addRecords", orders.size(), start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -150,28 +290,69 @@ public class OrderService implements Service<Order, OrderDTO, Long> {
     }
 
     @Override
-    public boolean deleteRecord(Long orderID) throws RuntimeException {
-        LOGGER.info("Deleting order with ID: " + orderID);
+    public boolean updateRecord(OrderDTO order) throws RuntimeException, OptimisticLockException {
+        long start = Tracer.start();
+        LocalDateTime orderDate, deliveryDate;
+        try {
+            orderDate = LocalDateTime.parse(order.getOrderDate(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+            deliveryDate = LocalDateTime.parse(order.getDeliveryDate(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+
         EntityManager em = emf.createEntityManager();
         EntityTransaction transaction = em.getTransaction();
         try {
-            transaction.begin();    
-            Order order = em.find(Order.class, orderID);
-            if (order == null) {
-                transaction.rollback();
-                LOGGER.warning("Order with ID " + orderID + " not found for deletion.");
+            transaction.begin();
+            boolean updated = RecordStatements.update(em, UPDATE_ORDER, UPDATE_ORDER_VERSION, ORDER_EXISTS,
+                Map.of("key", order.getOrderID(), "orderDate", orderDate, "deliveryDate", deliveryDate,
+                    "rating", order.getRating(), "deliveryAddress", order.getDeliveryAddress()), order.getVersion());
+            transaction.commit();
+            if (!updated) {
+                Tracer.end("OrderService.updateRecord", order.getOrderID(), start, Outcome.NOT_FOUND);
                 return false;
             }
+            Tracer.end("OrderService.updateRecord", order.getOrderID(), start, Outcome.OK);
+            return true;
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            Tracer.end("OrderService.updateRecord", order.getOrderID(), start, e instanceof OptimisticLockException ? Outcome.CONFLICT : Outcome.ERROR);
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    @Override
+    public boolean deleteRecord(Long orderID) throws RuntimeException {
+        return deleteOrder(orderID).isPresent();
+    }
 
-            em.remove(order);
+    public Optional<DeletedOrder> deleteOrder(Long orderID) throws RuntimeException {
+        long start = Tracer.start();
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction transaction = em.getTransaction();
+        try {
+            transaction.begin();
+            @SuppressWarnings("unchecked")
+            List<Object[]> deleted = em.createNativeQuery(DELETE_ORDER)
+                .setParameter("key", orderID)
+                .getResultList();
             transaction.commit();
-            LOGGER.info("Order deleted successfully: " + order.getOrderID());
-            return true;
+            if (deleted.isEmpty()) {
+                Tracer.end("OrderService.deleteRecord", orderID, start, Outcome.NOT_FOUND);
+                return Optional.empty();
+            }
+            Tracer.end("OrderService.deleteRecord", orderID, start, Outcome.OK);
+            Object[] row = deleted.get(0);
+            return Optional.of(new DeletedOrder((String) row[0], (String) row[1], ((Number) row[2]).longValue()));
         } catch (RuntimeException e) {
             if (transaction.isActive()) {
                 transaction.rollback();
             }
-            LOGGER.log(Level.SEVERE, "Error while deleting order with ID: " + orderID, e);
+            Tracer.end("OrderService.deleteRecord", orderID, start, Outcome.ERROR);
             throw e;
         } finally {
             em.close();
@@ -184,9 +365,13 @@ public class OrderService implements Service<Order, OrderDTO, Long> {
     }
 
     public void close() {
-        LOGGER.info("Closing EntityManagerFactory.");
         if (emf != null) {
             emf.close();
         }
     }
+
+    @Override
+    public Map<String, Class<?>> getQueries() {
+        return Map.of(ALL_ORDERS, Order.class, ORDER_EXISTS, Long.class);
+    }
 }
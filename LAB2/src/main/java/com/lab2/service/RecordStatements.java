@@ -0,0 +1,56 @@
+package com.lab2.service;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.OptimisticLockException;
+import jakarta.persistence.Query;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+// Single-statement updates and deletes shared by the services, run inside the caller's transaction.
+// The JPQL names the record's key :key. An update bumps the row version, and when the DTO carries the
+// version it was read at the update only applies to a row that still has it.
+final class RecordStatements {
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    private RecordStatements() {
+    }
+
+    static boolean update(EntityManager em, String update, String versionedUpdate, String exists,
+            Map<String, Object> parameters, Long version) throws OptimisticLockException {
+        Query query = em.createQuery(version == null ? update : versionedUpdate);
+        parameters.forEach(query::setParameter);
+        if (version != null) {
+            query.setParameter("version", version);
+        }
+        if (query.executeUpdate() > 0) {
+            return true;
+        }
+        if (version == null) {
+            return false;
+        }
+
+        // Only a refused versioned update pays for telling a missing row from a changed one
+        Long count = em.createQuery(exists, Long.class)
+            .setParameter("key", parameters.get("key"))
+            .getSingleResult();
+        if (count > 0) {
+            throw new OptimisticLockException("'" + parameters.get("key") + "' was changed after version " + version + " was read.");
+        }
+        return false;
+    }
+
+    static boolean delete(EntityManager em, String delete, Object key) {
+        return em.createQuery(delete).setParameter("key", key).executeUpdate() > 0;
+    }
+
+    // A key taken by a concurrent insert between the statement's check and its write
+    static boolean isUniqueViolation(RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException && UNIQUE_VIOLATION.equals(sqlException.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
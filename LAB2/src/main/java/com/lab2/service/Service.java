@@ -1,13 +1,19 @@
 package com.lab2.service;
 
+import java.util.Collection;
 import java.util.Optional;
 import java.util.List;
+import java.util.Map;
 
 public interface Service<T, D, ID> {
     Optional<T> findRecord(ID value);
+    // Loads many keys through one EntityManager in batched statements, keys without a record are left out
+    Map<ID, T> findRecords(Collection<ID> values);
     List<T> getAllRecords();
     void addRecord(D dto);
     boolean updateRecord(D dto);
     boolean deleteRecord(ID value);
     T convertToEntity(D dto);
+    // JPQL of this service with its result type, parsed ahead of the first request during startup
+    Map<String, Class<?>> getQueries();
 }
\ No newline at end of file
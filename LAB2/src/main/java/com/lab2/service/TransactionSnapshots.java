@@ -0,0 +1,16 @@
+package com.lab2.service;
+
+import jakarta.persistence.EntityManager;
+import shared.ranking.TransactionSnapshot;
+
+// Makes a freshly begun transaction REPEATABLE READ and reads the snapshot all of its statements will see,
+// so a ranking can tell which of the orders recorded during its load the counts already contain
+final class TransactionSnapshots {
+    private TransactionSnapshots() {
+    }
+
+    static TransactionSnapshot repeatableRead(EntityManager em) {
+        em.createNativeQuery("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ").executeUpdate();
+        return TransactionSnapshot.parse((String) em.createNativeQuery("SELECT pg_current_snapshot()::text").getSingleResult());
+    }
+}
@@ -0,0 +1,231 @@
+package com.lab2.snapshot;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.lab2.snapshot.SnapshotLayout.ColumnType;
+
+// Read-only view of a snapshot file mapped into memory. Opening only checks the header, rows are
+// read straight from the mapping when asked for, so the load time does not grow with the dataset.
+public final class DatasetSnapshot implements AutoCloseable {
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG.withOrder(SnapshotLayout.BYTE_ORDER);
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT.withOrder(SnapshotLayout.BYTE_ORDER);
+
+    public final class Table {
+        private final SnapshotLayout.Table layout;
+        private final long rowCount;
+        private final long[] columnPositions;
+
+        private Table(SnapshotLayout.Table layout, long rowCount, long[] columnPositions) {
+            this.layout = layout;
+            this.rowCount = rowCount;
+            this.columnPositions = columnPositions;
+        }
+
+        public String getName() {
+            return layout.name();
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        public int columnIndex(String column) throws IllegalArgumentException {
+            return layout.indexOf(column);
+        }
+
+        public long getLong(int column, long row) {
+            return segment.get(LONG, position(column, ColumnType.LONG, row));
+        }
+
+        public int getInt(int column, long row) {
+            return segment.get(INT, position(column, ColumnType.INT, row));
+        }
+
+        // Dictionary index of a string column, equal strings have equal indexes across all tables
+        public int getStringIndex(int column, long row) {
+            return segment.get(INT, position(column, ColumnType.STRING, row));
+        }
+
+        public String getString(int column, long row) {
+            int index = getStringIndex(column, row);
+            return index < 0 ? null : string(index);
+        }
+
+        public LocalDateTime getTimestamp(int column, long row) {
+            long micros = segment.get(LONG, position(column, ColumnType.TIMESTAMP, row));
+            if (micros == Long.MIN_VALUE) {
+                return null;
+            }
+            return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), (int) Math.floorMod(micros, 1_000_000L) * 1000, ZoneOffset.UTC);
+        }
+
+        // Rows are sorted by the first column, so keys are found by binary search
+        public long findRow(long key) {
+            long low = 0;
+            long high = rowCount - 1;
+            while (low <= high) {
+                long middle = (low + high) >>> 1;
+                long value = getLong(0, middle);
+                if (value < key) {
+                    low = middle + 1;
+                } else if (value > key) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        public long findRow(String key) {
+            int index = stringIndex(key);
+            if (index < 0) {
+                return -1;
+            }
+
+            long low = 0;
+            long high = rowCount - 1;
+            while (low <= high) {
+                long middle = (low + high) >>> 1;
+                int value = getStringIndex(0, middle);
+                if (value < index) {
+                    low = middle + 1;
+                } else if (value > index) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        private long position(int column, ColumnType type, long row) {
+            if (layout.columns().get(column).type() != type) {
+                throw new IllegalArgumentException(layout.name() + "." + layout.columns().get(column).name() + " is not a " + type + " column");
+            }
+            return columnPositions[column] + row * type.width;
+        }
+    }
+
+    private final Path file;
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final long highWaterMark;
+    private final Instant createdAt;
+    private final int stringCount;
+    private final long stringOffsetsPosition;
+    private final long stringBytesPosition;
+    private final Map<String, Table> tables = new HashMap<>();
+
+    private DatasetSnapshot(Path file, Arena arena, MemorySegment segment) throws IOException {
+        this.file = file;
+        this.arena = arena;
+        this.segment = segment;
+
+        if (segment.byteSize() < SnapshotLayout.HEADER_SIZE || segment.get(LONG, 0) != SnapshotLayout.MAGIC) {
+            throw new IOException("'" + file + "' is not a dataset snapshot.");
+        }
+        int version = segment.get(INT, 8);
+        if (version != SnapshotLayout.VERSION) {
+            throw new IOException("'" + file + "' is a version " + version + " snapshot, only version " + SnapshotLayout.VERSION + " can be read.");
+        }
+
+        this.highWaterMark = segment.get(LONG, 16);
+        this.createdAt = Instant.ofEpochMilli(segment.get(LONG, 24));
+        this.stringCount = Math.toIntExact(segment.get(LONG, 32));
+        this.stringOffsetsPosition = segment.get(LONG, 40);
+        this.stringBytesPosition = segment.get(LONG, 48);
+
+        long position = SnapshotLayout.HEADER_SIZE;
+        for (SnapshotLayout.Table layout : SnapshotLayout.TABLES) {
+            long rowCount = segment.get(LONG, position);
+            position += 8;
+            long[] columnPositions = new long[layout.columns().size()];
+            for (int i = 0; i < columnPositions.length; i++) {
+                columnPositions[i] = segment.get(LONG, position);
+                position += 8;
+                if (columnPositions[i] + rowCount * layout.columns().get(i).type().width > segment.byteSize()) {
+                    throw new IOException("'" + file + "' is truncated.");
+                }
+            }
+            tables.put(layout.name(), new Table(layout, rowCount, columnPositions));
+        }
+    }
+
+    public static DatasetSnapshot open(Path file) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            return new DatasetSnapshot(file, arena, segment);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // Oldest transaction that may have written rows missing from the snapshot
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Table table(String name) throws IllegalArgumentException {
+        Table table = tables.get(name);
+        if (table == null) {
+            throw new IllegalArgumentException("No table " + name + " in the snapshot");
+        }
+        return table;
+    }
+
+    public int getStringCount() {
+        return stringCount;
+    }
+
+    public String string(int index) {
+        long start = stringBytesPosition + segment.get(INT, stringOffsetsPosition + 4L * index);
+        long end = stringBytesPosition + segment.get(INT, stringOffsetsPosition + 4L * (index + 1));
+        return new String(segment.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
+    // The dictionary is sorted, so a string is found by binary search, -1 when it is not in the snapshot
+    public int stringIndex(String value) {
+        int low = 0;
+        int high = stringCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = string(middle).compareTo(value);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
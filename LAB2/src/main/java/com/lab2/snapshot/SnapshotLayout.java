@@ -0,0 +1,82 @@
+package com.lab2.snapshot;
+
+import java.nio.ByteOrder;
+import java.util.List;
+
+// Version 1 file layout, every number little-endian:
+//   header      magic, version, table count, high-water mark, creation time, string count,
+//               position of the string offsets, position of the string bytes
+//   directory   per table its row count and the position of each column
+//   dictionary  string count + 1 int offsets into the UTF-8 bytes of all distinct strings, sorted
+//   columns     one fixed-width array per column, rows sorted by the table's first column
+// Strings are stored as their index in the dictionary, null as -1. Null numbers are the type's minimum.
+final class SnapshotLayout {
+    enum ColumnType {
+        LONG(8), INT(4), STRING(4), TIMESTAMP(8);
+
+        final int width;
+
+        ColumnType(int width) {
+            this.width = width;
+        }
+    }
+
+    record Column(String name, ColumnType type) {
+    }
+
+    record Table(String name, List<Column> columns) {
+        int indexOf(String column) {
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).name().equals(column)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("No column " + column + " in " + name);
+        }
+    }
+
+    static final long MAGIC = 0x50414E53_3242414CL; // "LAB2SNAP" read as a little-endian long
+    static final int VERSION = 1;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int HEADER_SIZE = 8 + 4 + 4 + 8 + 8 + 8 + 8 + 8;
+
+    static final Table CLIENT = new Table("Client", List.of(
+        new Column("Email", ColumnType.STRING),
+        new Column("Name", ColumnType.STRING),
+        new Column("Phone", ColumnType.STRING)));
+
+    static final Table COURIER = new Table("Courier", List.of(
+        new Column("Phone", ColumnType.STRING),
+        new Column("Name", ColumnType.STRING),
+        new Column("Transport", ColumnType.STRING)));
+
+    static final Table ORDER = new Table("Order", List.of(
+        new Column("Order ID", ColumnType.LONG),
+        new Column("Courier Phone", ColumnType.STRING),
+        new Column("Client Email", ColumnType.STRING),
+        new Column("Order Date", ColumnType.TIMESTAMP),
+        new Column("Delivery Date", ColumnType.TIMESTAMP),
+        new Column("Rating", ColumnType.INT),
+        new Column("Delivery Address", ColumnType.STRING)));
+
+    static final Table MEAL = new Table("Meal", List.of(
+        new Column("Meal ID", ColumnType.LONG),
+        new Column("Order ID", ColumnType.LONG),
+        new Column("Name", ColumnType.STRING),
+        new Column("Price", ColumnType.INT),
+        new Column("Weight", ColumnType.INT),
+        new Column("Serving Size", ColumnType.INT)));
+
+    static final List<Table> TABLES = List.of(CLIENT, COURIER, ORDER, MEAL);
+
+    static int directorySize() {
+        int size = 0;
+        for (Table table : TABLES) {
+            size += 8 + 8 * table.columns().size();
+        }
+        return size;
+    }
+
+    private SnapshotLayout() {
+    }
+}
@@ -0,0 +1,231 @@
+package com.lab2.snapshot;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.commons.lang3.tuple.Pair;
+import shared.ranking.TransactionSnapshot;
+
+import com.lab2.entity.Client;
+import com.lab2.entity.Courier;
+
+// Rebuilds the inputs of the rankings from a snapshot plus the rows changed after its high-water mark.
+// Rows written since the mark are found by their xmin, deleted ones by comparing how many snapshot rows
+// are left; only when that comparison finds deletions are the keys of the table read to tell which.
+// The rankings come with the snapshot they were read in, to drop the orders it saw from the changes recorded meanwhile.
+public class SnapshotWarmStart {
+    public record Rankings(List<Pair<Courier, Integer>> courierOrderCounts, List<Pair<Client, Integer>> clientsWithMostOrders,
+            TransactionSnapshot snapshot, Map<String, Long> changedRows, Map<String, Long> deletedRows, Duration elapsed) {
+    }
+
+    // Past this many transactions age() comparisons against the mark are no longer reliable
+    private static final long MAX_TRANSACTIONS_BEHIND = 1L << 30;
+
+    private static final String CHANGED = "age(xmin) <= age(xid((?::bigint)::text::xid8))";
+
+    private final Connection connection;
+
+    public SnapshotWarmStart(Connection connection) {
+        this.connection = connection;
+    }
+
+    // Empty when the snapshot is too old to be caught up with the database
+    public Optional<Rankings> load(DatasetSnapshot snapshot, int numberOfClients) throws IllegalStateException {
+        long startTime = System.nanoTime();
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            connection.setReadOnly(true);
+            try {
+                // The first statement, so this is the snapshot of the whole transaction
+                TransactionSnapshot transactionSnapshot = currentSnapshot();
+                if (transactionSnapshot.xmax() - snapshot.getHighWaterMark() > MAX_TRANSACTIONS_BEHIND) {
+                    return Optional.empty();
+                }
+
+                Map<String, Long> changedRows = new LinkedHashMap<>();
+                Map<String, Long> deletedRows = new LinkedHashMap<>();
+
+                DatasetSnapshot.Table courierTable = snapshot.table("Courier");
+                Map<String, Courier> changedCouriers = new HashMap<>();
+                boolean[] staleCouriers = changedRows(snapshot, courierTable, changedRows, deletedRows, "\"Phone\", \"Name\", \"Transport\"",
+                    resultSet -> changedCouriers.put(resultSet.getString(1), Courier.builder()
+                        .phone(resultSet.getString(1))
+                        .name(resultSet.getString(2))
+                        .transport(resultSet.getString(3))
+                        .build()),
+                    resultSet -> courierTable.findRow(resultSet.getString(1)), "\"Phone\"");
+
+                DatasetSnapshot.Table clientTable = snapshot.table("Client");
+                Map<String, Client> changedClients = new HashMap<>();
+                boolean[] staleClients = changedRows(snapshot, clientTable, changedRows, deletedRows, "\"Email\", \"Name\", \"Phone\"",
+                    resultSet -> changedClients.put(resultSet.getString(1), Client.builder()
+                        .email(resultSet.getString(1))
+                        .name(resultSet.getString(2))
+                        .phone(resultSet.getString(3))
+                        .build()),
+                    resultSet -> clientTable.findRow(resultSet.getString(1)), "\"Email\"");
+
+                DatasetSnapshot.Table orderTable = snapshot.table("Order");
+                Map<String, Integer> changedCourierCounts = new HashMap<>();
+                Map<String, Integer> changedClientCounts = new HashMap<>();
+                boolean[] staleOrders = changedRows(snapshot, orderTable, changedRows, deletedRows, "\"Order ID\", \"Courier Phone\", \"Client Email\"",
+                    resultSet -> {
+                        changedCourierCounts.merge(resultSet.getString(2), 1, Integer::sum);
+                        changedClientCounts.merge(resultSet.getString(3), 1, Integer::sum);
+                    },
+                    resultSet -> orderTable.findRow(resultSet.getLong(1)), "\"Order ID\"");
+                connection.commit();
+
+                // Order counts of the snapshot rows that are still current, indexed by dictionary position
+                int[] courierCounts = new int[snapshot.getStringCount()];
+                int[] clientCounts = new int[snapshot.getStringCount()];
+                int courierPhone = orderTable.columnIndex("Courier Phone");
+                int clientEmail = orderTable.columnIndex("Client Email");
+                for (long row = 0; row < orderTable.getRowCount(); row++) {
+                    if (staleOrders[(int) row]) {
+                        continue;
+                    }
+                    int courier = orderTable.getStringIndex(courierPhone, row);
+                    int client = orderTable.getStringIndex(clientEmail, row);
+                    if (courier >= 0) {
+                        courierCounts[courier]++;
+                    }
+                    if (client >= 0) {
+                        clientCounts[client]++;
+                    }
+                }
+
+                List<Pair<Courier, Integer>> couriers = withOrderCounts(snapshot, courierTable, staleCouriers, changedCouriers,
+                    courierCounts, changedCourierCounts, row -> Courier.builder()
+                        .phone(courierTable.getString(0, row))
+                        .name(courierTable.getString(1, row))
+                        .transport(courierTable.getString(2, row))
+                        .build());
+                List<Pair<Client, Integer>> clients = withOrderCounts(snapshot, clientTable, staleClients, changedClients,
+                    clientCounts, changedClientCounts, row -> Client.builder()
+                        .email(clientTable.getString(0, row))
+                        .name(clientTable.getString(1, row))
+                        .phone(clientTable.getString(2, row))
+                        .build());
+                // As in getClientsWithMostOrders only clients with orders are ranked
+                clients.removeIf(client -> client.getRight() == 0);
+
+                return Optional.of(new Rankings(couriers, clients.subList(0, Math.min(numberOfClients, clients.size())),
+                    transactionSnapshot, changedRows, deletedRows, Duration.ofNanos(System.nanoTime() - startTime)));
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setReadOnly(false);
+                connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while catching up with the snapshot '" + snapshot.getFile() + "'.", e);
+        }
+    }
+
+    private interface RowHandler {
+        void accept(ResultSet resultSet) throws SQLException;
+    }
+
+    private interface RowLocator {
+        long find(ResultSet resultSet) throws SQLException;
+    }
+
+    private interface SnapshotRow<T> {
+        T read(long row);
+    }
+
+    // Hands every row written after the mark to the handler and returns which snapshot rows it replaces or deletes
+    private boolean[] changedRows(DatasetSnapshot snapshot, DatasetSnapshot.Table table, Map<String, Long> changedRows,
+            Map<String, Long> deletedRows, String columns, RowHandler handler, RowLocator locator, String key) throws SQLException {
+        boolean[] stale = new boolean[Math.toIntExact(table.getRowCount())];
+        long changed = 0;
+        long replaced = 0;
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT " + columns + " FROM \"" + table.getName() + "\" WHERE " + CHANGED)) {
+            pstmt.setLong(1, snapshot.getHighWaterMark());
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                while (resultSet.next()) {
+                    handler.accept(resultSet);
+                    long row = locator.find(resultSet);
+                    if (row >= 0) {
+                        stale[(int) row] = true;
+                        replaced++;
+                    }
+                    changed++;
+                }
+            }
+        }
+
+        long unchanged;
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT count(*) FROM \"" + table.getName() + "\" WHERE NOT (" + CHANGED + ")")) {
+            pstmt.setLong(1, snapshot.getHighWaterMark());
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                resultSet.next();
+                unchanged = resultSet.getLong(1);
+            }
+        }
+
+        long deleted = table.getRowCount() - replaced - unchanged;
+        if (deleted > 0) {
+            boolean[] present = new boolean[stale.length];
+            try (Statement statement = connection.createStatement();
+                    ResultSet resultSet = statement.executeQuery("SELECT " + key + " FROM \"" + table.getName() + "\"")) {
+                while (resultSet.next()) {
+                    long row = locator.find(resultSet);
+                    if (row >= 0) {
+                        present[(int) row] = true;
+                    }
+                }
+            }
+            for (int row = 0; row < stale.length; row++) {
+                stale[row] |= !present[row];
+            }
+        }
+
+        changedRows.put(table.getName(), changed);
+        deletedRows.put(table.getName(), Math.max(0, deleted));
+        return stale;
+    }
+
+    // Current rows of a table with the number of orders referencing each, sorted by that number
+    private static <T> List<Pair<T, Integer>> withOrderCounts(DatasetSnapshot snapshot, DatasetSnapshot.Table table, boolean[] stale,
+            Map<String, T> changed, int[] snapshotCounts, Map<String, Integer> changedCounts, SnapshotRow<T> reader) {
+        List<Pair<T, Integer>> rows = new ArrayList<>();
+        for (Map.Entry<String, T> entry : changed.entrySet()) {
+            int index = snapshot.stringIndex(entry.getKey());
+            int orderCount = (index < 0 ? 0 : snapshotCounts[index]) + changedCounts.getOrDefault(entry.getKey(), 0);
+            rows.add(Pair.of(entry.getValue(), orderCount));
+        }
+        for (long row = 0; row < table.getRowCount(); row++) {
+            if (!stale[(int) row]) {
+                T value = reader.read(row);
+                int orderCount = snapshotCounts[table.getStringIndex(0, row)] + changedCounts.getOrDefault(table.getString(0, row), 0);
+                rows.add(Pair.of(value, orderCount));
+            }
+        }
+        rows.sort(Comparator.comparing(Pair<T, Integer>::getRight).reversed());
+        return rows;
+    }
+
+    private TransactionSnapshot currentSnapshot() throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT pg_current_snapshot()::text")) {
+            resultSet.next();
+            return TransactionSnapshot.parse(resultSet.getString(1));
+        }
+    }
+}
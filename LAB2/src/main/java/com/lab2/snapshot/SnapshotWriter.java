@@ -0,0 +1,345 @@
+package com.lab2.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.lab2.snapshot.SnapshotLayout.Column;
+import com.lab2.snapshot.SnapshotLayout.ColumnType;
+import com.lab2.snapshot.SnapshotLayout.Table;
+
+// Reads all four tables inside one repeatable read transaction, so the rows and the high-water mark
+// describe the same moment. The mark is the oldest transaction still running at that moment: every
+// row written by an older transaction is in the file, anything newer is fetched again after loading.
+public class SnapshotWriter {
+    public record Info(Path file, long highWaterMark, Map<String, Long> rows, int strings, long sizeBytes, Duration elapsed) {
+    }
+
+    private static final int FETCH_SIZE = 10_000;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Connection connection;
+
+    // Growing string dictionary, indexes are replaced by sorted positions before writing
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    public SnapshotWriter(Connection connection) {
+        this.connection = connection;
+    }
+
+    public Info write(Path file) throws IllegalStateException {
+        long startTime = System.nanoTime();
+        Path partial = file.resolveSibling(file.getFileName() + ".part");
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            connection.setReadOnly(true);
+
+            long highWaterMark;
+            List<Object[]> columns = new ArrayList<>();
+            try {
+                highWaterMark = queryLong("SELECT pg_snapshot_xmin(pg_current_snapshot())::text::bigint");
+                for (Table table : SnapshotLayout.TABLES) {
+                    columns.add(readTable(table));
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setReadOnly(false);
+                connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                connection.setAutoCommit(autoCommit);
+            }
+
+            int[] sortedIndexes = sortDictionary();
+            Map<String, Long> rows = new HashMap<>();
+            for (int i = 0; i < SnapshotLayout.TABLES.size(); i++) {
+                Table table = SnapshotLayout.TABLES.get(i);
+                Object[] tableColumns = columns.get(i);
+                remapStrings(table, tableColumns, sortedIndexes);
+                // Tables keyed by a string were read unordered, their keys only sort by dictionary position now
+                if (table.columns().get(0).type() == ColumnType.STRING) {
+                    sortRows(tableColumns);
+                }
+                rows.put(table.name(), (long) columnLength(tableColumns[0]));
+            }
+
+            writeFile(partial, highWaterMark, columns);
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Info(file, highWaterMark, rows, strings.size(), Files.size(file), Duration.ofNanos(System.nanoTime() - startTime));
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while reading the dataset for a snapshot.", e);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write the snapshot '" + file + "'.", e);
+        } finally {
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException _) {
+                // The snapshot itself already succeeded or failed with its own error
+            }
+        }
+    }
+
+    // One primitive array per column, sized by a count taken in the same transaction
+    private Object[] readTable(Table table) throws SQLException {
+        int rowCount = Math.toIntExact(queryLong("SELECT count(*) FROM \"" + table.name() + "\""));
+        Object[] columns = new Object[table.columns().size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = switch (table.columns().get(i).type()) {
+                case LONG, TIMESTAMP -> new long[rowCount];
+                case INT, STRING -> new int[rowCount];
+            };
+        }
+
+        String columnList = table.columns().stream().map(column -> "\"" + column.name() + "\"").collect(Collectors.joining(", "));
+        Column key = table.columns().get(0);
+        String sql = "SELECT " + columnList + " FROM \"" + table.name() + "\""
+            + (key.type() == ColumnType.LONG ? " ORDER BY \"" + key.name() + "\"" : "");
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(FETCH_SIZE);
+            try (ResultSet resultSet = pstmt.executeQuery()) {
+                for (int row = 0; resultSet.next(); row++) {
+                    for (int i = 0; i < columns.length; i++) {
+                        switch (table.columns().get(i).type()) {
+                            case LONG -> {
+                                long value = resultSet.getLong(i + 1);
+                                ((long[]) columns[i])[row] = resultSet.wasNull() ? Long.MIN_VALUE : value;
+                            }
+                            case INT -> {
+                                int value = resultSet.getInt(i + 1);
+                                ((int[]) columns[i])[row] = resultSet.wasNull() ? Integer.MIN_VALUE : value;
+                            }
+                            case STRING -> ((int[]) columns[i])[row] = stringIndex(resultSet.getString(i + 1));
+                            case TIMESTAMP -> ((long[]) columns[i])[row] = toMicros(resultSet.getTimestamp(i + 1));
+                        }
+                    }
+                }
+            }
+        }
+        return columns;
+    }
+
+    private int stringIndex(String value) {
+        if (value == null) {
+            return -1;
+        }
+        return stringIndexes.computeIfAbsent(value, string -> {
+            strings.add(string);
+            return strings.size() - 1;
+        });
+    }
+
+    // Sorts the dictionary and returns the new position of every old index
+    private int[] sortDictionary() {
+        Integer[] order = new Integer[strings.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (left, right) -> strings.get(left).compareTo(strings.get(right)));
+
+        int[] sortedIndexes = new int[order.length];
+        List<String> sorted = new ArrayList<>(order.length);
+        for (int i = 0; i < order.length; i++) {
+            sortedIndexes[order[i]] = i;
+            sorted.add(strings.get(order[i]));
+        }
+        strings.clear();
+        strings.addAll(sorted);
+        stringIndexes.clear();
+        return sortedIndexes;
+    }
+
+    private static void remapStrings(Table table, Object[] columns, int[] sortedIndexes) {
+        for (int i = 0; i < columns.length; i++) {
+            if (table.columns().get(i).type() == ColumnType.STRING) {
+                int[] values = (int[]) columns[i];
+                for (int row = 0; row < values.length; row++) {
+                    values[row] = values[row] < 0 ? -1 : sortedIndexes[values[row]];
+                }
+            }
+        }
+    }
+
+    // Key and row packed into one long, so the sort needs no boxing
+    private static void sortRows(Object[] columns) {
+        int[] keys = (int[]) columns[0];
+        long[] packed = new long[keys.length];
+        for (int row = 0; row < keys.length; row++) {
+            packed[row] = (long) keys[row] << 32 | row;
+        }
+        Arrays.sort(packed);
+
+        for (int i = 0; i < columns.length; i++) {
+            switch (columns[i]) {
+                case long[] values -> {
+                    long[] copy = values.clone();
+                    for (int row = 0; row < packed.length; row++) {
+                        values[row] = copy[(int) packed[row]];
+                    }
+                }
+                case int[] values -> {
+                    int[] copy = values.clone();
+                    for (int row = 0; row < packed.length; row++) {
+                        values[row] = copy[(int) packed[row]];
+                    }
+                }
+                default -> throw new IllegalStateException("Unexpected column array " + columns[i].getClass());
+            }
+        }
+    }
+
+    private void writeFile(Path file, long highWaterMark, List<Object[]> columns) throws IOException {
+        byte[][] encoded = new byte[strings.size()][];
+        long stringBytes = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            stringBytes += encoded[i].length;
+        }
+        if (stringBytes > Integer.MAX_VALUE) {
+            throw new IOException("The string dictionary does not fit version " + SnapshotLayout.VERSION + " of the snapshot format.");
+        }
+
+        long offsetsPosition = SnapshotLayout.HEADER_SIZE + SnapshotLayout.directorySize();
+        long bytesPosition = offsetsPosition + 4L * (encoded.length + 1);
+        long position = align(bytesPosition + stringBytes);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(SnapshotLayout.BYTE_ORDER);
+            buffer.putLong(SnapshotLayout.MAGIC);
+            buffer.putInt(SnapshotLayout.VERSION);
+            buffer.putInt(SnapshotLayout.TABLES.size());
+            buffer.putLong(highWaterMark);
+            buffer.putLong(Instant.now().toEpochMilli());
+            buffer.putLong(encoded.length);
+            buffer.putLong(offsetsPosition);
+            buffer.putLong(bytesPosition);
+
+            for (int i = 0; i < SnapshotLayout.TABLES.size(); i++) {
+                Table table = SnapshotLayout.TABLES.get(i);
+                Object[] tableColumns = columns.get(i);
+                int rowCount = columnLength(tableColumns[0]);
+                buffer.putLong(rowCount);
+                for (Column column : table.columns()) {
+                    buffer.putLong(position);
+                    position = align(position + (long) column.type().width * rowCount);
+                }
+            }
+
+            int offset = 0;
+            for (byte[] string : encoded) {
+                buffer = ensureRemaining(channel, buffer, 4);
+                buffer.putInt(offset);
+                offset += string.length;
+            }
+            buffer = ensureRemaining(channel, buffer, 4);
+            buffer.putInt(offset);
+
+            for (byte[] string : encoded) {
+                for (int written = 0; written < string.length; ) {
+                    buffer = ensureRemaining(channel, buffer, 1);
+                    int length = Math.min(buffer.remaining(), string.length - written);
+                    buffer.put(string, written, length);
+                    written += length;
+                }
+            }
+            buffer = pad(channel, buffer);
+
+            for (int i = 0; i < SnapshotLayout.TABLES.size(); i++) {
+                Table table = SnapshotLayout.TABLES.get(i);
+                Object[] tableColumns = columns.get(i);
+                for (int c = 0; c < tableColumns.length; c++) {
+                    switch (table.columns().get(c).type()) {
+                        case LONG, TIMESTAMP -> {
+                            for (long value : (long[]) tableColumns[c]) {
+                                buffer = ensureRemaining(channel, buffer, 8);
+                                buffer.putLong(value);
+                            }
+                        }
+                        case INT, STRING -> {
+                            for (int value : (int[]) tableColumns[c]) {
+                                buffer = ensureRemaining(channel, buffer, 4);
+                                buffer.putInt(value);
+                            }
+                        }
+                    }
+                    buffer = pad(channel, buffer);
+                }
+            }
+
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    private static ByteBuffer ensureRemaining(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    // Columns start on 8 byte boundaries, so the mapped file can be read with aligned accesses
+    private static ByteBuffer pad(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long position = channel.position() + buffer.position();
+        int padding = (int) (align(position) - position);
+        buffer = ensureRemaining(channel, buffer, padding);
+        for (int i = 0; i < padding; i++) {
+            buffer.put((byte) 0);
+        }
+        return buffer;
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static int columnLength(Object column) {
+        return column instanceof long[] values ? values.length : ((int[]) column).length;
+    }
+
+    private static long toMicros(Timestamp timestamp) {
+        if (timestamp == null) {
+            return Long.MIN_VALUE;
+        }
+        return Math.addExact(Math.multiplyExact(timestamp.toLocalDateTime().toEpochSecond(ZoneOffset.UTC), 1_000_000L),
+            timestamp.getNanos() / 1000);
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -17,6 +17,9 @@ public sealed interface Error {
     record DuplicateKeyError(String key) implements Error {
     }
 
+    record VersionConflictError(String key) implements Error {
+    }
+
     record OtherError(Throwable cause) implements Error {
     }
 
@@ -10,6 +10,7 @@ public class SQLQueryRuntime {
 
     public static void endScope() {
         endTs = System.currentTimeMillis();
+        StartupTimer.markFirstQuery();
     }
 
     public static long measure() {
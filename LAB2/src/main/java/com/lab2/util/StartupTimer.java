@@ -0,0 +1,51 @@
+package com.lab2.util;
+
+import java.lang.management.ManagementFactory;
+
+// Milliseconds from JVM start until the main menu is first shown, until the persistence layer finished
+// starting in the background and until the first query returns, and how long that query waited for it
+public class StartupTimer {
+    private static volatile long firstMenu = -1;
+    private static volatile long persistenceReady = -1;
+    private static volatile long firstQuery = -1;
+    private static volatile long bootstrapWait = -1;
+
+    public static void markFirstMenu() {
+        if (firstMenu < 0) {
+            firstMenu = ManagementFactory.getRuntimeMXBean().getUptime();
+        }
+    }
+
+    public static void markPersistenceReady() {
+        persistenceReady = ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    public static void recordBootstrapWait(long timeInMs) {
+        if (bootstrapWait < 0) {
+            bootstrapWait = timeInMs;
+        }
+    }
+
+    public static void markFirstQuery() {
+        if (firstQuery < 0) {
+            firstQuery = ManagementFactory.getRuntimeMXBean().getUptime();
+        }
+    }
+
+    public static long timeToFirstMenu() {
+        return firstMenu;
+    }
+
+    public static long timeToFirstQuery() {
+        return firstQuery;
+    }
+
+    public static long timeToPersistenceReady() {
+        return persistenceReady;
+    }
+
+    // 0 when the first operation found the persistence layer already started
+    public static long bootstrapWait() {
+        return Math.max(0, bootstrapWait);
+    }
+}
@@ -0,0 +1,249 @@
+package com.lab2.util;
+
+import com.lab2.diagnostics.OperationContext;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Records service calls as fixed-layout events (operation, key, start, duration, outcome, thread) in a
+// preallocated ring buffer. Writers claim a slot with one atomic increment and publish it by storing the
+// slot's sequence last, so readers can tell a complete event from one being overwritten. Nothing is
+// allocated on the calling thread: start() returns 0 while tracing is disabled and end() returns at once
+// for it. Successful calls can be sampled, failed ones are always kept and wake the file sink, which
+// writes everything recorded since its last write from its own thread.
+//
+// Configured with -Dtrace.enabled, -Dtrace.capacity (rounded up to a power of two), -Dtrace.sampleEvery,
+// -Dtrace.file and -Dtrace.flushMillis (0 writes the file only after a failure or an explicit dump).
+// The same calls begin and commit the JFR service events while a recording has them enabled.
+public final class Tracer {
+    public enum Outcome {
+        OK, NOT_FOUND, CONFLICT, ERROR
+    }
+
+    public record Event(long sequence, long startNanos, long durationNanos, String operation, Object key, Outcome outcome, long threadId) {
+        public Instant startTime() {
+            return Instant.ofEpochMilli(EPOCH_MILLIS).plusNanos(startNanos - EPOCH_NANOS);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %-28s %-24s %10.3f ms %-9s thread %d", startTime(), operation, key, durationNanos / 1e6, outcome, threadId);
+        }
+    }
+
+    public record Statistics(boolean enabled, int capacity, int sampleEvery, long recorded, long written, long dropped) {
+    }
+
+    private static final long EPOCH_MILLIS = System.currentTimeMillis();
+    private static final long EPOCH_NANOS = System.nanoTime();
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(2, Integer.getInteger("trace.capacity", 8192) - 1)) << 1;
+    private static final int MASK = CAPACITY - 1;
+
+    private static final AtomicLong cursor = new AtomicLong();
+    private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private static final long[] startNanos = new long[CAPACITY];
+    private static final long[] durations = new long[CAPACITY];
+    private static final String[] operations = new String[CAPACITY];
+    private static final Object[] keys = new Object[CAPACITY];
+    private static final long[] numericKeys = new long[CAPACITY];
+    private static final byte[] outcomes = new byte[CAPACITY];
+    private static final long[] threadIds = new long[CAPACITY];
+
+    private static volatile boolean enabled = Boolean.getBoolean("trace.enabled");
+    private static volatile int sampleEvery = Math.max(1, Integer.getInteger("trace.sampleEvery", 1));
+    private static volatile Thread sink;
+    private static volatile boolean dumpRequested;
+    private static long written;
+    private static long dropped;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            published.setPlain(i, -1);
+        }
+        String file = System.getProperty("trace.file");
+        if (file != null) {
+            startFileSink(Path.of(file), Long.getLong("trace.flushMillis", 0));
+        }
+    }
+
+    private Tracer() {
+    }
+
+    public static long start() {
+        if (!enabled && !OperationContext.isServiceEventEnabled()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        OperationContext.beginService(start);
+        return start;
+    }
+
+    public static void end(String operation, Object key, long start, Outcome outcome) {
+        if (start != 0) {
+            OperationContext.endService(start, operation, key, 0, outcome.name());
+            if (enabled) {
+                record(operation, key, 0, start, outcome);
+            }
+        }
+    }
+
+    // For numeric keys, which would otherwise be boxed even when the event is not kept
+    public static void end(String operation, long key, long start, Outcome outcome) {
+        if (start != 0) {
+            OperationContext.endService(start, operation, null, key, outcome.name());
+            if (enabled) {
+                record(operation, null, key, start, outcome);
+            }
+        }
+    }
+
+    private static void record(String operation, Object key, long numericKey, long start, Outcome outcome) {
+        int sample = sampleEvery;
+        if (outcome != Outcome.ERROR && sample > 1 && ThreadLocalRandom.current().nextInt(sample) != 0) {
+            return;
+        }
+
+        long duration = System.nanoTime() - start;
+        long sequence = cursor.getAndIncrement();
+        int slot = (int) (sequence & MASK);
+        published.setOpaque(slot, -1);
+        VarHandle.storeStoreFence();
+        startNanos[slot] = start;
+        durations[slot] = duration;
+        operations[slot] = operation;
+        keys[slot] = key;
+        numericKeys[slot] = numericKey;
+        outcomes[slot] = (byte) outcome.ordinal();
+        threadIds[slot] = Thread.currentThread().threadId();
+        published.setRelease(slot, sequence);
+
+        if (outcome == Outcome.ERROR) {
+            Thread thread = sink;
+            if (thread != null) {
+                dumpRequested = true;
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    public static void setSampleEvery(int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("Sampling keeps one call in a positive number of calls.");
+        }
+        sampleEvery = value;
+    }
+
+    // Events still in the buffer, oldest first; events overwritten while being read are left out
+    public static List<Event> snapshot() {
+        long end = cursor.get();
+        List<Event> events = new ArrayList<>();
+        read(Math.max(0, end - CAPACITY), end, false, events);
+        return events;
+    }
+
+    // Returns the sequence reading stopped at, which is short of the end only when it stops at an event that is
+    // still being written
+    private static long read(long from, long to, boolean stopAtPending, List<Event> events) {
+        for (long sequence = from; sequence < to; sequence++) {
+            int slot = (int) (sequence & MASK);
+            long publishedSequence = published.getAcquire(slot);
+            if (publishedSequence != sequence) {
+                if (stopAtPending && publishedSequence < sequence) {
+                    return sequence;
+                }
+                continue;
+            }
+            Object key = keys[slot] != null ? keys[slot] : (Object) numericKeys[slot];
+            Event event = new Event(sequence, startNanos[slot], durations[slot], operations[slot], key, OUTCOMES[outcomes[slot]], threadIds[slot]);
+            VarHandle.loadLoadFence();
+            if (published.getOpaque(slot) == sequence) {
+                events.add(event);
+            }
+        }
+        return to;
+    }
+
+    public static synchronized Statistics getStatistics() {
+        return new Statistics(enabled, CAPACITY, sampleEvery, cursor.get(), written, dropped);
+    }
+
+    // Asks the sink to write what it has not written yet, without waiting for it
+    public static void dump() {
+        Thread thread = sink;
+        if (thread != null) {
+            dumpRequested = true;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public static synchronized void startFileSink(Path file, long flushMillis) throws IllegalStateException {
+        if (sink != null) {
+            throw new IllegalStateException("The trace file sink is already running.");
+        }
+
+        Thread thread = new Thread(() -> runFileSink(file, flushMillis), "trace-sink");
+        thread.setDaemon(true);
+        sink = thread;
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> writeNewEvents(file)));
+    }
+
+    private static void runFileSink(Path file, long flushMillis) {
+        while (true) {
+            if (flushMillis > 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushMillis));
+            } else {
+                LockSupport.park();
+            }
+            if (flushMillis > 0 || dumpRequested) {
+                dumpRequested = false;
+                writeNewEvents(file);
+            }
+        }
+    }
+
+    // Events the buffer no longer holds by the time the sink reads them are counted as dropped
+    private static synchronized void writeNewEvents(Path file) {
+        long processed = written + dropped;
+        long from = Math.max(processed, cursor.get() - CAPACITY);
+        List<Event> events = new ArrayList<>();
+        long next = read(from, cursor.get(), true, events);
+        dropped += (next - processed) - events.size();
+        written += events.size();
+        if (events.isEmpty()) {
+            return;
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Event event : events) {
+                writer.write(event.toString());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write trace events to " + file + ": " + e.getMessage());
+        }
+    }
+}
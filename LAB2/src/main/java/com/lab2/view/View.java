@@ -1,11 +1,16 @@
 package com.lab2.view;
 
 import java.util.Scanner;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import org.apache.commons.lang3.tuple.Pair;
 
 import com.lab2.common.*;
+import com.lab2.diagnostics.DiagnosticsSampler;
+import com.lab2.diagnostics.SlowQueryLog;
+import com.lab2.diagnostics.SqlStatistics;
 import com.lab2.dto.*;
 
 public class View {
@@ -20,6 +25,11 @@ public class View {
         scanner = new Scanner(System.in);
     }
 
+    // Reads its answers from the scanner instead of the console
+    public View(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
     public int getUserChoice(int min, int max) {
         System.out.print(">> ");
 
@@ -48,6 +58,10 @@ public class View {
         System.out.println("\rInvalid input. Please try again.");
     }
     
+    public void waitForEnter() {
+        scanner.nextLine();
+    }
+
     public void displayMessage(String message) {
         System.out.println(message);
     }
@@ -76,6 +90,7 @@ public class View {
         System.out.println("  [2] COURIERS TABLE     - Manage courier details");
         System.out.println("  [3] MEALS TABLE        - Manage available dishes");
         System.out.println("  [4] ORDERS TABLE       - Track and update orders");
+        System.out.println("  [5] DIAGNOSTICS        - What the database calls cost");
         System.out.println();
 
         System.out.println("═════════════════════════════════════════════════════════");
@@ -143,6 +158,7 @@ public class View {
             .email(existingClient.getEmail())
             .name(name)
             .phone(phone)
+            .version(existingClient.getVersion())
             .build();
     }
 
@@ -248,6 +264,7 @@ public class View {
             .phone(existingCourier.getPhone())
             .name(name)
             .transport(transport)
+            .version(existingCourier.getVersion())
             .build();
     }
 
@@ -396,6 +413,7 @@ public class View {
             .price(price)
             .weight(weight)
             .servingSize(servingSize)
+            .version(existingMeal.getVersion())
             .build();
     }
 
@@ -414,6 +432,95 @@ public class View {
         System.out.println("  [7] Back to Main Menu");
     }
 
+    public void displayDiagnosticsMenu() {
+        clearScreen();
+
+        System.out.println("═════════════════════════════════════════════════════════");
+        System.out.println("                     DIAGNOSTICS");
+        System.out.println("═════════════════════════════════════════════════════════");
+        System.out.println("  [1] Live Panel");
+        System.out.println("  [2] SQL Statements by Total Time");
+        System.out.println("  [3] SQL Statements by Calls");
+        System.out.println("  [4] SQL Statements by Mean Time");
+        System.out.println("  [5] SQL Statements by Errors");
+        System.out.println("  [6] Reset SQL Statistics");
+        System.out.println("  [7] Back to Main Menu");
+    }
+
+    public void displayDiagnosticsPanel(DiagnosticsSampler.Sample sample, long refreshSeconds) {
+        clearScreen();
+
+        System.out.println("═════════════════════════════════════════════════════════");
+        System.out.println("          LIVE DIAGNOSTICS, " + sample.time().format(DateTimeFormatter.ofPattern("HH:mm:ss"))
+            + ", LAST " + String.format("%.1f", sample.seconds()) + " SEC");
+        System.out.println("═════════════════════════════════════════════════════════");
+
+        String format = "| %-26s | %9d | %9.1f | %9.2f | %9.2f |%n";
+        String separator = "+" + "-".repeat(28) + "+" + "-".repeat(11) + "+" + "-".repeat(11) + "+" + "-".repeat(11) + "+" + "-".repeat(11) + "+";
+        System.out.println(separator);
+        System.out.format("| %-26s | %9s | %9s | %9s | %9s |%n", "Operation", "Calls", "Ops/sec", "Mean ms", "p99 ms");
+        System.out.println(separator);
+        for (DiagnosticsSampler.OperationRate operation : sample.operations()) {
+            System.out.format(format, operation.operation(), operation.calls(), operation.perSecond(), operation.meanMillis(), operation.p99Millis());
+        }
+        System.out.println(separator);
+
+        DiagnosticsSampler.PoolSample pool = sample.pool();
+        System.out.format("%nConnection pool:  %d of %d in use, %.1f borrows/sec, %.2f ms mean wait, %d failed%n",
+            pool.inUse(), pool.size(), pool.borrowsPerSecond(), pool.meanWaitMillis(), pool.failed());
+
+        System.out.println("\nCaches:");
+        for (DiagnosticsSampler.CacheSample cache : sample.caches()) {
+            System.out.format("  %-20s %10d hits %10d misses   %s%n", cache.cache(), cache.hits(), cache.misses(),
+                Double.isNaN(cache.hitRatio()) ? "-" : String.format("%.1f%%", cache.hitRatio() * 100));
+        }
+
+        DiagnosticsSampler.MemorySample memory = sample.memory();
+        System.out.format("%nHeap:  %d MB used, %d MB committed, %s max%n", memory.heapUsed() >> 20, memory.heapCommitted() >> 20,
+            memory.heapMax() < 0 ? "no" : (memory.heapMax() >> 20) + " MB");
+        System.out.format("GC:    %d collections, %d ms, %.1f%% of the time%n", memory.collections(), memory.gcMillis(),
+            memory.gcShare() * 100);
+
+        System.out.println("\nSlow queries (" + SlowQueryLog.getThresholdMillis() + " ms or more):");
+        if (sample.slowQueries().isEmpty()) {
+            System.out.println("  none");
+        }
+        for (SlowQueryLog.SlowQuery query : sample.slowQueries()) {
+            String fingerprint = query.fingerprint();
+            System.out.format("  %s  %-22s %9.1f ms %7d rows  %s%n",
+                Instant.ofEpochMilli(query.epochMillis()).atZone(ZoneId.systemDefault()).format(DateTimeFormatter.ofPattern("HH:mm:ss")),
+                query.operation() != null ? query.operation() : "-", query.nanos() / 1e6, query.rows(),
+                fingerprint.length() > 60 ? fingerprint.substring(0, 57) + "..." : fingerprint);
+        }
+
+        System.out.println("\nRefreshing every " + refreshSeconds + " sec. Press Enter to go back.");
+        System.out.flush();
+    }
+
+    public void displaySqlStatistics(List<SqlStatistics.Row> statements, String ranking) {
+        String format = "| %3d | %9d | %11.1f | %9.2f | %9.2f | %9d | %6d | %9.1f |%n";
+        String separator = "+" + "-".repeat(5) + "+" + "-".repeat(11) + "+" + "-".repeat(13) + "+" + "-".repeat(11) + "+" + "-".repeat(11)
+            + "+" + "-".repeat(11) + "+" + "-".repeat(8) + "+" + "-".repeat(11) + "+";
+
+        System.out.println("\n" + "*".repeat(57));
+        System.out.println(" TOP " + statements.size() + " SQL STATEMENTS BY " + ranking.toUpperCase() + ", TIMES IN MSEC");
+        System.out.println(separator);
+        System.out.format("| %3s | %9s | %11s | %9s | %9s | %9s | %6s | %9s |%n", "#", "Calls", "Total", "Mean", "Max", "Rows", "Errors", "Pool Wait");
+        System.out.println(separator);
+
+        int rank = 1;
+        for (SqlStatistics.Row statement : statements) {
+            System.out.format(format, rank, statement.calls(), statement.totalNanos() / 1e6, statement.meanMillis(), statement.maxNanos() / 1e6,
+                statement.rows(), statement.errors(), statement.connectionWaitNanos() / 1e6);
+            String fingerprint = statement.fingerprint();
+            System.out.println("      " + (fingerprint.length() > 100 ? fingerprint.substring(0, 97) + "..." : fingerprint));
+            rank++;
+        }
+
+        System.out.println(separator);
+        waitForInput();
+    }
+
     public OrderDTO promptForOrderDetails() {
         int orderID = promptForInteger("Enter order ID: ");
         System.out.print("Enter order date (yyyy-mm-dd hh:mm): ");
@@ -488,6 +595,7 @@ public class View {
             .clientEmail(existingOrder.getClientEmail())
             .rating(rating)
             .deliveryAddress(deliveryAddress)
+            .version(existingOrder.getVersion())
             .build();
     }
 
@@ -540,4 +648,10 @@ public class View {
     public void displayQueryRuntime(long timeInMs) {
         System.out.println("Query runtime: " + timeInMs + " msec.");
     }
+
+    public void displayStartupTimes(long timeToFirstMenuInMs, long timeToPersistenceReadyInMs, long timeToFirstQueryInMs, long bootstrapWaitInMs) {
+        System.out.println("Startup: first menu after " + timeToFirstMenuInMs + " msec, persistence "
+            + (timeToPersistenceReadyInMs < 0 ? "still starting" : "ready after " + timeToPersistenceReadyInMs + " msec") + ", first query "
+            + (timeToFirstQueryInMs < 0 ? "not run yet." : "after " + timeToFirstQueryInMs + " msec (waited " + bootstrapWaitInMs + " msec)."));
+    }
 }
\ No newline at end of file
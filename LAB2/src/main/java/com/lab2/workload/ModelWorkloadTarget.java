@@ -0,0 +1,135 @@
+package com.lab2.workload;
+
+import com.lab2.common.ClientFilterParameters;
+import com.lab2.common.CourierFilterParameters;
+import com.lab2.dto.Mapper;
+import com.lab2.dto.MealDTO;
+import com.lab2.dto.OrderDTO;
+import com.lab2.entity.Order;
+import com.lab2.model.Model;
+import com.lab2.util.Result;
+import shared.workload.WorkloadTarget;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ModelWorkloadTarget implements WorkloadTarget {
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Model model;
+    private final Mapper mapper = new Mapper();
+
+    public ModelWorkloadTarget(Model model) {
+        this.model = model;
+    }
+
+    // Read directly, listing every order through the Model would load its client and courier as well
+    @Override
+    public Keys loadKeys() throws IllegalStateException {
+        try (Connection connection = model.openConnection(); Statement statement = connection.createStatement()) {
+            List<String> clientEmails = readStrings(statement, "SELECT \"Email\" FROM \"Client\"");
+            List<String> courierPhones = readStrings(statement, "SELECT \"Phone\" FROM \"Courier\"");
+            List<Long> orderIDs = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery("SELECT \"Order ID\" FROM \"Order\"")) {
+                while (resultSet.next()) {
+                    orderIDs.add(resultSet.getLong(1));
+                }
+            }
+            long maxOrderID = orderIDs.stream().mapToLong(Long::longValue).max().orElse(0);
+            long maxMealID;
+            try (ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(\"Meal ID\"), 0) FROM \"Meal\"")) {
+                resultSet.next();
+                maxMealID = resultSet.getLong(1);
+            }
+            return new Keys(clientEmails, courierPhones, orderIDs, maxOrderID, maxMealID);
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while reading the workload keys.", e);
+        }
+    }
+
+    private static List<String> readStrings(Statement statement, String sql) throws SQLException {
+        List<String> values = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery(sql)) {
+            while (resultSet.next()) {
+                values.add(resultSet.getString(1));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return model.getConnectionPoolSize();
+    }
+
+    @Override
+    public boolean placeOrder(NewOrder order) {
+        OrderDTO dto = OrderDTO.builder()
+            .orderID(order.orderID())
+            .orderDate(order.orderDate().format(DATE_TIME))
+            .deliveryDate(order.deliveryDate().format(DATE_TIME))
+            .courierPhone(order.courierPhone())
+            .clientEmail(order.clientEmail())
+            .rating(order.rating())
+            .deliveryAddress(order.deliveryAddress())
+            .build();
+        if (model.addOrder(dto).isPresent()) {
+            return false;
+        }
+
+        for (NewMeal meal : order.meals()) {
+            MealDTO mealDTO = MealDTO.builder()
+                .mealID(meal.mealID())
+                .orderID(order.orderID())
+                .name(meal.name())
+                .price(meal.price())
+                .weight(meal.weight())
+                .servingSize(meal.servingSize())
+                .build();
+            if (model.addMeal(mealDTO).isPresent()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean lookupClient(String email) {
+        return model.getClient(email) instanceof Result.Success<?, ?>;
+    }
+
+    @Override
+    public boolean lookupCourier(String phone) {
+        return model.getCourier(phone) instanceof Result.Success<?, ?>;
+    }
+
+    // Read then written back at the version read, a concurrent rating of the same order is refused
+    @Override
+    public boolean rateOrder(long orderID, int rating) {
+        if (!(model.getOrder(orderID) instanceof Result.Success<?, Order> success)) {
+            return false;
+        }
+        OrderDTO order = mapper.toDto(success.value());
+        order.setRating(rating);
+        return model.updateOrder(order).isEmpty();
+    }
+
+    @Override
+    public boolean leaderboard(boolean couriers, int size) {
+        return !(couriers ? model.getCouriersWithMostOrders(size) : model.getClientsWithMostOrders(size)).isEmpty();
+    }
+
+    @Override
+    public boolean analytics(boolean couriers, LocalDate since, int minRating) {
+        Result<?, ?> result = couriers
+            ? model.fetchCourierAnalytics(new CourierFilterParameters(since.toString(), minRating))
+            : model.fetchClientAnalytics(new ClientFilterParameters(since.atStartOfDay().format(DATE_TIME), Integer.MAX_VALUE, "%"));
+        return result instanceof Result.Success<?, ?>;
+    }
+}
@@ -0,0 +1,32 @@
+-- The schema hibernate.hbm2ddl.auto=update used to create from the entities. IF NOT EXISTS lets
+-- databases created that way adopt the migrations without changes.
+CREATE TABLE IF NOT EXISTS "Client" (
+    "Email" varchar(32) NOT NULL PRIMARY KEY,
+    "Name" varchar(255) NOT NULL,
+    "Phone" varchar(10) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS "Courier" (
+    "Phone" varchar(10) NOT NULL PRIMARY KEY,
+    "Name" varchar(25) NOT NULL,
+    "Transport" varchar(25) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS "Order" (
+    "Order ID" bigint NOT NULL PRIMARY KEY,
+    "Courier Phone" varchar(10) NOT NULL REFERENCES "Courier" ("Phone"),
+    "Client Email" varchar(32) NOT NULL REFERENCES "Client" ("Email"),
+    "Order Date" timestamp(6) NOT NULL,
+    "Delivery Date" timestamp(6) NOT NULL,
+    "Rating" integer NOT NULL,
+    "Delivery Address" varchar(50) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS "Meal" (
+    "Meal ID" bigint NOT NULL PRIMARY KEY,
+    "Order ID" bigint NOT NULL REFERENCES "Order" ("Order ID"),
+    "Name" varchar(25) NOT NULL,
+    "Price" integer NOT NULL,
+    "Weight" integer NOT NULL,
+    "Serving Size" integer NOT NULL
+);
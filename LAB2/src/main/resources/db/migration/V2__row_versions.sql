@@ -0,0 +1,6 @@
+-- Row versions for optimistic locking: an update bumps "Version" and is refused when the version it
+-- was based on is no longer current. A constant default only changes the catalog, rows are not rewritten.
+ALTER TABLE "Client" ADD COLUMN IF NOT EXISTS "Version" bigint NOT NULL DEFAULT 0;
+ALTER TABLE "Courier" ADD COLUMN IF NOT EXISTS "Version" bigint NOT NULL DEFAULT 0;
+ALTER TABLE "Order" ADD COLUMN IF NOT EXISTS "Version" bigint NOT NULL DEFAULT 0;
+ALTER TABLE "Meal" ADD COLUMN IF NOT EXISTS "Version" bigint NOT NULL DEFAULT 0;
@@ -0,0 +1,11 @@
+-- Meals by order, used by the purge and by the foreign key check when an order is deleted. Migrations
+-- run in a transaction, so the index is built with a plain CREATE INDEX that holds off writes to "Meal"
+-- while it runs. An invalid index left by an interrupted CREATE INDEX CONCURRENTLY is rebuilt.
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_index WHERE indexrelid = to_regclass('"Meal_Order ID_idx"') AND NOT indisvalid) THEN
+        DROP INDEX "Meal_Order ID_idx";
+    END IF;
+END
+$$;
+CREATE INDEX IF NOT EXISTS "Meal_Order ID_idx" ON "Meal" ("Order ID");
@@ -0,0 +1,6 @@
+-- Next free client and courier index of the synthetic data generator. Their keys are derived from the
+-- index, so handing out blocks here keeps runs apart even after rows were deleted.
+CREATE TABLE IF NOT EXISTS "Generator Key" (
+    "Table" varchar(32) NOT NULL PRIMARY KEY,
+    "Next" bigint NOT NULL
+);
@@ -1,12 +1,84 @@
+import java.time.Duration;
+import java.util.Arrays;
+
 import controller.Controller;
+import diagnostics.StatementBudgetCheck;
+import diagnostics.StatementCounter;
+import model.Model;
+import model.connector.DatabaseConnector;
+import workload.ModelWorkloadTarget;
+import shared.workload.WorkloadDriver;
+import shared.workload.WorkloadMix;
+import shared.workload.WorkloadPrinter;
 
 public class App {
-    void main() {
+    void main(String[] args) {
         try {
+            if (args.length > 0 && args[0].equals("workload")) {
+                workload(Arrays.copyOfRange(args, 1, args.length));
+                return;
+            }
+            if (args.length > 0 && args[0].equals("budgets")) {
+                budgets();
+                return;
+            }
+
             Controller controller = new Controller();
             controller.start();
         } catch (IllegalStateException e) {
             System.err.println("Fatal Error: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    // workload <seconds> [ops/s|max] [clients] [mix] [zipf exponent] [seed] [warm-up seconds]
+    // The mix is written as place=10,client=40,courier=20,rate=20,leaderboard=5,analytics=5
+    private void workload(String[] options) throws IllegalStateException {
+        if (options.length < 1) {
+            System.err.println("Usage: workload <seconds> [ops/s|max] [clients] [mix] [zipf exponent] [seed] [warm-up seconds]");
+            return;
+        }
+
+        DatabaseConnector connector = new DatabaseConnector();
+        ModelWorkloadTarget target = new ModelWorkloadTarget(new Model(connector.connect()), connector.connect());
+        WorkloadDriver.Settings settings;
+        try {
+            settings = new WorkloadDriver.Settings(
+                Duration.ofSeconds(Long.parseLong(options[0])),
+                Duration.ofSeconds(options.length > 6 ? Long.parseLong(options[6]) : 5),
+                options.length > 1 && !options[1].equals("max") ? Double.parseDouble(options[1]) : 0,
+                options.length > 2 ? Integer.parseInt(options[2]) : target.getMaxConcurrency(),
+                options.length > 3 ? WorkloadMix.parse(options[3]) : WorkloadMix.DEFAULT,
+                options.length > 4 ? Double.parseDouble(options[4]) : 0.99,
+                options.length > 5 ? Long.parseLong(options[5]) : 42,
+                Duration.ofSeconds(1));
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number: " + e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        if (settings.clients() > target.getMaxConcurrency()) {
+            System.err.println("The Model shares a single connection, run the workload with at most "
+                + target.getMaxConcurrency() + " client.");
+            return;
+        }
+
+        WorkloadPrinter printer = new WorkloadPrinter(System.out);
+        printer.printSettings(settings);
+        WorkloadDriver.Report report = new WorkloadDriver(target, settings).run(printer::printInterval);
+        printer.printReport(report);
+    }
+
+    // budgets
+    // Exits with status 1 when a Model call is over its statement budget, so a build can run it after the tests
+    private void budgets() throws IllegalStateException {
+        StatementCounter counter = new StatementCounter();
+        Model model = new Model(counter.wrap(new DatabaseConnector().connect()));
+        long violations = StatementBudgetCheck.print(new StatementBudgetCheck(model, counter, StatementBudgetCheck.DEFAULTS).run(), System.out);
+        if (violations > 0) {
+            System.out.printf("%d operations are over their budget%n", violations);
+            System.exit(1);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import org.apache.commons.lang3.tuple.Pair;
 
 import common.*;
+import diagnostics.SqlStatistics;
+import diagnostics.StatementCounter;
 import entities.*;
 import model.Model;
 import model.connector.DatabaseConnector;
@@ -13,6 +15,8 @@ import util.Result;
 import util.SQLQueryRuntime;
 
 public class Controller {
+    private static final int SQL_STATISTICS_ROWS = 15;
+
     private Model model;
     private View view;
 
@@ -24,7 +28,9 @@ public class Controller {
             throw e;
         }
 
-        model = new Model(connector.connect());
+        // The diagnostics menu shows what the statements cost
+        SqlStatistics.setEnabled(true);
+        model = new Model(new StatementCounter().wrap(connector.connect()));
         view = new View();
     }
 
@@ -423,11 +429,47 @@ public class Controller {
         }
     }
 
+    public void handleDiagnostics() {
+        boolean backToMainMenu = false;
+        while (true)
+        {
+            view.displayDiagnosticsMenu();
+            switch (view.getUserChoice(1, 6))
+            {
+                case 1 -> {
+                    view.displaySqlStatistics(SqlStatistics.top(SQL_STATISTICS_ROWS, SqlStatistics.Ranking.TOTAL_TIME), "total time");
+                }
+                case 2 -> {
+                    view.displaySqlStatistics(SqlStatistics.top(SQL_STATISTICS_ROWS, SqlStatistics.Ranking.CALLS), "calls");
+                }
+                case 3 -> {
+                    view.displaySqlStatistics(SqlStatistics.top(SQL_STATISTICS_ROWS, SqlStatistics.Ranking.MEAN_TIME), "mean time");
+                }
+                case 4 -> {
+                    view.displaySqlStatistics(SqlStatistics.top(SQL_STATISTICS_ROWS, SqlStatistics.Ranking.ERRORS), "errors");
+                }
+                case 5 -> {
+                    SqlStatistics.reset();
+                    view.displayMessage("SQL statistics reset.");
+                    view.waitForInput();
+                }
+                case 6 -> {
+                    backToMainMenu = true;
+                }
+                default -> {
+                    assert false : "Unhandled choice";
+                }
+            }
+            if (backToMainMenu)
+                break;
+        }
+    }
+
     public void start() throws IllegalStateException {
         while (true)
         {
             view.displayMainMenu();
-            switch (view.getUserChoice( 1,4)) 
+            switch (view.getUserChoice( 1,5)) 
             {
                 case 1 -> {
                     handleClient();
@@ -441,6 +483,9 @@ public class Controller {
                 case 4 -> {
                     handleOrder();
                 }
+                case 5 -> {
+                    handleDiagnostics();
+                }
                 default -> {
                     assert false : "Unhandled choice";
                 }
@@ -0,0 +1,43 @@
+package diagnostics;
+
+import java.util.Optional;
+
+// The most one Model call may cost, so an existence check or a per-row lookup that adds statements fails
+// a check instead of showing up in production:
+//     StatementBudget.of("getAllOrders", 1).assertWithin(counter, () -> model.getAllOrders());
+public record StatementBudget(String operation, long maxStatements, long maxRows, long maxBytes) {
+    public static StatementBudget of(String operation, long maxStatements) {
+        return new StatementBudget(operation, maxStatements, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    public StatementBudget withMaxRows(long maxRows) {
+        return new StatementBudget(operation, maxStatements, maxRows, maxBytes);
+    }
+
+    public StatementBudget withMaxBytes(long maxBytes) {
+        return new StatementBudget(operation, maxStatements, maxRows, maxBytes);
+    }
+
+    public Optional<String> check(StatementCounter.Usage usage) {
+        if (usage.statements() > maxStatements) {
+            return Optional.of(operation + " ran " + usage.statements() + " statements, the budget is " + maxStatements);
+        }
+        if (usage.rows() > maxRows) {
+            return Optional.of(operation + " read " + usage.rows() + " rows, the budget is " + maxRows);
+        }
+        if (usage.bytes() > maxBytes) {
+            return Optional.of(operation + " moved about " + usage.bytes() + " bytes, the budget is " + maxBytes);
+        }
+        return Optional.empty();
+    }
+
+    // The counter must wrap the connection the Model was created with
+    public StatementCounter.Usage assertWithin(StatementCounter counter, Runnable call) throws AssertionError {
+        StatementCounter.Usage usage = counter.measure(call);
+        Optional<String> violation = check(usage);
+        if (violation.isPresent()) {
+            throw new AssertionError(violation.get());
+        }
+        return usage;
+    }
+}
@@ -0,0 +1,168 @@
+package diagnostics;
+
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import common.*;
+import entities.*;
+import model.Model;
+import util.Error;
+
+// Runs each budgeted Model call once against the database and checks it against its budget. The writes
+// add an order with one meal, update it and delete both again, then do the same for a batch of each.
+// Rows the check wrote are deleted again also when a call in between fails.
+public class StatementBudgetCheck {
+    public record Outcome(StatementBudget budget, StatementCounter.Usage usage, Optional<String> violation) {
+    }
+
+    public static final List<StatementBudget> DEFAULTS = List.of(
+        StatementBudget.of("getAllClients", 1),
+        StatementBudget.of("getAllCouriers", 1),
+        StatementBudget.of("getAllMeals", 1),
+        StatementBudget.of("getAllOrders", 1),
+        StatementBudget.of("getClient", 1),
+        StatementBudget.of("getCourier", 1),
+        StatementBudget.of("getMeal", 1),
+        StatementBudget.of("getOrder", 1),
+        StatementBudget.of("addOrder", 1),
+        StatementBudget.of("addMeal", 1),
+        StatementBudget.of("updateOrder", 2),
+        StatementBudget.of("deleteMeal", 2),
+        StatementBudget.of("deleteOrder", 1),
+        StatementBudget.of("addOrders", 5),
+        StatementBudget.of("addMeals", 3),
+        StatementBudget.of("fetchClientAnalytics", 1),
+        StatementBudget.of("fetchCourierAnalytics", 1));
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Model model;
+    private final StatementCounter counter;
+    private final Map<String, StatementBudget> budgets = new LinkedHashMap<>();
+    private final List<Outcome> outcomes = new ArrayList<>();
+
+    // The Model must have been created with a connection the counter wrapped
+    public StatementBudgetCheck(Model model, StatementCounter counter, List<StatementBudget> budgets) {
+        this.model = model;
+        this.counter = counter;
+        for (StatementBudget budget : budgets) {
+            this.budgets.put(budget.operation(), budget);
+        }
+    }
+
+    public List<Outcome> run() throws IllegalStateException {
+        outcomes.clear();
+        check("getAllClients", model::getAllClients);
+        check("getAllCouriers", model::getAllCouriers);
+        List<Meal> meals = new ArrayList<>();
+        check("getAllMeals", () -> meals.addAll(model.getAllMeals()));
+        List<Order> orders = new ArrayList<>();
+        check("getAllOrders", () -> orders.addAll(model.getAllOrders()));
+        if (orders.isEmpty()) {
+            return outcomes;
+        }
+
+        Order existing = orders.getFirst();
+        check("getClient", () -> model.getClient(existing.clientEmail()));
+        check("getCourier", () -> model.getCourier(existing.courierPhone()));
+        if (!meals.isEmpty()) {
+            check("getMeal", () -> model.getMeal(meals.getFirst().mealID()));
+        }
+        check("getOrder", () -> model.getOrder(existing.orderID()));
+
+        int orderID = orders.stream().map(Order::orderID).max(Comparator.naturalOrder()).orElseThrow() + 1;
+        int mealID = meals.stream().map(Meal::mealID).max(Comparator.naturalOrder()).orElse(0) + 1;
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        Order order = new Order(orderID, now.format(DATE_TIME), existing.courierPhone(), now.plusMinutes(45).format(DATE_TIME),
+            existing.clientEmail(), 5, "Budget st 1");
+        Set<Integer> writtenOrders = new LinkedHashSet<>();
+        Set<Integer> writtenMeals = new LinkedHashSet<>();
+        try {
+            check("addOrder", () -> expectSuccess(model.addOrder(order)));
+            writtenOrders.add(orderID);
+            check("addMeal", () -> expectSuccess(model.addMeal(new Meal(mealID, orderID, "Budget Soup", 10, 300, 1))));
+            writtenMeals.add(mealID);
+            check("updateOrder", () -> expectSuccess(model.updateOrder(new Order(orderID, order.orderDate(), order.courierPhone(),
+                order.deliveryDate(), order.clientEmail(), 4, order.deliveryAddress()))));
+            check("deleteMeal", () -> expectSuccess(model.deleteMeal(mealID)));
+            writtenMeals.remove(mealID);
+            check("deleteOrder", () -> expectSuccess(model.deleteOrder(orderID)));
+            writtenOrders.remove(orderID);
+
+            // Each batch has a row that fails its check, it must not cost a lookup of its own
+            List<Integer> orderIDs = List.of(orderID, orderID + 1, orderID + 2);
+            check("addOrders", () -> expectInserted(orderIDs, model.addOrders(List.of(order, withID(order, orderID + 1),
+                new Order(orderID + 2, order.orderDate(), order.courierPhone() + "0", order.deliveryDate(), order.clientEmail(), 5,
+                    order.deliveryAddress()))), writtenOrders, 2));
+            List<Integer> mealIDs = List.of(mealID, mealID + 1, mealID + 2);
+            check("addMeals", () -> expectInserted(mealIDs, model.addMeals(List.of(new Meal(mealID, orderID, "Budget Soup", 10, 300, 1),
+                new Meal(mealID + 1, orderID + 1, "Budget Soup", 10, 300, 1), new Meal(mealID + 2, orderID + 2, "Budget Soup", 10, 300, 1))),
+                writtenMeals, 2));
+        } finally {
+            writtenMeals.forEach(model::deleteMeal);
+            writtenOrders.forEach(model::deleteOrder);
+        }
+
+        check("fetchClientAnalytics", () -> model.fetchClientAnalytics(new ClientFilterParameters("2000-01-01 00:00:00", Integer.MAX_VALUE, "%")));
+        check("fetchCourierAnalytics", () -> model.fetchCourierAnalytics(new CourierFilterParameters("2000-01-01", 1)));
+        return outcomes;
+    }
+
+    private void check(String operation, Runnable call) {
+        StatementBudget budget = budgets.get(operation);
+        if (budget == null) {
+            call.run();
+            return;
+        }
+        StatementCounter.Usage usage = counter.measure(call);
+        outcomes.add(new Outcome(budget, usage, budget.check(usage)));
+    }
+
+    private static Order withID(Order order, int orderID) {
+        return new Order(orderID, order.orderDate(), order.courierPhone(), order.deliveryDate(), order.clientEmail(), order.rating(),
+            order.deliveryAddress());
+    }
+
+    // The keys without an error are added to written before the count is checked
+    private static void expectInserted(List<Integer> keys, List<Optional<Error>> errors, Set<Integer> written, int inserted)
+            throws IllegalStateException {
+        for (int i = 0; i < keys.size(); i++) {
+            if (errors.get(i).isEmpty()) {
+                written.add(keys.get(i));
+            }
+        }
+        long succeeded = errors.stream().filter(Optional::isEmpty).count();
+        if (succeeded != inserted) {
+            throw new IllegalStateException("The budget check inserted " + succeeded + " of its batch instead of " + inserted + ": " + errors);
+        }
+    }
+
+    private static void expectSuccess(Optional<Error> error) throws IllegalStateException {
+        if (error.isPresent()) {
+            throw new IllegalStateException("The budget check could not write its order: " + error.get());
+        }
+    }
+
+    public static long print(List<Outcome> outcomes, PrintStream out) {
+        out.printf("%-24s %10s %10s %10s %8s%n", "operation", "statements", "budget", "rows", "bytes");
+        long violations = 0;
+        for (Outcome outcome : outcomes) {
+            StatementCounter.Usage usage = outcome.usage();
+            out.printf("%-24s %10d %10d %10d %8d%s%n", outcome.budget().operation(), usage.statements(), outcome.budget().maxStatements(),
+                usage.rows(), usage.bytes(), outcome.violation().map(violation -> "  OVER: " + violation).orElse(""));
+            if (outcome.violation().isPresent()) {
+                violations++;
+            }
+        }
+        return violations;
+    }
+}
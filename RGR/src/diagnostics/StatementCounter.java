@@ -0,0 +1,183 @@
+package diagnostics;
+
+import shared.SqlFingerprint;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.temporal.Temporal;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.LongAdder;
+
+// Wraps the Model's connection and counts the statements it executes, the rows it reads from results and
+// the bytes on the wire, estimated from the SQL, the bound values and the values read. The Model runs one
+// operation at a time on its connection, so the difference across a call is what that operation cost.
+// Statements are also timed into SqlStatistics while it is enabled.
+public final class StatementCounter {
+    public record Usage(long statements, long rows, long bytes) {
+        public Usage minus(Usage earlier) {
+            return new Usage(statements - earlier.statements, rows - earlier.rows, bytes - earlier.bytes);
+        }
+    }
+
+    // Framing of a protocol message, and of a row or a value in one
+    private static final int MESSAGE_BYTES = 16;
+    private static final int ROW_BYTES = 7;
+    private static final int VALUE_BYTES = 4;
+    private static final String UNKNOWN_SQL = "(statement text unknown)";
+
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    public Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(StatementCounter.class.getClassLoader(), new Class<?>[] { Connection.class },
+            (_, method, args) -> {
+                Object result = invoke(connection, method, args);
+                if (result instanceof Statement statement) {
+                    String sql = args != null && args.length > 0 && args[0] instanceof String text ? text : null;
+                    return Proxy.newProxyInstance(StatementCounter.class.getClassLoader(), new Class<?>[] { method.getReturnType() },
+                        new StatementHandler(statement, sql));
+                }
+                return result;
+            });
+    }
+
+    public Usage usage() {
+        return new Usage(statements.sum(), rows.sum(), bytes.sum());
+    }
+
+    public Usage measure(Runnable call) {
+        Usage before = usage();
+        call.run();
+        return usage().minus(before);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Roughly what the value takes in the PostgreSQL wire format
+    private static long sizeOf(Object value) {
+        return VALUE_BYTES + switch (value) {
+            case null -> 0;
+            case String text -> text.length();
+            case byte[] data -> data.length;
+            case Boolean _, Byte _ -> 1;
+            case Short _, Integer _, Float _ -> 4;
+            case Long _, Double _, Date _, Temporal _ -> 8;
+            default -> value.toString().length();
+        };
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String sql;
+        private long boundBytes;
+        private String openQuery;
+        private long openQueryStart;
+        private long openQueryRows;
+
+        StatementHandler(Statement statement, String sql) {
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                return execute(method, args);
+            }
+            if (name.equals("close")) {
+                closeQuery();
+            } else if (name.startsWith("set") && statement instanceof PreparedStatement && args != null && args.length >= 2
+                    && args[0] instanceof Integer) {
+                boundBytes += sizeOf(args[1]);
+            }
+
+            Object result = StatementCounter.invoke(statement, method, args);
+            return result instanceof ResultSet resultSet ? countRows(resultSet) : result;
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            closeQuery();
+            String text = args != null && args.length > 0 && args[0] instanceof String given ? given : sql;
+            statements.increment();
+            bytes.add(MESSAGE_BYTES + (text != null ? text.length() : 0) + boundBytes);
+            boundBytes = 0;
+
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = StatementCounter.invoke(statement, method, args);
+            } catch (Throwable e) {
+                record(text, start, 0, true);
+                throw e;
+            }
+
+            switch (result) {
+                case ResultSet resultSet -> {
+                    openQuery(text, start);
+                    return countRows(resultSet);
+                }
+                case Boolean hasResultSet when hasResultSet -> openQuery(text, start);
+                case Boolean _ -> record(text, start, statement.getLargeUpdateCount(), false);
+                case Number count -> record(text, start, count.longValue(), false);
+                case int[] counts -> record(text, start, Arrays.stream(counts).filter(count -> count > 0).sum(), false);
+                case long[] counts -> record(text, start, Arrays.stream(counts).filter(count -> count > 0).sum(), false);
+                case null, default -> record(text, start, 0, false);
+            }
+            return result;
+        }
+
+        private void openQuery(String text, long start) {
+            openQuery = text != null ? text : UNKNOWN_SQL;
+            openQueryStart = start;
+            openQueryRows = 0;
+        }
+
+        private void closeQuery() {
+            if (openQuery != null) {
+                record(openQuery, openQueryStart, openQueryRows, false);
+                openQuery = null;
+            }
+        }
+
+        private void record(String text, long start, long rows, boolean failed) {
+            if (SqlStatistics.isEnabled()) {
+                SqlStatistics.record(text != null ? SqlFingerprint.of(text) : UNKNOWN_SQL, System.nanoTime() - start, rows, failed);
+            }
+        }
+
+        private ResultSet countRows(ResultSet resultSet) {
+            return (ResultSet) Proxy.newProxyInstance(StatementCounter.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                (_, method, args) -> {
+                    Object result = StatementCounter.invoke(resultSet, method, args);
+                    String name = method.getName();
+                    if (name.equals("next")) {
+                        if ((Boolean) result) {
+                            rows.increment();
+                            bytes.add(ROW_BYTES);
+                            openQueryRows++;
+                        }
+                    } else if (name.equals("close")) {
+                        closeQuery();
+                    } else if (name.startsWith("get") && args != null && args.length > 0 && !name.equals("getMetaData")) {
+                        bytes.add(sizeOf(result));
+                    }
+                    return result;
+                });
+        }
+    }
+}
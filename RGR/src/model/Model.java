@@ -1,14 +1,29 @@
 package model;
 
 import java.sql.Timestamp;
+import java.sql.Array;
 import java.sql.Date;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import org.apache.commons.lang3.tuple.Pair;
 
 import common.*;
@@ -17,12 +32,41 @@ import model.validation.*;
 import util.Error;
 import util.Result;
 import util.SQLQueryRuntime;
+import shared.SingleFlight;
+import shared.ranking.ClientHeavyHitters;
+import shared.ranking.CourierLeaderboard;
+import shared.ranking.OrderCounts;
+import shared.ranking.TransactionSnapshot;
 
 public class Model {
+    public record PurgeReport(int orders, int meals, int skipped) {
+    }
+
+    // A purge chunk gives up rather than wait longer than this behind another transaction
+    private static final int PURGE_LOCK_TIMEOUT_MILLIS = 2000;
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+    private static final String UNIQUE_VIOLATION = "23505";
+    private static final int INSERT_BATCH_SIZE = 500;
+
     private Connection connection;
+    private CourierLeaderboard<Courier> courierLeaderboard;
+    private ClientHeavyHitters<Client> clientHeavyHitters;
+    private boolean verifyClientRanking;
+    private final SingleFlight singleFlight = new SingleFlight();
 
     public Model(Connection connection) {
         this.connection = connection;
+        this.courierLeaderboard = new CourierLeaderboard<>(Courier::phone);
+        this.clientHeavyHitters = new ClientHeavyHitters<>(Client::email);
+        this.verifyClientRanking = Boolean.getBoolean("model.verifyClientRanking");
+    }
+
+    public SingleFlight.Statistics getCoalescingStatistics() {
+        return singleFlight.getStatistics();
+    }
+
+    public void setClientRankingVerification(boolean enabled) {
+        this.verifyClientRanking = enabled;
     }
 
     public Optional<Error> addClient(Client client) {
@@ -65,6 +109,7 @@ public class Model {
             pstmt.setString(2, client.name());
             pstmt.setString(3, client.phone());
             pstmt.executeUpdate();
+            singleFlight.forget();
         } catch (SQLException e) {
             throw new IllegalStateException("An unexpected error occurred while adding a client to the database.");
         }
@@ -95,6 +140,10 @@ public class Model {
     }
 
     public Result<Error, Client> getClient(String email) throws IllegalStateException {
+        return singleFlight.execute("getClient", () -> queryClient(email), email);
+    }
+
+    private Result<Error, Client> queryClient(String email) throws IllegalStateException {
         final String sql = "SELECT \"Name\", \"Phone\" FROM \"Client\" WHERE \"Email\" = ?";
 
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
@@ -115,6 +164,12 @@ public class Model {
         return new Result.Failure<>(new Error.RecordNotFound(email));
     }
 
+    public Map<String, Client> getClients(Collection<String> emails) throws IllegalStateException {
+        final String sql = "SELECT \"Email\", \"Name\", \"Phone\" FROM \"Client\" WHERE \"Email\" = ANY(?)";
+        return queryByKeys(sql, "varchar", emails, Client::email,
+            resultSet -> new Client(resultSet.getString("Email"), resultSet.getString("Name"), resultSet.getString("Phone")));
+    }
+
     public Optional<Error> updateClient(Client client) throws IllegalStateException {
         if (!NameValidator.isValidName(client.name())) {
             return Optional.of(new Error.ValidationError("Wrong name."));
@@ -136,9 +191,11 @@ public class Model {
             pstmt.setString(3, client.email());
 
             int rowCount = pstmt.executeUpdate();
+            singleFlight.forget();
             if (rowCount == 0) {
                 return Optional.of(new Error.RecordNotFound(client.email()));
             }
+            clientHeavyHitters.updateClient(client);
         } catch (SQLException e) {
             throw new IllegalStateException("An unexpected error occurred while updating the client with email '" +
                 client.email() + "' from the database.");
@@ -154,9 +211,14 @@ public class Model {
             pstmt.setString(1, email);
 
             int rowCount = pstmt.executeUpdate();
+            singleFlight.forget();
             if (rowCount == 0) {
                 return Optional.of(new Error.RecordNotFound(email));
             }
+
+            // Orders of the client may be removed along with it, so courier counters are rebuilt on next read
+            courierLeaderboard.invalidate();
+            clientHeavyHitters.removeClient(email);
         } catch (SQLException e) {
             throw new IllegalStateException("An unexpected error occurred while deleting the client with email '" +
                 email + "' from the database.");
@@ -166,38 +228,118 @@ public class Model {
     }
 
     public Optional<Pair<Client, Integer>> getClientWithMostOrders() {
+        ArrayList<Pair<Client, Integer>> clients = getClientsWithMostOrders(1);
+        return clients.isEmpty() ? Optional.empty() : Optional.of(clients.get(0));
+    }
+
+    public ArrayList<Pair<Client, Integer>> getClientsWithMostOrders(int numberOfRecords) {
+        SQLQueryRuntime.beginScope();
+        if (numberOfRecords > clientHeavyHitters.getCapacity()) {
+            ArrayList<Pair<Client, Integer>> clients = queryClientsWithMostOrders(numberOfRecords);
+            SQLQueryRuntime.endScope();
+            return clients;
+        }
+
+        List<ClientHeavyHitters.Candidate<Client>> candidates = clientHeavyHitters.top(numberOfRecords,
+            () -> inSnapshot(() -> queryClientsWithMostOrders(clientHeavyHitters.getCapacity())));
+        ArrayList<Pair<Client, Integer>> clients;
+        if (verifyClientRanking && !clientHeavyHitters.isExact()) {
+            clients = confirmClientRanking(candidates, numberOfRecords)
+                .orElseGet(() -> queryClientsWithMostOrders(numberOfRecords));
+        }
+        else {
+            clients = new ArrayList<>();
+            for (ClientHeavyHitters.Candidate<Client> candidate : candidates) {
+                clients.add(Pair.of(candidate.client(), Integer.valueOf(candidate.orderCount())));
+            }
+        }
+        SQLQueryRuntime.endScope();
+
+        return clients;
+    }
+
+    // The sketch only overestimates, so the candidates are the true top clients if their exact
+    // counts are not below the largest estimate left outside of them
+    private Optional<ArrayList<Pair<Client, Integer>>> confirmClientRanking(List<ClientHeavyHitters.Candidate<Client>> candidates, int numberOfRecords) {
+        if (candidates.size() < numberOfRecords) {
+            return Optional.empty();
+        }
+
+        List<String> emails = candidates.stream().map(candidate -> candidate.client().email()).toList();
+        Map<String, Integer> orderCounts = queryClientOrderCounts(emails);
+
+        ArrayList<Pair<Client, Integer>> clients = new ArrayList<>();
+        for (ClientHeavyHitters.Candidate<Client> candidate : candidates) {
+            int orderCount = orderCounts.getOrDefault(candidate.client().email(), 0);
+            clients.add(Pair.of(candidate.client(), Integer.valueOf(orderCount)));
+        }
+        clients.sort(Comparator.comparing(Pair<Client, Integer>::getRight).reversed());
+
+        int lowestConfirmed = clients.get(clients.size() - 1).getRight();
+        if (lowestConfirmed < clientHeavyHitters.boundBeyond(numberOfRecords)) {
+            return Optional.empty();
+        }
+        return Optional.of(clients);
+    }
+
+    private ArrayList<Pair<Client, Integer>> queryClientsWithMostOrders(int numberOfRecords) {
         final String sql = """
                     WITH MaxOrderClient AS (
                     SELECT \"Client Email\", COUNT(*) AS OrderCount
                     FROM \"Order\"
                     GROUP BY \"Client Email\"
                     ORDER BY OrderCount DESC
-                    LIMIT 1
+                    LIMIT ?
                 )
                 SELECT c.*, moc.OrderCount
                 FROM \"Client\" c
-                JOIN MaxOrderClient moc ON c."Email" = moc.\"Client Email\";
+                JOIN MaxOrderClient moc ON c."Email" = moc.\"Client Email\"
+                ORDER BY moc.OrderCount DESC;
                 """;
-                
+
+        ArrayList<Pair<Client, Integer>> clients = new ArrayList<>();
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            SQLQueryRuntime.beginScope();
+            pstmt.setInt(1, numberOfRecords);
             ResultSet resultSet = pstmt.executeQuery();
-            SQLQueryRuntime.endScope();
             
-            if (resultSet.next()) {
+            while (resultSet.next()) {
                 String email = resultSet.getString("Email");
                 String name = resultSet.getString("Name");
                 String phone = resultSet.getString("Phone");
                 int orderCount = resultSet.getInt("OrderCount");
 
                 Client client = new Client(email, name, phone);
-                return Optional.of(Pair.of(client, Integer.valueOf(orderCount)));
+                clients.add(Pair.of(client, Integer.valueOf(orderCount)));
             }
         } catch (SQLException e) {
             throw new IllegalStateException("An unexpected error occurred while fetching a client with most orders from the database.");
         }
 
-        return Optional.empty();
+        return clients;
+    }
+
+    private Map<String, Integer> queryClientOrderCounts(List<String> emails) {
+        final String sql = """
+                SELECT \"Client Email\", COUNT(*) AS OrderCount
+                FROM \"Order\"
+                WHERE \"Client Email\" = ANY(?)
+                GROUP BY \"Client Email\"
+                """;
+
+        Map<String, Integer> orderCounts = new HashMap<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            Array array = connection.createArrayOf("varchar", emails.toArray());
+            pstmt.setArray(1, array);
+            ResultSet resultSet = pstmt.executeQuery();
+
+            while (resultSet.next()) {
+                orderCounts.put(resultSet.getString("Client Email"), Integer.valueOf(resultSet.getInt("OrderCount")));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while counting orders of clients in the database.");
+        }
+
+        return orderCounts;
     }
 
     public void generateRandomClients(int numberOfRecords) {
@@ -232,6 +374,7 @@ public class Model {
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, numberOfRecords);
             pstmt.executeUpdate();
+            singleFlight.forget();
         } catch (SQLException e) {
             throw new IllegalStateException("An unexpected error occurred while generating random clients in the database.");
         }
@@ -274,7 +417,9 @@ public class Model {
             pstmt.setString(3, courier.transport());
             
             int rowCount = pstmt.executeUpdate();
+            singleFlight.forget();
             System.out.println("" + rowCount);
+            courierLeaderboard.addCourier(courier);
         } catch (SQLException e) {
             throw new IllegalStateException("An unexpected error occurred while adding a courier to the database.");
         }
@@ -305,6 +450,10 @@ public class Model {
     }
 
     public Result<Error, Courier> getCourier(String phone) throws IllegalStateException {
+        return singleFlight.execute("getCourier", () -> queryCourier(phone), phone);
+    }
+
+    private Result<Error, Courier> queryCourier(String phone) throws IllegalStateException {
         final String sql = """
                 SELECT * FROM \"Courier\"
                 WHERE \"Phone\" = ?
@@ -328,6 +477,12 @@ public class Model {
         return new Result.Failure<>(new Error.RecordNotFound(phone));
     }
 
+    public Map<String, Courier> getCouriers(Collection<String> phones) throws IllegalStateException {
+        final String sql = "SELECT \"Phone\", \"Name\", \"Transport\" FROM \"Courier\" WHERE \"Phone\" = ANY(?)";
+        return queryByKeys(sql, "varchar", phones, Courier::phone,
+            resultSet -> new Courier(resultSet.getString("Phone"), resultSet.getString("Name"), resultSet.getString("Transport")));
+    }
+
     public Optional<Error> updateCourier(Courier courier) throws IllegalStateException {
         if (!PhoneNumberValidator.isValidPhoneNumber(courier.phone())) {
             return Optional.of(new Error.ValidationError("Wrong phone number."));
@@ -345,9 +500,11 @@ public class Model {
             pstmt.setString(3, courier.phone());
 
             int rowCount = pstmt.executeUpdate();
+            singleFlight.forget();
             if (rowCount == 0) {
                 return Optional.of(new Error.RecordNotFound(courier.phone()));
             }
+            courierLeaderboard.updateCourier(courier);
         } catch (SQLException e) {
             throw new IllegalStateException("An unexpected error occurred while updating the courier with phone number '" +
                 courier.phone() + "' from the database.");
@@ -366,9 +523,11 @@ public class Model {
             pstmt.setString(1, phone);
 
             int rowCount = pstmt.executeUpdate();
+            singleFlight.forget();
             if (rowCount == 0) {
                 return Optional.of(new Error.RecordNotFound(phone));
             }
+            courierLeaderboard.removeCourier(phone);
         } catch (SQLException e) {
             throw new IllegalStateException("An unexpected error occurred while deleting the courier with phone number '" +
                 phone + "' from the database.");
@@ -378,6 +537,73 @@ public class Model {
     }
 
     public ArrayList<Pair<Courier, Integer>> getCouriersWithMostOrders(int numberOfRecords) {
+        SQLQueryRuntime.beginScope();
+        boolean[] loaded = {false};
+        ArrayList<Pair<Courier, Integer>> couriers = new ArrayList<>(courierLeaderboard.top(numberOfRecords, () -> {
+            loaded[0] = true;
+            return inSnapshot(() -> queryCouriersWithMostOrders(null));
+        }));
+        SQLQueryRuntime.endScope();
+
+        assert isCourierLeaderboardConsistent(numberOfRecords) : "Courier leaderboard diverged from the \"Order\" table";
+        assert !loaded[0] || isCourierLeaderboardConsistent(Integer.MAX_VALUE) : "Courier leaderboard diverged from the \"Order\" table after loading";
+        return couriers;
+    }
+
+    // Runs a ranking's count query in a REPEATABLE READ transaction that reads its snapshot first, so the
+    // ranking can tell which of the orders recorded during the load the counts already contain
+    private <C> OrderCounts<C> inSnapshot(Supplier<List<Pair<C, Integer>>> query) throws IllegalStateException {
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try (Statement statement = connection.createStatement();
+                    ResultSet resultSet = statement.executeQuery("SELECT pg_current_snapshot()::text")) {
+                resultSet.next();
+                TransactionSnapshot snapshot = TransactionSnapshot.parse(resultSet.getString(1));
+                List<Pair<C, Integer>> counts = query.get();
+                connection.commit();
+                return new OrderCounts<>(counts, snapshot);
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while loading the order counts of a ranking from the database.");
+        }
+    }
+
+    public boolean isCourierLeaderboardConsistent(int numberOfRecords) {
+        List<Pair<Courier, Integer>> cached = courierLeaderboard.top(numberOfRecords);
+        ArrayList<Pair<Courier, Integer>> actual = queryCouriersWithMostOrders(Integer.valueOf(numberOfRecords));
+
+        if (cached.size() != actual.size()) {
+            return false;
+        }
+
+        // Couriers with equal counts may come in any order, so positions are compared by count only
+        for (int i = 0; i < actual.size(); i++) {
+            if (!cached.get(i).getRight().equals(actual.get(i).getRight())) {
+                return false;
+            }
+        }
+
+        for (Pair<Courier, Integer> courier : cached) {
+            boolean matches = actual.stream()
+                .filter(other -> other.getLeft().phone().equals(courier.getLeft().phone()))
+                .allMatch(other -> other.getRight().equals(courier.getRight()));
+            if (!matches) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private ArrayList<Pair<Courier, Integer>> queryCouriersWithMostOrders(Integer numberOfRecords) {
         final String sql = """
                 SELECT 
                     \"Courier\".\"Name\", 
@@ -393,22 +619,26 @@ public class Model {
 
         ArrayList<Pair<Courier, Integer>> couriers = new ArrayList<>();
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, numberOfRecords);
+            // LIMIT NULL is LIMIT ALL in PostgreSQL
+            if (numberOfRecords == null) {
+                pstmt.setNull(1, Types.INTEGER);
+            }
+            else {
+                pstmt.setInt(1, numberOfRecords.intValue());
+            }
 
-            SQLQueryRuntime.beginScope();
             ResultSet resultSet = pstmt.executeQuery();
 
             while (resultSet.next()) {
                 String name = resultSet.getString("Name");
                 String phone = resultSet.getString("Phone");
+                String transport = resultSet.getString("Transport");
                 int orderCount = resultSet.getInt("Order Count");
 
-                Courier courier = new Courier(phone, name, null);
+                Courier courier = new Courier(phone, name, transport);
                 couriers.add(Pair.of(courier, Integer.valueOf(orderCount)));
             }
 
-            SQLQueryRuntime.endScope();
-
         } catch (SQLException e) {
             throw new IllegalStateException("An unexpected error occurred while fetching couriers with most orders from the database.");
         }
@@ -430,68 +660,111 @@ public class Model {
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, numberOfRecords);
             pstmt.executeUpdate();
+            singleFlight.forget();
+            courierLeaderboard.invalidate();
         } catch (SQLException e) {
             throw new IllegalStateException("An unexpected error occurred while generating random clients in the database.");
         }
     }
 
-    public Optional<Error> addMeal(Meal meal) {
+    private Optional<Error> validateMeal(Meal meal) {
         if (!MealNameValidator.isValidName(meal.name())) {
             return Optional.of(new Error.ValidationError("Wrong name."));
         }
 
-        switch (getOrder(meal.orderID())) {
-            case Result.Failure<Error, ?> failure -> {
-                if (failure.error() instanceof Error.RecordNotFound _) {
-                    return Optional.of(new Error.ForeignKeyConstraintError("Order ID", String.valueOf(meal.orderID())));
-                }
-                else {
-                    return Optional.of(new Error.UnknownError());
-                }
+        return Optional.empty();
+    }
+
+    // The order and the key are checked by the insert itself, in this order, so a meal is one statement.
+    // A key taken by a concurrent insert after the check is refused by the primary key.
+    public Optional<Error> addMeal(Meal meal) {
+        Optional<Error> validationError = validateMeal(meal);
+        if (validationError.isPresent()) {
+            return validationError;
+        }
+
+        final String sql = """
+                WITH parent AS (SELECT \"Order ID\" FROM \"Order\" WHERE \"Order ID\" = ? LIMIT 1),
+                taken AS (SELECT 1 FROM \"Meal\" WHERE \"Meal ID\" = ?),
+                inserted AS (
+                    INSERT INTO \"Meal\"(\"Meal ID\", \"Order ID\", \"Name\", \"Price\", \"Weight\", \"Serving Size\")
+                    SELECT ?, parent.\"Order ID\", ?, ?, ?, ?
+                    FROM parent
+                    WHERE NOT EXISTS (SELECT 1 FROM taken)
+                )
+                SELECT EXISTS (SELECT 1 FROM parent) AS \"Order Exists\", EXISTS (SELECT 1 FROM taken) AS \"Taken\"
+                """;
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, meal.orderID());
+            pstmt.setInt(2, meal.mealID());
+            pstmt.setInt(3, meal.mealID());
+            pstmt.setString(4, meal.name());
+            pstmt.setInt(5, meal.price());
+            pstmt.setInt(6, meal.weight());
+            pstmt.setInt(7, meal.servingSize());
+
+            ResultSet resultSet = pstmt.executeQuery();
+            resultSet.next();
+            if (!resultSet.getBoolean("Order Exists")) {
+                return Optional.of(new Error.ForeignKeyConstraintError("Order ID", String.valueOf(meal.orderID())));
             }
-            case Result.Success<?,Order> success -> {
-                break;
+            if (resultSet.getBoolean("Taken")) {
+                return Optional.of(new Error.DuplicateKeyError(String.valueOf(meal.mealID())));
+            }
+            singleFlight.forget();
+        } catch (SQLException e) {
+            if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                return Optional.of(new Error.DuplicateKeyError(String.valueOf(meal.mealID())));
             }
+            throw new IllegalStateException("An unexpected error occurred while adding a meal to the database.");
         }
 
-        Predicate<Integer> isMealExists = (Integer ID) -> {
-            final String sql = "SELECT EXISTS(SELECT 1 FROM \"Meal\" WHERE \"Meal ID\" = ?)";
+        return Optional.empty();
+    }
 
-            try (PreparedStatement pstmt = connection.prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY)) {
-                pstmt.setInt(1, ID.intValue());
-                try (ResultSet resultSet = pstmt.executeQuery()) {
-                    if (resultSet.next()) {
-                        return resultSet.getBoolean(1);
-                    }
+    // The errors line up with the meals. Their keys are looked up with one statement per table for the whole
+    // batch, and only the meals without an error are inserted, together in one transaction.
+    public List<Optional<Error>> addMeals(List<Meal> meals) throws IllegalStateException {
+        Map<Integer, Meal> existingMeals = getMeals(meals.stream().map(Meal::mealID).collect(Collectors.toSet()));
+        Map<Integer, Order> orders = getOrders(meals.stream().map(Meal::orderID).collect(Collectors.toSet()));
+
+        List<Optional<Error>> errors = new ArrayList<>(meals.size());
+        List<Meal> valid = new ArrayList<>();
+        Set<Integer> accepted = new HashSet<>();
+        for (Meal meal : meals) {
+            Optional<Error> error = validateMeal(meal);
+            if (error.isEmpty()) {
+                if (existingMeals.containsKey(meal.mealID()) || accepted.contains(meal.mealID())) {
+                    error = Optional.of(new Error.DuplicateKeyError(String.valueOf(meal.mealID())));
+                } else if (!orders.containsKey(meal.orderID())) {
+                    error = Optional.of(new Error.ForeignKeyConstraintError("Order ID", String.valueOf(meal.orderID())));
+                } else {
+                    valid.add(meal);
+                    accepted.add(meal.mealID());
                 }
-            } catch (SQLException e) {
-                throw new IllegalStateException("An unexpected error occurred while checking the availability of the meal in the database.");
             }
-            return false;
-        };
-
-        if (isMealExists.test(Integer.valueOf(meal.mealID()))) {
-            return Optional.of(new Error.DuplicateKeyError(String.valueOf(meal.mealID())));
+            errors.add(error);
         }
 
         final String sql = "INSERT INTO \"Meal\"(\"Meal ID\", \"Order ID\", \"Name\", \"Price\", \"Weight\", \"Serving Size\") VALUES(?, ?, ?, ?, ?, ?)";
-        
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, meal.mealID());
-            pstmt.setInt(2, meal.orderID());
-            pstmt.setString(3, meal.name());
-            pstmt.setInt(4, meal.price());
-            pstmt.setInt(5, meal.weight());
-            pstmt.setInt(6, meal.servingSize());
-            
-            if (pstmt.executeUpdate() == 0) {
-                Optional.of(new Error.InsertError("Meal"));
-            }
+
+        try {
+            insertAll(sql, valid, (pstmt, meal) -> {
+                pstmt.setInt(1, meal.mealID());
+                pstmt.setInt(2, meal.orderID());
+                pstmt.setString(3, meal.name());
+                pstmt.setInt(4, meal.price());
+                pstmt.setInt(5, meal.weight());
+                pstmt.setInt(6, meal.servingSize());
+            });
         } catch (SQLException e) {
-            throw new IllegalStateException("An unexpected error occurred while adding a meal to the database.");
+            throw new IllegalStateException("An unexpected error occurred while adding meals to the database.");
+        } finally {
+            singleFlight.forget();
         }
 
-        return Optional.empty();
+        return errors;
     }
 
     public ArrayList<Meal> getAllMeals() throws IllegalStateException {
@@ -534,6 +807,7 @@ public class Model {
             pstmt.setInt(5, meal.mealID());
 
             int rowCount = pstmt.executeUpdate();
+            singleFlight.forget();
             if (rowCount == 0) {
                 return Optional.of(new Error.RecordNotFound(String.valueOf(meal.mealID())));
             }
@@ -572,6 +846,13 @@ public class Model {
         return new Result.Failure<>(new Error.RecordNotFound(String.valueOf(mealID)));
     }
 
+    public Map<Integer, Meal> getMeals(Collection<Integer> mealIDs) throws IllegalStateException {
+        final String sql = "SELECT * FROM \"Meal\" WHERE \"Meal ID\" = ANY(?)";
+        return queryByKeys(sql, "integer", mealIDs, Meal::mealID,
+            resultSet -> new Meal(resultSet.getInt("Meal ID"), resultSet.getInt("Order ID"), resultSet.getString("Name"),
+                resultSet.getInt("Price"), resultSet.getInt("Weight"), resultSet.getInt("Serving Size")));
+    }
+
     public Optional<Error> deleteMeal(int mealID) {
         final String sql = """
                 DELETE FROM \"Meal\"
@@ -582,6 +863,7 @@ public class Model {
             pstmt.setInt(1, mealID);
 
             int rowCount = pstmt.executeUpdate();
+            singleFlight.forget();
             if (rowCount == 0) {
                 return Optional.of(new Error.RecordNotFound(String.valueOf(mealID)));
             }
@@ -621,11 +903,90 @@ public class Model {
         return new Result.Failure<>(new Error.RecordNotFound(String.valueOf(orderID)));
     }
 
-    public Optional<Error> addOrder(Order order) {
-        Timestamp orderDate, deliveryDate;
+    public Map<Integer, Order> getOrders(Collection<Integer> orderIDs) throws IllegalStateException {
+        final String sql = "SELECT * FROM \"Order\" WHERE \"Order ID\" = ANY(?)";
+        return queryByKeys(sql, "integer", orderIDs, Order::orderID,
+            resultSet -> new Order(resultSet.getInt("Order ID"), resultSet.getTimestamp("Order Date").toString(),
+                resultSet.getString("Courier Phone"), resultSet.getTimestamp("Delivery Date").toString(),
+                resultSet.getString("Client Email"), resultSet.getInt("Rating"), resultSet.getString("Delivery Address")));
+    }
+
+    private interface RowWriter<T> {
+        void write(PreparedStatement pstmt, T record) throws SQLException;
+    }
+
+    // All records in one transaction, sent in JDBC batches
+    private <T> void insertAll(String sql, List<T> records, RowWriter<T> writer) throws SQLException {
+        insertAll(sql, records, writer, false);
+    }
+
+    // Returns the inserting transaction when asked to, for the rankings. A batch cannot return it from its
+    // statements, so it is read first.
+    private <T> long insertAll(String sql, List<T> records, RowWriter<T> writer, boolean readTransaction) throws SQLException {
+        if (records.isEmpty()) {
+            return 0;
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            long transaction = 0;
+            if (readTransaction) {
+                try (Statement statement = connection.createStatement();
+                        ResultSet resultSet = statement.executeQuery("SELECT pg_current_xact_id()::text::bigint")) {
+                    resultSet.next();
+                    transaction = resultSet.getLong(1);
+                }
+            }
+            for (int i = 0; i < records.size(); i++) {
+                writer.write(pstmt, records.get(i));
+                pstmt.addBatch();
+                if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+                    pstmt.executeBatch();
+                }
+            }
+            pstmt.executeBatch();
+            connection.commit();
+            return transaction;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private interface RowReader<T> {
+        T read(ResultSet resultSet) throws SQLException;
+    }
+
+    // All keys travel as one array parameter, so any number of them is a single statement with a single plan
+    private <K, T> Map<K, T> queryByKeys(String sql, String keyType, Collection<K> keys, Function<T, K> key, RowReader<T> reader) throws IllegalStateException {
+        Map<K, T> records = new HashMap<>();
+        if (keys.isEmpty()) {
+            return records;
+        }
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            Array array = connection.createArrayOf(keyType, keys.toArray());
+            pstmt.setArray(1, array);
+            ResultSet resultSet = pstmt.executeQuery();
+
+            while (resultSet.next()) {
+                T record = reader.read(resultSet);
+                records.put(key.apply(record), record);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while collecting records from the database.");
+        }
+
+        return records;
+    }
+
+    private Optional<Error> validateOrder(Order order) {
         try {
-            orderDate = Timestamp.valueOf(order.orderDate());
-            deliveryDate = Timestamp.valueOf(order.deliveryDate());
+            Timestamp.valueOf(order.orderDate());
+            Timestamp.valueOf(order.deliveryDate());
         } catch (IllegalArgumentException e) {
             return Optional.of(new Error.ValidationError("Wrong date format."));
         }
@@ -638,73 +999,123 @@ public class Model {
             return Optional.of(new Error.ValidationError("Wrong delivery address."));
         }
 
-        Predicate<Integer> isOrderExists = (Integer ID) -> {
-            final String sql = "SELECT EXISTS(SELECT 1 FROM \"Order\" WHERE \"Order ID\" = ?)";
-
-            try (PreparedStatement pstmt = connection.prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY)) {
-                pstmt.setInt(1, ID.intValue());
-                try (ResultSet resultSet = pstmt.executeQuery()) {
-                    if (resultSet.next()) {
-                        return resultSet.getBoolean(1);
-                    }
-                }
-            } catch (SQLException e) {
-                throw new IllegalStateException("An unexpected error occurred while checking the availability of the order in the database.");
-            }
-            return false;
-        };
+        return Optional.empty();
+    }
 
-        if (isOrderExists.test(Integer.valueOf(order.orderID()))) {
-            return Optional.of(new Error.DuplicateKeyError(String.valueOf(order.orderID())));
+    // The key, courier and client are checked by the insert itself, in this order, so an order is one statement.
+    // The client comes back with the result for the rankings. A key taken by a concurrent insert after the check
+    // is refused by the primary key.
+    public Optional<Error> addOrder(Order order) {
+        Optional<Error> validationError = validateOrder(order);
+        if (validationError.isPresent()) {
+            return validationError;
         }
+        Timestamp orderDate = Timestamp.valueOf(order.orderDate());
+        Timestamp deliveryDate = Timestamp.valueOf(order.deliveryDate());
 
-        switch (getCourier(order.courierPhone())) {
-            case Result.Failure<Error, ?> failure -> {
-                if (failure.error() instanceof Error.RecordNotFound _) {
-                    return Optional.of(new Error.ForeignKeyConstraintError("Courier Phone", order.courierPhone()));
-                }
-                else {
-                    return Optional.of(new Error.UnknownError());
-                }
+        final String sql = """
+                WITH taken AS (SELECT 1 FROM \"Order\" WHERE \"Order ID\" = ?),
+                courier AS (SELECT \"Phone\" FROM \"Courier\" WHERE \"Phone\" = ?),
+                client AS (SELECT \"Email\", \"Name\", \"Phone\" FROM \"Client\" WHERE \"Email\" = ?),
+                inserted AS (
+                    INSERT INTO \"Order\"(\"Order ID\", \"Order Date\", \"Courier Phone\", \"Delivery Date\", \"Client Email\", \"Rating\", \"Delivery Address\")
+                    SELECT ?, ?, courier.\"Phone\", ?, client.\"Email\", ?, ?
+                    FROM courier, client
+                    WHERE NOT EXISTS (SELECT 1 FROM taken)
+                    RETURNING 1
+                )
+                SELECT EXISTS (SELECT 1 FROM taken) AS \"Taken\", EXISTS (SELECT 1 FROM courier) AS \"Courier Exists\",
+                    client.\"Email\", client.\"Name\", client.\"Phone\",
+                    (SELECT pg_current_xact_id() FROM inserted)::text::bigint AS \"Transaction\"
+                FROM (VALUES (1)) AS one LEFT JOIN client ON true
+                """;
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, order.orderID());
+            pstmt.setString(2, order.courierPhone());
+            pstmt.setString(3, order.clientEmail());
+            pstmt.setInt(4, order.orderID());
+            pstmt.setTimestamp(5, orderDate);
+            pstmt.setTimestamp(6, deliveryDate);
+            pstmt.setInt(7, order.rating());
+            pstmt.setString(8, order.deliveryAddress());
+
+            ResultSet resultSet = pstmt.executeQuery();
+            resultSet.next();
+            if (resultSet.getBoolean("Taken")) {
+                return Optional.of(new Error.DuplicateKeyError(String.valueOf(order.orderID())));
+            }
+            if (!resultSet.getBoolean("Courier Exists")) {
+                return Optional.of(new Error.ForeignKeyConstraintError("Courier Phone", order.courierPhone()));
             }
-            case Result.Success<?,Courier> success -> {
-                break;
+            if (resultSet.getString("Email") == null) {
+                return Optional.of(new Error.ForeignKeyConstraintError("Client Email", order.clientEmail()));
             }
+            singleFlight.forget();
+            long transaction = resultSet.getLong("Transaction");
+            courierLeaderboard.recordOrderAdded(order.courierPhone(), transaction);
+            clientHeavyHitters.recordOrderAdded(new Client(resultSet.getString("Email"), resultSet.getString("Name"), resultSet.getString("Phone")), transaction);
+        } catch (SQLException e) {
+            if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                return Optional.of(new Error.DuplicateKeyError(String.valueOf(order.orderID())));
+            }
+            throw new IllegalStateException("An unexpected error occurred while adding an order to the database.");
         }
 
-        switch (getClient(order.clientEmail())) {
-            case Result.Failure<Error, ?> failure -> {
-                if (failure.error() instanceof Error.RecordNotFound _) {
-                    return Optional.of(new Error.ForeignKeyConstraintError("Client Email", order.clientEmail()));
-                }
-                else {
-                    return Optional.of(new Error.UnknownError());
+        return Optional.empty();
+    }
+
+    // The errors line up with the orders. Their keys, couriers and clients are looked up with one statement per
+    // table for the whole batch, and only the orders without an error are inserted, together in one transaction.
+    public List<Optional<Error>> addOrders(List<Order> orders) throws IllegalStateException {
+        Map<Integer, Order> existingOrders = getOrders(orders.stream().map(Order::orderID).collect(Collectors.toSet()));
+        Map<String, Courier> couriers = getCouriers(orders.stream().map(Order::courierPhone).collect(Collectors.toSet()));
+        Map<String, Client> clients = getClients(orders.stream().map(Order::clientEmail).collect(Collectors.toSet()));
+
+        List<Optional<Error>> errors = new ArrayList<>(orders.size());
+        List<Order> valid = new ArrayList<>();
+        Set<Integer> accepted = new HashSet<>();
+        for (Order order : orders) {
+            Optional<Error> error = validateOrder(order);
+            if (error.isEmpty()) {
+                if (existingOrders.containsKey(order.orderID()) || accepted.contains(order.orderID())) {
+                    error = Optional.of(new Error.DuplicateKeyError(String.valueOf(order.orderID())));
+                } else if (!couriers.containsKey(order.courierPhone())) {
+                    error = Optional.of(new Error.ForeignKeyConstraintError("Courier Phone", order.courierPhone()));
+                } else if (!clients.containsKey(order.clientEmail())) {
+                    error = Optional.of(new Error.ForeignKeyConstraintError("Client Email", order.clientEmail()));
+                } else {
+                    valid.add(order);
+                    accepted.add(order.orderID());
                 }
             }
-            case Result.Success<?,Client> success -> {
-                break;
-            }
+            errors.add(error);
         }
-        
+
         final String sql = "INSERT INTO \"Order\"(\"Order ID\", \"Order Date\", \"Courier Phone\", \"Delivery Date\", \"Client Email\", \"Rating\", \"Delivery Address\") VALUES(?, ?, ?, ?, ?, ?, ?)";
-        
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, order.orderID());
-            pstmt.setTimestamp(2, orderDate);
-            pstmt.setString(3, order.courierPhone());
-            pstmt.setTimestamp(4, deliveryDate);
-            pstmt.setString(5, order.clientEmail());
-            pstmt.setInt(6, order.rating());
-            pstmt.setString(7, order.deliveryAddress());
 
-            if (pstmt.executeUpdate() == 0) {
-                Optional.of(new Error.InsertError("Meal"));
-            }
+        long transaction;
+        try {
+            transaction = insertAll(sql, valid, (pstmt, order) -> {
+                pstmt.setInt(1, order.orderID());
+                pstmt.setTimestamp(2, Timestamp.valueOf(order.orderDate()));
+                pstmt.setString(3, order.courierPhone());
+                pstmt.setTimestamp(4, Timestamp.valueOf(order.deliveryDate()));
+                pstmt.setString(5, order.clientEmail());
+                pstmt.setInt(6, order.rating());
+                pstmt.setString(7, order.deliveryAddress());
+            }, true);
         } catch (SQLException e) {
-            throw new IllegalStateException("An unexpected error occurred while adding an order to the database.");
+            throw new IllegalStateException("An unexpected error occurred while adding orders to the database.");
+        } finally {
+            singleFlight.forget();
         }
 
-        return Optional.empty();
+        for (Order order : valid) {
+            courierLeaderboard.recordOrderAdded(order.courierPhone(), transaction);
+            clientHeavyHitters.recordOrderAdded(clients.get(order.clientEmail()), transaction);
+        }
+        return errors;
     }
 
     public ArrayList<Order> getAllOrders() {
@@ -758,6 +1169,7 @@ public class Model {
             pstmt.setInt(4, order.orderID());
 
             int rowCount = pstmt.executeUpdate();
+            singleFlight.forget();
             if (rowCount == 0) {
                 return Optional.of(new Error.RecordNotFound(String.valueOf(order.orderID())));
             }
@@ -773,15 +1185,20 @@ public class Model {
         final String sql = """
                 DELETE FROM \"Order\"
                 WHERE \"Order ID\" = ?
+                RETURNING \"Courier Phone\", \"Client Email\", pg_current_xact_id()::text::bigint AS \"Transaction\"
                 """;
 
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, orderID);
 
-            int rowCount = pstmt.executeUpdate();
-            if (rowCount == 0) {
+            ResultSet resultSet = pstmt.executeQuery();
+            singleFlight.forget();
+            if (!resultSet.next()) {
                 return Optional.of(new Error.RecordNotFound(String.valueOf(orderID)));
             }
+            long transaction = resultSet.getLong("Transaction");
+            courierLeaderboard.recordOrderRemoved(resultSet.getString("Courier Phone"), transaction);
+            clientHeavyHitters.recordOrderRemoved(resultSet.getString("Client Email"), transaction);
         } catch (SQLException e) {
             throw new IllegalStateException("An unexpected error occurred while deleting the order with ID '" +
                 orderID + "' from the database.");
@@ -790,6 +1207,102 @@ public class Model {
         return Optional.empty();
     }
 
+    // Deletes orders placed before the cutoff and their meals, chunkSize orders per transaction. Orders
+    // locked by another session are skipped, as are chunks that cannot get their locks in time, and are
+    // left for the next run.
+    public PurgeReport purgeOrdersBefore(LocalDate cutoff, int chunkSize, long pauseMillis, IntConsumer progress) throws IllegalStateException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive.");
+        }
+
+        final String candidatesSql = """
+                SELECT \"Order ID\" FROM \"Order\"
+                WHERE \"Order ID\" > ? AND \"Order Date\" < ?
+                ORDER BY \"Order ID\"
+                LIMIT ?
+                """;
+        final String deleteSql = """
+                WITH locked AS (
+                    SELECT \"Order ID\" FROM \"Order\"
+                    WHERE \"Order ID\" = ANY(?) AND \"Order Date\" < ?
+                    FOR UPDATE SKIP LOCKED
+                ), meals AS (
+                    DELETE FROM \"Meal\" WHERE \"Order ID\" IN (SELECT \"Order ID\" FROM locked)
+                    RETURNING 1
+                ), orders AS (
+                    DELETE FROM \"Order\" WHERE \"Order ID\" IN (SELECT \"Order ID\" FROM locked)
+                    RETURNING 1
+                )
+                SELECT (SELECT COUNT(*) FROM orders), (SELECT COUNT(*) FROM meals)
+                """;
+
+        Timestamp before = Timestamp.valueOf(cutoff.atStartOfDay());
+        int orders = 0;
+        int meals = 0;
+        int skipped = 0;
+        int lastOrderID = Integer.MIN_VALUE;
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            try (PreparedStatement candidatesStmt = connection.prepareStatement(candidatesSql);
+                 PreparedStatement deleteStmt = connection.prepareStatement(deleteSql)) {
+                while (true) {
+                    List<Integer> candidates = new ArrayList<>(chunkSize);
+                    candidatesStmt.setInt(1, lastOrderID);
+                    candidatesStmt.setTimestamp(2, before);
+                    candidatesStmt.setInt(3, chunkSize);
+                    try (ResultSet resultSet = candidatesStmt.executeQuery()) {
+                        while (resultSet.next()) {
+                            candidates.add(resultSet.getInt(1));
+                        }
+                    }
+                    if (candidates.isEmpty()) {
+                        break;
+                    }
+                    lastOrderID = candidates.get(candidates.size() - 1);
+
+                    connection.setAutoCommit(false);
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SET LOCAL lock_timeout = " + PURGE_LOCK_TIMEOUT_MILLIS);
+                        deleteStmt.setArray(1, connection.createArrayOf("integer", candidates.toArray()));
+                        deleteStmt.setTimestamp(2, before);
+                        try (ResultSet resultSet = deleteStmt.executeQuery()) {
+                            resultSet.next();
+                            orders += resultSet.getInt(1);
+                            meals += resultSet.getInt(2);
+                            skipped += candidates.size() - resultSet.getInt(1);
+                        }
+                        connection.commit();
+                    } catch (SQLException e) {
+                        connection.rollback();
+                        if (!LOCK_NOT_AVAILABLE.equals(e.getSQLState())) {
+                            throw e;
+                        }
+                        skipped += candidates.size();
+                    } finally {
+                        connection.setAutoCommit(autoCommit);
+                    }
+
+                    progress.accept(orders);
+                    if (pauseMillis > 0) {
+                        Thread.sleep(pauseMillis);
+                    }
+                }
+            } finally {
+                // Even a failed purge may have committed some chunks
+                singleFlight.forget();
+                courierLeaderboard.invalidate();
+                clientHeavyHitters.invalidate();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while purging orders after ID " + lastOrderID + ".", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Purging orders was interrupted after ID " + lastOrderID + ".", e);
+        }
+
+        return new PurgeReport(orders, meals, skipped);
+    }
+
     public Result<Error, ClientAnalytics> fetchClientAnalytics(ClientFilterParameters parameters) {
         Timestamp startOrderDate;
         try {
@@ -838,6 +1351,12 @@ public class Model {
     }
 
     public Result<Error, ArrayList<CourierAnalytics>> fetchCourierAnalytics(CourierFilterParameters parameters) {
+        return singleFlight.execute("fetchCourierAnalytics", () -> queryCourierAnalytics(parameters),
+            parameters.getStartDeliveryDate(), parameters.getMinRating());
+    }
+
+    // Shared by identical concurrent callers, so the returned list must not be modified
+    private Result<Error, ArrayList<CourierAnalytics>> queryCourierAnalytics(CourierFilterParameters parameters) {
         Date startDeliveryDate;
         try {
             startDeliveryDate = Date.valueOf(parameters.getStartDeliveryDate());
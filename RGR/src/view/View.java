@@ -5,6 +5,7 @@ import java.util.List;
 import org.apache.commons.lang3.tuple.Pair;
 
 import common.*;
+import diagnostics.SqlStatistics;
 import entities.*;
 
 public class View {
@@ -75,6 +76,7 @@ public class View {
         System.out.println("  [2] COURIERS TABLE     - Manage courier details");
         System.out.println("  [3] MEALS TABLE        - Manage available dishes");
         System.out.println("  [4] ORDERS TABLE       - Track and update orders");
+        System.out.println("  [5] DIAGNOSTICS        - What the database calls cost");
         System.out.println();
 
         System.out.println("═════════════════════════════════════════════════════════");
@@ -495,4 +497,42 @@ public class View {
     public void displayQueryRuntime(long timeInMs) {
         System.out.println("Query runtime: " + timeInMs + " msec.");
     }
-}
\ No newline at end of file
+
+    public void displayDiagnosticsMenu() {
+        clearScreen();
+
+        System.out.println("═════════════════════════════════════════════════════════");
+        System.out.println("                     DIAGNOSTICS");
+        System.out.println("═════════════════════════════════════════════════════════");
+        System.out.println("  [1] SQL Statements by Total Time");
+        System.out.println("  [2] SQL Statements by Calls");
+        System.out.println("  [3] SQL Statements by Mean Time");
+        System.out.println("  [4] SQL Statements by Errors");
+        System.out.println("  [5] Reset SQL Statistics");
+        System.out.println("  [6] Back to Main Menu");
+    }
+
+    public void displaySqlStatistics(List<SqlStatistics.Row> statements, String ranking) {
+        String format = "| %3d | %9d | %11.1f | %9.2f | %9.2f | %9d | %6d |%n";
+        String separator = "+" + "-".repeat(5) + "+" + "-".repeat(11) + "+" + "-".repeat(13) + "+" + "-".repeat(11) + "+" + "-".repeat(11)
+            + "+" + "-".repeat(11) + "+" + "-".repeat(8) + "+";
+
+        System.out.println("\n" + "*".repeat(57));
+        System.out.println(" TOP " + statements.size() + " SQL STATEMENTS BY " + ranking.toUpperCase() + ", TIMES IN MSEC");
+        System.out.println(separator);
+        System.out.format("| %3s | %9s | %11s | %9s | %9s | %9s | %6s |%n", "#", "Calls", "Total", "Mean", "Max", "Rows", "Errors");
+        System.out.println(separator);
+
+        int rank = 1;
+        for (SqlStatistics.Row statement : statements) {
+            System.out.format(format, rank, statement.calls(), statement.totalNanos() / 1e6, statement.meanMillis(), statement.maxNanos() / 1e6,
+                statement.rows(), statement.errors());
+            String fingerprint = statement.fingerprint();
+            System.out.println("      " + (fingerprint.length() > 100 ? fingerprint.substring(0, 97) + "..." : fingerprint));
+            rank++;
+        }
+
+        System.out.println(separator);
+        waitForInput();
+    }
+}
@@ -0,0 +1,119 @@
+package workload;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import common.*;
+import entities.*;
+import model.Model;
+import util.Result;
+import shared.workload.WorkloadTarget;
+
+// The Model shares one connection between all its callers and switches its auto-commit mode for batch
+// inserts and purges, so statements of a second client could land in the first one's transaction. One
+// client at a time is all it takes.
+public class ModelWorkloadTarget implements WorkloadTarget {
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Model model;
+    private final Connection connection;
+
+    public ModelWorkloadTarget(Model model, Connection connection) {
+        this.model = model;
+        this.connection = connection;
+    }
+
+    @Override
+    public Keys loadKeys() throws IllegalStateException {
+        try (Statement statement = connection.createStatement()) {
+            List<String> clientEmails = readStrings(statement, "SELECT \"Email\" FROM \"Client\"");
+            List<String> courierPhones = readStrings(statement, "SELECT \"Phone\" FROM \"Courier\"");
+            List<Long> orderIDs = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery("SELECT \"Order ID\" FROM \"Order\"")) {
+                while (resultSet.next()) {
+                    orderIDs.add(resultSet.getLong(1));
+                }
+            }
+            long maxOrderID = orderIDs.stream().mapToLong(Long::longValue).max().orElse(0);
+            long maxMealID;
+            try (ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(\"Meal ID\"), 0) FROM \"Meal\"")) {
+                resultSet.next();
+                maxMealID = resultSet.getLong(1);
+            }
+            return new Keys(clientEmails, courierPhones, orderIDs, maxOrderID, maxMealID);
+        } catch (SQLException e) {
+            throw new IllegalStateException("An unexpected error occurred while reading the workload keys.", e);
+        }
+    }
+
+    private static List<String> readStrings(Statement statement, String sql) throws SQLException {
+        List<String> values = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery(sql)) {
+            while (resultSet.next()) {
+                values.add(resultSet.getString(1));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return 1;
+    }
+
+    @Override
+    public boolean placeOrder(NewOrder order) {
+        int orderID = Math.toIntExact(order.orderID());
+        if (model.addOrder(new Order(orderID, order.orderDate().format(DATE_TIME), order.courierPhone(),
+                order.deliveryDate().format(DATE_TIME), order.clientEmail(), order.rating(), order.deliveryAddress())).isPresent()) {
+            return false;
+        }
+
+        for (NewMeal meal : order.meals()) {
+            if (model.addMeal(new Meal(Math.toIntExact(meal.mealID()), orderID, meal.name(), meal.price(), meal.weight(),
+                    meal.servingSize())).isPresent()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean lookupClient(String email) {
+        return model.getClient(email) instanceof Result.Success<?, ?>;
+    }
+
+    @Override
+    public boolean lookupCourier(String phone) {
+        return model.getCourier(phone) instanceof Result.Success<?, ?>;
+    }
+
+    @Override
+    public boolean rateOrder(long orderID, int rating) {
+        if (!(model.getOrder(Math.toIntExact(orderID)) instanceof Result.Success<?, Order> success)) {
+            return false;
+        }
+        Order order = success.value();
+        return model.updateOrder(new Order(order.orderID(), order.orderDate(), order.courierPhone(), order.deliveryDate(),
+            order.clientEmail(), rating, order.deliveryAddress())).isEmpty();
+    }
+
+    @Override
+    public boolean leaderboard(boolean couriers, int size) {
+        return !(couriers ? model.getCouriersWithMostOrders(size) : model.getClientsWithMostOrders(size)).isEmpty();
+    }
+
+    @Override
+    public boolean analytics(boolean couriers, LocalDate since, int minRating) {
+        Result<?, ?> result = couriers
+            ? model.fetchCourierAnalytics(new CourierFilterParameters(since.toString(), minRating))
+            : model.fetchClientAnalytics(new ClientFilterParameters(since.atStartOfDay().format(DATE_TIME), Integer.MAX_VALUE, "%"));
+        return result instanceof Result.Success<?, ?>;
+    }
+}
@@ -0,0 +1,63 @@
+package shared;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Lets identical reads that overlap share one database call: the first caller for an operation and its
+// parameters runs it, callers arriving while it is in flight wait for it and get the same result (the
+// same instance, so it must not be modified). Writes call forget(), after which new callers start a
+// fresh call instead of joining one that may have read the rows before the write.
+public class SingleFlight {
+    public record Statistics(long calls, long coalesced) {
+    }
+
+    private record Key(String operation, List<Object> parameters) {
+    }
+
+    private final ConcurrentHashMap<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public <V> V execute(String operation, Supplier<V> call, Object... parameters) throws IllegalStateException {
+        Key key = new Key(operation, Arrays.asList(parameters));
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        calls.increment();
+
+        CompletableFuture<Object> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            coalesced.increment();
+            try {
+                return (V) leader.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause
+                    ? cause : new IllegalStateException("The shared " + operation + " call failed.", e.getCause());
+            }
+        }
+
+        // Leaving the map before completing keeps late callers from joining a finished call
+        try {
+            V value = call.get();
+            inFlight.remove(key, flight);
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            inFlight.remove(key, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public void forget() {
+        inFlight.clear();
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(calls.sum(), coalesced.sum());
+    }
+}
@@ -0,0 +1,131 @@
+package shared;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Reduces a SQL string to the shape of the statement: string and numeric literals become ?, the value
+// list of an IN or ANY becomes a single ?, and whitespace is collapsed. Statements that differ only in
+// their values share a fingerprint. Both applications issue a small, fixed set of strings, so results
+// are cached. Used by LAB2 and RGR, which compile shared/src along with their own sources.
+public final class SqlFingerprint {
+    private static final int CACHE_LIMIT = 4096;
+    private static final ConcurrentMap<String, String> cache = new ConcurrentHashMap<>();
+
+    private SqlFingerprint() {
+    }
+
+    public static String of(String sql) {
+        String fingerprint = cache.get(sql);
+        if (fingerprint == null) {
+            fingerprint = normalize(sql);
+            if (cache.size() < CACHE_LIMIT) {
+                cache.putIfAbsent(sql, fingerprint);
+            }
+        }
+        return fingerprint;
+    }
+
+    static String normalize(String sql) {
+        StringBuilder builder = new StringBuilder(sql.length());
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                i = skipQuoted(sql, i, '\'');
+                appendPlaceholder(builder);
+            } else if (c == '"') {
+                int end = skipQuoted(sql, i, '"');
+                builder.append(sql, i, end);
+                i = end;
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                while (i < length && sql.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (!builder.isEmpty() && builder.charAt(builder.length() - 1) != ' ' && i < length) {
+                    builder.append(' ');
+                }
+            } else if (Character.isDigit(c) && !isPartOfIdentifier(builder)) {
+                while (i < length && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                appendPlaceholder(builder);
+            } else if (c == '?') {
+                i++;
+                appendPlaceholder(builder);
+            } else {
+                builder.append(c);
+                i++;
+            }
+        }
+        return builder.toString();
+    }
+
+    // Index just past the closing quote, a doubled quote inside is part of the literal
+    private static int skipQuoted(String sql, int start, char quote) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    // "IN (?, ?, ?)" and "ANY(?,?)" collapse into the placeholder already written. Other lists such as
+    // the columns of VALUES keep one placeholder per value, their length is part of the statement.
+    private static void appendPlaceholder(StringBuilder builder) {
+        int end = skipSpaces(builder, builder.length());
+        if (end > 1 && builder.charAt(end - 1) == ',') {
+            int previous = skipSpaces(builder, end - 1);
+            if (previous > 0 && builder.charAt(previous - 1) == '?' && isValueList(builder, previous - 1)) {
+                builder.setLength(previous);
+                return;
+            }
+        }
+        builder.append('?');
+    }
+
+    // Whether the placeholder at the index is the first value after "IN (" or "ANY("
+    private static boolean isValueList(StringBuilder builder, int placeholder) {
+        int open = skipSpaces(builder, placeholder);
+        if (open == 0 || builder.charAt(open - 1) != '(') {
+            return false;
+        }
+        int wordEnd = skipSpaces(builder, open - 1);
+        int wordStart = wordEnd;
+        while (wordStart > 0 && Character.isLetter(builder.charAt(wordStart - 1))) {
+            wordStart--;
+        }
+        if (wordStart > 0 && (Character.isLetterOrDigit(builder.charAt(wordStart - 1)) || builder.charAt(wordStart - 1) == '_'
+                || builder.charAt(wordStart - 1) == '"')) {
+            return false;
+        }
+        String word = builder.substring(wordStart, wordEnd);
+        return word.equalsIgnoreCase("in") || word.equalsIgnoreCase("any");
+    }
+
+    private static int skipSpaces(StringBuilder builder, int end) {
+        while (end > 0 && builder.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isPartOfIdentifier(StringBuilder builder) {
+        if (builder.isEmpty()) {
+            return false;
+        }
+        char previous = builder.charAt(builder.length() - 1);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$';
+    }
+}
@@ -0,0 +1,262 @@
+package shared.ranking;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.tuple.Pair;
+
+// Space-Saving sketch over the clients of incoming orders. Only a fixed number of counters
+// is kept, so the top clients are answered without grouping the whole "Order" table.
+// A counter overestimates the real order count by at most its error, and any client
+// without a counter has at most untrackedBound() orders. While no counter has been
+// evicted the counts are exact. Like CourierLeaderboard, the seeding query runs without the lock,
+// orders recorded meanwhile are replayed on top of its result, and orders its snapshot already saw are dropped.
+// C is the client entity of either application, emailOf reads its key.
+public class ClientHeavyHitters<C> {
+    public record Candidate<C>(C client, int orderCount, int error) {
+    }
+
+    // Client changes carry no transaction, applying them again leaves the same counter
+    private record Change(long transaction, Runnable apply) {
+    }
+
+    // PostgreSQL never assigns transaction id 0
+    private static final long NO_TRANSACTION = 0;
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final Function<C, String> emailOf;
+    private final int capacity;
+    private final HashMap<String, Candidate<C>> counters = new HashMap<>();
+    private final TreeSet<Candidate<C>> ranking;
+    private final List<Change> pending = new ArrayList<>();
+    private TransactionSnapshot snapshot = null;
+    private boolean loaded = false;
+    private boolean loading = false;
+    private long generation = 0;
+    private boolean exact = false;
+    private int untrackedBound = 0;
+
+    public ClientHeavyHitters(Function<C, String> emailOf) {
+        this(emailOf, DEFAULT_CAPACITY);
+    }
+
+    public ClientHeavyHitters(Function<C, String> emailOf, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.emailOf = emailOf;
+        this.capacity = capacity;
+        this.ranking = new TreeSet<>(Comparator.<Candidate<C>>comparingInt(Candidate::orderCount).reversed()
+            .thenComparing(candidate -> emailOf.apply(candidate.client())));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    public synchronized boolean isExact() {
+        return exact;
+    }
+
+    public synchronized int untrackedBound() {
+        return untrackedBound;
+    }
+
+    // Replaces the counters with a load the caller queries itself, exact counts of the top clients ordered by
+    // count descending. Changes are kept from here on, the returned load is then finished or aborted.
+    public synchronized long beginLoad() {
+        invalidate();
+        loading = true;
+        return generation;
+    }
+
+    // False when an invalidation or another load overtook this one
+    public synchronized boolean finishLoad(long load, OrderCounts<C> orderCounts) {
+        if (!loading || generation != load) {
+            return false;
+        }
+
+        List<Change> changes = List.copyOf(pending);
+        loading = false;
+        pending.clear();
+        install(orderCounts);
+        changes.forEach(this::apply);
+        return true;
+    }
+
+    public synchronized void abortLoad(long load) {
+        if (loading && generation == load) {
+            loading = false;
+            pending.clear();
+        }
+    }
+
+    // Seeds the counters first if needed, retrying when an invalidation overtakes the query
+    public List<Candidate<C>> top(int numberOfRecords, Supplier<OrderCounts<C>> orderCounts) {
+        while (true) {
+            long load;
+            synchronized (this) {
+                if (loaded) {
+                    return top(numberOfRecords);
+                }
+                if (!loading) {
+                    loading = true;
+                    pending.clear();
+                }
+                load = generation;
+            }
+
+            OrderCounts<C> counts;
+            try {
+                counts = orderCounts.get();
+            } catch (RuntimeException e) {
+                abortLoad(load);
+                throw e;
+            }
+            finishLoad(load, counts);
+        }
+    }
+
+    public synchronized void invalidate() {
+        generation++;
+        loaded = false;
+        loading = false;
+        pending.clear();
+        snapshot = null;
+        exact = false;
+        untrackedBound = 0;
+        counters.clear();
+        ranking.clear();
+    }
+
+    public synchronized void recordOrderAdded(C client, long transaction) {
+        record(transaction, () -> addOrder(client));
+    }
+
+    public synchronized void recordOrderRemoved(String email, long transaction) {
+        record(transaction, () -> {
+            Candidate<C> candidate = counters.get(email);
+            if (candidate != null) {
+                replace(candidate, new Candidate<>(candidate.client(), Math.max(0, candidate.orderCount() - 1), candidate.error()));
+            }
+        });
+    }
+
+    public synchronized void updateClient(C client) {
+        record(() -> {
+            Candidate<C> candidate = counters.get(emailOf.apply(client));
+            if (candidate != null) {
+                replace(candidate, new Candidate<>(client, candidate.orderCount(), candidate.error()));
+            }
+        });
+    }
+
+    public synchronized void removeClient(String email) {
+        record(() -> {
+            Candidate<C> candidate = counters.remove(email);
+            if (candidate != null) {
+                ranking.remove(candidate);
+            }
+        });
+    }
+
+    public synchronized Optional<Candidate<C>> top() {
+        return ranking.isEmpty() || ranking.first().orderCount() == 0 ? Optional.empty() : Optional.of(ranking.first());
+    }
+
+    public synchronized List<Candidate<C>> top(int numberOfRecords) {
+        List<Candidate<C>> candidates = new ArrayList<>();
+        Iterator<Candidate<C>> iterator = ranking.iterator();
+        while (candidates.size() < numberOfRecords && iterator.hasNext()) {
+            Candidate<C> candidate = iterator.next();
+            if (candidate.orderCount() == 0) {
+                break;
+            }
+            candidates.add(candidate);
+        }
+        return candidates;
+    }
+
+    // Largest count a client outside the first numberOfRecords candidates may have
+    public synchronized int boundBeyond(int numberOfRecords) {
+        Iterator<Candidate<C>> iterator = ranking.iterator();
+        for (int i = 0; i < numberOfRecords && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        int next = iterator.hasNext() ? iterator.next().orderCount() : 0;
+        return Math.max(next, untrackedBound);
+    }
+
+    private void record(Runnable change) {
+        record(NO_TRANSACTION, change);
+    }
+
+    // Applied right away once loaded, kept for the replay while a load is running, dropped otherwise
+    private void record(long transaction, Runnable change) {
+        if (loaded) {
+            apply(new Change(transaction, change));
+        } else if (loading) {
+            pending.add(new Change(transaction, change));
+        }
+    }
+
+    // An order the loaded counts already contain is not counted again
+    private void apply(Change change) {
+        if (change.transaction() != NO_TRANSACTION && snapshot != null && snapshot.sees(change.transaction())) {
+            return;
+        }
+        change.apply().run();
+    }
+
+    private void install(OrderCounts<C> loadedCounts) {
+        List<Pair<C, Integer>> orderCounts = loadedCounts.counts();
+        counters.clear();
+        ranking.clear();
+        for (Pair<C, Integer> orderCount : orderCounts.subList(0, Math.min(capacity, orderCounts.size()))) {
+            put(new Candidate<>(orderCount.getLeft(), orderCount.getRight().intValue(), 0));
+        }
+
+        exact = orderCounts.size() < capacity;
+        untrackedBound = exact || ranking.isEmpty() ? 0 : ranking.last().orderCount();
+        snapshot = loadedCounts.snapshot();
+        loaded = true;
+    }
+
+    private void addOrder(C client) {
+        Candidate<C> candidate = counters.get(emailOf.apply(client));
+        if (candidate != null) {
+            replace(candidate, new Candidate<>(client, candidate.orderCount() + 1, candidate.error()));
+            return;
+        }
+
+        if (counters.size() >= capacity) {
+            Candidate<C> evicted = ranking.pollLast();
+            counters.remove(emailOf.apply(evicted.client()));
+            untrackedBound = Math.max(untrackedBound, evicted.orderCount());
+            exact = false;
+        }
+
+        put(new Candidate<>(client, untrackedBound + 1, untrackedBound));
+    }
+
+    private void replace(Candidate<C> previous, Candidate<C> candidate) {
+        ranking.remove(previous);
+        put(candidate);
+    }
+
+    private void put(Candidate<C> candidate) {
+        counters.put(emailOf.apply(candidate.client()), candidate);
+        ranking.add(candidate);
+    }
+}
@@ -0,0 +1,212 @@
+package shared.ranking;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.apache.commons.lang3.tuple.Pair;
+
+// Per-courier order counters kept in a HashMap by phone and a TreeSet ordered by count, so a change
+// is O(log n) and the top couriers are read in O(k) instead of grouping the whole "Order" table on every request.
+// The counts are queried on first use without holding the lock, so writers never wait for the query.
+// Changes recorded meanwhile are replayed on top of its result, an invalidation meanwhile discards it.
+// An order change carries the id of the transaction that wrote it, and one the load's snapshot already saw
+// is dropped instead, during the replay and after it, so an order is counted exactly once.
+// C is the courier entity of either application, phoneOf reads its key.
+public class CourierLeaderboard<C> {
+    private record Entry<C>(C courier, int orderCount) {
+    }
+
+    // Courier changes carry no transaction, applying them again leaves the same entry
+    private record Change(long transaction, Runnable apply) {
+    }
+
+    // PostgreSQL never assigns transaction id 0
+    private static final long NO_TRANSACTION = 0;
+
+    private final Function<C, String> phoneOf;
+    private final HashMap<String, Entry<C>> entries = new HashMap<>();
+    private final TreeSet<Entry<C>> ranking;
+    private final List<Change> pending = new ArrayList<>();
+    private TransactionSnapshot snapshot = null;
+    private boolean loaded = false;
+    private boolean loading = false;
+    private long generation = 0;
+
+    public CourierLeaderboard(Function<C, String> phoneOf) {
+        this.phoneOf = phoneOf;
+        this.ranking = new TreeSet<>(Comparator.<Entry<C>>comparingInt(Entry::orderCount).reversed()
+            .thenComparing(entry -> phoneOf.apply(entry.courier())));
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    // Replaces the counters with a load the caller queries itself. Changes are kept from here on, the
+    // returned load is then finished with its counts or aborted.
+    public synchronized long beginLoad() {
+        invalidate();
+        loading = true;
+        return generation;
+    }
+
+    // False when an invalidation or another load overtook this one
+    public synchronized boolean finishLoad(long load, OrderCounts<C> orderCounts) {
+        if (!loading || generation != load) {
+            return false;
+        }
+
+        List<Change> changes = List.copyOf(pending);
+        loading = false;
+        pending.clear();
+        install(orderCounts);
+        for (Change change : changes) {
+            if (!loaded) {
+                break;
+            }
+            apply(change);
+        }
+        return true;
+    }
+
+    public synchronized void abortLoad(long load) {
+        if (loading && generation == load) {
+            loading = false;
+            pending.clear();
+        }
+    }
+
+    public synchronized void invalidate() {
+        generation++;
+        loaded = false;
+        loading = false;
+        pending.clear();
+        snapshot = null;
+        entries.clear();
+        ranking.clear();
+    }
+
+    public synchronized void addCourier(C courier) {
+        record(() -> {
+            if (!entries.containsKey(phoneOf.apply(courier))) {
+                put(new Entry<>(courier, 0));
+            }
+        });
+    }
+
+    public synchronized void updateCourier(C courier) {
+        record(() -> {
+            Entry<C> entry = entries.get(phoneOf.apply(courier));
+            if (entry != null) {
+                ranking.remove(entry);
+                put(new Entry<>(courier, entry.orderCount()));
+            }
+        });
+    }
+
+    public synchronized void removeCourier(String phone) {
+        record(() -> {
+            Entry<C> entry = entries.remove(phone);
+            if (entry != null) {
+                ranking.remove(entry);
+            }
+        });
+    }
+
+    public synchronized void recordOrderAdded(String phone, long transaction) {
+        record(transaction, () -> adjustOrderCount(phone, 1));
+    }
+
+    public synchronized void recordOrderRemoved(String phone, long transaction) {
+        record(transaction, () -> adjustOrderCount(phone, -1));
+    }
+
+    // Loads the counters first if needed, retrying when an invalidation overtakes the query
+    public List<Pair<C, Integer>> top(int numberOfRecords, Supplier<OrderCounts<C>> orderCounts) {
+        while (true) {
+            long load;
+            synchronized (this) {
+                if (loaded) {
+                    return top(numberOfRecords);
+                }
+                if (!loading) {
+                    loading = true;
+                    pending.clear();
+                }
+                load = generation;
+            }
+
+            OrderCounts<C> counts;
+            try {
+                counts = orderCounts.get();
+            } catch (RuntimeException e) {
+                abortLoad(load);
+                throw e;
+            }
+            finishLoad(load, counts);
+        }
+    }
+
+    public synchronized List<Pair<C, Integer>> top(int numberOfRecords) {
+        List<Pair<C, Integer>> couriers = new ArrayList<>();
+        Iterator<Entry<C>> iterator = ranking.iterator();
+        while (couriers.size() < numberOfRecords && iterator.hasNext()) {
+            Entry<C> entry = iterator.next();
+            couriers.add(Pair.of(entry.courier(), Integer.valueOf(entry.orderCount())));
+        }
+        return couriers;
+    }
+
+    private void record(Runnable change) {
+        record(NO_TRANSACTION, change);
+    }
+
+    // Applied right away once loaded, kept for the replay while a load is running, dropped otherwise
+    private void record(long transaction, Runnable change) {
+        if (loaded) {
+            apply(new Change(transaction, change));
+        } else if (loading) {
+            pending.add(new Change(transaction, change));
+        }
+    }
+
+    // An order the loaded counts already contain is not counted again
+    private void apply(Change change) {
+        if (change.transaction() != NO_TRANSACTION && snapshot != null && snapshot.sees(change.transaction())) {
+            return;
+        }
+        change.apply().run();
+    }
+
+    private void install(OrderCounts<C> orderCounts) {
+        entries.clear();
+        ranking.clear();
+        for (Pair<C, Integer> orderCount : orderCounts.counts()) {
+            put(new Entry<>(orderCount.getLeft(), orderCount.getRight().intValue()));
+        }
+        snapshot = orderCounts.snapshot();
+        loaded = true;
+    }
+
+    private void adjustOrderCount(String phone, int delta) {
+        Entry<C> entry = entries.get(phone);
+        if (entry == null) {
+            // The courier was written behind our back (e.g. generated in bulk), reload on next read
+            invalidate();
+            return;
+        }
+
+        ranking.remove(entry);
+        put(new Entry<>(entry.courier(), Math.max(0, entry.orderCount() + delta)));
+    }
+
+    private void put(Entry<C> entry) {
+        entries.put(phoneOf.apply(entry.courier()), entry);
+        ranking.add(entry);
+    }
+}
@@ -0,0 +1,8 @@
+package shared.ranking;
+
+import java.util.List;
+import org.apache.commons.lang3.tuple.Pair;
+
+// Order counts loaded for a ranking, with the snapshot the query read them in
+public record OrderCounts<C>(List<Pair<C, Integer>> counts, TransactionSnapshot snapshot) {
+}
@@ -0,0 +1,27 @@
+package shared.ranking;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// A PostgreSQL snapshot as pg_current_snapshot()::text prints it, "xmin:xmax:xip,...". It sees the transactions
+// that had committed when it was taken: those below xmin, and those below xmax that were not in progress.
+public record TransactionSnapshot(long xmin, long xmax, Set<Long> inProgress) {
+    public static TransactionSnapshot parse(String text) throws IllegalArgumentException {
+        String[] parts = text.split(":", -1);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Not a transaction snapshot: '" + text + "'.");
+        }
+
+        Set<Long> inProgress = new HashSet<>();
+        if (!parts[2].isEmpty()) {
+            for (String transaction : parts[2].split(",")) {
+                inProgress.add(Long.parseLong(transaction));
+            }
+        }
+        return new TransactionSnapshot(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Set.copyOf(inProgress));
+    }
+
+    public boolean sees(long transaction) {
+        return transaction < xmin || (transaction < xmax && !inProgress.contains(transaction));
+    }
+}
@@ -0,0 +1,34 @@
+package shared.workload;
+
+import shared.ZipfSampler;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Picks keys with Zipfian popularity, or uniformly for an exponent of 0. The keys are shuffled once with
+// the run's seed, so the popular ones are spread over the table instead of being the lowest IDs.
+class KeyChooser<K> {
+    private final Object[] keys;
+    private final ZipfSampler sampler;
+
+    KeyChooser(List<K> keys, double exponent, long seed) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("There are no keys to choose from.");
+        }
+        this.keys = keys.toArray();
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = this.keys.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Object key = this.keys[i];
+            this.keys[i] = this.keys[j];
+            this.keys[j] = key;
+        }
+        this.sampler = exponent > 0 ? new ZipfSampler(this.keys.length, exponent) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    K choose(SplittableRandom random) {
+        int index = sampler != null ? sampler.sample(random) - 1 : random.nextInt(keys.length);
+        return (K) keys[index];
+    }
+}
@@ -0,0 +1,91 @@
+package shared.workload;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Latencies in nanoseconds counted in log-linear buckets, as HdrHistogram does: each power of two is split
+// into 64 equal steps, so every recorded value is known to within 1.6%. Values above about 18 minutes are
+// counted as 18 minutes. Recording is one atomic increment and safe from any number of threads.
+public class LatencyHistogram {
+    public record Snapshot(long[] counts, long count, long sum, long max) {
+        public Snapshot minus(Snapshot earlier) {
+            long[] difference = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(difference, count - earlier.count, sum - earlier.sum, highestRecorded(difference));
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // The highest value equivalent to the one at the percentile, 0 when nothing was recorded
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    private static final int LINEAR_BITS = 7;
+    private static final int LINEAR = 1 << LINEAR_BITS;
+    private static final int HALF = LINEAR >> 1;
+    private static final long MAX_VALUE = (1L << 40) - 1;
+    private static final int BUCKETS = LINEAR + (40 - LINEAR_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(2);
+
+    public void record(long nanos) {
+        long value = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts.incrementAndGet(indexOf(value));
+        totals.addAndGet(0, value);
+        totals.accumulateAndGet(1, value, Math::max);
+    }
+
+    // Counts recorded while the snapshot is taken may be in the buckets but not yet in the sum, or the reverse
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, totals.get(0), totals.get(1));
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (LINEAR_BITS - 1);
+        return LINEAR + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+    }
+
+    private static long highestValue(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / HALF + 1;
+        long lowest = (long) ((index - LINEAR) % HALF + HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    private static long highestRecorded(long[] counts) {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                return highestValue(i);
+            }
+        }
+        return 0;
+    }
+}
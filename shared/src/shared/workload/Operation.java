@@ -0,0 +1,20 @@
+package shared.workload;
+
+public enum Operation {
+    PLACE_ORDER("place"),
+    LOOKUP_CLIENT("client"),
+    LOOKUP_COURIER("courier"),
+    RATE_ORDER("rate"),
+    LEADERBOARD("leaderboard"),
+    ANALYTICS("analytics");
+
+    private final String shortName;
+
+    Operation(String shortName) {
+        this.shortName = shortName;
+    }
+
+    public String getShortName() {
+        return shortName;
+    }
+}
@@ -0,0 +1,226 @@
+package shared.workload;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Runs a mix of operations against a target from N virtual-thread clients. With a target rate the load is
+// open-loop: every client draws Poisson arrival times up front and an operation's latency is measured from
+// the time it was due, not from when a slow predecessor let it start, so queueing behind a saturated
+// target shows up in the percentiles instead of being hidden by a lower request rate (coordinated
+// omission). A rate of 0 runs closed-loop, each client issuing its next operation as soon as the last one
+// returns, which finds the maximum throughput. Operations due during the warm-up are run but not measured.
+public class WorkloadDriver {
+    public record Settings(Duration duration, Duration warmup, double rate, int clients, WorkloadMix mix, double zipfExponent,
+            long seed, Duration reportInterval) {
+        public Settings {
+            if (duration.isNegative() || duration.isZero() || warmup.isNegative() || rate < 0 || clients < 1 || zipfExponent < 0
+                    || reportInterval.isNegative() || reportInterval.isZero()) {
+                throw new IllegalArgumentException("The workload needs a positive duration, report interval and number of clients, "
+                    + "and a warm-up, rate and Zipf exponent that are not negative.");
+            }
+        }
+    }
+
+    // Operations completed within one report interval, warm-up included
+    public record Interval(Duration elapsed, Duration length, long operations, long errors, LatencyHistogram.Snapshot latencies) {
+        public double throughput() {
+            return operations / Math.max(1e-9, length.toNanos() / 1e9);
+        }
+    }
+
+    public record Summary(Operation operation, long refused, long errors, LatencyHistogram.Snapshot latencies) {
+    }
+
+    // Unstarted counts the operations that were due before the end but never started because the target
+    // fell behind the rate
+    public record Report(Duration measured, List<Interval> intervals, List<Summary> operations, long unstarted, String lastError) {
+        public long operationCount() {
+            return operations.stream().mapToLong(summary -> summary.latencies().count()).sum();
+        }
+
+        public double throughput() {
+            return operationCount() / Math.max(1e-9, measured.toNanos() / 1e9);
+        }
+    }
+
+    private static final String[] MEAL_NAMES = { "Pizza", "Sushi", "Pad Thai", "Burger", "Caesar Salad", "Ramen", "Tacos", "Falafel" };
+    private static final String[] STREETS = { "Main Street", "Oak Avenue", "Station Road", "Park Lane", "River Walk" };
+    private static final int LEADERBOARD_SIZE = 10;
+
+    private final WorkloadTarget target;
+    private final Settings settings;
+    private final Operation[] operations = Operation.values();
+    private final LatencyHistogram[] latencies = new LatencyHistogram[operations.length];
+    private final LongAdder[] refused = new LongAdder[operations.length];
+    private final LongAdder[] errors = new LongAdder[operations.length];
+    private final LatencyHistogram intervalLatencies = new LatencyHistogram();
+    private final LongAdder intervalErrors = new LongAdder();
+    private final LongAdder unstarted = new LongAdder();
+    private final AtomicReference<String> lastError = new AtomicReference<>();
+
+    private KeyChooser<String> clients;
+    private KeyChooser<String> couriers;
+    private KeyChooser<Long> orders;
+    private AtomicLong nextOrderID;
+    private AtomicLong nextMealID;
+
+    public WorkloadDriver(WorkloadTarget target, Settings settings) {
+        this.target = target;
+        this.settings = settings;
+        for (Operation operation : operations) {
+            latencies[operation.ordinal()] = new LatencyHistogram();
+            refused[operation.ordinal()] = new LongAdder();
+            errors[operation.ordinal()] = new LongAdder();
+        }
+    }
+
+    public Report run(Consumer<Interval> progress) throws IllegalStateException {
+        WorkloadTarget.Keys keys = target.loadKeys();
+        if (keys.clientEmails().isEmpty() || keys.courierPhones().isEmpty() || keys.orderIDs().isEmpty()) {
+            throw new IllegalStateException("The workload needs at least one client, courier and order in the database.");
+        }
+        clients = new KeyChooser<>(keys.clientEmails(), settings.zipfExponent(), settings.seed());
+        couriers = new KeyChooser<>(keys.courierPhones(), settings.zipfExponent(), settings.seed() + 1);
+        orders = new KeyChooser<>(keys.orderIDs(), settings.zipfExponent(), settings.seed() + 2);
+        nextOrderID = new AtomicLong(keys.maxOrderID() + 1);
+        nextMealID = new AtomicLong(keys.maxMealID() + 1);
+
+        long start = System.nanoTime();
+        long measureFrom = start + settings.warmup().toNanos();
+        long end = measureFrom + settings.duration().toNanos();
+        SplittableRandom seeds = new SplittableRandom(settings.seed());
+        List<Thread> threads = new ArrayList<>(settings.clients());
+        for (int i = 0; i < settings.clients(); i++) {
+            SplittableRandom random = seeds.split();
+            threads.add(Thread.ofVirtual().name("workload-client-" + i).start(() -> runClient(random, start, measureFrom, end)));
+        }
+
+        List<Interval> intervals = new ArrayList<>();
+        LatencyHistogram.Snapshot previous = intervalLatencies.snapshot();
+        long previousErrors = 0;
+        long previousReport = start;
+        long interval = settings.reportInterval().toNanos();
+        while (previousReport < end) {
+            long nextReport = Math.min(previousReport + interval, end);
+            parkUntil(nextReport);
+            LatencyHistogram.Snapshot current = intervalLatencies.snapshot();
+            long currentErrors = intervalErrors.sum();
+            Interval report = new Interval(Duration.ofNanos(nextReport - start), Duration.ofNanos(nextReport - previousReport),
+                current.count() - previous.count(), currentErrors - previousErrors, current.minus(previous));
+            intervals.add(report);
+            progress.accept(report);
+            previous = current;
+            previousErrors = currentErrors;
+            previousReport = nextReport;
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the workload clients to finish.", e);
+            }
+        }
+
+        List<Summary> summaries = new ArrayList<>();
+        for (Operation operation : operations) {
+            int i = operation.ordinal();
+            if (settings.mix().share(operation) > 0) {
+                summaries.add(new Summary(operation, refused[i].sum(), errors[i].sum(), latencies[i].snapshot()));
+            }
+        }
+        return new Report(settings.duration(), intervals, summaries, unstarted.sum(), lastError.get());
+    }
+
+    private void runClient(SplittableRandom random, long start, long measureFrom, long end) {
+        // Each client carries rate / clients, so together they make one Poisson stream of the full rate
+        double meanGap = settings.rate() > 0 ? settings.clients() * 1e9 / settings.rate() : 0;
+        long due = start + gap(random, meanGap);
+        while (true) {
+            if (meanGap == 0) {
+                due = System.nanoTime();
+            }
+            if (due >= end) {
+                return;
+            }
+            if (meanGap > 0 && System.nanoTime() >= end) {
+                unstarted.add(1 + (long) ((end - due) / meanGap));
+                return;
+            }
+            parkUntil(due);
+
+            Operation operation = settings.mix().choose(random);
+            int i = operation.ordinal();
+            boolean failed = false;
+            boolean accepted = false;
+            try {
+                accepted = execute(operation, random);
+            } catch (RuntimeException e) {
+                failed = true;
+                lastError.set(operation.getShortName() + ": " + e.getMessage());
+            }
+            long latency = System.nanoTime() - due;
+
+            intervalLatencies.record(latency);
+            if (failed) {
+                intervalErrors.increment();
+            }
+            if (due >= measureFrom) {
+                latencies[i].record(latency);
+                if (failed) {
+                    errors[i].increment();
+                } else if (!accepted) {
+                    refused[i].increment();
+                }
+            }
+            due += gap(random, meanGap);
+        }
+    }
+
+    private boolean execute(Operation operation, SplittableRandom random) {
+        return switch (operation) {
+            case PLACE_ORDER -> target.placeOrder(newOrder(random));
+            case LOOKUP_CLIENT -> target.lookupClient(clients.choose(random));
+            case LOOKUP_COURIER -> target.lookupCourier(couriers.choose(random));
+            case RATE_ORDER -> target.rateOrder(orders.choose(random), 1 + random.nextInt(5));
+            case LEADERBOARD -> target.leaderboard(random.nextBoolean(), LEADERBOARD_SIZE);
+            case ANALYTICS -> target.analytics(random.nextBoolean(), LocalDate.now().minusDays(random.nextInt(30, 365)), 1 + random.nextInt(5));
+        };
+    }
+
+    private WorkloadTarget.NewOrder newOrder(SplittableRandom random) {
+        int numberOfMeals = random.nextInt(1, 4);
+        long firstMealID = nextMealID.getAndAdd(numberOfMeals);
+        List<WorkloadTarget.NewMeal> meals = new ArrayList<>(numberOfMeals);
+        for (int i = 0; i < numberOfMeals; i++) {
+            meals.add(new WorkloadTarget.NewMeal(firstMealID + i, MEAL_NAMES[random.nextInt(MEAL_NAMES.length)],
+                random.nextInt(5, 60), random.nextInt(150, 900), random.nextInt(1, 4)));
+        }
+
+        LocalDateTime orderDate = LocalDateTime.now().withNano(0);
+        return new WorkloadTarget.NewOrder(nextOrderID.getAndIncrement(), clients.choose(random), couriers.choose(random), orderDate,
+            orderDate.plusMinutes(random.nextInt(20, 90)), 1 + random.nextInt(5),
+            STREETS[random.nextInt(STREETS.length)] + " " + random.nextInt(1, 200), meals);
+    }
+
+    private static long gap(SplittableRandom random, double meanGap) {
+        return meanGap == 0 ? 0 : (long) (-Math.log(1 - random.nextDouble()) * meanGap);
+    }
+
+    private static void parkUntil(long due) {
+        long wait;
+        while ((wait = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+}
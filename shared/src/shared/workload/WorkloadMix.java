@@ -0,0 +1,79 @@
+package shared.workload;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// Relative weights of the operations, written as "place=10,client=40,courier=20,rate=20,leaderboard=5,analytics=5".
+// Operations left out of a mix are not run.
+public class WorkloadMix {
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    public static final WorkloadMix DEFAULT = parse("place=10,client=40,courier=20,rate=20,leaderboard=5,analytics=5");
+
+    private final int[] cumulativeWeights = new int[OPERATIONS.length];
+    private final int totalWeight;
+
+    private WorkloadMix(Map<Operation, Integer> weights) {
+        int total = 0;
+        for (Operation operation : OPERATIONS) {
+            total += weights.getOrDefault(operation, 0);
+            cumulativeWeights[operation.ordinal()] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("A workload mix needs at least one operation with a positive weight.");
+        }
+        this.totalWeight = total;
+    }
+
+    public static WorkloadMix parse(String mix) throws IllegalArgumentException {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected operation=weight, got '" + entry + "'.");
+            }
+            Operation operation = null;
+            for (Operation candidate : OPERATIONS) {
+                if (candidate.getShortName().equals(parts[0].trim())) {
+                    operation = candidate;
+                }
+            }
+            if (operation == null) {
+                throw new IllegalArgumentException("Unknown operation '" + parts[0].trim() + "'.");
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("The weight of " + parts[0].trim() + " is negative.");
+            }
+            weights.put(operation, weight);
+        }
+        return new WorkloadMix(weights);
+    }
+
+    public Operation choose(SplittableRandom random) {
+        int point = random.nextInt(totalWeight);
+        for (Operation operation : OPERATIONS) {
+            if (point < cumulativeWeights[operation.ordinal()]) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException("The cumulative weights do not cover the total weight.");
+    }
+
+    public double share(Operation operation) {
+        int previous = operation.ordinal() == 0 ? 0 : cumulativeWeights[operation.ordinal() - 1];
+        return (double) (cumulativeWeights[operation.ordinal()] - previous) / totalWeight;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Operation operation : OPERATIONS) {
+            if (share(operation) > 0) {
+                builder.append(builder.isEmpty() ? "" : ",").append(operation.getShortName()).append('=').append(Math.round(share(operation) * 100));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package shared.workload;
+
+import java.io.PrintStream;
+
+// Throughput over time while the workload runs, then latency percentiles per operation, in milliseconds
+public class WorkloadPrinter {
+    private final PrintStream out;
+
+    public WorkloadPrinter(PrintStream out) {
+        this.out = out;
+    }
+
+    public void printSettings(WorkloadDriver.Settings settings) {
+        out.printf("Running %s for %d s after %d s of warm-up, %s, %d clients, Zipf exponent %.2f%n", settings.mix(),
+            settings.duration().toSeconds(), settings.warmup().toSeconds(),
+            settings.rate() > 0 ? String.format("%.0f ops/s open-loop", settings.rate()) : "closed-loop", settings.clients(), settings.zipfExponent());
+    }
+
+    public void printInterval(WorkloadDriver.Interval interval) {
+        LatencyHistogram.Snapshot latencies = interval.latencies();
+        out.printf("%6.1f s %9.0f ops/s  p50 %8.2f  p99 %8.2f  p99.9 %8.2f  max %8.2f ms  errors %d%n",
+            interval.elapsed().toMillis() / 1e3, interval.throughput(), millis(latencies, 50), millis(latencies, 99),
+            millis(latencies, 99.9), latencies.max() / 1e6, interval.errors());
+    }
+
+    public void printReport(WorkloadDriver.Report report) {
+        out.println();
+        out.printf("%-12s %9s %9s %8s %8s %8s %8s %8s %8s %8s%n", "operation", "count", "ops/s", "mean", "p50", "p90", "p99", "p99.9",
+            "max", "refused");
+        for (WorkloadDriver.Summary summary : report.operations()) {
+            LatencyHistogram.Snapshot latencies = summary.latencies();
+            out.printf("%-12s %9d %9.1f %8.2f %8.2f %8.2f %8.2f %8.2f %8.2f %8d%s%n", summary.operation().getShortName(), latencies.count(),
+                latencies.count() / (report.measured().toNanos() / 1e9), latencies.mean() / 1e6, millis(latencies, 50), millis(latencies, 90),
+                millis(latencies, 99), millis(latencies, 99.9), latencies.max() / 1e6, summary.refused(),
+                summary.errors() > 0 ? "  errors " + summary.errors() : "");
+        }
+        out.printf("Total %d operations, %.1f ops/s%n", report.operationCount(), report.throughput());
+        if (report.unstarted() > 0) {
+            out.printf("%d operations due before the end were never started, the target could not keep up with the rate%n", report.unstarted());
+        }
+        if (report.lastError() != null) {
+            out.println("Last error: " + report.lastError());
+        }
+    }
+
+    private static double millis(LatencyHistogram.Snapshot latencies, double percentile) {
+        return latencies.percentile(percentile) / 1e6;
+    }
+}
@@ -0,0 +1,36 @@
+package shared.workload;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// The operations the driver runs, implemented on top of a Model. Methods return false when the Model
+// refuses the request (a missing record, a version conflict) and throw when it fails.
+public interface WorkloadTarget {
+    record Keys(List<String> clientEmails, List<String> courierPhones, List<Long> orderIDs, long maxOrderID, long maxMealID) {
+    }
+
+    record NewMeal(long mealID, String name, int price, int weight, int servingSize) {
+    }
+
+    record NewOrder(long orderID, String clientEmail, String courierPhone, LocalDateTime orderDate, LocalDateTime deliveryDate,
+            int rating, String deliveryAddress, List<NewMeal> meals) {
+    }
+
+    Keys loadKeys() throws IllegalStateException;
+
+    // Clients the target serves at once without failing for lack of connections
+    int getMaxConcurrency();
+
+    boolean placeOrder(NewOrder order);
+
+    boolean lookupClient(String email);
+
+    boolean lookupCourier(String phone);
+
+    boolean rateOrder(long orderID, int rating);
+
+    boolean leaderboard(boolean couriers, int size);
+
+    boolean analytics(boolean couriers, LocalDate since, int minRating);
+}